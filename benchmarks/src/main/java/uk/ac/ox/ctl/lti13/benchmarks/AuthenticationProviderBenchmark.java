@@ -0,0 +1,56 @@
+package uk.ac.ox.ctl.lti13.benchmarks;
+
+import com.nimbusds.jose.JOSEException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.core.Authentication;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.authentication.OidcLaunchFlowAuthenticationProvider;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.authentication.OidcLaunchFlowToken;
+import uk.ac.ox.ctl.lti13.security.oauth2.core.endpoint.OIDCLaunchFlowExchange;
+import uk.ac.ox.ctl.lti13.security.oauth2.core.endpoint.OIDCLaunchFlowResponse;
+
+import java.security.KeyPair;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Step 3 of the launch, verifying the signature of the ID token and building the user. The platform's JWK Set is
+ * served from memory so this measures the library and not the network.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AuthenticationProviderBenchmark {
+
+    private OidcLaunchFlowAuthenticationProvider provider;
+    private OidcLaunchFlowToken token;
+
+    @Setup
+    public void setUp() throws JOSEException {
+        KeyPair keyPair = LaunchFixtures.generateKeyPair();
+        provider = new OidcLaunchFlowAuthenticationProvider();
+        provider.setRestOperations(LaunchFixtures.jwksRestOperations(keyPair));
+        String state = LaunchFixtures.randomState();
+        String nonce = LaunchFixtures.randomState();
+        OIDCLaunchFlowResponse response = OIDCLaunchFlowResponse.success(LaunchFixtures.idToken(keyPair, nonce))
+                .state(state)
+                .build();
+        token = new OidcLaunchFlowToken(LaunchFixtures.clientRegistration(),
+                new OIDCLaunchFlowExchange(LaunchFixtures.authorizationRequest(state, nonce), response));
+    }
+
+    @Benchmark
+    public Authentication authenticate() {
+        return provider.authenticate(token);
+    }
+}
@@ -0,0 +1,79 @@
+package uk.ac.ox.ctl.lti13.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.oauth2.client.registration.InMemoryClientRegistrationRepository;
+import org.springframework.security.oauth2.core.endpoint.OAuth2AuthorizationRequest;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.AuthorizationRequestCodec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Storing an authorization request in an external session, the {@link AuthorizationRequestCodec} compared with
+ * the Java serialization that a session store would otherwise use. The encoded sizes are printed during setup.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AuthorizationRequestCodecBenchmark {
+
+    private AuthorizationRequestCodec codec;
+    private OAuth2AuthorizationRequest authorizationRequest;
+    private byte[] encoded;
+    private byte[] serialized;
+
+    @Setup
+    public void setUp() throws IOException {
+        codec = new AuthorizationRequestCodec(new InMemoryClientRegistrationRepository(LaunchFixtures.clientRegistration()));
+        authorizationRequest = LaunchFixtures.authorizationRequest(LaunchFixtures.randomState(), LaunchFixtures.randomState());
+        encoded = codec.encode(authorizationRequest);
+        serialized = serialize(authorizationRequest);
+        System.out.printf("%nEncoded: %d bytes, serialized: %d bytes%n", encoded.length, serialized.length);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return codec.encode(authorizationRequest);
+    }
+
+    @Benchmark
+    public OAuth2AuthorizationRequest decode() {
+        return codec.decode(encoded);
+    }
+
+    @Benchmark
+    public byte[] javaSerialize() throws IOException {
+        return serialize(authorizationRequest);
+    }
+
+    @Benchmark
+    public Object javaDeserialize() throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized))) {
+            return in.readObject();
+        }
+    }
+
+    private static byte[] serialize(OAuth2AuthorizationRequest authorizationRequest) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(authorizationRequest);
+        }
+        return bytes.toByteArray();
+    }
+}
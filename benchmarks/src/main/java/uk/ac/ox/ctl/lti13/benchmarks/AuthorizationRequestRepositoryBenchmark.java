@@ -0,0 +1,80 @@
+package uk.ac.ox.ctl.lti13.benchmarks;
+
+import jakarta.servlet.http.Cookie;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockHttpSession;
+import org.springframework.security.oauth2.core.endpoint.OAuth2AuthorizationRequest;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.HttpSessionOAuth2AuthorizationRequestRepository;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.OptimisticAuthorizationRequestRepository;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.StateAuthorizationRequestRepository;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saving the authorization request in step 1 and loading and removing it again in step 3.
+ * <p>
+ * With {@code session} the browser has the working session cookie so only the session is used, with {@code state}
+ * the request is stored in both the session and the state cache as happens on a browser's first launch.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AuthorizationRequestRepositoryBenchmark {
+
+    @Param({"state", "session"})
+    public String mode;
+
+    private OptimisticAuthorizationRequestRepository repository;
+    private OAuth2AuthorizationRequest authorizationRequest;
+    private MockHttpServletRequest initiationRequest;
+    private MockHttpServletRequest loginRequest;
+
+    @Setup
+    public void setUp() {
+        repository = new OptimisticAuthorizationRequestRepository(
+                new HttpSessionOAuth2AuthorizationRequestRepository(),
+                new StateAuthorizationRequestRepository(Duration.ofMinutes(1)));
+        String state = LaunchFixtures.randomState();
+        authorizationRequest = LaunchFixtures.authorizationRequest(state, LaunchFixtures.randomState());
+        MockHttpSession session = new MockHttpSession();
+        initiationRequest = LaunchFixtures.initiationRequest();
+        initiationRequest.setSession(session);
+        loginRequest = LaunchFixtures.loginRequest(state, null);
+        loginRequest.setSession(session);
+        if ("session".equals(mode)) {
+            Cookie cookie = new Cookie("WORKING_COOKIES", "true");
+            initiationRequest.setCookies(cookie);
+            loginRequest.setCookies(cookie);
+        }
+        // So that load has something to find.
+        repository.saveAuthorizationRequest(authorizationRequest, initiationRequest, new MockHttpServletResponse());
+    }
+
+    @Benchmark
+    public OAuth2AuthorizationRequest load() {
+        return repository.loadAuthorizationRequest(loginRequest);
+    }
+
+    @Benchmark
+    public OAuth2AuthorizationRequest saveAndRemove() {
+        // The response is new each time as the working session cookie is added to it on remove.
+        repository.saveAuthorizationRequest(authorizationRequest, initiationRequest, new MockHttpServletResponse());
+        return repository.removeAuthorizationRequest(loginRequest, new MockHttpServletResponse());
+    }
+}
@@ -0,0 +1,45 @@
+package uk.ac.ox.ctl.lti13.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.security.oauth2.client.registration.InMemoryClientRegistrationRepository;
+import org.springframework.security.oauth2.core.endpoint.OAuth2AuthorizationRequest;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.OIDCInitiatingLoginRequestResolver;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Step 1 of the launch, turning the platform's login initiation request into an authorization request.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InitiationBenchmark {
+
+    private OIDCInitiatingLoginRequestResolver resolver;
+    private MockHttpServletRequest request;
+
+    @Setup
+    public void setUp() {
+        resolver = new OIDCInitiatingLoginRequestResolver(
+                new InMemoryClientRegistrationRepository(LaunchFixtures.clientRegistration()), "/lti/login_initiation");
+        request = LaunchFixtures.initiationRequest();
+    }
+
+    @Benchmark
+    public OAuth2AuthorizationRequest resolve() {
+        return resolver.resolve(request);
+    }
+}
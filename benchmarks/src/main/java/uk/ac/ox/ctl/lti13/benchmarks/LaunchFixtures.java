@@ -0,0 +1,190 @@
+package uk.ac.ox.ctl.lti13.benchmarks;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JOSEObjectType;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.KeyUse;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+import org.springframework.mock.http.client.MockClientHttpResponse;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.core.endpoint.OAuth2AuthorizationRequest;
+import org.springframework.security.oauth2.core.endpoint.OAuth2ParameterNames;
+import org.springframework.security.oauth2.core.oidc.OidcIdToken;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.NimbusJwtDecoder;
+import org.springframework.web.client.RestOperations;
+import org.springframework.web.client.RestTemplate;
+import uk.ac.ox.ctl.lti13.lti.Claims;
+import uk.ac.ox.ctl.lti13.lti.Role;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.LTIAuthorizationGrantType;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.StateAuthorizationRequestRepository;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * The registration, keys and requests that the benchmarks share, these look like a launch from a real platform.
+ */
+public final class LaunchFixtures {
+
+    public static final String PLATFORM = "https://platform.test";
+    public static final String CLIENT_ID = "test-id";
+    public static final String REGISTRATION_ID = "test";
+    public static final String REMOTE_ADDR = "192.0.2.1";
+    public static final String TARGET_LINK_URI = "https://tool.test/launch";
+
+    private LaunchFixtures() {
+    }
+
+    public static ClientRegistration clientRegistration() {
+        return ClientRegistration.withRegistrationId(REGISTRATION_ID)
+                .clientId(CLIENT_ID)
+                .authorizationGrantType(LTIAuthorizationGrantType.IMPLICIT)
+                .scope("openid")
+                .redirectUri("{baseUrl}/lti/login")
+                .authorizationUri(PLATFORM + "/auth/new")
+                .tokenUri(PLATFORM + "/access_tokens")
+                .jwkSetUri(PLATFORM + "/keys.json")
+                .issuerUri(PLATFORM)
+                .build();
+    }
+
+    /**
+     * @return A step 1 request from a platform that supports the LTI platform storage.
+     */
+    public static MockHttpServletRequest initiationRequest() {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/lti/login_initiation/" + REGISTRATION_ID);
+        request.setServletPath("/lti/login_initiation/" + REGISTRATION_ID);
+        request.setScheme("https");
+        request.setServerName("tool.test");
+        request.setServerPort(443);
+        request.setRemoteAddr(REMOTE_ADDR);
+        request.addParameter("iss", PLATFORM);
+        request.addParameter("login_hint", "d2b8a1a9-hint");
+        request.addParameter("target_link_uri", TARGET_LINK_URI);
+        request.addParameter("lti_message_hint", "eyJ0eXAiOiJKV1QiLCJhbGciOiJIUzI1NiJ9.message-hint");
+        request.addParameter("lti_storage_target", "_parent");
+        return request;
+    }
+
+    /**
+     * @return A step 3 request that returns the supplied state.
+     */
+    public static MockHttpServletRequest loginRequest(String state, String idToken) {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/lti/login");
+        request.setServletPath("/lti/login");
+        request.setRemoteAddr(REMOTE_ADDR);
+        request.addParameter(OAuth2ParameterNames.STATE, state);
+        if (idToken != null) {
+            request.addParameter("id_token", idToken);
+        }
+        return request;
+    }
+
+    public static OAuth2AuthorizationRequest authorizationRequest(String state, String nonce) {
+        return OAuth2AuthorizationRequest.authorizationCode()
+                .clientId(CLIENT_ID)
+                .authorizationUri(PLATFORM + "/auth/new")
+                .redirectUri("https://tool.test/lti/login")
+                .scopes(Set.of("openid"))
+                .state(state)
+                .additionalParameters(Map.of(
+                        OAuth2ParameterNames.REGISTRATION_ID, REGISTRATION_ID,
+                        OAuth2ParameterNames.RESPONSE_TYPE, "id_token",
+                        "login_hint", "d2b8a1a9-hint",
+                        "response_mode", "form_post",
+                        "nonce", nonce,
+                        "prompt", "none"
+                ))
+                .attributes(Map.of(StateAuthorizationRequestRepository.REMOTE_IP, REMOTE_ADDR))
+                .build();
+    }
+
+    public static KeyPair generateKeyPair() {
+        try {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(2048);
+            return generator.generateKeyPair();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return An ID token for a resource link launch that is valid for an hour, so it doesn't expire during a run.
+     */
+    public static String idToken(KeyPair keyPair, String nonce) throws JOSEException {
+        Instant now = Instant.now();
+        JWTClaimsSet claims = new JWTClaimsSet.Builder()
+                .issuer(PLATFORM)
+                .audience(CLIENT_ID)
+                .subject("a6d5c443-1f51-4783-ba1a-7686ffe3b54a")
+                .issueTime(Date.from(now))
+                .expirationTime(Date.from(now.plus(1, ChronoUnit.HOURS)))
+                .claim("nonce", nonce)
+                .claim("name", "Ms Jane Marie Doe")
+                .claim("email", "jane@platform.test")
+                .claim(Claims.LTI_VERSION, "1.3.0")
+                .claim(Claims.MESSAGE_TYPE, "LtiResourceLinkRequest")
+                .claim(Claims.LTI_DEPLOYMENT_ID, "07940580-b309-415e-a37c-914d387c1150")
+                .claim(Claims.TARGET_LINK_URI, TARGET_LINK_URI)
+                .claim(Claims.ROLES, List.of(Role.Context.INSTRUCTOR, Role.Institution.FACULTY))
+                .claim(Claims.RESOURCE_LINK, Map.of("id", "200d101f-2c14-434a-a0f3-57c2a42369fd", "title", "Introduction Assignment"))
+                .claim(Claims.CONTEXT, Map.of("id", "c1d887f0-a1a3-4bca-ae25-c375edcc131a", "label", "ECON 1010", "title", "Economics as a Social Science"))
+                .build();
+        SignedJWT jwt = new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.RS256).type(JOSEObjectType.JWT).keyID("platform-key").build(), claims);
+        jwt.sign(new RSASSASigner(keyPair.getPrivate()));
+        return jwt.serialize();
+    }
+
+    /**
+     * @return RestOperations that returns the public key as a JWK Set for every request, so no network is used.
+     */
+    public static RestOperations jwksRestOperations(KeyPair keyPair) {
+        RSAKey jwk = new RSAKey.Builder((RSAPublicKey) keyPair.getPublic())
+                .keyUse(KeyUse.SIGNATURE)
+                .algorithm(JWSAlgorithm.RS256)
+                .keyID("platform-key")
+                .build();
+        byte[] jwks = new JWKSet(jwk).toString().getBytes(StandardCharsets.UTF_8);
+        return new RestTemplate((uri, httpMethod) -> {
+            MockClientHttpRequest request = new MockClientHttpRequest(httpMethod, uri);
+            MockClientHttpResponse response = new MockClientHttpResponse(jwks, HttpStatus.OK);
+            response.getHeaders().set(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE);
+            request.setResponse(response);
+            return request;
+        });
+    }
+
+    /**
+     * @return The ID token decoded in the same way the authentication provider does it.
+     */
+    public static OidcIdToken decode(KeyPair keyPair, String idToken) {
+        Jwt jwt = NimbusJwtDecoder.withPublicKey((RSAPublicKey) keyPair.getPublic()).build().decode(idToken);
+        return new OidcIdToken(jwt.getTokenValue(), jwt.getIssuedAt(), jwt.getExpiresAt(), jwt.getClaims());
+    }
+
+    public static String randomState() {
+        return UUID.randomUUID().toString();
+    }
+}
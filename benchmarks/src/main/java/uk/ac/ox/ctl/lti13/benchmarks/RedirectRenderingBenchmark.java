@@ -0,0 +1,86 @@
+package uk.ac.ox.ctl.lti13.benchmarks;
+
+import com.nimbusds.jose.JOSEException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.oauth2.core.endpoint.OAuth2AuthorizationRequest;
+import org.springframework.security.oauth2.core.oidc.OidcIdToken;
+import org.springframework.security.oauth2.core.oidc.user.OidcUserAuthority;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.authentication.OidcAuthenticationToken;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.authentication.TargetLinkUriAuthenticationSuccessHandler;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.HttpSessionOAuth2AuthorizationRequestRepository;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.OptimisticAuthorizationRequestRepository;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.StateAuthorizationRedirectHandler;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.StateAuthorizationRequestRepository;
+import uk.ac.ox.ctl.lti13.security.oauth2.core.user.LtiOauth2User;
+
+import java.io.IOException;
+import java.security.KeyPair;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering the pages that check the state and nonce with the platform's storage, these are used instead of plain
+ * redirects when the browser doesn't have a working session.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RedirectRenderingBenchmark {
+
+    private StateAuthorizationRedirectHandler step1Handler;
+    private TargetLinkUriAuthenticationSuccessHandler step3Handler;
+    private OAuth2AuthorizationRequest authorizationRequest;
+    private OidcAuthenticationToken authentication;
+    private MockHttpServletRequest initiationRequest;
+    private MockHttpServletRequest loginRequest;
+
+    @Setup
+    public void setUp() throws JOSEException {
+        step1Handler = new StateAuthorizationRedirectHandler();
+        step3Handler = new TargetLinkUriAuthenticationSuccessHandler(new OptimisticAuthorizationRequestRepository(
+                new HttpSessionOAuth2AuthorizationRequestRepository(),
+                new StateAuthorizationRequestRepository(Duration.ofMinutes(1))));
+        String state = LaunchFixtures.randomState();
+        String nonce = LaunchFixtures.randomState();
+        authorizationRequest = LaunchFixtures.authorizationRequest(state, nonce);
+
+        KeyPair keyPair = LaunchFixtures.generateKeyPair();
+        OidcIdToken idToken = LaunchFixtures.decode(keyPair, LaunchFixtures.idToken(keyPair, nonce));
+        List<GrantedAuthority> authorities = List.of(new OidcUserAuthority(idToken, null));
+        authentication = new OidcAuthenticationToken(new LtiOauth2User(authorities, idToken), authorities,
+                LaunchFixtures.REGISTRATION_ID, state);
+
+        initiationRequest = LaunchFixtures.initiationRequest();
+        loginRequest = LaunchFixtures.loginRequest(state, idToken.getTokenValue());
+    }
+
+    @Benchmark
+    public MockHttpServletResponse step1() throws IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        step1Handler.sendRedirect(initiationRequest, response, authorizationRequest);
+        return response;
+    }
+
+    @Benchmark
+    public MockHttpServletResponse step3() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        step3Handler.onAuthenticationSuccess(loginRequest, response, authentication);
+        return response;
+    }
+}
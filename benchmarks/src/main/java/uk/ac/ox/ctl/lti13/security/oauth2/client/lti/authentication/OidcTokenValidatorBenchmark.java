@@ -0,0 +1,47 @@
+package uk.ac.ox.ctl.lti13.security.oauth2.client.lti.authentication;
+
+import com.nimbusds.jose.JOSEException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.core.oidc.OidcIdToken;
+import uk.ac.ox.ctl.lti13.benchmarks.LaunchFixtures;
+
+import java.security.KeyPair;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The claim checks on the ID token, this is in the same package as {@link OidcTokenValidator} as it isn't public.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OidcTokenValidatorBenchmark {
+
+    private OidcIdToken idToken;
+    private ClientRegistration clientRegistration;
+
+    @Setup
+    public void setUp() throws JOSEException {
+        KeyPair keyPair = LaunchFixtures.generateKeyPair();
+        idToken = LaunchFixtures.decode(keyPair, LaunchFixtures.idToken(keyPair, LaunchFixtures.randomState()));
+        clientRegistration = LaunchFixtures.clientRegistration();
+    }
+
+    @Benchmark
+    public OidcIdToken validate() {
+        OidcTokenValidator.validateIdToken(idToken, clientRegistration);
+        return idToken;
+    }
+}
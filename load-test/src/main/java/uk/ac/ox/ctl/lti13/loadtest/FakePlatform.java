@@ -0,0 +1,331 @@
+package uk.ac.ox.ctl.lti13.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JOSEObjectType;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSSigner;
+import com.nimbusds.jose.JWSVerifier;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.crypto.RSASSAVerifier;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.KeyUse;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.springframework.web.util.HtmlUtils;
+import org.springframework.web.util.UriComponentsBuilder;
+import uk.ac.ox.ctl.lti13.lti.Claims;
+import uk.ac.ox.ctl.lti13.lti.Role;
+import uk.ac.ox.ctl.lti13.nrps.LtiScopes;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.interfaces.RSAPublicKey;
+import java.text.ParseException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An LTI 1.3 platform that just does enough to launch a tool. It publishes its keys, answers authentication requests
+ * with a page that auto-posts a signed ID token back to the tool, issues access tokens for client assertions and
+ * serves course members in pages.
+ * <p>
+ * The platform doesn't keep any state between requests (access tokens aren't remembered) so that it doesn't add to
+ * the heap use of the tool it's testing.
+ */
+public class FakePlatform implements AutoCloseable {
+
+    static final String KEY_ID = "platform-key";
+    static final String DEPLOYMENT_ID = "load-test-deployment";
+    static final String MEMBERSHIP_CONTAINER = "application/vnd.ims.lti-nrps.v2.membershipcontainer+json";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final JWSSigner signer;
+    private final byte[] jwks;
+    private final JWSVerifier toolVerifier;
+    private final int members;
+    private final int pageSize;
+    private final boolean nrps;
+
+    private final LongAdder jwksRequests = new LongAdder();
+    private final LongAdder authRequests = new LongAdder();
+    private final LongAdder tokenRequests = new LongAdder();
+    private final LongAdder nrpsRequests = new LongAdder();
+
+    private volatile String targetLinkUri;
+    private volatile String redirectUri;
+
+    /**
+     * @param platformKey The key the platform signs ID tokens with.
+     * @param toolKey     The public key of the tool, used to check client assertions.
+     * @param options     Controls the number of threads and the size of courses.
+     */
+    public FakePlatform(KeyPair platformKey, RSAPublicKey toolKey, LoadTestOptions options) throws IOException {
+        this.signer = new RSASSASigner(platformKey.getPrivate());
+        RSAKey jwk = new RSAKey.Builder((RSAPublicKey) platformKey.getPublic())
+                .keyUse(KeyUse.SIGNATURE)
+                .algorithm(JWSAlgorithm.RS256)
+                .keyID(KEY_ID)
+                .build();
+        this.jwks = new JWKSet(jwk).toString().getBytes(StandardCharsets.UTF_8);
+        this.toolVerifier = new RSASSAVerifier(toolKey);
+        this.nrps = options.nrps;
+        this.members = options.members;
+        this.pageSize = options.pageSize;
+
+        executor = Executors.newFixedThreadPool(options.platformThreads, runnable -> {
+            Thread thread = new Thread(runnable, "fake-platform");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+        server.setExecutor(executor);
+        server.createContext("/jwks.json", this::handleJwks);
+        server.createContext("/auth", this::handleAuth);
+        server.createContext("/token", this::handleToken);
+        server.createContext("/nrps/", this::handleNrps);
+    }
+
+    public void start(String toolUrl) {
+        this.targetLinkUri = toolUrl + "/launch";
+        this.redirectUri = toolUrl + "/lti/login";
+        server.start();
+    }
+
+    public String getUrl() {
+        InetSocketAddress address = server.getAddress();
+        return "http://" + address.getHostString() + ":" + address.getPort();
+    }
+
+    public String getTargetLinkUri() {
+        return targetLinkUri;
+    }
+
+    public long getJwksRequests() {
+        return jwksRequests.sum();
+    }
+
+    public long getAuthRequests() {
+        return authRequests.sum();
+    }
+
+    public long getTokenRequests() {
+        return tokenRequests.sum();
+    }
+
+    public long getNrpsRequests() {
+        return nrpsRequests.sum();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handleJwks(HttpExchange exchange) throws IOException {
+        jwksRequests.increment();
+        send(exchange, 200, "application/json", jwks);
+    }
+
+    /**
+     * Step 2 of the launch, we don't have any users to log in so we just sign the ID token and send the browser
+     * back to the tool.
+     */
+    private void handleAuth(HttpExchange exchange) throws IOException {
+        authRequests.increment();
+        Map<String, String> params = parse(exchange.getRequestURI().getRawQuery());
+        for (String required : List.of("client_id", "redirect_uri", "state", "nonce", "login_hint")) {
+            if (params.get(required) == null) {
+                sendError(exchange, 400, "Missing parameter: " + required);
+                return;
+            }
+        }
+        if (!"id_token".equals(params.get("response_type")) || !"form_post".equals(params.get("response_mode"))) {
+            sendError(exchange, 400, "Only response_type=id_token and response_mode=form_post are supported");
+            return;
+        }
+        if (!redirectUri.equals(params.get("redirect_uri"))) {
+            sendError(exchange, 400, "Unregistered redirect_uri: " + params.get("redirect_uri"));
+            return;
+        }
+        String idToken;
+        try {
+            idToken = idToken(params);
+        } catch (JOSEException e) {
+            sendError(exchange, 500, e.getMessage());
+            return;
+        }
+        String html = "<!doctype html><html><body onload=\"document.forms[0].submit()\">" +
+                "<form method=\"post\" action=\"" + HtmlUtils.htmlEscape(redirectUri) + "\">" +
+                "<input type=\"hidden\" name=\"id_token\" value=\"" + HtmlUtils.htmlEscape(idToken) + "\">" +
+                "<input type=\"hidden\" name=\"state\" value=\"" + HtmlUtils.htmlEscape(params.get("state")) + "\">" +
+                "</form></body></html>";
+        send(exchange, 200, "text/html;charset=UTF-8", html.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String idToken(Map<String, String> params) throws JOSEException {
+        Instant now = Instant.now();
+        // The message hint is the ID of the course being launched from.
+        String contextId = params.getOrDefault("lti_message_hint", "context");
+        JWTClaimsSet.Builder claims = new JWTClaimsSet.Builder()
+                .issuer(getUrl())
+                .audience(params.get("client_id"))
+                .subject(params.get("login_hint"))
+                .issueTime(Date.from(now))
+                .expirationTime(Date.from(now.plusSeconds(300)))
+                .claim("nonce", params.get("nonce"))
+                .claim("name", "User " + params.get("login_hint"))
+                .claim(Claims.LTI_VERSION, "1.3.0")
+                .claim(Claims.MESSAGE_TYPE, "LtiResourceLinkRequest")
+                .claim(Claims.LTI_DEPLOYMENT_ID, DEPLOYMENT_ID)
+                .claim(Claims.TARGET_LINK_URI, targetLinkUri)
+                .claim(Claims.ROLES, List.of(Role.Context.LEARNER))
+                .claim(Claims.RESOURCE_LINK, Map.of("id", contextId + "-link"))
+                .claim(Claims.CONTEXT, Map.of("id", contextId, "title", "Course " + contextId));
+        if (nrps) {
+            claims.claim(LtiScopes.LTI_NRPS_CLAIM, Map.of(
+                    "context_memberships_url", getUrl() + "/nrps/" + contextId,
+                    "service_versions", List.of("2.0")));
+        }
+        JWSHeader header = new JWSHeader.Builder(JWSAlgorithm.RS256).type(JOSEObjectType.JWT).keyID(KEY_ID).build();
+        SignedJWT jwt = new SignedJWT(header, claims.build());
+        jwt.sign(signer);
+        return jwt.serialize();
+    }
+
+    /**
+     * The client credentials grant, the client assertion must have been signed by the tool's key.
+     */
+    private void handleToken(HttpExchange exchange) throws IOException {
+        tokenRequests.increment();
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            sendError(exchange, 405, "Token requests must be POSTed");
+            return;
+        }
+        Map<String, String> params;
+        try (InputStream body = exchange.getRequestBody()) {
+            params = parse(new String(body.readAllBytes(), StandardCharsets.UTF_8));
+        }
+        if (!"client_credentials".equals(params.get("grant_type"))) {
+            sendJson(exchange, 400, Map.of("error", "unsupported_grant_type"));
+            return;
+        }
+        String assertion = params.get("client_assertion");
+        if (assertion == null) {
+            sendJson(exchange, 400, Map.of("error", "invalid_client"));
+            return;
+        }
+        try {
+            SignedJWT jwt = SignedJWT.parse(assertion);
+            JWTClaimsSet claims = jwt.getJWTClaimsSet();
+            if (!jwt.verify(toolVerifier)
+                    || !claims.getAudience().contains(getUrl() + "/token")
+                    || claims.getExpirationTime() == null
+                    || claims.getExpirationTime().toInstant().isBefore(Instant.now())) {
+                sendJson(exchange, 401, Map.of("error", "invalid_client"));
+                return;
+            }
+        } catch (ParseException | JOSEException e) {
+            sendJson(exchange, 400, Map.of("error", "invalid_client"));
+            return;
+        }
+        Map<String, Object> token = new LinkedHashMap<>();
+        token.put("access_token", UUID.randomUUID().toString());
+        token.put("token_type", "Bearer");
+        token.put("expires_in", 3600);
+        token.put("scope", params.getOrDefault("scope", ""));
+        sendJson(exchange, 200, token);
+    }
+
+    /**
+     * The names and roles service, members are generated from their position in the course so every course is the
+     * same size. Pages are linked with a {@code Link} header as described in the specification.
+     */
+    private void handleNrps(HttpExchange exchange) throws IOException {
+        nrpsRequests.increment();
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        if (authorization == null || !authorization.startsWith("Bearer ")) {
+            sendError(exchange, 401, "Missing access token");
+            return;
+        }
+        URI uri = exchange.getRequestURI();
+        String contextId = uri.getPath().substring("/nrps/".length());
+        String pageParam = parse(uri.getRawQuery()).get("page");
+        int page = pageParam != null ? Integer.parseInt(pageParam) : 0;
+        int from = page * pageSize;
+        int to = Math.min(members, from + pageSize);
+
+        List<Map<String, Object>> pageMembers = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            pageMembers.add(Map.of(
+                    "status", "Active",
+                    "user_id", "user-" + i,
+                    "name", "User " + i,
+                    "email", "user-" + i + "@platform.test",
+                    "roles", List.of(i == 0 ? Role.Context.INSTRUCTOR : Role.Context.LEARNER)));
+        }
+        String url = getUrl() + "/nrps/" + contextId;
+        Map<String, Object> container = new LinkedHashMap<>();
+        container.put("id", url);
+        container.put("context", Map.of("id", contextId, "title", "Course " + contextId));
+        container.put("members", pageMembers);
+        if (to < members) {
+            String next = UriComponentsBuilder.fromHttpUrl(url).queryParam("page", page + 1).toUriString();
+            exchange.getResponseHeaders().add("Link", "<" + next + ">; rel=\"next\"");
+        }
+        send(exchange, 200, MEMBERSHIP_CONTAINER, objectMapper.writeValueAsBytes(container));
+    }
+
+    private void sendJson(HttpExchange exchange, int status, Map<String, ?> body) throws IOException {
+        send(exchange, status, "application/json", objectMapper.writeValueAsBytes(body));
+    }
+
+    private void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        send(exchange, status, "text/plain;charset=UTF-8", message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static Map<String, String> parse(String encoded) {
+        Map<String, String> params = new HashMap<>();
+        if (encoded == null || encoded.isEmpty()) {
+            return params;
+        }
+        for (String pair : encoded.split("&")) {
+            int equals = pair.indexOf('=');
+            String name = equals < 0 ? pair : pair.substring(0, equals);
+            String value = equals < 0 ? "" : pair.substring(equals + 1);
+            params.putIfAbsent(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+}
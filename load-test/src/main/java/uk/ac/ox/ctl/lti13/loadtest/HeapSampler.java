@@ -0,0 +1,95 @@
+package uk.ac.ox.ctl.lti13.loadtest;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Samples the heap while the launches are running. Everything runs in one JVM so this includes the driver and the
+ * fake platform, but neither of those keep anything between requests so growth is down to the tool.
+ */
+public class HeapSampler implements AutoCloseable {
+
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "heap-sampler");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicLong peakUsed = new AtomicLong();
+    private long startGcCount;
+    private long startGcMillis;
+    private long gcCount;
+    private long gcMillis;
+
+    public void start() {
+        startGcCount = totalGcCount();
+        startGcMillis = totalGcMillis();
+        executor.scheduleAtFixedRate(this::sample, 0, 50, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops sampling and records the garbage collections since {@link #start()}.
+     */
+    public void stop() {
+        executor.shutdownNow();
+        sample();
+        gcCount = totalGcCount() - startGcCount;
+        gcMillis = totalGcMillis() - startGcMillis;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    public long getPeakUsed() {
+        return peakUsed.get();
+    }
+
+    public long getMax() {
+        return memory.getHeapMemoryUsage().getMax();
+    }
+
+    public long getGcCount() {
+        return gcCount;
+    }
+
+    public long getGcMillis() {
+        return gcMillis;
+    }
+
+    /**
+     * @return The heap used after asking for a full collection, this is roughly what the tool is holding on to
+     * (sessions and stored authorization requests).
+     */
+    public long getRetained() {
+        System.gc();
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    private void sample() {
+        long used = memory.getHeapMemoryUsage().getUsed();
+        peakUsed.accumulateAndGet(used, Math::max);
+    }
+
+    private static long totalGcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long totalGcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return millis;
+    }
+}
@@ -0,0 +1,207 @@
+package uk.ac.ox.ctl.lti13.loadtest;
+
+import org.springframework.web.util.HtmlUtils;
+import uk.ac.ox.ctl.lti13.loadtest.LaunchStats.Step;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Acts as lots of browsers doing launches at the same time. The requests are made asynchronously so that thousands
+ * of launches can be in progress without needing a thread for each one.
+ */
+public class LaunchDriver {
+
+    private static final Pattern FORM_ACTION = Pattern.compile("<form method=\"post\" action=\"([^\"]*)\">");
+    private static final Pattern HIDDEN_INPUT = Pattern.compile("<input type=\"hidden\" name=\"([^\"]*)\" value=\"([^\"]*)\">");
+
+    private final HttpClient client;
+    private final String toolUrl;
+    private final String platformUrl;
+    private final String targetLinkUri;
+    private final LoadTestOptions options;
+    private final AtomicLong launchCount = new AtomicLong();
+
+    public LaunchDriver(String toolUrl, FakePlatform platform, LoadTestOptions options) {
+        this.toolUrl = toolUrl;
+        this.platformUrl = platform.getUrl();
+        this.targetLinkUri = platform.getTargetLinkUri();
+        this.options = options;
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                // We follow the redirects ourselves so that each step is timed separately.
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .connectTimeout(options.requestTimeout)
+                .build();
+    }
+
+    /**
+     * Runs launches until the requested number have completed, keeping the configured number in progress.
+     */
+    public void run(int launches, LaunchStats stats) throws InterruptedException {
+        Semaphore inProgress = new Semaphore(options.concurrency);
+        CountDownLatch completed = new CountDownLatch(launches);
+        Queue<Browser> browsers = new ConcurrentLinkedQueue<>();
+        for (int i = 0; i < launches; i++) {
+            inProgress.acquire();
+            Browser pooled = options.freshBrowsers ? null : browsers.poll();
+            Browser browser = pooled != null ? pooled : new Browser();
+            long[] stepNanos = new long[Step.values().length];
+            launch(browser, stepNanos).whenComplete((ignored, failure) -> {
+                if (failure == null) {
+                    stats.success(stepNanos);
+                } else {
+                    stats.failure(reason(failure));
+                }
+                if (!options.freshBrowsers) {
+                    browsers.offer(browser);
+                }
+                inProgress.release();
+                completed.countDown();
+            });
+        }
+        completed.await();
+    }
+
+    private CompletableFuture<Void> launch(Browser browser, long[] stepNanos) {
+        long launch = launchCount.getAndIncrement();
+        int registration = (int) (launch % options.registrations);
+        Map<String, String> initiation = new LinkedHashMap<>();
+        initiation.put("iss", platformUrl);
+        initiation.put("login_hint", "user-" + launch);
+        initiation.put("target_link_uri", targetLinkUri);
+        // The fake platform uses this as the course ID.
+        initiation.put("lti_message_hint", "context-" + (launch % 100));
+        initiation.put("client_id", LoadTest.clientId(registration));
+        HttpRequest.Builder initiationRequest = post(toolUrl + "/lti/login_initiation/" + LoadTest.registrationId(registration), initiation);
+
+        return step(Step.INITIATION, browser, initiationRequest, 302, stepNanos)
+                .thenCompose(response -> step(Step.AUTHORIZATION, browser,
+                        HttpRequest.newBuilder(location(Step.INITIATION, response)), 200, stepNanos))
+                .thenCompose(response -> {
+                    Matcher action = FORM_ACTION.matcher(response.body());
+                    if (!action.find()) {
+                        throw new LaunchException(Step.AUTHORIZATION, "no form in response");
+                    }
+                    Map<String, String> fields = new LinkedHashMap<>();
+                    Matcher input = HIDDEN_INPUT.matcher(response.body());
+                    while (input.find()) {
+                        fields.put(HtmlUtils.htmlUnescape(input.group(1)), HtmlUtils.htmlUnescape(input.group(2)));
+                    }
+                    return step(Step.LOGIN, browser, post(HtmlUtils.htmlUnescape(action.group(1)), fields), 302, stepNanos);
+                })
+                .thenCompose(response -> {
+                    URI target = location(Step.LOGIN, response);
+                    if (!target.toString().equals(targetLinkUri)) {
+                        throw new LaunchException(Step.LOGIN, "redirected to " + target.getPath());
+                    }
+                    return step(Step.TARGET, browser, HttpRequest.newBuilder(target), 200, stepNanos);
+                })
+                .thenApply(response -> null);
+    }
+
+    private CompletableFuture<HttpResponse<String>> step(Step step, Browser browser, HttpRequest.Builder builder,
+                                                         int expectedStatus, long[] stepNanos) {
+        browser.addCookies(builder);
+        HttpRequest request = builder.timeout(options.requestTimeout).build();
+        long start = System.nanoTime();
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                .handle((response, failure) -> {
+                    if (failure != null) {
+                        Throwable cause = unwrap(failure);
+                        throw new LaunchException(step, cause.getClass().getSimpleName());
+                    }
+                    stepNanos[step.ordinal()] = System.nanoTime() - start;
+                    browser.storeCookies(response);
+                    if (response.statusCode() != expectedStatus) {
+                        throw new LaunchException(step, "HTTP " + response.statusCode());
+                    }
+                    return response;
+                });
+    }
+
+    private static HttpRequest.Builder post(String url, Map<String, String> form) {
+        String body = form.entrySet().stream()
+                .map(entry -> URLEncoder.encode(entry.getKey(), StandardCharsets.UTF_8) + "=" +
+                        URLEncoder.encode(entry.getValue(), StandardCharsets.UTF_8))
+                .collect(Collectors.joining("&"));
+        return HttpRequest.newBuilder(URI.create(url))
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(body));
+    }
+
+    private static URI location(Step step, HttpResponse<?> response) {
+        return response.headers().firstValue("Location")
+                .map(URI::create)
+                .orElseThrow(() -> new LaunchException(step, "redirect without location"));
+    }
+
+    private static String reason(Throwable failure) {
+        Throwable cause = unwrap(failure);
+        if (cause instanceof LaunchException launchException) {
+            return launchException.step.name().toLowerCase() + ": " + launchException.getMessage();
+        }
+        return cause.toString();
+    }
+
+    private static Throwable unwrap(Throwable failure) {
+        Throwable cause = failure;
+        while (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+
+    /**
+     * Just enough of a cookie jar to keep the session, the launches all go to one host so the domain and path of
+     * the cookies are ignored.
+     */
+    private static final class Browser {
+        private final Map<String, String> cookies = new ConcurrentHashMap<>();
+
+        private void addCookies(HttpRequest.Builder builder) {
+            if (!cookies.isEmpty()) {
+                builder.header("Cookie", cookies.entrySet().stream()
+                        .map(entry -> entry.getKey() + "=" + entry.getValue())
+                        .collect(Collectors.joining("; ")));
+            }
+        }
+
+        private void storeCookies(HttpResponse<?> response) {
+            for (String setCookie : response.headers().allValues("Set-Cookie")) {
+                int end = setCookie.indexOf(';');
+                String pair = end < 0 ? setCookie : setCookie.substring(0, end);
+                int equals = pair.indexOf('=');
+                if (equals > 0) {
+                    cookies.put(pair.substring(0, equals).trim(), pair.substring(equals + 1).trim());
+                }
+            }
+        }
+    }
+
+    private static final class LaunchException extends RuntimeException {
+        private final Step step;
+
+        private LaunchException(Step step, String message) {
+            super(message, null, false, false);
+            this.step = step;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package uk.ac.ox.ctl.lti13.loadtest;
+
+import com.nimbusds.jose.JOSEException;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.RequestEntity;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.client.registration.ClientRegistrationRepository;
+import org.springframework.security.oauth2.core.endpoint.OAuth2AccessTokenResponse;
+import org.springframework.web.client.RestTemplate;
+import uk.ac.ox.ctl.lti13.TokenRetriever;
+import uk.ac.ox.ctl.lti13.nrps.LtiScopes;
+import uk.ac.ox.ctl.lti13.nrps.NRPSResponse;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.authentication.OidcAuthenticationToken;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The target link of the tool, it shows who launched it and optionally how many members the course has.
+ */
+public class LaunchServlet extends HttpServlet {
+
+    private static final Pattern NEXT_LINK = Pattern.compile("<([^>]*)>\\s*;\\s*rel=\"next\"");
+    private static final MediaType MEMBERSHIP_CONTAINER = MediaType.parseMediaType(FakePlatform.MEMBERSHIP_CONTAINER);
+
+    private final ClientRegistrationRepository clientRegistrationRepository;
+    private final TokenRetriever tokenRetriever;
+    private final RestTemplate restTemplate = new RestTemplate();
+
+    /**
+     * @param tokenRetriever If not null the course members are fetched on every launch.
+     */
+    public LaunchServlet(ClientRegistrationRepository clientRegistrationRepository, TokenRetriever tokenRetriever) {
+        this.clientRegistrationRepository = clientRegistrationRepository;
+        this.tokenRetriever = tokenRetriever;
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (!(authentication instanceof OidcAuthenticationToken token)) {
+            response.sendError(HttpServletResponse.SC_UNAUTHORIZED);
+            return;
+        }
+        StringBuilder body = new StringBuilder("Launched by ").append(token.getPrincipal().getAttribute("name"));
+        if (tokenRetriever != null) {
+            try {
+                body.append(", course has ").append(countMembers(token)).append(" members");
+            } catch (JOSEException e) {
+                throw new IllegalStateException("Failed to sign client assertion", e);
+            }
+        }
+        response.setContentType("text/plain;charset=UTF-8");
+        response.getWriter().append(body);
+    }
+
+    private int countMembers(OidcAuthenticationToken token) throws JOSEException {
+        Map<String, Object> claim = token.getPrincipal().getAttribute(LtiScopes.LTI_NRPS_CLAIM);
+        if (claim == null) {
+            return 0;
+        }
+        ClientRegistration clientRegistration = clientRegistrationRepository.findByRegistrationId(token.getAuthorizedClientRegistrationId());
+        OAuth2AccessTokenResponse tokenResponse = tokenRetriever.getToken(clientRegistration, LtiScopes.LTI_NRPS_SCOPE);
+        String accessToken = tokenResponse.getAccessToken().getTokenValue();
+
+        int count = 0;
+        String url = (String) claim.get("context_memberships_url");
+        while (url != null) {
+            RequestEntity<Void> request = RequestEntity.get(URI.create(url))
+                    .accept(MEMBERSHIP_CONTAINER)
+                    .headers(headers -> headers.setBearerAuth(accessToken))
+                    .build();
+            ResponseEntity<NRPSResponse> page = restTemplate.exchange(request, NRPSResponse.class);
+            if (page.getBody() != null && page.getBody().getMembers() != null) {
+                count += page.getBody().getMembers().size();
+            }
+            url = nextLink(page.getHeaders().get(HttpHeaders.LINK));
+        }
+        return count;
+    }
+
+    private static String nextLink(List<String> links) {
+        if (links != null) {
+            for (String link : links) {
+                Matcher matcher = NEXT_LINK.matcher(link);
+                if (matcher.find()) {
+                    return matcher.group(1);
+                }
+            }
+        }
+        return null;
+    }
+}
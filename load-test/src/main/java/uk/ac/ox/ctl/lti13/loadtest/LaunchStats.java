@@ -0,0 +1,123 @@
+package uk.ac.ox.ctl.lti13.loadtest;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects the latency of each step of the successful launches and the reasons for the failed ones.
+ */
+public class LaunchStats {
+
+    /**
+     * The steps of a launch as seen by the browser.
+     */
+    public enum Step {
+        // Step 1, the platform sends the browser to the tool which redirects to the platform.
+        INITIATION,
+        // Step 2, the platform returns a page which posts the ID token to the tool.
+        AUTHORIZATION,
+        // Step 3, the tool checks the ID token and redirects to the target link.
+        LOGIN,
+        // The tool's page, this includes the NRPS calls if they are enabled.
+        TARGET,
+    }
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+    private static final String[] PERCENTILE_NAMES = {"p50", "p90", "p99", "p99.9"};
+
+    private final long[][] latencies;
+    private final long[] totals;
+    private final AtomicInteger successes = new AtomicInteger();
+    private final LongAdder failures = new LongAdder();
+    private final ConcurrentMap<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+    public LaunchStats(int launches) {
+        latencies = new long[Step.values().length][launches];
+        totals = new long[launches];
+    }
+
+    /**
+     * @param stepNanos The time each step took, indexed by {@link Step#ordinal()}.
+     */
+    void success(long[] stepNanos) {
+        int slot = successes.getAndIncrement();
+        long total = 0;
+        for (int step = 0; step < stepNanos.length; step++) {
+            latencies[step][slot] = stepNanos[step];
+            total += stepNanos[step];
+        }
+        totals[slot] = total;
+    }
+
+    void failure(String reason) {
+        failures.increment();
+        errors.computeIfAbsent(reason, key -> new LongAdder()).increment();
+    }
+
+    public int getSuccesses() {
+        return successes.get();
+    }
+
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    public double getErrorRate() {
+        long launches = getSuccesses() + getFailures();
+        return launches == 0 ? 0 : (double) getFailures() / launches;
+    }
+
+    /**
+     * @return The count of each failure reason, sorted by reason.
+     */
+    public Map<String, Long> getErrors() {
+        Map<String, Long> counts = new TreeMap<>();
+        errors.forEach((reason, count) -> counts.put(reason, count.sum()));
+        return counts;
+    }
+
+    /**
+     * Formats a table of latency percentiles in milliseconds, this must only be called once all launches are done.
+     */
+    public String formatLatencies() {
+        StringBuilder table = new StringBuilder(String.format("%-14s", "latency (ms)"));
+        for (String name : PERCENTILE_NAMES) {
+            table.append(String.format("%10s", name));
+        }
+        table.append(String.format("%10s%n", "max"));
+        for (Step step : Step.values()) {
+            appendRow(table, step.name().toLowerCase(), latencies[step.ordinal()]);
+        }
+        appendRow(table, "launch", totals);
+        return table.toString();
+    }
+
+    private void appendRow(StringBuilder table, String name, long[] values) {
+        int count = successes.get();
+        long[] sorted = Arrays.copyOf(values, count);
+        Arrays.sort(sorted);
+        table.append(String.format("%-14s", name));
+        for (double percentile : PERCENTILES) {
+            table.append(String.format("%10.2f", millis(percentile(sorted, percentile))));
+        }
+        table.append(String.format("%10.2f%n", millis(count == 0 ? 0 : sorted[count - 1])));
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        // Nearest rank.
+        int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+}
@@ -0,0 +1,154 @@
+package uk.ac.ox.ctl.lti13.loadtest;
+
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.client.registration.ClientRegistrationRepository;
+import org.springframework.security.oauth2.client.registration.InMemoryClientRegistrationRepository;
+import uk.ac.ox.ctl.lti13.SingleKeyPairService;
+import uk.ac.ox.ctl.lti13.TokenRetriever;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.LTIAuthorizationGrantType;
+
+import java.io.PrintStream;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs full LTI launches (step 1, step 3 and the target link) against a tool configured with
+ * {@link uk.ac.ox.ctl.lti13.Lti13Configurer} and reports the latency, error rate and heap use. The platform, tool
+ * and browsers all run in this JVM on the loopback interface so it doesn't need any network access.
+ * <p>
+ * The exit status is non-zero if the error rate or throughput gates aren't met so it can be used in a release build.
+ */
+public class LoadTest {
+
+    private final LoadTestOptions options;
+    private final PrintStream out;
+
+    public LoadTest(LoadTestOptions options, PrintStream out) {
+        this.options = options;
+        this.out = out;
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadTestOptions options;
+        try {
+            options = LoadTestOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.print(LoadTestOptions.usage());
+            System.exit(2);
+            return;
+        }
+        if (options.help) {
+            System.out.print(LoadTestOptions.usage());
+            return;
+        }
+        boolean passed = new LoadTest(options, System.out).run();
+        System.exit(passed ? 0 : 1);
+    }
+
+    static String registrationId(int index) {
+        return "platform-" + index;
+    }
+
+    static String clientId(int index) {
+        return "client-" + index;
+    }
+
+    /**
+     * @return true if the run met the error rate and throughput gates.
+     */
+    public boolean run() throws Exception {
+        KeyPair platformKey = generateKeyPair();
+        KeyPair toolKey = generateKeyPair();
+        try (FakePlatform platform = new FakePlatform(platformKey, (RSAPublicKey) toolKey.getPublic(), options)) {
+            ClientRegistrationRepository clientRegistrationRepository = clientRegistrations(platform.getUrl());
+            TokenRetriever tokenRetriever = options.nrps ? new TokenRetriever(new SingleKeyPairService(toolKey, "tool-key")) : null;
+            try (ToolServer tool = new ToolServer(clientRegistrationRepository, tokenRetriever, options)) {
+                tool.start();
+                platform.start(tool.getUrl());
+                out.println("Platform: " + platform.getUrl() + ", tool: " + tool.getUrl());
+                out.println("Options: " + options);
+
+                LaunchDriver driver = new LaunchDriver(tool.getUrl(), platform, options);
+                if (options.warmup > 0) {
+                    out.println("Warming up with " + options.warmup + " launches...");
+                    driver.run(options.warmup, new LaunchStats(options.warmup));
+                }
+                out.println("Running " + options.launches + " launches...");
+                LaunchStats stats = new LaunchStats(options.launches);
+                long jwksBefore = platform.getJwksRequests();
+                long tokensBefore = platform.getTokenRequests();
+                long nrpsBefore = platform.getNrpsRequests();
+                try (HeapSampler heap = new HeapSampler()) {
+                    heap.start();
+                    long start = System.nanoTime();
+                    driver.run(options.launches, stats);
+                    double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+                    heap.stop();
+
+                    double throughput = stats.getSuccesses() / seconds;
+                    out.println();
+                    out.printf("Completed in %.2fs, %.1f launches/s%n", seconds, throughput);
+                    out.printf("Succeeded: %d, failed: %d, error rate: %.4f%%%n",
+                            stats.getSuccesses(), stats.getFailures(), stats.getErrorRate() * 100);
+                    for (Map.Entry<String, Long> error : stats.getErrors().entrySet()) {
+                        out.printf("  %6d %s%n", error.getValue(), error.getKey());
+                    }
+                    out.println();
+                    out.print(stats.formatLatencies());
+                    out.println();
+                    out.printf("Heap: peak %s, retained after GC %s, max %s%n",
+                            megabytes(heap.getPeakUsed()), megabytes(heap.getRetained()), megabytes(heap.getMax()));
+                    out.printf("GC: %d collections, %dms%n", heap.getGcCount(), heap.getGcMillis());
+                    out.printf("Platform requests: jwks %d, token %d, nrps %d%n",
+                            platform.getJwksRequests() - jwksBefore,
+                            platform.getTokenRequests() - tokensBefore,
+                            platform.getNrpsRequests() - nrpsBefore);
+
+                    boolean passed = true;
+                    if (stats.getErrorRate() > options.maxErrorRate) {
+                        out.printf("FAILED: error rate %.4f%% is above %.4f%%%n", stats.getErrorRate() * 100, options.maxErrorRate * 100);
+                        passed = false;
+                    }
+                    if (throughput < options.minThroughput) {
+                        out.printf("FAILED: throughput %.1f launches/s is below %.1f%n", throughput, options.minThroughput);
+                        passed = false;
+                    }
+                    return passed;
+                }
+            }
+        }
+    }
+
+    private ClientRegistrationRepository clientRegistrations(String platformUrl) {
+        List<ClientRegistration> registrations = new ArrayList<>();
+        for (int i = 0; i < options.registrations; i++) {
+            registrations.add(ClientRegistration.withRegistrationId(registrationId(i))
+                    .clientId(clientId(i))
+                    .authorizationGrantType(LTIAuthorizationGrantType.IMPLICIT)
+                    .scope("openid")
+                    .redirectUri("{baseUrl}/lti/login")
+                    .authorizationUri(platformUrl + "/auth")
+                    .tokenUri(platformUrl + "/token")
+                    .jwkSetUri(platformUrl + "/jwks.json")
+                    .issuerUri(platformUrl)
+                    .build());
+        }
+        return new InMemoryClientRegistrationRepository(registrations);
+    }
+
+    private static KeyPair generateKeyPair() throws NoSuchAlgorithmException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        return generator.generateKeyPair();
+    }
+
+    private static String megabytes(long bytes) {
+        return bytes < 0 ? "unlimited" : String.format("%.1fMB", bytes / (1024.0 * 1024.0));
+    }
+}
@@ -0,0 +1,107 @@
+package uk.ac.ox.ctl.lti13.loadtest;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The command line options, these are all of the form {@code --name value} apart from the flags.
+ */
+public class LoadTestOptions {
+
+    private static final Set<String> FLAGS = Set.of("fresh-browsers", "nrps", "help");
+
+    int launches = 10_000;
+    int warmup = 1_000;
+    int concurrency = 200;
+    int registrations = 1;
+    // A new browser (so no cookies) for every launch, otherwise browsers are reused and have a working session.
+    boolean freshBrowsers;
+    // The target link fetches the course members from the platform.
+    boolean nrps;
+    int members = 200;
+    int pageSize = 50;
+    int toolThreads = 200;
+    int platformThreads = Math.max(8, Runtime.getRuntime().availableProcessors() * 2);
+    Duration requestTimeout = Duration.ofSeconds(30);
+    // Release gates, the process exits with a non-zero status if either is broken.
+    double maxErrorRate = 0.001;
+    double minThroughput;
+    boolean help;
+
+    static LoadTestOptions parse(String[] args) {
+        Map<String, String> values = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + arg);
+            }
+            String name = arg.substring(2);
+            if (FLAGS.contains(name)) {
+                values.put(name, "true");
+            } else if (i + 1 < args.length) {
+                values.put(name, args[++i]);
+            } else {
+                throw new IllegalArgumentException("Missing value for: " + arg);
+            }
+        }
+        LoadTestOptions options = new LoadTestOptions();
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            String value = entry.getValue();
+            switch (entry.getKey()) {
+                case "launches" -> options.launches = positive(entry.getKey(), value);
+                case "warmup" -> options.warmup = Integer.parseInt(value);
+                case "concurrency" -> options.concurrency = positive(entry.getKey(), value);
+                case "registrations" -> options.registrations = positive(entry.getKey(), value);
+                case "fresh-browsers" -> options.freshBrowsers = true;
+                case "nrps" -> options.nrps = true;
+                case "members" -> options.members = Integer.parseInt(value);
+                case "page-size" -> options.pageSize = positive(entry.getKey(), value);
+                case "tool-threads" -> options.toolThreads = positive(entry.getKey(), value);
+                case "platform-threads" -> options.platformThreads = positive(entry.getKey(), value);
+                case "request-timeout" -> options.requestTimeout = Duration.ofSeconds(positive(entry.getKey(), value));
+                case "max-error-rate" -> options.maxErrorRate = Double.parseDouble(value);
+                case "min-throughput" -> options.minThroughput = Double.parseDouble(value);
+                case "help" -> options.help = true;
+                default -> throw new IllegalArgumentException("Unknown option: --" + entry.getKey());
+            }
+        }
+        return options;
+    }
+
+    private static int positive(String name, String value) {
+        int parsed = Integer.parseInt(value);
+        if (parsed < 1) {
+            throw new IllegalArgumentException("--" + name + " must be at least 1");
+        }
+        return parsed;
+    }
+
+    static String usage() {
+        return """
+                Usage: java -jar load-test.jar [options]
+                  --launches <n>          Number of measured launches (default 10000)
+                  --warmup <n>            Number of launches to run before measuring (default 1000)
+                  --concurrency <n>       Number of launches in progress at once (default 200)
+                  --registrations <n>     Number of client registrations to spread launches over (default 1)
+                  --fresh-browsers        Use a new browser for every launch, so there is never a working session
+                  --nrps                  Fetch the course members on the target link
+                  --members <n>           Number of members in each course (default 200)
+                  --page-size <n>         Number of members in each page of the NRPS response (default 50)
+                  --tool-threads <n>      Maximum number of Tomcat request threads (default 200)
+                  --platform-threads <n>  Number of threads the fake platform uses
+                  --request-timeout <s>   Timeout for each HTTP request in seconds (default 30)
+                  --max-error-rate <r>    Fail if the fraction of failed launches is above this (default 0.001)
+                  --min-throughput <n>    Fail if fewer than this many launches per second complete (default 0)
+                """;
+    }
+
+    @Override
+    public String toString() {
+        return "launches=" + launches + ", warmup=" + warmup + ", concurrency=" + concurrency +
+                ", registrations=" + registrations + ", freshBrowsers=" + freshBrowsers +
+                ", nrps=" + nrps + (nrps ? " (members=" + members + ", pageSize=" + pageSize + ")" : "") +
+                ", toolThreads=" + toolThreads + ", platformThreads=" + platformThreads;
+    }
+}
@@ -0,0 +1,30 @@
+package uk.ac.ox.ctl.lti13.loadtest;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.security.config.Customizer;
+import org.springframework.security.config.annotation.web.builders.HttpSecurity;
+import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
+import org.springframework.security.web.SecurityFilterChain;
+import org.springframework.security.web.context.HttpSessionSecurityContextRepository;
+import uk.ac.ox.ctl.lti13.Lti13Configurer;
+
+/**
+ * The security configuration of the tool, this is what a typical tool using the library would have. The
+ * {@link org.springframework.security.oauth2.client.registration.ClientRegistrationRepository} is supplied by
+ * {@link ToolServer}.
+ */
+@Configuration
+@EnableWebSecurity
+public class ToolConfiguration {
+
+    @Bean
+    public SecurityFilterChain securityFilterChain(HttpSecurity http) throws Exception {
+        http.authorizeHttpRequests(authorize -> authorize.anyRequest().authenticated());
+        Lti13Configurer lti13Configurer = new Lti13Configurer()
+                // The target link is a separate request so the authentication is kept in the session.
+                .setSecurityContextRepository(new HttpSessionSecurityContextRepository());
+        http.with(lti13Configurer, Customizer.withDefaults());
+        return http.build();
+    }
+}
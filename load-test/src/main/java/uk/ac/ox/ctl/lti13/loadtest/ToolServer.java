@@ -0,0 +1,92 @@
+package uk.ac.ox.ctl.lti13.loadtest;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.session.StandardManager;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.tomcat.util.descriptor.web.FilterDef;
+import org.apache.tomcat.util.descriptor.web.FilterMap;
+import org.springframework.security.oauth2.client.registration.ClientRegistrationRepository;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.web.context.support.AnnotationConfigWebApplicationContext;
+import org.springframework.web.filter.DelegatingFilterProxy;
+import uk.ac.ox.ctl.lti13.TokenRetriever;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * The tool being tested, an embedded Tomcat with the security filter chain from {@link ToolConfiguration} in front
+ * of the {@link LaunchServlet}.
+ */
+public class ToolServer implements AutoCloseable {
+
+    private final Path baseDir;
+    private final Tomcat tomcat;
+    private final Connector connector;
+    private final AnnotationConfigWebApplicationContext applicationContext;
+
+    /**
+     * @param tokenRetriever If not null the target link fetches the course members.
+     */
+    public ToolServer(ClientRegistrationRepository clientRegistrationRepository, TokenRetriever tokenRetriever,
+                      LoadTestOptions options) throws IOException {
+        baseDir = Files.createTempDirectory("lti13-load-test");
+        tomcat = new Tomcat();
+        tomcat.setBaseDir(baseDir.toString());
+        connector = new Connector();
+        connector.setPort(0);
+        connector.setProperty("address", "127.0.0.1");
+        connector.setProperty("maxThreads", String.valueOf(options.toolThreads));
+        // Allow all the launches to be connected at once, only the request threads are limited.
+        connector.setProperty("maxConnections", String.valueOf(Math.max(10_000, options.concurrency * 2)));
+        connector.setProperty("acceptCount", String.valueOf(options.concurrency));
+        tomcat.setConnector(connector);
+
+        Context context = tomcat.addContext("", baseDir.toString());
+        StandardManager manager = new StandardManager();
+        // Don't save sessions to disk on shutdown.
+        manager.setPathname(null);
+        context.setManager(manager);
+
+        applicationContext = new AnnotationConfigWebApplicationContext();
+        applicationContext.setServletContext(context.getServletContext());
+        applicationContext.register(ToolConfiguration.class);
+        applicationContext.addBeanFactoryPostProcessor(beanFactory ->
+                beanFactory.registerSingleton("clientRegistrationRepository", clientRegistrationRepository));
+        applicationContext.refresh();
+
+        FilterDef filterDef = new FilterDef();
+        filterDef.setFilterName("springSecurityFilterChain");
+        filterDef.setFilter(new DelegatingFilterProxy("springSecurityFilterChain", applicationContext));
+        context.addFilterDef(filterDef);
+        FilterMap filterMap = new FilterMap();
+        filterMap.setFilterName("springSecurityFilterChain");
+        filterMap.addURLPattern("/*");
+        context.addFilterMap(filterMap);
+
+        Tomcat.addServlet(context, "launch", new LaunchServlet(clientRegistrationRepository, tokenRetriever));
+        context.addServletMappingDecoded("/launch", "launch");
+    }
+
+    public void start() throws LifecycleException {
+        tomcat.start();
+    }
+
+    public String getUrl() {
+        return "http://127.0.0.1:" + connector.getLocalPort();
+    }
+
+    @Override
+    public void close() throws LifecycleException, IOException {
+        try {
+            tomcat.stop();
+            tomcat.destroy();
+        } finally {
+            applicationContext.close();
+            FileSystemUtils.deleteRecursively(baseDir);
+        }
+    }
+}
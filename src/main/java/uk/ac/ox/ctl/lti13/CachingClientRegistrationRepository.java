@@ -0,0 +1,133 @@
+package uk.ac.ox.ctl.lti13;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.client.registration.ClientRegistrationRepository;
+import org.springframework.util.Assert;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Caches the registrations from another repository, this is for when the registrations are stored somewhere
+ * slow (such as a database) as they are looked up several times during each launch.
+ * <p>
+ * The least recently used registrations are dropped once the cache is full and they are looked up again once
+ * they are older than the time to live. IDs that aren't found are also cached (for a shorter time by default)
+ * so requests for made up registration IDs don't all end up at the repository. When a registration is changed
+ * or added call {@link #invalidate(String)} so the change is seen straight away, anything else that holds on to
+ * registrations (such as an {@link uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.IssuerOIDCInitiationRegistrationResolver})
+ * can be told about this with an {@link InvalidationListener}.
+ *
+ * @see Lti13Configurer#cacheClientRegistrations(boolean)
+ */
+public class CachingClientRegistrationRepository implements ClientRegistrationRepository {
+
+    /**
+     * Told when registrations are invalidated, after they have been removed from the cache so looking them up
+     * goes to the repository.
+     */
+    @FunctionalInterface
+    public interface InvalidationListener {
+        /**
+         * @param registrationId The registration that has changed, or null if they all may have.
+         */
+        void invalidated(String registrationId);
+    }
+
+    private final ClientRegistrationRepository delegate;
+    private final List<InvalidationListener> listeners = new CopyOnWriteArrayList<>();
+    private final Cache<String, ClientRegistration> registrations;
+    private final Cache<String, Boolean> missing;
+
+    /**
+     * Creates a cache of up to 10,000 registrations kept for 5 minutes, with unknown IDs kept for 1 minute.
+     */
+    public CachingClientRegistrationRepository(ClientRegistrationRepository delegate) {
+        this(delegate, 10_000, Duration.ofMinutes(5), Duration.ofMinutes(1));
+    }
+
+    /**
+     * @param maximumSize       The maximum number of registrations and of unknown IDs to keep.
+     * @param timeToLive        How long a registration is kept for.
+     * @param missingTimeToLive How long an unknown ID is remembered for.
+     */
+    public CachingClientRegistrationRepository(ClientRegistrationRepository delegate, int maximumSize, Duration timeToLive, Duration missingTimeToLive) {
+        this(delegate, maximumSize, timeToLive, missingTimeToLive, Ticker.systemTicker());
+    }
+
+    CachingClientRegistrationRepository(ClientRegistrationRepository delegate, int maximumSize, Duration timeToLive, Duration missingTimeToLive, Ticker ticker) {
+        Assert.notNull(delegate, "delegate cannot be null");
+        Assert.isTrue(maximumSize > 0, "maximumSize must be at least 1");
+        Assert.notNull(timeToLive, "timeToLive cannot be null");
+        Assert.notNull(missingTimeToLive, "missingTimeToLive cannot be null");
+        this.delegate = delegate;
+        this.registrations = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(timeToLive)
+                .ticker(ticker)
+                .build();
+        this.missing = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(missingTimeToLive)
+                .ticker(ticker)
+                .build();
+    }
+
+    @Override
+    public ClientRegistration findByRegistrationId(String registrationId) {
+        Assert.hasText(registrationId, "registrationId cannot be empty");
+        if (missing.getIfPresent(registrationId) != null) {
+            return null;
+        }
+        try {
+            // Concurrent lookups of the same ID wait for the first one rather than all going to the repository.
+            return registrations.get(registrationId, () -> Optional.ofNullable(delegate.findByRegistrationId(registrationId))
+                    .orElseThrow(NotFound::new));
+        } catch (UncheckedExecutionException | ExecutionException e) {
+            if (e.getCause() instanceof NotFound) {
+                missing.put(registrationId, Boolean.TRUE);
+                return null;
+            }
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException("Failed to load client registration: " + registrationId, e.getCause());
+        }
+    }
+
+    /**
+     * Forgets a registration (or that it wasn't found) so it is looked up again next time.
+     */
+    public void invalidate(String registrationId) {
+        registrations.invalidate(registrationId);
+        missing.invalidate(registrationId);
+        listeners.forEach(listener -> listener.invalidated(registrationId));
+    }
+
+    public void invalidateAll() {
+        registrations.invalidateAll();
+        missing.invalidateAll();
+        listeners.forEach(listener -> listener.invalidated(null));
+    }
+
+    public void addInvalidationListener(InvalidationListener listener) {
+        Assert.notNull(listener, "listener cannot be null");
+        listeners.add(listener);
+    }
+
+    /**
+     * Thrown from the loader as the cache can't hold nulls, there isn't any need for a stack trace.
+     */
+    private static class NotFound extends Exception {
+        private NotFound() {
+            super(null, null, false, false);
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package uk.ac.ox.ctl.lti13;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jwt.SignedJWT;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.util.Assert;
+
+import java.text.ParseException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A pool of client assertions (signed JWTs) that are created ahead of time on a background thread so that
+ * {@link TokenRetriever} doesn't have to sign a JWT while a request is waiting for an access token.
+ * <p>
+ * Each assertion has a unique ID and is only ever handed out once. Assertions that are too close to their expiry are
+ * discarded. The number of assertions kept for each registration follows the recent demand for that registration, so
+ * registrations that aren't being used don't have anything signed for them and are eventually removed. Assertions are
+ * pooled separately for each signing key, so once a key is rotated the assertions signed with the old key are no
+ * longer handed out. If the pool for a registration is empty the caller has to sign the assertion itself.
+ *
+ * @see TokenRetriever#setAssertionPool(ClientAssertionPool)
+ */
+public class ClientAssertionPool implements AutoCloseable {
+
+    /**
+     * Signs a new client assertion for a registration.
+     */
+    @FunctionalInterface
+    interface AssertionSigner {
+        SignedJWT sign(ClientRegistration clientRegistration) throws JOSEException;
+    }
+
+    // Once the smoothed demand drops below this the pool for the registration is removed.
+    private static final double MINIMUM_DEMAND = 0.01;
+
+    private final Logger log = LoggerFactory.getLogger(ClientAssertionPool.class);
+
+    private final ScheduledExecutorService executor;
+    private final boolean ownsExecutor;
+    private final ConcurrentMap<String, RegistrationPool> pools = new ConcurrentHashMap<>();
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    private Duration refillInterval = Duration.ofSeconds(1);
+    // Assertions with less than this left before they expire are not handed out.
+    private Duration minimumLifetime = Duration.ofSeconds(10);
+    private int maxSize = 64;
+    // How many refill intervals worth of demand to keep in the pool.
+    private double headroom = 2.0;
+
+    /**
+     * Creates a pool that signs on its own low priority daemon thread.
+     */
+    public ClientAssertionPool() {
+        this(Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "lti-client-assertion-pool");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }), true);
+    }
+
+    /**
+     * @param executor The executor to sign assertions on, this should normally be a low priority one.
+     */
+    public ClientAssertionPool(ScheduledExecutorService executor) {
+        this(executor, false);
+    }
+
+    private ClientAssertionPool(ScheduledExecutorService executor, boolean ownsExecutor) {
+        Assert.notNull(executor, "executor cannot be null");
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+    }
+
+    /**
+     * @param refillInterval How often the pools are topped up.
+     */
+    public void setRefillInterval(Duration refillInterval) {
+        Assert.isTrue(!refillInterval.isNegative() && !refillInterval.isZero(), "refillInterval must be positive");
+        this.refillInterval = refillInterval;
+    }
+
+    /**
+     * @param minimumLifetime Assertions with less time than this before they expire are discarded. This must be
+     *                        less than the JWT lifetime of the {@link TokenRetriever}.
+     */
+    public void setMinimumLifetime(Duration minimumLifetime) {
+        Assert.notNull(minimumLifetime, "minimumLifetime cannot be null");
+        this.minimumLifetime = minimumLifetime;
+    }
+
+    /**
+     * @param maxSize The maximum number of assertions to keep for a single registration.
+     */
+    public void setMaxSize(int maxSize) {
+        Assert.isTrue(maxSize >= 0, "maxSize cannot be negative");
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @param headroom How many refill intervals worth of recent demand to keep signed ahead of time.
+     */
+    public void setHeadroom(double headroom) {
+        Assert.isTrue(headroom >= 0, "headroom cannot be negative");
+        this.headroom = headroom;
+    }
+
+    /**
+     * Gets a serialized client assertion for the registration from the pool. Taking counts towards the demand for
+     * the registration even when the pool is empty, so the pool is filled for later requests.
+     *
+     * @param clientRegistration The client registration to get an assertion for.
+     * @param keyId              The ID of the key the registration is currently signed with, so assertions signed
+     *                           with a previous key aren't handed out.
+     * @param signer             Used to sign assertions for the pool in the background.
+     * @return The serialized signed JWT, or null if the pool is empty and the caller must sign one.
+     */
+    String take(ClientRegistration clientRegistration, String keyId, AssertionSigner signer) {
+        start();
+        String registrationId = clientRegistration.getRegistrationId();
+        RegistrationPool pool = pools.computeIfAbsent(registrationId + " " + keyId, key -> new RegistrationPool(key, registrationId, keyId));
+        pool.update(clientRegistration, signer);
+        pool.demand.increment();
+        Instant usableUntil = Instant.now().plus(minimumLifetime);
+        Assertion assertion;
+        while ((assertion = pool.assertions.poll()) != null) {
+            pool.size.decrementAndGet();
+            if (assertion.expiresAt.isAfter(usableUntil)) {
+                return assertion.value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes all the pooled assertions for a registration, for example because its configuration has changed.
+     *
+     * @param clientRegistrationId The client's registration ID.
+     */
+    public void invalidate(String clientRegistrationId) {
+        pools.values().removeIf(pool -> pool.registrationId.equals(clientRegistrationId));
+    }
+
+    @Override
+    public void close() {
+        if (ownsExecutor) {
+            executor.shutdownNow();
+        }
+        pools.clear();
+    }
+
+    private void start() {
+        if (!started.get() && started.compareAndSet(false, true)) {
+            // There isn't any demand to refill for until the first interval has passed.
+            long interval = refillInterval.toMillis();
+            executor.scheduleWithFixedDelay(this::refill, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Discards expired assertions and signs new ones to match the demand since the last refill.
+     */
+    void refill() {
+        for (RegistrationPool pool : pools.values()) {
+            try {
+                refill(pool);
+            } catch (Exception e) {
+                // Don't let one registration stop the others being refilled, the request thread will sign instead.
+                log.warn("Failed to refill client assertions for {}: {}", pool.registrationId, e.toString());
+            }
+        }
+    }
+
+    private void refill(RegistrationPool pool) throws JOSEException, ParseException {
+        Instant usableUntil = Instant.now().plus(minimumLifetime);
+        Assertion head;
+        while ((head = pool.assertions.peek()) != null && !head.expiresAt.isAfter(usableUntil)) {
+            if (pool.assertions.remove(head)) {
+                pool.size.decrementAndGet();
+            }
+        }
+        // Smooth the demand so that a single burst doesn't leave lots of assertions to expire unused.
+        long demand = pool.demand.sumThenReset();
+        pool.averageDemand = pool.averageDemand * 0.7 + demand * 0.3;
+        if (demand == 0 && pool.averageDemand < MINIMUM_DEMAND) {
+            // The registration (or this key for it) isn't being used any more.
+            pools.remove(pool.key, pool);
+            return;
+        }
+        int target = (int) Math.min(maxSize, Math.ceil(pool.averageDemand * headroom));
+        ClientRegistration clientRegistration = pool.clientRegistration;
+        AssertionSigner signer = pool.signer;
+        while (pool.size.get() < target) {
+            SignedJWT signedJWT = signer.sign(clientRegistration);
+            Date expiration = signedJWT.getJWTClaimsSet().getExpirationTime();
+            if (expiration == null || !expiration.toInstant().isAfter(usableUntil)) {
+                // The JWT lifetime is too short for pooling to be any use.
+                return;
+            }
+            if (!Objects.equals(pool.keyId, signedJWT.getHeader().getKeyID())) {
+                // The key has been rotated, new assertions go in the pool for the new key.
+                pools.remove(pool.key, pool);
+                return;
+            }
+            pool.assertions.add(new Assertion(signedJWT.serialize(), expiration.toInstant()));
+            pool.size.incrementAndGet();
+        }
+    }
+
+    private static final class RegistrationPool {
+        private final String key;
+        private final String registrationId;
+        private final String keyId;
+        // Ordered by creation, so also by expiry.
+        private final Queue<Assertion> assertions = new ConcurrentLinkedQueue<>();
+        // ConcurrentLinkedQueue.size() is O(n) so we keep our own count.
+        private final AtomicInteger size = new AtomicInteger();
+        private final LongAdder demand = new LongAdder();
+        // Only accessed from the refill thread.
+        private double averageDemand;
+        private volatile ClientRegistration clientRegistration;
+        private volatile AssertionSigner signer;
+
+        private RegistrationPool(String key, String registrationId, String keyId) {
+            this.key = key;
+            this.registrationId = registrationId;
+            this.keyId = keyId;
+        }
+
+        private void update(ClientRegistration clientRegistration, AssertionSigner signer) {
+            ClientRegistration existing = this.clientRegistration;
+            if (existing != clientRegistration) {
+                if (existing != null && !(Objects.equals(existing.getClientId(), clientRegistration.getClientId())
+                        && Objects.equals(existing.getProviderDetails().getTokenUri(), clientRegistration.getProviderDetails().getTokenUri()))) {
+                    // The issuer or audience has changed so the pooled assertions are no use.
+                    assertions.clear();
+                    size.set(0);
+                }
+                this.clientRegistration = clientRegistration;
+            }
+            this.signer = signer;
+        }
+    }
+
+    private static final class Assertion {
+        private final String value;
+        private final Instant expiresAt;
+
+        private Assertion(String value, Instant expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package uk.ac.ox.ctl.lti13;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSSigner;
+import com.nimbusds.jose.crypto.ECDSASigner;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.Curve;
+import org.springframework.util.Assert;
+
+import java.security.Key;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.Provider;
+import java.security.interfaces.ECKey;
+import java.security.interfaces.ECPrivateKey;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps a {@link JWSSigner} for each client registration so that we don't create and initialise a new one every
+ * time we sign something. The signers are thread safe so they can be shared between requests. A cached signer is
+ * replaced when the {@link KeyPairService} hands out a different key for the registration.
+ */
+public class JWSSignerCache {
+
+    private final ConcurrentMap<String, CachedSigner> signers = new ConcurrentHashMap<>();
+
+    // The JCA provider to do the signing with, if null the default provider is used.
+    private Provider provider;
+
+    /**
+     * Sets the JCA provider used for signing, this allows a faster native provider to be used.
+     *
+     * @param provider The JCA provider to use, or null to use the default.
+     */
+    public void setProvider(Provider provider) {
+        this.provider = provider;
+        signers.clear();
+    }
+
+    /**
+     * Gets a signer for the key.
+     *
+     * @param clientRegistrationId The client's registration ID.
+     * @param keyId                The ID of the key, may be null.
+     * @param keyPair              The key pair to sign with.
+     * @return A signer that can be shared between threads.
+     * @throws JOSEException If the key isn't supported.
+     */
+    public JWSSigner getSigner(String clientRegistrationId, String keyId, KeyPair keyPair) throws JOSEException {
+        Assert.notNull(keyPair, "keyPair cannot be null");
+        CachedSigner cached = signers.get(clientRegistrationId);
+        if (cached == null || !cached.isFor(keyId, keyPair.getPrivate())) {
+            cached = new CachedSigner(keyId, keyPair.getPrivate(), createSigner(keyPair.getPrivate()));
+            signers.put(clientRegistrationId, cached);
+        }
+        return cached.signer;
+    }
+
+    /**
+     * Removes the cached signer for a registration.
+     *
+     * @param clientRegistrationId The client's registration ID.
+     */
+    public void invalidate(String clientRegistrationId) {
+        signers.remove(clientRegistrationId);
+    }
+
+    private JWSSigner createSigner(PrivateKey privateKey) throws JOSEException {
+        JWSSigner signer;
+        if (privateKey instanceof ECPrivateKey ecPrivateKey) {
+            signer = new ECDSASigner(ecPrivateKey);
+        } else if ("RSA".equals(privateKey.getAlgorithm())) {
+            // This doesn't need an RSAPrivateKey so works with keys that can't be exported (eg PKCS#11).
+            signer = new RSASSASigner(privateKey);
+        } else {
+            throw new JOSEException("Unsupported private key type: " + privateKey.getAlgorithm());
+        }
+        if (provider != null) {
+            signer.getJCAContext().setProvider(provider);
+        }
+        return signer;
+    }
+
+    /**
+     * Finds the algorithm to use with a key when one hasn't been configured.
+     *
+     * @param key The public or private key.
+     * @return RS256 for RSA keys and the matching ECDSA algorithm for EC keys.
+     */
+    public static JWSAlgorithm defaultAlgorithm(Key key) {
+        if (key instanceof ECKey ecKey) {
+            Curve curve = Curve.forECParameterSpec(ecKey.getParams());
+            if (Curve.P_256.equals(curve)) {
+                return JWSAlgorithm.ES256;
+            } else if (Curve.P_384.equals(curve)) {
+                return JWSAlgorithm.ES384;
+            } else if (Curve.P_521.equals(curve)) {
+                return JWSAlgorithm.ES512;
+            }
+            throw new IllegalArgumentException("Unsupported EC curve: " + ecKey.getParams());
+        }
+        return JWSAlgorithm.RS256;
+    }
+
+    private static final class CachedSigner {
+        private final String keyId;
+        private final PrivateKey privateKey;
+        private final JWSSigner signer;
+
+        private CachedSigner(String keyId, PrivateKey privateKey, JWSSigner signer) {
+            this.keyId = keyId;
+            this.privateKey = privateKey;
+            this.signer = signer;
+        }
+
+        private boolean isFor(String keyId, PrivateKey privateKey) {
+            // Most services hand out the same key instance until it changes so check identity first.
+            return (this.privateKey == privateKey || this.privateKey.equals(privateKey)) && Objects.equals(this.keyId, keyId);
+        }
+    }
+}
@@ -20,4 +20,21 @@ public interface KeyPairService {
      * @return The Key ID to use.
      */
     String getKeyId(String clientRegistration);
+
+    /**
+     * Gets the key pair and its ID together. Services whose keys can change (for example
+     * {@link RotatingKeyPairService}) override this so that the ID always belongs to the key pair, even when the
+     * keys are rotated between the two lookups.
+     * @param clientRegistrationId The client's registration ID.
+     * @return The key ID and KeyPair to use.
+     */
+    default CurrentKey getCurrentKey(String clientRegistrationId) {
+        return new CurrentKey(getKeyId(clientRegistrationId), getKeyPair(clientRegistrationId));
+    }
+
+    /**
+     * A key pair and the ID it is published with.
+     */
+    record CurrentKey(String keyId, KeyPair keyPair) {
+    }
 }
@@ -0,0 +1,67 @@
+package uk.ac.ox.ctl.lti13;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSSigner;
+import org.springframework.util.Assert;
+
+import java.security.KeyPair;
+import java.security.Provider;
+
+/**
+ * Signs with the key pairs from a {@link KeyPairService}, the signers are reused as long as the key for a
+ * registration doesn't change.
+ */
+public class KeyPairSignerService implements SignerService {
+
+    private final KeyPairService keyPairService;
+    private final JWSSignerCache signerCache = new JWSSignerCache();
+
+    public KeyPairSignerService(KeyPairService keyPairService) {
+        Assert.notNull(keyPairService, "keyPairService cannot be null");
+        this.keyPairService = keyPairService;
+    }
+
+    /**
+     * Sets the JCA provider used for signing, this allows a faster native provider to be used.
+     *
+     * @param provider The JCA provider, or null to use the default.
+     */
+    public void setProvider(Provider provider) {
+        signerCache.setProvider(provider);
+    }
+
+    @Override
+    public JWSSigner getSigner(String clientRegistrationId) throws JOSEException {
+        return getSigningKey(clientRegistrationId).signer();
+    }
+
+    @Override
+    public String getKeyId(String clientRegistrationId) {
+        return keyPairService.getKeyId(clientRegistrationId);
+    }
+
+    @Override
+    public JWSAlgorithm getAlgorithm(String clientRegistrationId) {
+        return JWSSignerCache.defaultAlgorithm(getCurrentKey(clientRegistrationId).keyPair().getPrivate());
+    }
+
+    @Override
+    public SigningKey getSigningKey(String clientRegistrationId) throws JOSEException {
+        // The key ID and key pair are looked up once so they still match if the keys are rotated.
+        KeyPairService.CurrentKey key = getCurrentKey(clientRegistrationId);
+        KeyPair keyPair = key.keyPair();
+        JWSSigner signer = signerCache.getSigner(clientRegistrationId, key.keyId(), keyPair);
+        return new SigningKey(key.keyId(), JWSSignerCache.defaultAlgorithm(keyPair.getPrivate()), signer);
+    }
+
+    private KeyPairService.CurrentKey getCurrentKey(String clientRegistrationId) {
+        KeyPairService.CurrentKey key = keyPairService.getCurrentKey(clientRegistrationId);
+        if (key == null || key.keyPair() == null) {
+            throw new NullPointerException(
+                    "Failed to get keypair for client registration: "+ clientRegistrationId
+            );
+        }
+        return key;
+    }
+}
@@ -3,28 +3,40 @@ package uk.ac.ox.ctl.lti13;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.security.authentication.DefaultAuthenticationEventPublisher;
 import org.springframework.security.authentication.ProviderManager;
+import org.springframework.security.config.Customizer;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configurers.AbstractHttpConfigurer;
 import org.springframework.security.config.annotation.web.configurers.CsrfConfigurer;
 import org.springframework.security.config.annotation.web.configurers.HeadersConfigurer;
 import org.springframework.security.core.authority.mapping.GrantedAuthoritiesMapper;
 import org.springframework.security.oauth2.client.registration.ClientRegistrationRepository;
+import org.springframework.security.oauth2.client.web.AuthorizationRequestRepository;
 import org.springframework.security.oauth2.client.web.HttpSessionOAuth2AuthorizationRequestRepository;
+import org.springframework.security.oauth2.core.endpoint.OAuth2AuthorizationRequest;
 import org.springframework.security.web.authentication.logout.LogoutFilter;
 import org.springframework.security.web.authentication.preauth.AbstractPreAuthenticatedProcessingFilter;
 import org.springframework.security.web.context.SecurityContextRepository;
 import org.springframework.security.web.context.SecurityContextRepository;
+import uk.ac.ox.ctl.lti13.metrics.LtiMetrics;
 import uk.ac.ox.ctl.lti13.security.oauth2.OAuthAuthenticationFailureHandler;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.authentication.LtiRoleAuthoritiesMapper;
 import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.authentication.OidcLaunchFlowAuthenticationProvider;
 import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.authentication.TargetLinkUriAuthenticationSuccessHandler;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.AuthorizationRequestCodec;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.CompositeOIDCInitiationRegistrationResolver;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.IssuerOIDCInitiationRegistrationResolver;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.JWKSetFilter;
 import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.OAuth2AuthorizationRequestRedirectFilter;
 import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.OAuth2LoginAuthenticationFilter;
 import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.OIDCInitiatingLoginRequestResolver;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.OIDCInitiationRegistrationResolver;
 import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.OptimisticAuthorizationRequestRepository;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.PathOIDCInitiationRegistrationResolver;
 import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.StateAuthorizationRequestRepository;
 
 import java.time.Duration;
 import java.util.Collections;
+import java.util.Set;
 
 
 /**
@@ -44,9 +56,18 @@ public class Lti13Configurer extends AbstractHttpConfigurer<Lti13Configurer, Htt
     protected String loginInitiationPath = "/login_initiation";
     protected ApplicationEventPublisher applicationEventPublisher;
     protected GrantedAuthoritiesMapper grantedAuthoritiesMapper;
+    protected LtiRoleAuthoritiesMapper roleAuthoritiesMapper;
     protected boolean limitIpAddresses;
     protected SecurityContextRepository securityContextRepository;
-
+    protected String jwkSetPath = "/.well-known/jwks.json";
+    protected RotatingKeyPairService keyPairService;
+    protected LtiMetrics metrics = LtiMetrics.NOOP;
+    protected boolean cacheClientRegistrations;
+    protected OIDCInitiationRegistrationResolver initiationRegistrationResolver;
+    protected boolean compactSessionStorage;
+    protected Set<String> retainedClaims;
+    // Set when configured, this is the repository the filters use so may be the caching one.
+    protected ClientRegistrationRepository clientRegistrationRepository;
 
     public Lti13Configurer ltiPath(String ltiPath) {
         this.ltiPath = ltiPath;
@@ -73,6 +94,21 @@ public class Lti13Configurer extends AbstractHttpConfigurer<Lti13Configurer, Htt
         return this;
     }
 
+    /**
+     * Gives users authorities from their LTI roles and the type of context they launched from, for example
+     * {@code roleAuthorities(roles -> roles.role(LtiRole.CONTEXT_INSTRUCTOR, "ROLE_INSTRUCTOR"))}. The rules are
+     * compiled once so mapping a launch is cheap. If a {@link #grantedAuthoritiesMapper(GrantedAuthoritiesMapper)}
+     * is also set it is applied first.
+     *
+     * @see LtiRoleAuthoritiesMapper
+     */
+    public Lti13Configurer roleAuthorities(Customizer<LtiRoleAuthoritiesMapper.Builder> roleAuthorities) {
+        LtiRoleAuthoritiesMapper.Builder builder = LtiRoleAuthoritiesMapper.builder();
+        roleAuthorities.customize(builder);
+        this.roleAuthoritiesMapper = builder.build();
+        return this;
+    }
+
     /**
      * This security context repository to persist the authentication in. This is useful if you want to use 
      * HTTP sessions for authentication.
@@ -93,6 +129,83 @@ public class Lti13Configurer extends AbstractHttpConfigurer<Lti13Configurer, Htt
         return this;
     }
 
+    /**
+     * The path to publish the JWK Set on, this is only used when a key pair service is configured.
+     */
+    public Lti13Configurer jwkSetPath(String jwkSetPath) {
+        this.jwkSetPath = jwkSetPath;
+        return this;
+    }
+
+    /**
+     * If set then the public keys from this service will be published as a JWK Set so platforms can verify
+     * the JWTs we sign.
+     * 
+     * @see #jwkSetPath(String)
+     */
+    public Lti13Configurer keyPairService(RotatingKeyPairService keyPairService) {
+        this.keyPairService = keyPairService;
+        return this;
+    }
+
+    /**
+     * Where to record the timings of launches and whether authorization requests were found. To publish these
+     * to a Micrometer registry use {@link uk.ac.ox.ctl.lti13.metrics.MicrometerLtiMetrics}, by default nothing is recorded.
+     */
+    public Lti13Configurer metrics(LtiMetrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    /**
+     * If true the client registration repository is wrapped in a {@link CachingClientRegistrationRepository}
+     * with its default settings, this is useful when the registrations are stored in a database. The wrapped
+     * repository replaces the shared object so other configurers use it too. To change the cache settings
+     * or invalidate registrations, create the {@link CachingClientRegistrationRepository} yourself instead.
+     */
+    public Lti13Configurer cacheClientRegistrations(boolean cacheClientRegistrations) {
+        this.cacheClientRegistrations = cacheClientRegistrations;
+        return this;
+    }
+
+    /**
+     * An additional way to find the registration at the start of a launch, this is tried before the registration
+     * ID in the path. For example an {@link IssuerOIDCInitiationRegistrationResolver} allows a single login
+     * initiation URL to be used for all registrations. If the registrations are
+     * {@link #cacheClientRegistrations(boolean) cached} that index is updated when a registration is invalidated.
+     */
+    public Lti13Configurer initiationRegistrationResolver(OIDCInitiationRegistrationResolver initiationRegistrationResolver) {
+        this.initiationRegistrationResolver = initiationRegistrationResolver;
+        return this;
+    }
+
+    /**
+     * If true the authorization requests are kept in the session in a compact form and the session is only written
+     * when they change. Each request is encoded with an {@link AuthorizationRequestCodec} so only the parts that
+     * change between launches are stored. This is useful when sessions are stored externally (for example with Spring Session) where
+     * every session write goes to the store.
+     *
+     * @see uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.HttpSessionOAuth2AuthorizationRequestRepository#setCompactSessionStorage(boolean)
+     */
+    public Lti13Configurer compactSessionStorage(boolean compactSessionStorage) {
+        this.compactSessionStorage = compactSessionStorage;
+        return this;
+    }
+
+    /**
+     * Only keeps these claims of the ID token in the principal, this makes the authentication much smaller when
+     * it is persisted with {@link #setSecurityContextRepository(SecurityContextRepository)} to an external session.
+     * The standard ID token claims and the claims this library reads after the launch (such as the nonce and target
+     * link URI) are always kept and the {@link GrantedAuthoritiesMapper} still sees all the claims.
+     *
+     * @param claims the names of the claims the application uses, for example {@link uk.ac.ox.ctl.lti13.lti.Claims#ROLES}
+     * @see OidcLaunchFlowAuthenticationProvider#setRetainedClaims(java.util.Collection)
+     */
+    public Lti13Configurer retainedClaims(String... claims) {
+        this.retainedClaims = Set.of(claims);
+        return this;
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     public void init(HttpSecurity http) {
@@ -112,6 +225,16 @@ public class Lti13Configurer extends AbstractHttpConfigurer<Lti13Configurer, Htt
     @Override
     public void configure(HttpSecurity http) {
         ClientRegistrationRepository clientRegistrationRepository = Lti13ConfigurerUtils.getClientRegistrationRepository(http);
+        if (cacheClientRegistrations && !(clientRegistrationRepository instanceof CachingClientRegistrationRepository)) {
+            clientRegistrationRepository = new CachingClientRegistrationRepository(clientRegistrationRepository);
+            http.setSharedObject(ClientRegistrationRepository.class, clientRegistrationRepository);
+        }
+        this.clientRegistrationRepository = clientRegistrationRepository;
+        if (initiationRegistrationResolver instanceof IssuerOIDCInitiationRegistrationResolver issuerResolver
+                && clientRegistrationRepository instanceof CachingClientRegistrationRepository cachingRepository) {
+            // So invalidating a registration in the cache also updates the index.
+            issuerResolver.updateFrom(cachingRepository);
+        }
 
         OidcLaunchFlowAuthenticationProvider oidcLaunchFlowAuthenticationProvider = configureAuthenticationProvider(http);
         OptimisticAuthorizationRequestRepository authorizationRequestRepository = configureRequestRepository();
@@ -121,29 +244,70 @@ public class Lti13Configurer extends AbstractHttpConfigurer<Lti13Configurer, Htt
         // This handles step 3 of the IMS SEC
         // https://www.imsglobal.org/spec/security/v1p0/#step-3-authentication-response
         http.addFilterAfter(configureLoginFilter(clientRegistrationRepository, oidcLaunchFlowAuthenticationProvider, authorizationRequestRepository), AbstractPreAuthenticatedProcessingFilter.class);
+        if (keyPairService != null) {
+            // This publishes our public keys so platforms can check the JWTs we sign
+            // https://www.imsglobal.org/spec/security/v1p0/#h_key-set-url
+            http.addFilterAfter(configureJWKSetFilter(keyPairService), LogoutFilter.class);
+        }
+    }
+
+    protected JWKSetFilter configureJWKSetFilter(RotatingKeyPairService keyPairService) {
+        return new JWKSetFilter(jwkSetPath, keyPairService);
     }
 
     protected OptimisticAuthorizationRequestRepository configureRequestRepository() {
-        HttpSessionOAuth2AuthorizationRequestRepository sessionRepository = new HttpSessionOAuth2AuthorizationRequestRepository();
+        AuthorizationRequestRepository<OAuth2AuthorizationRequest> sessionRepository;
+        if (compactSessionStorage) {
+            uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.HttpSessionOAuth2AuthorizationRequestRepository compactRepository =
+                    new uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.HttpSessionOAuth2AuthorizationRequestRepository();
+            compactRepository.setCompactSessionStorage(true);
+            compactRepository.setAuthorizationRequestCodec(new AuthorizationRequestCodec(clientRegistrationRepository));
+            sessionRepository = compactRepository;
+        } else {
+            sessionRepository = new HttpSessionOAuth2AuthorizationRequestRepository();
+        }
         StateAuthorizationRequestRepository stateRepository = new StateAuthorizationRequestRepository(Duration.ofMinutes(1));
         stateRepository.setLimitIpAddress(limitIpAddresses);
-        return new OptimisticAuthorizationRequestRepository( sessionRepository, stateRepository );
+        OptimisticAuthorizationRequestRepository repository = new OptimisticAuthorizationRequestRepository( sessionRepository, stateRepository );
+        repository.setMetrics(metrics);
+        return repository;
     }
 
     protected OidcLaunchFlowAuthenticationProvider configureAuthenticationProvider(HttpSecurity http) {
         OidcLaunchFlowAuthenticationProvider oidcLaunchFlowAuthenticationProvider = new OidcLaunchFlowAuthenticationProvider();
 
         http.authenticationProvider(oidcLaunchFlowAuthenticationProvider);
-        if (grantedAuthoritiesMapper != null) {
-            oidcLaunchFlowAuthenticationProvider.setAuthoritiesMapper(grantedAuthoritiesMapper);
+        GrantedAuthoritiesMapper authoritiesMapper = authoritiesMapper();
+        if (authoritiesMapper != null) {
+            oidcLaunchFlowAuthenticationProvider.setAuthoritiesMapper(authoritiesMapper);
         }
+        oidcLaunchFlowAuthenticationProvider.setRetainedClaims(retainedClaims);
+        oidcLaunchFlowAuthenticationProvider.setMetrics(metrics);
         return oidcLaunchFlowAuthenticationProvider;
     }
 
+    /**
+     * @return The mapper for the authorities of a launch, or null if the authorities aren't mapped.
+     */
+    protected GrantedAuthoritiesMapper authoritiesMapper() {
+        if (roleAuthoritiesMapper == null) {
+            return grantedAuthoritiesMapper;
+        }
+        if (grantedAuthoritiesMapper == null) {
+            return roleAuthoritiesMapper;
+        }
+        return authorities -> roleAuthoritiesMapper.mapAuthorities(grantedAuthoritiesMapper.mapAuthorities(authorities));
+    }
+
     protected OAuth2AuthorizationRequestRedirectFilter configureInitiationFilter(ClientRegistrationRepository clientRegistrationRepository,  OptimisticAuthorizationRequestRepository authorizationRequestRepository) {
-        OIDCInitiatingLoginRequestResolver resolver = new OIDCInitiatingLoginRequestResolver(clientRegistrationRepository, ltiPath+ loginInitiationPath);
+        OIDCInitiationRegistrationResolver registrationResolver = new PathOIDCInitiationRegistrationResolver(ltiPath+ loginInitiationPath);
+        if (initiationRegistrationResolver != null) {
+            registrationResolver = new CompositeOIDCInitiationRegistrationResolver(initiationRegistrationResolver, registrationResolver);
+        }
+        OIDCInitiatingLoginRequestResolver resolver = new OIDCInitiatingLoginRequestResolver(clientRegistrationRepository, registrationResolver);
         OAuth2AuthorizationRequestRedirectFilter filter = new OAuth2AuthorizationRequestRedirectFilter(resolver);
         filter.setAuthorizationRequestRepository(authorizationRequestRepository);
+        filter.setMetrics(metrics);
         return filter;
     }
 
@@ -165,6 +329,7 @@ public class Lti13Configurer extends AbstractHttpConfigurer<Lti13Configurer, Htt
             loginFilter.setSecurityContextRepository(securityContextRepository);
         }
         loginFilter.setAuthenticationManager(authenticationManager);
+        loginFilter.setMetrics(metrics);
         return loginFilter;
     }
 
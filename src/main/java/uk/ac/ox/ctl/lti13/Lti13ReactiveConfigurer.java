@@ -0,0 +1,206 @@
+package uk.ac.ox.ctl.lti13;
+
+import org.springframework.security.authentication.ReactiveAuthenticationManager;
+import org.springframework.security.config.Customizer;
+import org.springframework.security.config.web.server.SecurityWebFiltersOrder;
+import org.springframework.security.config.web.server.ServerHttpSecurity;
+import org.springframework.security.core.authority.mapping.GrantedAuthoritiesMapper;
+import org.springframework.security.oauth2.client.registration.ReactiveClientRegistrationRepository;
+import org.springframework.security.web.server.authentication.AuthenticationWebFilter;
+import org.springframework.security.web.server.context.ServerSecurityContextRepository;
+import org.springframework.security.web.server.csrf.CsrfWebFilter;
+import org.springframework.security.web.server.util.matcher.AndServerWebExchangeMatcher;
+import org.springframework.security.web.server.util.matcher.NegatedServerWebExchangeMatcher;
+import org.springframework.security.web.server.util.matcher.ServerWebExchangeMatchers;
+import org.springframework.util.Assert;
+import org.springframework.web.reactive.function.client.WebClient;
+import uk.ac.ox.ctl.lti13.security.oauth2.ServerOAuthAuthenticationFailureHandler;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.authentication.LtiRoleAuthoritiesMapper;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.authentication.OidcAuthenticationToken;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.authentication.OidcLaunchFlowReactiveAuthenticationManager;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.authentication.OidcLaunchFlowToken;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.server.OAuth2AuthorizationRequestRedirectWebFilter;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.server.OidcLaunchFlowServerAuthenticationConverter;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.server.ServerOIDCInitiatingLoginRequestResolver;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.server.ServerOptimisticAuthorizationRequestRepository;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.server.ServerStateAuthorizationRequestRepository;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.server.ServerTargetLinkUriAuthenticationSuccessHandler;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.server.ServerWebSessionAuthorizationRequestRepository;
+
+import java.time.Duration;
+import java.util.Set;
+
+/**
+ * The WebFlux version of {@link Lti13Configurer}. {@link ServerHttpSecurity} doesn't support configurers so this
+ * is applied directly:
+ * <pre>
+ * new Lti13ReactiveConfigurer(clientRegistrationRepository).configure(http);
+ * </pre>
+ * The reactive version doesn't publish a JWK Set, serve that from a controller using
+ * {@link RotatingKeyPairService#getJWKSet()}.
+ */
+public class Lti13ReactiveConfigurer {
+
+    protected final ReactiveClientRegistrationRepository clientRegistrationRepository;
+    protected String ltiPath = "/lti";
+    protected String loginPath = "/login";
+    protected String loginInitiationPath = "/login_initiation";
+    protected GrantedAuthoritiesMapper grantedAuthoritiesMapper;
+    protected LtiRoleAuthoritiesMapper roleAuthoritiesMapper;
+    protected boolean limitIpAddresses;
+    protected ServerSecurityContextRepository securityContextRepository;
+    protected WebClient webClient;
+    protected Set<String> retainedClaims;
+
+    public Lti13ReactiveConfigurer(ReactiveClientRegistrationRepository clientRegistrationRepository) {
+        Assert.notNull(clientRegistrationRepository, "clientRegistrationRepository cannot be null");
+        this.clientRegistrationRepository = clientRegistrationRepository;
+    }
+
+    public Lti13ReactiveConfigurer ltiPath(String ltiPath) {
+        this.ltiPath = ltiPath;
+        return this;
+    }
+
+    public Lti13ReactiveConfigurer loginPath(String loginPath) {
+        this.loginPath = loginPath;
+        return this;
+    }
+
+    public Lti13ReactiveConfigurer loginInitiationPath(String loginInitiationPath) {
+        this.loginInitiationPath = loginInitiationPath;
+        return this;
+    }
+
+    public Lti13ReactiveConfigurer grantedAuthoritiesMapper(GrantedAuthoritiesMapper grantedAuthoritiesMapper) {
+        this.grantedAuthoritiesMapper = grantedAuthoritiesMapper;
+        return this;
+    }
+
+    /**
+     * @param roleAuthorities the rules for the authorities given for LTI roles and context types
+     * @see Lti13Configurer#roleAuthorities(Customizer)
+     */
+    public Lti13ReactiveConfigurer roleAuthorities(Customizer<LtiRoleAuthoritiesMapper.Builder> roleAuthorities) {
+        LtiRoleAuthoritiesMapper.Builder builder = LtiRoleAuthoritiesMapper.builder();
+        roleAuthorities.customize(builder);
+        this.roleAuthoritiesMapper = builder.build();
+        return this;
+    }
+
+    /**
+     * This security context repository to persist the authentication in, by default the authentication isn't
+     * persisted.
+     */
+    public Lti13ReactiveConfigurer securityContextRepository(ServerSecurityContextRepository securityContextRepository) {
+        this.securityContextRepository = securityContextRepository;
+        return this;
+    }
+
+    /**
+     * @param limitIpAddresses if true then ensure that all the OAuth requests for a LTI launch come from the same IP
+     * @see Lti13Configurer#limitIpAddresses(boolean)
+     */
+    public Lti13ReactiveConfigurer limitIpAddresses(boolean limitIpAddresses) {
+        this.limitIpAddresses = limitIpAddresses;
+        return this;
+    }
+
+    /**
+     * The WebClient used to retrieve the platform's JWK Set, this allows timeouts and proxies to be configured.
+     */
+    public Lti13ReactiveConfigurer webClient(WebClient webClient) {
+        this.webClient = webClient;
+        return this;
+    }
+
+    /**
+     * @param claims the names of the claims of the ID token to keep in the principal
+     * @see Lti13Configurer#retainedClaims(String...)
+     */
+    public Lti13ReactiveConfigurer retainedClaims(String... claims) {
+        this.retainedClaims = Set.of(claims);
+        return this;
+    }
+
+    public void configure(ServerHttpSecurity http) {
+        // Allow LTI launches to bypass CSRF protection
+        http.csrf(csrf -> csrf.requireCsrfProtectionMatcher(new AndServerWebExchangeMatcher(
+                CsrfWebFilter.DEFAULT_CSRF_MATCHER,
+                new NegatedServerWebExchangeMatcher(ServerWebExchangeMatchers.pathMatchers(ltiPath + "/**"))
+        )));
+        // In the future we should use CSP to limit the domains that can embed this tool
+        http.headers(headers -> headers.frameOptions(ServerHttpSecurity.HeaderSpec.FrameOptionsSpec::disable));
+
+        ServerOptimisticAuthorizationRequestRepository authorizationRequestRepository = configureRequestRepository();
+        // This handles step 1 of the IMS SEC
+        // https://www.imsglobal.org/spec/security/v1p0/#step-1-third-party-initiated-login
+        http.addFilterAt(configureInitiationFilter(authorizationRequestRepository), SecurityWebFiltersOrder.HTTP_BASIC);
+        // This handles step 3 of the IMS SEC
+        // https://www.imsglobal.org/spec/security/v1p0/#step-3-authentication-response
+        http.addFilterAt(configureLoginFilter(configureAuthenticationManager(), authorizationRequestRepository), SecurityWebFiltersOrder.AUTHENTICATION);
+    }
+
+    protected ServerOptimisticAuthorizationRequestRepository configureRequestRepository() {
+        ServerWebSessionAuthorizationRequestRepository sessionRepository = new ServerWebSessionAuthorizationRequestRepository();
+        ServerStateAuthorizationRequestRepository stateRepository = new ServerStateAuthorizationRequestRepository(Duration.ofMinutes(1));
+        stateRepository.setLimitIpAddress(limitIpAddresses);
+        return new ServerOptimisticAuthorizationRequestRepository(sessionRepository, stateRepository);
+    }
+
+    protected OidcLaunchFlowReactiveAuthenticationManager configureAuthenticationManager() {
+        OidcLaunchFlowReactiveAuthenticationManager authenticationManager = new OidcLaunchFlowReactiveAuthenticationManager();
+        GrantedAuthoritiesMapper authoritiesMapper = authoritiesMapper();
+        if (authoritiesMapper != null) {
+            authenticationManager.setAuthoritiesMapper(authoritiesMapper);
+        }
+        if (webClient != null) {
+            authenticationManager.setWebClient(webClient);
+        }
+        authenticationManager.setRetainedClaims(retainedClaims);
+        return authenticationManager;
+    }
+
+    /**
+     * @return The mapper for the authorities of a launch, or null if the authorities aren't mapped.
+     */
+    protected GrantedAuthoritiesMapper authoritiesMapper() {
+        if (roleAuthoritiesMapper == null) {
+            return grantedAuthoritiesMapper;
+        }
+        if (grantedAuthoritiesMapper == null) {
+            return roleAuthoritiesMapper;
+        }
+        return authorities -> roleAuthoritiesMapper.mapAuthorities(grantedAuthoritiesMapper.mapAuthorities(authorities));
+    }
+
+    protected OAuth2AuthorizationRequestRedirectWebFilter configureInitiationFilter(ServerOptimisticAuthorizationRequestRepository authorizationRequestRepository) {
+        ServerOIDCInitiatingLoginRequestResolver resolver = new ServerOIDCInitiatingLoginRequestResolver(clientRegistrationRepository, ltiPath + loginInitiationPath);
+        OAuth2AuthorizationRequestRedirectWebFilter filter = new OAuth2AuthorizationRequestRedirectWebFilter(resolver);
+        filter.setAuthorizationRequestRepository(authorizationRequestRepository);
+        return filter;
+    }
+
+    protected AuthenticationWebFilter configureLoginFilter(OidcLaunchFlowReactiveAuthenticationManager oidcLaunchFlowAuthenticationManager, ServerOptimisticAuthorizationRequestRepository authorizationRequestRepository) {
+        // This is so that we can return the state to the client.
+        ReactiveAuthenticationManager authenticationManager = authentication -> oidcLaunchFlowAuthenticationManager.authenticate(authentication)
+                .cast(OidcLaunchFlowToken.class)
+                .map(result -> new OidcAuthenticationToken(
+                        result.getPrincipal(),
+                        result.getAuthorities(),
+                        result.getClientRegistration().getRegistrationId(),
+                        result.getAuthorizationExchange().getAuthorizationResponse().getState()
+                ));
+        AuthenticationWebFilter loginFilter = new AuthenticationWebFilter(authenticationManager);
+        loginFilter.setRequiresAuthenticationMatcher(ServerWebExchangeMatchers.pathMatchers(ltiPath + loginPath));
+        loginFilter.setServerAuthenticationConverter(new OidcLaunchFlowServerAuthenticationConverter(clientRegistrationRepository, authorizationRequestRepository));
+        // This is to find the URL that we should redirect the user to.
+        loginFilter.setAuthenticationSuccessHandler(new ServerTargetLinkUriAuthenticationSuccessHandler(authorizationRequestRepository));
+        // This is just so that you can get better error messages when something goes wrong.
+        loginFilter.setAuthenticationFailureHandler(new ServerOAuthAuthenticationFailureHandler());
+        if (securityContextRepository != null) {
+            loginFilter.setSecurityContextRepository(securityContextRepository);
+        }
+        return loginFilter;
+    }
+}
@@ -0,0 +1,243 @@
+package uk.ac.ox.ctl.lti13;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSSigner;
+import com.nimbusds.jose.crypto.ECDSASigner;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jca.JCAContext;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.util.Base64URL;
+import org.springframework.util.Assert;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.Provider;
+import java.security.PublicKey;
+import java.security.Security;
+import java.security.cert.Certificate;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Signs using keys held in a PKCS#11 token (a HSM, or SoftHSM for local testing) so the private keys are never in the
+ * JVM heap, we only ever have a handle to them. Each key needs a certificate stored with it in the token as the
+ * PKCS#11 keystore only lists keys that have one, and we need the public key for the key ID.
+ * <p>
+ * Tokens only support a limited number of sessions, so the number of signatures in progress at once is limited and
+ * callers wait (up to a timeout) for their turn. Combine this with a {@link ClientAssertionPool} to sign ahead of
+ * time so that bursts of launches don't queue up on the token.
+ */
+public class Pkcs11SignerService implements SignerService {
+
+    private final Provider provider;
+    private final KeyStore keyStore;
+    private final Semaphore permits;
+    private final ConcurrentMap<String, TokenKey> keys = new ConcurrentHashMap<>();
+
+    // Maps a client registration ID to the alias of the key in the token.
+    private Function<String, String> aliasResolver = Function.identity();
+    private Duration acquireTimeout = Duration.ofSeconds(5);
+
+    /**
+     * @param provider              A PKCS#11 provider that has been configured for the token.
+     * @param pin                   The PIN to log in to the token with.
+     * @param maxConcurrentSigns    The maximum number of signatures to have in progress at once.
+     */
+    public Pkcs11SignerService(Provider provider, char[] pin, int maxConcurrentSigns) {
+        Assert.notNull(provider, "provider cannot be null");
+        Assert.isTrue(maxConcurrentSigns > 0, "maxConcurrentSigns must be positive");
+        this.provider = provider;
+        this.permits = new Semaphore(maxConcurrentSigns, true);
+        try {
+            keyStore = KeyStore.getInstance("PKCS11", provider);
+            keyStore.load(null, pin);
+        } catch (GeneralSecurityException | IOException e) {
+            throw new IllegalStateException("Failed to open PKCS#11 token with " + provider.getName(), e);
+        }
+    }
+
+    /**
+     * Creates a service using the SunPKCS11 provider that comes with the JDK.
+     *
+     * @param configPath         The path to the SunPKCS11 configuration file, this names the PKCS#11 library and slot.
+     * @param pin                The PIN to log in to the token with.
+     * @param maxConcurrentSigns The maximum number of signatures to have in progress at once.
+     * @return The new service.
+     */
+    public static Pkcs11SignerService configure(String configPath, char[] pin, int maxConcurrentSigns) {
+        Provider sunPkcs11 = Security.getProvider("SunPKCS11");
+        if (sunPkcs11 == null) {
+            throw new IllegalStateException("The SunPKCS11 provider isn't available in this JVM");
+        }
+        return new Pkcs11SignerService(sunPkcs11.configure(configPath), pin, maxConcurrentSigns);
+    }
+
+    /**
+     * @param aliasResolver Maps a client registration ID to the alias of a key in the token, by default the
+     *                      registration ID is used as the alias.
+     */
+    public void setAliasResolver(Function<String, String> aliasResolver) {
+        Assert.notNull(aliasResolver, "aliasResolver cannot be null");
+        this.aliasResolver = aliasResolver;
+        keys.clear();
+    }
+
+    /**
+     * @param acquireTimeout How long to wait for the token to be free before failing to sign.
+     */
+    public void setAcquireTimeout(Duration acquireTimeout) {
+        Assert.notNull(acquireTimeout, "acquireTimeout cannot be null");
+        this.acquireTimeout = acquireTimeout;
+    }
+
+    @Override
+    public JWSSigner getSigner(String clientRegistrationId) throws JOSEException {
+        return getKey(clientRegistrationId).signer;
+    }
+
+    @Override
+    public String getKeyId(String clientRegistrationId) {
+        return getKeyUnchecked(clientRegistrationId).keyId;
+    }
+
+    @Override
+    public JWSAlgorithm getAlgorithm(String clientRegistrationId) {
+        return getKeyUnchecked(clientRegistrationId).algorithm;
+    }
+
+    @Override
+    public SigningKey getSigningKey(String clientRegistrationId) throws JOSEException {
+        TokenKey key = getKey(clientRegistrationId);
+        return new SigningKey(key.keyId, key.algorithm, key.signer);
+    }
+
+    /**
+     * @param clientRegistrationId The client's registration ID.
+     * @return The public key from the certificate in the token, this is what should be published to platforms.
+     */
+    public PublicKey getPublicKey(String clientRegistrationId) {
+        return getKeyUnchecked(clientRegistrationId).publicKey;
+    }
+
+    private TokenKey getKeyUnchecked(String clientRegistrationId) {
+        try {
+            return getKey(clientRegistrationId);
+        } catch (JOSEException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    private TokenKey getKey(String clientRegistrationId) throws JOSEException {
+        String alias = aliasResolver.apply(clientRegistrationId);
+        Assert.hasText(alias, "No key alias for client registration: " + clientRegistrationId);
+        TokenKey key = keys.get(alias);
+        if (key == null) {
+            // Loading the same key twice is harmless so don't hold a lock while talking to the token.
+            key = loadKey(alias);
+            TokenKey existing = keys.putIfAbsent(alias, key);
+            if (existing != null) {
+                key = existing;
+            }
+        }
+        return key;
+    }
+
+    private TokenKey loadKey(String alias) throws JOSEException {
+        try {
+            // With PKCS#11 this is a handle to the key, the key material stays in the token.
+            Key key = keyStore.getKey(alias, null);
+            Certificate certificate = keyStore.getCertificate(alias);
+            if (!(key instanceof PrivateKey privateKey) || certificate == null) {
+                throw new JOSEException("No private key with a certificate in the token for alias: " + alias);
+            }
+            PublicKey publicKey = certificate.getPublicKey();
+            JWSSigner signer;
+            JWSAlgorithm algorithm;
+            Base64URL thumbprint;
+            if (publicKey instanceof ECPublicKey ecPublicKey) {
+                Curve curve = Curve.forECParameterSpec(ecPublicKey.getParams());
+                signer = new ECDSASigner(privateKey, curve);
+                algorithm = JWSSignerCache.defaultAlgorithm(ecPublicKey);
+                thumbprint = new ECKey.Builder(curve, ecPublicKey).build().computeThumbprint();
+            } else if (publicKey instanceof RSAPublicKey rsaPublicKey) {
+                signer = new RSASSASigner(privateKey);
+                algorithm = JWSAlgorithm.RS256;
+                thumbprint = new RSAKey.Builder(rsaPublicKey).build().computeThumbprint();
+            } else {
+                throw new JOSEException("Unsupported key type for alias " + alias + ": " + publicKey.getAlgorithm());
+            }
+            signer.getJCAContext().setProvider(provider);
+            // Same key ID as the RotatingKeyPairService would give the key.
+            return new TokenKey(publicKey, thumbprint.toString(), algorithm, new BoundedSigner(signer));
+        } catch (GeneralSecurityException e) {
+            throw new JOSEException("Failed to load key from token for alias: " + alias, e);
+        }
+    }
+
+    private static final class TokenKey {
+        private final PublicKey publicKey;
+        private final String keyId;
+        private final JWSAlgorithm algorithm;
+        private final JWSSigner signer;
+
+        private TokenKey(PublicKey publicKey, String keyId, JWSAlgorithm algorithm, JWSSigner signer) {
+            this.publicKey = publicKey;
+            this.keyId = keyId;
+            this.algorithm = algorithm;
+            this.signer = signer;
+        }
+    }
+
+    /**
+     * Limits the number of signatures in progress on the token at once.
+     */
+    private final class BoundedSigner implements JWSSigner {
+
+        private final JWSSigner delegate;
+
+        private BoundedSigner(JWSSigner delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Base64URL sign(JWSHeader header, byte[] signingInput) throws JOSEException {
+            try {
+                if (!permits.tryAcquire(acquireTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                    throw new JOSEException("Timed out waiting to sign with PKCS#11 token");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new JOSEException("Interrupted waiting to sign with PKCS#11 token", e);
+            }
+            try {
+                return delegate.sign(header, signingInput);
+            } finally {
+                permits.release();
+            }
+        }
+
+        @Override
+        public Set<JWSAlgorithm> supportedJWSAlgorithms() {
+            return delegate.supportedJWSAlgorithms();
+        }
+
+        @Override
+        public JCAContext getJCAContext() {
+            return delegate.getJCAContext();
+        }
+    }
+}
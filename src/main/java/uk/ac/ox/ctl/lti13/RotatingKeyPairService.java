@@ -0,0 +1,228 @@
+package uk.ac.ox.ctl.lti13;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.KeyUse;
+import com.nimbusds.jose.jwk.RSAKey;
+import org.springframework.util.Assert;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Manages a previous, current and next key for each client registration. The current key is used for signing, the
+ * next key is published ahead of time so that platforms caching our JWK Set already have it when we rotate, and the
+ * previous key is kept so that anything signed just before a rotation can still be verified.
+ * <p>
+ * Keys are created on demand for registrations that haven't been given any keys, if you need keys to survive
+ * restarts load them with {@link #setKeys(String, KeyPair, KeyPair)}.
+ *
+ * @see uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.JWKSetFilter
+ */
+public class RotatingKeyPairService implements KeyPairService {
+
+    private final Supplier<KeyPair> keyPairGenerator;
+    private final ConcurrentMap<String, KeySet> keySets = new ConcurrentHashMap<>();
+    // Incremented every time the published keys change so that the JWK Set can be cached.
+    private final AtomicLong version = new AtomicLong();
+
+    /**
+     * Creates a service that generates 2048 bit RSA keys.
+     */
+    public RotatingKeyPairService() {
+        this(RotatingKeyPairService::generateRsaKeyPair);
+    }
+
+    /**
+     * @param keyPairGenerator Supplier of new key pairs, RSA and EC keys are supported.
+     */
+    public RotatingKeyPairService(Supplier<KeyPair> keyPairGenerator) {
+        Assert.notNull(keyPairGenerator, "keyPairGenerator cannot be null");
+        this.keyPairGenerator = keyPairGenerator;
+    }
+
+    @Override
+    public KeyPair getKeyPair(String clientRegistrationId) {
+        return getKeySet(clientRegistrationId).current.keyPair;
+    }
+
+    @Override
+    public String getKeyId(String clientRegistration) {
+        return getKeySet(clientRegistration).current.keyId;
+    }
+
+    @Override
+    public CurrentKey getCurrentKey(String clientRegistrationId) {
+        ManagedKey current = getKeySet(clientRegistrationId).current;
+        return new CurrentKey(current.keyId, current.keyPair);
+    }
+
+    /**
+     * Sets the keys for a registration, this is useful when loading keys from persistent storage.
+     *
+     * @param clientRegistrationId The client's registration ID.
+     * @param current              The key pair to sign with.
+     * @param next                 The key pair that will be used after the next rotation, if null one is generated.
+     */
+    public void setKeys(String clientRegistrationId, KeyPair current, KeyPair next) {
+        Assert.hasText(clientRegistrationId, "clientRegistrationId cannot be empty");
+        Assert.notNull(current, "current cannot be null");
+        keySets.put(clientRegistrationId, new KeySet(null, new ManagedKey(current), new ManagedKey(next != null ? next : keyPairGenerator.get())));
+        version.incrementAndGet();
+    }
+
+    /**
+     * Rotates the keys for a registration. The current key becomes the previous key, the next key becomes the current
+     * key and a new next key is generated. You should wait at least as long as platforms cache the JWK Set between
+     * rotations, otherwise a platform may not have seen the new current key.
+     *
+     * @param clientRegistrationId The client's registration ID.
+     */
+    public void rotate(String clientRegistrationId) {
+        Assert.hasText(clientRegistrationId, "clientRegistrationId cannot be empty");
+        // Generating keys is slow so the new next key is created before taking the map's lock and just swapped in.
+        ManagedKey next = new ManagedKey(keyPairGenerator.get());
+        if (keySets.computeIfPresent(clientRegistrationId, (id, keySet) -> new KeySet(keySet.current, keySet.next, next)) != null) {
+            version.incrementAndGet();
+        } else {
+            // Nothing to rotate, so this creates the keys.
+            getKeySet(clientRegistrationId);
+        }
+    }
+
+    /**
+     * Rotates the keys for all the registrations we currently have keys for.
+     */
+    public void rotateAll() {
+        keySets.keySet().forEach(this::rotate);
+    }
+
+    /**
+     * @return A JWK Set containing all the public keys (previous, current and next) for all registrations.
+     */
+    public JWKSet getJWKSet() {
+        // Keys are shared between registrations if they have been set that way, so only publish each once.
+        Map<String, JWK> jwks = new LinkedHashMap<>();
+        for (KeySet keySet : keySets.values()) {
+            for (ManagedKey key : keySet.published()) {
+                jwks.putIfAbsent(key.keyId, key.jwk);
+            }
+        }
+        return new JWKSet(new ArrayList<>(jwks.values()));
+    }
+
+    /**
+     * @return A value that changes whenever the public keys returned by {@link #getJWKSet()} change.
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    private KeySet getKeySet(String clientRegistrationId) {
+        Assert.hasText(clientRegistrationId, "clientRegistrationId cannot be empty");
+        KeySet keySet = keySets.get(clientRegistrationId);
+        if (keySet == null) {
+            // Generating keys is slow so it isn't done while holding the map's lock, if another thread got there first
+            // its keys are used instead.
+            KeySet created = createKeySet();
+            keySet = keySets.putIfAbsent(clientRegistrationId, created);
+            if (keySet == null) {
+                keySet = created;
+                version.incrementAndGet();
+            }
+        }
+        return keySet;
+    }
+
+    private KeySet createKeySet() {
+        return new KeySet(null, new ManagedKey(keyPairGenerator.get()), new ManagedKey(keyPairGenerator.get()));
+    }
+
+    private static KeyPair generateRsaKeyPair() {
+        try {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(2048);
+            return generator.generateKeyPair();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("RSA isn't supported by this JVM", e);
+        }
+    }
+
+    private static final class KeySet {
+        private final ManagedKey previous;
+        private final ManagedKey current;
+        private final ManagedKey next;
+
+        private KeySet(ManagedKey previous, ManagedKey current, ManagedKey next) {
+            this.previous = previous;
+            this.current = current;
+            this.next = next;
+        }
+
+        private List<ManagedKey> published() {
+            List<ManagedKey> keys = new ArrayList<>(3);
+            keys.add(current);
+            keys.add(next);
+            if (previous != null) {
+                keys.add(previous);
+            }
+            return keys;
+        }
+    }
+
+    private static final class ManagedKey {
+        private final KeyPair keyPair;
+        private final String keyId;
+        private final JWK jwk;
+
+        private ManagedKey(KeyPair keyPair) {
+            Assert.notNull(keyPair, "keyPair cannot be null");
+            this.keyPair = keyPair;
+            PublicKey publicKey = keyPair.getPublic();
+            try {
+                // The key ID is the thumbprint so the same key always gets the same ID, even across restarts.
+                if (publicKey instanceof RSAPublicKey rsaPublicKey) {
+                    RSAKey rsaKey = new RSAKey.Builder(rsaPublicKey).build();
+                    this.keyId = rsaKey.computeThumbprint().toString();
+                    this.jwk = new RSAKey.Builder(rsaPublicKey)
+                            .keyUse(KeyUse.SIGNATURE)
+                            .algorithm(JWSAlgorithm.RS256)
+                            .keyID(keyId)
+                            .build();
+                } else if (publicKey instanceof ECPublicKey ecPublicKey) {
+                    Curve curve = Curve.forECParameterSpec(ecPublicKey.getParams());
+                    if (curve == null) {
+                        throw new IllegalArgumentException("Unsupported EC curve: " + ecPublicKey.getParams());
+                    }
+                    ECKey ecKey = new ECKey.Builder(curve, ecPublicKey).build();
+                    this.keyId = ecKey.computeThumbprint().toString();
+                    this.jwk = new ECKey.Builder(curve, ecPublicKey)
+                            .keyUse(KeyUse.SIGNATURE)
+                            .algorithm(JWSSignerCache.defaultAlgorithm(ecPublicKey))
+                            .keyID(keyId)
+                            .build();
+                } else {
+                    throw new IllegalArgumentException("Unsupported key type: " + publicKey.getAlgorithm());
+                }
+            } catch (JOSEException e) {
+                throw new IllegalArgumentException("Failed to compute thumbprint of key", e);
+            }
+        }
+    }
+}
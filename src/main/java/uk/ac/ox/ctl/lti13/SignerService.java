@@ -0,0 +1,54 @@
+package uk.ac.ox.ctl.lti13;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSSigner;
+
+/**
+ * This maps a client registration ID to a signer to be used for signing. Unlike {@link KeyPairService} the private
+ * key doesn't have to be available to the JVM, so the signing can be done by a HSM.
+ *
+ * @see KeyPairSignerService
+ * @see Pkcs11SignerService
+ */
+public interface SignerService {
+
+    /**
+     * Gets the signer to be used with a particular client.
+     * @param clientRegistrationId The client's registration ID.
+     * @return A signer that can be shared between threads.
+     * @throws JOSEException If the signer can't be created.
+     */
+    JWSSigner getSigner(String clientRegistrationId) throws JOSEException;
+
+    /**
+     * Gets the key ID to be used with a particular client.
+     * @param clientRegistrationId The client's registration ID.
+     * @return The Key ID to use.
+     */
+    String getKeyId(String clientRegistrationId);
+
+    /**
+     * Gets the algorithm to be used with a particular client, this must be supported by the signer.
+     * @param clientRegistrationId The client's registration ID.
+     * @return The algorithm to use.
+     */
+    JWSAlgorithm getAlgorithm(String clientRegistrationId);
+
+    /**
+     * Gets the signer, key ID and algorithm together. Services whose keys can change should override this so that
+     * the key ID in the header always matches the key that did the signing.
+     * @param clientRegistrationId The client's registration ID.
+     * @return The signer and the key ID and algorithm that go with it.
+     * @throws JOSEException If the signer can't be created.
+     */
+    default SigningKey getSigningKey(String clientRegistrationId) throws JOSEException {
+        return new SigningKey(getKeyId(clientRegistrationId), getAlgorithm(clientRegistrationId), getSigner(clientRegistrationId));
+    }
+
+    /**
+     * A signer and the key ID and algorithm to put in the header of anything it signs.
+     */
+    record SigningKey(String keyId, JWSAlgorithm algorithm, JWSSigner signer) {
+    }
+}
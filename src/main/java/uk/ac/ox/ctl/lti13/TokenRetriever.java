@@ -4,12 +4,12 @@ import com.nimbusds.jose.JOSEException;
 import com.nimbusds.jose.JOSEObjectType;
 import com.nimbusds.jose.JWSAlgorithm;
 import com.nimbusds.jose.JWSHeader;
-import com.nimbusds.jose.crypto.RSASSASigner;
 import com.nimbusds.jwt.JWTClaimsSet;
 import com.nimbusds.jwt.SignedJWT;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.*;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
 import org.springframework.http.converter.FormHttpMessageConverter;
 import org.springframework.http.converter.HttpMessageConverter;
 import org.springframework.security.oauth2.client.http.OAuth2ErrorResponseErrorHandler;
@@ -20,11 +20,14 @@ import org.springframework.stereotype.Component;
 import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
 import org.springframework.web.client.RestTemplate;
+import uk.ac.ox.ctl.lti13.jfr.TokenRequestEvent;
+import uk.ac.ox.ctl.lti13.metrics.LtiMetrics;
 
 import java.net.URI;
-import java.security.KeyPair;
+import java.security.Provider;
 import java.time.Instant;
 import java.util.*;
+import java.util.function.Consumer;
 
 /**
  * This gets a token to use for LTI Services.
@@ -41,11 +44,46 @@ public class TokenRetriever {
     // Lifetime of our JWT in seconds
     private int jwtLifetime = 60;
 
-    private final KeyPairService keyPairService;
+    // If null the algorithm is picked based on the type of key.
+    private JWSAlgorithm jwsAlgorithm;
+
+    private final SignerService signerService;
     private final RestTemplate restTemplate;
 
+    // If set client assertions are signed ahead of time.
+    private ClientAssertionPool assertionPool;
+
+    private LtiMetrics metrics = LtiMetrics.NOOP;
+
+    private SigningListener signingListener;
+
+    /**
+     * Told when a client assertion is signed while a request is waiting for an access token, so that the time
+     * spent signing can be told apart from the time spent waiting for the token endpoint.
+     */
+    @FunctionalInterface
+    public interface SigningListener {
+
+        /**
+         * Called before the client assertion is signed.
+         *
+         * @param clientRegistrationId The client's registration ID.
+         * @return Called once the signing has finished with the failure, or null if it was signed.
+         */
+        Consumer<Throwable> signing(String clientRegistrationId);
+    }
+
     public TokenRetriever(KeyPairService keyPairService) {
-        this.keyPairService = keyPairService;
+        this(new KeyPairSignerService(keyPairService));
+    }
+
+    /**
+     * @param signerService Supplies the signer for each registration, use this when the private keys aren't
+     *                      available to the JVM (eg {@link Pkcs11SignerService}).
+     */
+    public TokenRetriever(SignerService signerService) {
+        Objects.requireNonNull(signerService, "You must supply a signerService.");
+        this.signerService = signerService;
         restTemplate = new RestTemplate(Arrays.asList(
                 new FormHttpMessageConverter(), new OAuth2AccessTokenResponseHttpMessageConverter()));
         restTemplate.setErrorHandler(new OAuth2ErrorResponseErrorHandler());
@@ -56,38 +94,148 @@ public class TokenRetriever {
         this.restTemplate.getMessageConverters().add(converter);
     }
 
+    /**
+     * Adds an interceptor to the requests made to the token endpoint, they are run in the order they are added.
+     */
+    public void addInterceptor(ClientHttpRequestInterceptor interceptor) {
+        Objects.requireNonNull(interceptor, "You must supply an interceptor.");
+        this.restTemplate.getInterceptors().add(interceptor);
+    }
+
     public void setJwtLifetime(int jwtLifetime) {
         this.jwtLifetime = jwtLifetime;
     }
 
+    /**
+     * Sets the algorithm used to sign the JWT, this must match the type of key used by the
+     * {@link SignerService} and be accepted by the platform. By default the algorithm from the
+     * {@link SignerService} is used.
+     *
+     * @param jwsAlgorithm The algorithm to use, or null to pick one based on the key.
+     */
+    public void setJwsAlgorithm(JWSAlgorithm jwsAlgorithm) {
+        this.jwsAlgorithm = jwsAlgorithm;
+    }
+
+    /**
+     * Sets the JCA provider used when signing JWTs, this allows a faster native provider to be used.
+     * This is only supported when signing with a {@link KeyPairService}.
+     *
+     * @param provider The JCA provider, or null to use the default.
+     */
+    public void setJcaProvider(Provider provider) {
+        if (!(signerService instanceof KeyPairSignerService keyPairSignerService)) {
+            throw new IllegalStateException("The JCA provider can only be set when using a KeyPairService");
+        }
+        keyPairSignerService.setProvider(provider);
+    }
+
+    /**
+     * Sets a pool to get pre-signed client assertions from, this moves the signing off the request thread.
+     * The JWT lifetime must be longer than the minimum lifetime of the pool for any assertions to be pooled.
+     *
+     * @param assertionPool The pool to use, or null to sign each assertion when it's needed.
+     */
+    public void setAssertionPool(ClientAssertionPool assertionPool) {
+        this.assertionPool = assertionPool;
+    }
+
+    /**
+     * Sets where the timings of token requests are recorded.
+     *
+     * @param metrics The metrics to record to.
+     */
+    public void setMetrics(LtiMetrics metrics) {
+        Objects.requireNonNull(metrics, "You must supply metrics.");
+        this.metrics = metrics;
+    }
+
+    /**
+     * Sets the listener that is told when a client assertion is signed on the calling thread, assertions that
+     * come from the {@link ClientAssertionPool} aren't signed then.
+     *
+     * @param signingListener The listener, or null to not tell anything.
+     */
+    public void setSigningListener(SigningListener signingListener) {
+        this.signingListener = signingListener;
+    }
+
     public OAuth2AccessTokenResponse getToken(ClientRegistration clientRegistration, String... scopes) throws JOSEException {
         if (scopes.length == 0) {
             throw new IllegalArgumentException("You must supply some scopes to request.");
         }
         Objects.requireNonNull(clientRegistration, "You must supply a clientRegistration.");
 
-        SignedJWT signedJWT = createJWT(clientRegistration);
-        MultiValueMap<String, String> formData = buildFormData(signedJWT, scopes);
-        // We are using RestTemplate here as that's what the existing OAuth2 code in Spring uses at the moment.
-        HttpHeaders headers = new HttpHeaders();
-        headers.setAccept(Collections.singletonList(MediaType.APPLICATION_JSON));
-        RequestEntity<MultiValueMap<String, String>> requestEntity = new RequestEntity<>(
-                formData, headers, HttpMethod.POST, URI.create(clientRegistration.getProviderDetails().getTokenUri())
-        );
-        ResponseEntity<OAuth2AccessTokenResponse> exchange = restTemplate.exchange(requestEntity, OAuth2AccessTokenResponse.class);
-        return exchange.getBody();
+        TokenRequestEvent event = new TokenRequestEvent();
+        event.begin();
+        ClientAssertion clientAssertion = null;
+        long start = System.nanoTime();
+        try {
+            clientAssertion = clientAssertion(clientRegistration);
+            MultiValueMap<String, String> formData = buildFormData(clientAssertion.value(), scopes);
+            // We are using RestTemplate here as that's what the existing OAuth2 code in Spring uses at the moment.
+            HttpHeaders headers = new HttpHeaders();
+            headers.setAccept(Collections.singletonList(MediaType.APPLICATION_JSON));
+            RequestEntity<MultiValueMap<String, String>> requestEntity = new RequestEntity<>(
+                    formData, headers, HttpMethod.POST, URI.create(clientRegistration.getProviderDetails().getTokenUri())
+            );
+            ResponseEntity<OAuth2AccessTokenResponse> exchange = restTemplate.exchange(requestEntity, OAuth2AccessTokenResponse.class);
+            metrics.tokenExchange(clientRegistration.getRegistrationId(), LtiMetrics.SUCCESS, System.nanoTime() - start);
+            return exchange.getBody();
+        } catch (JOSEException | RuntimeException e) {
+            metrics.tokenExchange(clientRegistration.getRegistrationId(), LtiMetrics.outcome(e), System.nanoTime() - start);
+            event.failed(e);
+            throw e;
+        } finally {
+            if (event.shouldCommit()) {
+                event.registrationId = clientRegistration.getRegistrationId();
+                event.scopes = String.join(" ", scopes);
+                event.assertionSize = clientAssertion != null ? clientAssertion.value().length() : 0;
+                event.assertionPooled = clientAssertion != null && !clientAssertion.signed();
+                event.commit();
+            }
+        }
     }
 
-    private SignedJWT createJWT(ClientRegistration clientRegistration) throws JOSEException {
-        KeyPair keyPair = keyPairService.getKeyPair(clientRegistration.getRegistrationId());
-        if (keyPair == null) {
-            throw new NullPointerException(
-                    "Failed to get keypair for client registration: "+ clientRegistration.getRegistrationId()
-            );
+    /**
+     * @param value  The serialized client assertion.
+     * @param signed If it was signed on this thread rather than coming from the pool.
+     */
+    private record ClientAssertion(String value, boolean signed) {
+    }
+
+    private ClientAssertion clientAssertion(ClientRegistration clientRegistration) throws JOSEException {
+        if (assertionPool != null) {
+            // The pool signs in the background so the signing listener isn't told about those.
+            String pooled = assertionPool.take(clientRegistration, signerService.getKeyId(clientRegistration.getRegistrationId()), this::createJWT);
+            if (pooled != null) {
+                return new ClientAssertion(pooled, false);
+            }
+        }
+        return new ClientAssertion(signNow(clientRegistration).serialize(), true);
+    }
+
+    private SignedJWT signNow(ClientRegistration clientRegistration) throws JOSEException {
+        SigningListener listener = this.signingListener;
+        if (listener == null) {
+            return createJWT(clientRegistration);
+        }
+        Consumer<Throwable> signed = listener.signing(clientRegistration.getRegistrationId());
+        try {
+            SignedJWT signedJWT = createJWT(clientRegistration);
+            signed.accept(null);
+            return signedJWT;
+        } catch (JOSEException | RuntimeException e) {
+            signed.accept(e);
+            throw e;
         }
-        String keyId = keyPairService.getKeyId(clientRegistration.getRegistrationId());
+    }
 
-        RSASSASigner signer = new RSASSASigner(keyPair.getPrivate());
+    private SignedJWT createJWT(ClientRegistration clientRegistration) throws JOSEException {
+        String registrationId = clientRegistration.getRegistrationId();
+        SignerService.SigningKey signingKey = signerService.getSigningKey(registrationId);
+        String keyId = signingKey.keyId();
+        JWSAlgorithm algorithm = jwsAlgorithm != null ? jwsAlgorithm : signingKey.algorithm();
 
         JWTClaimsSet claimsSet = new JWTClaimsSet.Builder()
                 // Both must be set to client ID according to spec.
@@ -102,14 +250,14 @@ public class TokenRetriever {
 
         // We don't have to include a key ID, however if we don't then when you use a JWK file the consuming application
         // won't know which key to use to verify the signature
-        final JWSHeader.Builder builder = new JWSHeader.Builder(JWSAlgorithm.RS256);
+        final JWSHeader.Builder builder = new JWSHeader.Builder(algorithm);
         builder.type(JOSEObjectType.JWT);
         if (keyId != null) {
             builder.keyID(keyId);
         }
         JWSHeader jwt = builder.build();
         SignedJWT signedJWT = new SignedJWT(jwt, claimsSet);
-        signedJWT.sign(signer);
+        signedJWT.sign(signingKey.signer());
 
         if (log.isDebugEnabled()) {
             log.debug("Created signed token: {}", signedJWT.serialize());
@@ -118,12 +266,12 @@ public class TokenRetriever {
         return signedJWT;
     }
 
-    private MultiValueMap<String, String> buildFormData(SignedJWT signedJWT, String[] scopes) {
+    private MultiValueMap<String, String> buildFormData(String clientAssertion, String[] scopes) {
         MultiValueMap<String, String> formData = new LinkedMultiValueMap<>();
         formData.add("grant_type", "client_credentials");
         formData.add("client_assertion_type", "urn:ietf:params:oauth:client-assertion-type:jwt-bearer");
         formData.add("scope", String.join(" ", scopes));
-        formData.add("client_assertion", signedJWT.serialize());
+        formData.add("client_assertion", clientAssertion);
         return formData;
     }
 
@@ -0,0 +1,78 @@
+package uk.ac.ox.ctl.lti13.ags;
+
+import org.springframework.security.oauth2.core.oidc.user.OidcUser;
+import uk.ac.ox.ctl.lti13.nrps.LtiScopes;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The assignment and grade services endpoint claim from a launch.
+ *
+ * @see <a href="https://www.imsglobal.org/spec/lti-ags/v2p0#assignment-and-grade-service-claim">https://www.imsglobal.org/spec/lti-ags/v2p0#assignment-and-grade-service-claim</a>
+ */
+public class AgsEndpoint {
+
+    private final String lineItems;
+    private final String lineItem;
+    private final List<String> scopes;
+
+    public AgsEndpoint(String lineItems, String lineItem, List<String> scopes) {
+        this.lineItems = lineItems;
+        this.lineItem = lineItem;
+        this.scopes = scopes != null ? List.copyOf(scopes) : Collections.emptyList();
+    }
+
+    /**
+     * @return The endpoint from the launch, or null if the platform didn't include one.
+     */
+    public static AgsEndpoint from(OidcUser principal) {
+        return from(principal.getClaims());
+    }
+
+    /**
+     * @return The endpoint from the claims of a launch, or null if the platform didn't include one.
+     */
+    public static AgsEndpoint from(Map<String, Object> claims) {
+        Object claim = claims.get(LtiScopes.LTI_AGS_CLAIM);
+        if (!(claim instanceof Map<?, ?> json)) {
+            return null;
+        }
+        List<String> scopes = new ArrayList<>();
+        if (json.get("scope") instanceof Collection<?> values) {
+            for (Object value : values) {
+                scopes.add(String.valueOf(value));
+            }
+        }
+        return new AgsEndpoint(asString(json.get("lineitems")), asString(json.get("lineitem")), scopes);
+    }
+
+    private static String asString(Object value) {
+        return value != null ? value.toString() : null;
+    }
+
+    /**
+     * @return The URL of the line items in the context, may be null.
+     */
+    public String getLineItems() {
+        return lineItems;
+    }
+
+    /**
+     * @return The URL of the line item for the resource link that was launched, may be null.
+     */
+    public String getLineItem() {
+        return lineItem;
+    }
+
+    public List<String> getScopes() {
+        return scopes;
+    }
+
+    public boolean hasScope(String scope) {
+        return scopes.contains(scope);
+    }
+}
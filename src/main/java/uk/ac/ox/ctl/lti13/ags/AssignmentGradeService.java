@@ -0,0 +1,271 @@
+package uk.ac.ox.ctl.lti13.ags;
+
+import com.nimbusds.jose.JOSEException;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.RequestEntity;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.client.registration.ClientRegistrationRepository;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.util.UriComponentsBuilder;
+import uk.ac.ox.ctl.lti13.TokenRetriever;
+import uk.ac.ox.ctl.lti13.nrps.LtiScopes;
+
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * A client for the Assignment and Grade Services. Access tokens are cached for each registration and scope
+ * so that publishing lots of scores doesn't get a new token for each one.
+ *
+ * @see <a href="https://www.imsglobal.org/spec/lti-ags/v2p0">https://www.imsglobal.org/spec/lti-ags/v2p0</a>
+ * @see ScorePublisher
+ */
+public class AssignmentGradeService {
+
+    static final MediaType LINE_ITEM = MediaType.parseMediaType("application/vnd.ims.lis.v2.lineitem+json");
+    static final MediaType LINE_ITEM_CONTAINER = MediaType.parseMediaType("application/vnd.ims.lis.v2.lineitemcontainer+json");
+    static final MediaType RESULT_CONTAINER = MediaType.parseMediaType("application/vnd.ims.lis.v2.resultcontainer+json");
+    static final MediaType SCORE = MediaType.parseMediaType("application/vnd.ims.lis.v1.score+json");
+
+    // Tokens are refreshed this long before they expire so they don't expire while a request is being sent.
+    private static final Duration TOKEN_EXPIRY_MARGIN = Duration.ofSeconds(30);
+
+    private final ClientRegistrationRepository clientRegistrationRepository;
+    private final TokenRetriever tokenRetriever;
+    private final RestTemplate restTemplate = new RestTemplate();
+    private final Map<String, CompletableFuture<OAuth2AccessToken>> tokens = new ConcurrentHashMap<>();
+
+    public AssignmentGradeService(ClientRegistrationRepository clientRegistrationRepository, TokenRetriever tokenRetriever) {
+        Objects.requireNonNull(clientRegistrationRepository, "You must supply a clientRegistrationRepository.");
+        Objects.requireNonNull(tokenRetriever, "You must supply a tokenRetriever.");
+        this.clientRegistrationRepository = clientRegistrationRepository;
+        this.tokenRetriever = tokenRetriever;
+    }
+
+    /**
+     * Adds an interceptor to the requests made to the platform, they are run in the order they are added.
+     */
+    public void addInterceptor(ClientHttpRequestInterceptor interceptor) {
+        Objects.requireNonNull(interceptor, "You must supply an interceptor.");
+        restTemplate.getInterceptors().add(interceptor);
+    }
+
+    RestTemplate getRestTemplate() {
+        return restTemplate;
+    }
+
+    /**
+     * Gets all the line items, following the next links if the platform pages them.
+     *
+     * @param lineItemsUrl The line items URL from the {@link AgsEndpoint}.
+     */
+    public List<LineItem> getLineItems(String clientRegistrationId, String lineItemsUrl) {
+        return getAllPages(clientRegistrationId, LtiScopes.LTI_AGS_LINEITEM_READONLY_SCOPE, URI.create(lineItemsUrl),
+                LINE_ITEM_CONTAINER, new ParameterizedTypeReference<List<LineItem>>() {});
+    }
+
+    public LineItem getLineItem(String clientRegistrationId, String lineItemUrl) {
+        return exchange(clientRegistrationId, LtiScopes.LTI_AGS_LINEITEM_READONLY_SCOPE, token ->
+                RequestEntity.get(URI.create(lineItemUrl)).headers(auth(token)).accept(LINE_ITEM).build(),
+                LineItem.class).getBody();
+    }
+
+    /**
+     * @return The line item that was created, this will have its ID set.
+     */
+    public LineItem createLineItem(String clientRegistrationId, String lineItemsUrl, LineItem lineItem) {
+        return exchange(clientRegistrationId, LtiScopes.LTI_AGS_LINEITEM_SCOPE, token ->
+                RequestEntity.post(URI.create(lineItemsUrl)).headers(auth(token)).accept(LINE_ITEM).contentType(LINE_ITEM).body(lineItem),
+                LineItem.class).getBody();
+    }
+
+    /**
+     * @param lineItem The line item to update, the ID must be set.
+     */
+    public LineItem updateLineItem(String clientRegistrationId, LineItem lineItem) {
+        Objects.requireNonNull(lineItem.getId(), "The line item must have an ID.");
+        return exchange(clientRegistrationId, LtiScopes.LTI_AGS_LINEITEM_SCOPE, token ->
+                RequestEntity.put(URI.create(lineItem.getId())).headers(auth(token)).accept(LINE_ITEM).contentType(LINE_ITEM).body(lineItem),
+                LineItem.class).getBody();
+    }
+
+    public void deleteLineItem(String clientRegistrationId, String lineItemUrl) {
+        exchange(clientRegistrationId, LtiScopes.LTI_AGS_LINEITEM_SCOPE, token ->
+                RequestEntity.delete(URI.create(lineItemUrl)).headers(auth(token)).build(), Void.class);
+    }
+
+    /**
+     * Gets all the results for a line item, following the next links if the platform pages them.
+     */
+    public List<Result> getResults(String clientRegistrationId, String lineItemUrl) {
+        return getAllPages(clientRegistrationId, LtiScopes.LTI_AGS_RESULT_READONLY_SCOPE, serviceUri(lineItemUrl, "/results"),
+                RESULT_CONTAINER, new ParameterizedTypeReference<List<Result>>() {});
+    }
+
+    /**
+     * Sends a score to the platform straight away, to send lots of scores use a {@link ScorePublisher}.
+     */
+    public void publishScore(String clientRegistrationId, String lineItemUrl, Score score) {
+        URI uri = serviceUri(lineItemUrl, "/scores");
+        exchange(clientRegistrationId, LtiScopes.LTI_AGS_SCORE_SCOPE, token ->
+                RequestEntity.post(uri).headers(auth(token)).contentType(SCORE).body(score), Void.class);
+    }
+
+    private <T> List<T> getAllPages(String clientRegistrationId, String scope, URI uri, MediaType mediaType,
+                                    ParameterizedTypeReference<List<T>> type) {
+        List<T> all = new ArrayList<>();
+        URI next = uri;
+        while (next != null) {
+            URI page = next;
+            ResponseEntity<List<T>> response = exchange(clientRegistrationId, scope, token ->
+                    RequestEntity.get(page).headers(auth(token)).accept(mediaType).build(), type);
+            if (response.getBody() != null) {
+                all.addAll(response.getBody());
+            }
+            String link = nextLink(response.getHeaders().get(HttpHeaders.LINK));
+            next = link != null ? URI.create(link) : null;
+        }
+        return all;
+    }
+
+    private <T> ResponseEntity<T> exchange(String clientRegistrationId, String scope,
+                                           Function<OAuth2AccessToken, RequestEntity<?>> request, Class<T> type) {
+        return exchange(clientRegistrationId, scope, request, ParameterizedTypeReference.forType(type));
+    }
+
+    private <T> ResponseEntity<T> exchange(String clientRegistrationId, String scope,
+                                           Function<OAuth2AccessToken, RequestEntity<?>> request, ParameterizedTypeReference<T> type) {
+        OAuth2AccessToken token = getAccessToken(clientRegistrationId, scope);
+        try {
+            return restTemplate.exchange(request.apply(token), type);
+        } catch (HttpClientErrorException.Unauthorized e) {
+            // The platform may have revoked the token before it expired, so try once more with a new one.
+            removeAccessToken(clientRegistrationId, scope, token);
+            return restTemplate.exchange(request.apply(getAccessToken(clientRegistrationId, scope)), type);
+        }
+    }
+
+    /**
+     * Gets a cached access token, only one is requested at a time for each registration and scope. The request to
+     * the platform is made outside the map so other registrations and scopes aren't held up while it happens.
+     */
+    OAuth2AccessToken getAccessToken(String clientRegistrationId, String scope) {
+        String key = tokenKey(clientRegistrationId, scope);
+        while (true) {
+            CompletableFuture<OAuth2AccessToken> existing = tokens.get(key);
+            if (existing != null && !existing.isDone()) {
+                // Another thread is already getting a token, so wait for that one.
+                try {
+                    return existing.join();
+                } catch (CompletionException e) {
+                    if (e.getCause() instanceof RuntimeException cause) {
+                        throw cause;
+                    }
+                    throw e;
+                }
+            }
+            if (existing != null && !existing.isCompletedExceptionally() && isValid(existing.join())) {
+                return existing.join();
+            }
+            CompletableFuture<OAuth2AccessToken> fetch = new CompletableFuture<>();
+            boolean claimed = existing == null ? tokens.putIfAbsent(key, fetch) == null : tokens.replace(key, existing, fetch);
+            if (!claimed) {
+                // Another thread started getting a token first.
+                continue;
+            }
+            try {
+                OAuth2AccessToken token = fetchAccessToken(clientRegistrationId, scope);
+                fetch.complete(token);
+                return token;
+            } catch (RuntimeException e) {
+                // Don't cache the failure, the next caller should try again.
+                tokens.remove(key, fetch);
+                fetch.completeExceptionally(e);
+                throw e;
+            }
+        }
+    }
+
+    private OAuth2AccessToken fetchAccessToken(String clientRegistrationId, String scope) {
+        ClientRegistration clientRegistration = clientRegistrationRepository.findByRegistrationId(clientRegistrationId);
+        if (clientRegistration == null) {
+            throw new IllegalStateException("Failed to find client registration for: " + clientRegistrationId);
+        }
+        try {
+            return tokenRetriever.getToken(clientRegistration, scope).getAccessToken();
+        } catch (JOSEException e) {
+            throw new RuntimeException("Failed to sign JWT", e);
+        }
+    }
+
+    /**
+     * Removes the token from the cache, unless it has already been replaced by a newer one.
+     */
+    private void removeAccessToken(String clientRegistrationId, String scope, OAuth2AccessToken token) {
+        String key = tokenKey(clientRegistrationId, scope);
+        CompletableFuture<OAuth2AccessToken> existing = tokens.get(key);
+        if (existing != null && existing.isDone() && !existing.isCompletedExceptionally() && existing.join() == token) {
+            tokens.remove(key, existing);
+        }
+    }
+
+    private static boolean isValid(OAuth2AccessToken token) {
+        return token.getExpiresAt() != null && Instant.now().plus(TOKEN_EXPIRY_MARGIN).isBefore(token.getExpiresAt());
+    }
+
+    private static String tokenKey(String clientRegistrationId, String scope) {
+        return clientRegistrationId + " " + scope;
+    }
+
+    private static Consumer<HttpHeaders> auth(OAuth2AccessToken token) {
+        return headers -> headers.setBearerAuth(token.getTokenValue());
+    }
+
+    /**
+     * The results and scores services are below the line item, which may have a query string.
+     */
+    static URI serviceUri(String lineItemUrl, String service) {
+        return UriComponentsBuilder.fromUriString(lineItemUrl).path(service).build(true).toUri();
+    }
+
+    /**
+     * @return The URL of the next page from the Link headers, or null if there isn't one.
+     */
+    static String nextLink(List<String> links) {
+        if (links == null) {
+            return null;
+        }
+        for (String header : links) {
+            for (String link : header.split(",")) {
+                String[] parts = link.split(";");
+                String url = parts[0].trim();
+                if (!url.startsWith("<") || !url.endsWith(">")) {
+                    continue;
+                }
+                for (int i = 1; i < parts.length; i++) {
+                    String param = parts[i].trim().replace(" ", "");
+                    if (param.equalsIgnoreCase("rel=\"next\"") || param.equalsIgnoreCase("rel=next")) {
+                        return url.substring(1, url.length() - 1);
+                    }
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,357 @@
+package uk.ac.ox.ctl.lti13.ags;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * An outbox that keeps scores in append-only segment files in a directory, so scores that haven't been sent
+ * are sent after a restart. Appending a score is a write to a memory mapped file so doesn't wait on the disk.
+ * <p>
+ * Each segment is a list of records:
+ * <pre>
+ * size (int) | crc32c (int) | type (byte) | id (long) | payload
+ * </pre>
+ * A submit record has the score as JSON for its payload and an acknowledge record has no payload. The size is
+ * of the whole record so is never zero, a zero size marks the end of the segment. It is written last and the
+ * crc is checked so a record that was only partly written is ignored when the segments are read back.
+ * Once every score in the oldest segment has been acknowledged it is deleted.
+ * <p>
+ * Written records are in the OS page cache so survive the JVM stopping, to also survive the OS stopping
+ * {@link #setForce(boolean) force} each write to disk, at the cost of slower appends.
+ * Only one outbox should use a directory at a time.
+ */
+public class FileScoreOutbox implements ScoreOutbox {
+
+    private final Logger log = LoggerFactory.getLogger(FileScoreOutbox.class);
+
+    static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+    private static final int HEADER_SIZE = 4 + 4 + 1 + 8;
+    private static final byte SUBMIT = 1;
+    private static final byte ACKNOWLEDGE = 2;
+    private static final Pattern SEGMENT_NAME = Pattern.compile("scores-(\\d{16})\\.log");
+
+    /**
+     * What is written for each score.
+     */
+    private record Payload(String clientRegistrationId, String lineItemUrl, Score score) {
+    }
+
+    private static class Segment {
+        private final long number;
+        private final Path path;
+        private MappedByteBuffer buffer;
+        // Scores written to this segment that haven't been acknowledged.
+        private int live;
+
+        private Segment(long number, Path path, MappedByteBuffer buffer) {
+            this.number = number;
+            this.path = path;
+            this.buffer = buffer;
+        }
+    }
+
+    private record Stored(Entry entry, Segment segment) {
+    }
+
+    private final Path directory;
+    private final int segmentSize;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final CRC32C crc = new CRC32C();
+
+    // All guarded by this.
+    private final TreeMap<Long, Stored> pending = new TreeMap<>();
+    // Oldest first, the last one is the one being written to.
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private long nextId = 1;
+    private boolean force;
+    private boolean closed;
+
+    public FileScoreOutbox(Path directory) {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens the outbox, reading back any scores that haven't been acknowledged.
+     *
+     * @param directory   The directory to keep the segments in, it is created if it doesn't exist.
+     * @param segmentSize The size of each segment file in bytes.
+     */
+    public FileScoreOutbox(Path directory, int segmentSize) {
+        Assert.notNull(directory, "directory cannot be null");
+        Assert.isTrue(segmentSize >= 1024, "segmentSize must be at least 1024 bytes");
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        try {
+            Files.createDirectories(directory);
+            recover();
+            if (segments.isEmpty()) {
+                segments.add(openSegment(1));
+            }
+            deleteAcknowledgedSegments();
+        } catch (IOException e) {
+            close();
+            throw new UncheckedIOException("Failed to open score outbox in " + directory, e);
+        }
+    }
+
+    /**
+     * @param force If true each write is forced to disk before returning.
+     */
+    public synchronized void setForce(boolean force) {
+        this.force = force;
+    }
+
+    @Override
+    public long append(String clientRegistrationId, String lineItemUrl, Score score) {
+        byte[] payload;
+        try {
+            // Serialise outside the lock so concurrent submissions only wait for the copy.
+            payload = mapper.writeValueAsBytes(new Payload(clientRegistrationId, lineItemUrl, score));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to serialise score", e);
+        }
+        Assert.isTrue(HEADER_SIZE + payload.length + 4 <= segmentSize, "Score is too large for the segment size");
+        synchronized (this) {
+            checkOpen();
+            long id = nextId++;
+            Segment segment = write(SUBMIT, id, payload);
+            segment.live++;
+            pending.put(id, new Stored(new Entry(id, clientRegistrationId, lineItemUrl, score), segment));
+            return id;
+        }
+    }
+
+    @Override
+    public synchronized List<Entry> pending() {
+        return pending(Long.MIN_VALUE);
+    }
+
+    @Override
+    public synchronized List<Entry> pending(long afterId) {
+        Map<Long, Stored> after = pending.tailMap(afterId, false);
+        List<Entry> entries = new ArrayList<>(after.size());
+        for (Stored stored : after.values()) {
+            entries.add(stored.entry());
+        }
+        return entries;
+    }
+
+    @Override
+    public synchronized boolean acknowledge(long id) {
+        checkOpen();
+        Stored stored = pending.get(id);
+        if (stored == null) {
+            return false;
+        }
+        // Only forget it once the acknowledgement is written, otherwise it would be sent again after a restart.
+        write(ACKNOWLEDGE, id, new byte[0]);
+        pending.remove(id);
+        stored.segment().live--;
+        deleteAcknowledgedSegments();
+        return true;
+    }
+
+    @Override
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    @Override
+    public boolean isDurable() {
+        return true;
+    }
+
+    synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        Segment active = segments.peekLast();
+        if (active != null && active.buffer != null) {
+            active.buffer.force();
+        }
+        for (Segment segment : segments) {
+            segment.buffer = null;
+        }
+        pending.clear();
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Score outbox is closed");
+        }
+    }
+
+    private Segment write(byte type, long id, byte[] payload) {
+        Segment segment = segments.getLast();
+        MappedByteBuffer buffer = segment.buffer;
+        // Leave room for a zero size after the record to mark the end.
+        if (buffer.remaining() < HEADER_SIZE + payload.length + 4) {
+            segment = roll();
+            buffer = segment.buffer;
+        }
+        int position = buffer.position();
+        crc.reset();
+        crc.update(type);
+        crc.update(longBytes(id));
+        crc.update(payload);
+        buffer.putInt(position + 4, (int) crc.getValue());
+        buffer.put(position + 8, type);
+        buffer.putLong(position + 9, id);
+        buffer.put(position + HEADER_SIZE, payload);
+        // Written last so a reader never sees a size for a record that isn't all there.
+        buffer.putInt(position, HEADER_SIZE + payload.length);
+        buffer.position(position + HEADER_SIZE + payload.length);
+        if (force) {
+            buffer.force(position, HEADER_SIZE + payload.length);
+        }
+        return segment;
+    }
+
+    private Segment roll() {
+        Segment previous = segments.getLast();
+        try {
+            previous.buffer.force();
+            Segment next = openSegment(previous.number + 1);
+            // Once full the mapping is no longer needed, it is unmapped when it is collected.
+            previous.buffer = null;
+            segments.add(next);
+            return next;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to create score outbox segment in " + directory, e);
+        }
+    }
+
+    private Segment openSegment(long number) throws IOException {
+        Path path = directory.resolve(String.format("scores-%016d.log", number));
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // A new file is zero filled, so the first record has a size of zero which marks the end.
+            long size = Math.max(channel.size(), segmentSize);
+            return new Segment(number, path, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        }
+    }
+
+    private void deleteAcknowledgedSegments() {
+        // Only the oldest is deleted, a newer segment may hold the acknowledgement for a score in an older one.
+        while (segments.size() > 1 && segments.getFirst().live == 0) {
+            Segment segment = segments.removeFirst();
+            segment.buffer = null;
+            try {
+                Files.deleteIfExists(segment.path);
+            } catch (IOException e) {
+                log.warn("Failed to delete score outbox segment {}", segment.path, e);
+            }
+        }
+    }
+
+    private void recover() throws IOException {
+        TreeMap<Long, Path> files = new TreeMap<>();
+        try (Stream<Path> paths = Files.list(directory)) {
+            paths.forEach(path -> {
+                Matcher matcher = SEGMENT_NAME.matcher(path.getFileName().toString());
+                if (matcher.matches()) {
+                    files.put(Long.parseLong(matcher.group(1)), path);
+                }
+            });
+        }
+        for (Map.Entry<Long, Path> file : files.entrySet()) {
+            Segment segment = openSegment(file.getKey());
+            segments.add(segment);
+            read(segment);
+        }
+        // Only the last segment is written to.
+        for (Segment segment : segments) {
+            if (segment != segments.getLast()) {
+                segment.buffer = null;
+            }
+        }
+    }
+
+    private void read(Segment segment) {
+        MappedByteBuffer buffer = segment.buffer;
+        int position = 0;
+        boolean torn = false;
+        while (position + HEADER_SIZE <= buffer.capacity()) {
+            int size = buffer.getInt(position);
+            if (size == 0) {
+                break;
+            }
+            if (size < HEADER_SIZE || position + size > buffer.capacity()) {
+                torn = true;
+                break;
+            }
+            int length = size - HEADER_SIZE;
+            byte type = buffer.get(position + 8);
+            long id = buffer.getLong(position + 9);
+            byte[] payload = new byte[length];
+            buffer.get(position + HEADER_SIZE, payload);
+            crc.reset();
+            crc.update(type);
+            crc.update(longBytes(id));
+            crc.update(payload);
+            if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                torn = true;
+                break;
+            }
+            if (type == SUBMIT) {
+                try {
+                    Payload stored = mapper.readValue(payload, Payload.class);
+                    pending.put(id, new Stored(new Entry(id, stored.clientRegistrationId(), stored.lineItemUrl(), stored.score()), segment));
+                    segment.live++;
+                } catch (IOException e) {
+                    log.warn("Ignoring unreadable score {} in {}", id, segment.path, e);
+                }
+            } else if (type == ACKNOWLEDGE) {
+                Stored stored = pending.remove(id);
+                if (stored != null) {
+                    stored.segment().live--;
+                }
+            }
+            nextId = Math.max(nextId, id + 1);
+            position += size;
+        }
+        if (torn) {
+            // Cleared so what is left of it can't be mistaken for a record once new records are written.
+            log.warn("Ignoring partly written record at {} in {}", position, segment.path);
+            for (int i = position; i < buffer.capacity(); i++) {
+                buffer.put(i, (byte) 0);
+            }
+        }
+        buffer.position(position);
+    }
+
+    private static byte[] longBytes(long value) {
+        byte[] bytes = new byte[8];
+        for (int i = 7; i >= 0; i--) {
+            bytes[i] = (byte) value;
+            value >>>= 8;
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,51 @@
+package uk.ac.ox.ctl.lti13.ags;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Keeps the scores in memory, so any that haven't been sent are lost when the JVM stops.
+ */
+public class InMemoryScoreOutbox implements ScoreOutbox {
+
+    private final ConcurrentSkipListMap<Long, Entry> entries = new ConcurrentSkipListMap<>();
+    // Guarded by this, so entries are added in the order of their IDs.
+    private long nextId;
+
+    @Override
+    public synchronized long append(String clientRegistrationId, String lineItemUrl, Score score) {
+        long id = ++nextId;
+        entries.put(id, new Entry(id, clientRegistrationId, lineItemUrl, score));
+        return id;
+    }
+
+    @Override
+    public List<Entry> pending() {
+        return new ArrayList<>(entries.values());
+    }
+
+    @Override
+    public List<Entry> pending(long afterId) {
+        return new ArrayList<>(entries.tailMap(afterId, false).values());
+    }
+
+    @Override
+    public boolean acknowledge(long id) {
+        return entries.remove(id) != null;
+    }
+
+    @Override
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public boolean isDurable() {
+        return false;
+    }
+
+    @Override
+    public void close() {
+    }
+}
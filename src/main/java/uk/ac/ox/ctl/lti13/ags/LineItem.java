@@ -0,0 +1,95 @@
+package uk.ac.ox.ctl.lti13.ags;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * A column in the platform's gradebook.
+ *
+ * @see <a href="https://www.imsglobal.org/spec/lti-ags/v2p0#line-item-service">https://www.imsglobal.org/spec/lti-ags/v2p0#line-item-service</a>
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class LineItem {
+
+    // The URL of the line item, this is set by the platform.
+    private String id;
+    private Double scoreMaximum;
+    private String label;
+    private String resourceId;
+    private String resourceLinkId;
+    private String tag;
+    private String startDateTime;
+    private String endDateTime;
+    private Boolean gradesReleased;
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public Double getScoreMaximum() {
+        return scoreMaximum;
+    }
+
+    public void setScoreMaximum(Double scoreMaximum) {
+        this.scoreMaximum = scoreMaximum;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public void setLabel(String label) {
+        this.label = label;
+    }
+
+    public String getResourceId() {
+        return resourceId;
+    }
+
+    public void setResourceId(String resourceId) {
+        this.resourceId = resourceId;
+    }
+
+    public String getResourceLinkId() {
+        return resourceLinkId;
+    }
+
+    public void setResourceLinkId(String resourceLinkId) {
+        this.resourceLinkId = resourceLinkId;
+    }
+
+    public String getTag() {
+        return tag;
+    }
+
+    public void setTag(String tag) {
+        this.tag = tag;
+    }
+
+    public String getStartDateTime() {
+        return startDateTime;
+    }
+
+    public void setStartDateTime(String startDateTime) {
+        this.startDateTime = startDateTime;
+    }
+
+    public String getEndDateTime() {
+        return endDateTime;
+    }
+
+    public void setEndDateTime(String endDateTime) {
+        this.endDateTime = endDateTime;
+    }
+
+    public Boolean getGradesReleased() {
+        return gradesReleased;
+    }
+
+    public void setGradesReleased(Boolean gradesReleased) {
+        this.gradesReleased = gradesReleased;
+    }
+}
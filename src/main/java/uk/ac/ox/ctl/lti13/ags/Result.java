@@ -0,0 +1,65 @@
+package uk.ac.ox.ctl.lti13.ags;
+
+/**
+ * The current grade for a user in a line item.
+ *
+ * @see <a href="https://www.imsglobal.org/spec/lti-ags/v2p0#result-service">https://www.imsglobal.org/spec/lti-ags/v2p0#result-service</a>
+ */
+public class Result {
+
+    private String id;
+    // The URL of the line item.
+    private String scoreOf;
+    private String userId;
+    private Double resultScore;
+    private Double resultMaximum;
+    private String comment;
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getScoreOf() {
+        return scoreOf;
+    }
+
+    public void setScoreOf(String scoreOf) {
+        this.scoreOf = scoreOf;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public void setUserId(String userId) {
+        this.userId = userId;
+    }
+
+    public Double getResultScore() {
+        return resultScore;
+    }
+
+    public void setResultScore(Double resultScore) {
+        this.resultScore = resultScore;
+    }
+
+    public Double getResultMaximum() {
+        return resultMaximum;
+    }
+
+    public void setResultMaximum(Double resultMaximum) {
+        this.resultMaximum = resultMaximum;
+    }
+
+    public String getComment() {
+        return comment;
+    }
+
+    public void setComment(String comment) {
+        this.comment = comment;
+    }
+}
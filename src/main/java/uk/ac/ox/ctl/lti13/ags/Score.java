@@ -0,0 +1,111 @@
+package uk.ac.ox.ctl.lti13.ags;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.time.Instant;
+
+/**
+ * A score for a user that is sent to the platform.
+ *
+ * @see <a href="https://www.imsglobal.org/spec/lti-ags/v2p0#score-publish-service">https://www.imsglobal.org/spec/lti-ags/v2p0#score-publish-service</a>
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class Score {
+
+    public enum ActivityProgress {
+        @JsonProperty("Initialized") INITIALIZED,
+        @JsonProperty("Started") STARTED,
+        @JsonProperty("InProgress") IN_PROGRESS,
+        @JsonProperty("Submitted") SUBMITTED,
+        @JsonProperty("Completed") COMPLETED
+    }
+
+    public enum GradingProgress {
+        @JsonProperty("FullyGraded") FULLY_GRADED,
+        @JsonProperty("Pending") PENDING,
+        @JsonProperty("PendingManual") PENDING_MANUAL,
+        @JsonProperty("Failed") FAILED,
+        @JsonProperty("NotReady") NOT_READY
+    }
+
+    private String userId;
+    private Double scoreGiven;
+    private Double scoreMaximum;
+    private String comment;
+    // ISO 8601 with sub-second precision, platforms ignore scores older than the one they already have.
+    private String timestamp;
+    private ActivityProgress activityProgress;
+    private GradingProgress gradingProgress;
+
+    public Score() {
+    }
+
+    /**
+     * Creates a fully graded, completed score timestamped now.
+     */
+    public Score(String userId, double scoreGiven, double scoreMaximum) {
+        this.userId = userId;
+        this.scoreGiven = scoreGiven;
+        this.scoreMaximum = scoreMaximum;
+        this.timestamp = Instant.now().toString();
+        this.activityProgress = ActivityProgress.COMPLETED;
+        this.gradingProgress = GradingProgress.FULLY_GRADED;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public void setUserId(String userId) {
+        this.userId = userId;
+    }
+
+    public Double getScoreGiven() {
+        return scoreGiven;
+    }
+
+    public void setScoreGiven(Double scoreGiven) {
+        this.scoreGiven = scoreGiven;
+    }
+
+    public Double getScoreMaximum() {
+        return scoreMaximum;
+    }
+
+    public void setScoreMaximum(Double scoreMaximum) {
+        this.scoreMaximum = scoreMaximum;
+    }
+
+    public String getComment() {
+        return comment;
+    }
+
+    public void setComment(String comment) {
+        this.comment = comment;
+    }
+
+    public String getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(String timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    public ActivityProgress getActivityProgress() {
+        return activityProgress;
+    }
+
+    public void setActivityProgress(ActivityProgress activityProgress) {
+        this.activityProgress = activityProgress;
+    }
+
+    public GradingProgress getGradingProgress() {
+        return gradingProgress;
+    }
+
+    public void setGradingProgress(GradingProgress gradingProgress) {
+        this.gradingProgress = gradingProgress;
+    }
+}
@@ -0,0 +1,57 @@
+package uk.ac.ox.ctl.lti13.ags;
+
+import java.util.List;
+
+/**
+ * Holds scores until they have been sent to the platform. Scores are appended and stay in the outbox until they
+ * are acknowledged, each score can only be acknowledged once.
+ *
+ * @see ScorePublisher
+ * @see FileScoreOutbox
+ */
+public interface ScoreOutbox extends AutoCloseable {
+
+    /**
+     * A score in the outbox, the ID increases with each score appended.
+     */
+    record Entry(long id, String clientRegistrationId, String lineItemUrl, Score score) {
+    }
+
+    /**
+     * @return The ID of the entry.
+     */
+    long append(String clientRegistrationId, String lineItemUrl, Score score);
+
+    /**
+     * @return The entries that haven't been acknowledged, oldest first.
+     */
+    List<Entry> pending();
+
+    /**
+     * Used to only read the entries appended since the last call, so an entry must not be returned before all the
+     * entries with a lower ID are.
+     *
+     * @return The entries that haven't been acknowledged and have an ID greater than afterId, oldest first.
+     */
+    default List<Entry> pending(long afterId) {
+        return pending().stream().filter(entry -> entry.id() > afterId).toList();
+    }
+
+    /**
+     * @return true if the entry was pending, false if it had already been acknowledged.
+     */
+    boolean acknowledge(long id);
+
+    /**
+     * @return The number of entries that haven't been acknowledged.
+     */
+    int size();
+
+    /**
+     * @return true if the entries are kept when the JVM stops.
+     */
+    boolean isDurable();
+
+    @Override
+    void close();
+}
@@ -0,0 +1,383 @@
+package uk.ac.ox.ctl.lti13.ags;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+import org.springframework.web.client.HttpClientErrorException;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queues scores and sends them to the platform in the background. This is for when lots of scores are published
+ * at once (such as pushing grades at the end of term) or the platform is slow, so the caller doesn't wait on the
+ * platform.
+ * <ul>
+ *     <li>Scores are held in a {@link ScoreOutbox} until the platform has accepted them, with a
+ *     {@link FileScoreOutbox} they are sent after a restart.</li>
+ *     <li>Scores are grouped by line item and if a user has more than one score waiting only the latest is sent.</li>
+ *     <li>No more than {@link #ScorePublisher(AssignmentGradeService, int) maxConcurrency} requests are sent at once,
+ *     and no more than {@link #setMaxConcurrencyPerPlatform(int) maxConcurrencyPerPlatform} to the same platform,
+ *     they share the cached access token from the {@link AssignmentGradeService}.</li>
+ *     <li>Failures are retried with backoff, apart from client errors which the platform will never accept.</li>
+ * </ul>
+ * Each score is acknowledged in the outbox once, after it has been sent or given up on. If the JVM stops between
+ * the platform accepting a score and it being acknowledged it is sent again, which is safe as platforms ignore a
+ * score with the same timestamp as the one they already have.
+ */
+public class ScorePublisher implements AutoCloseable {
+
+    private final Logger log = LoggerFactory.getLogger(ScorePublisher.class);
+
+    /**
+     * Told about scores that couldn't be sent.
+     */
+    @FunctionalInterface
+    public interface FailureHandler {
+        void onFailure(String clientRegistrationId, String lineItemUrl, Score score, Exception e);
+    }
+
+    private record LineItemKey(String clientRegistrationId, String lineItemUrl) {
+    }
+
+    private record Attempts(int attempts, long notBefore) {
+    }
+
+    private final AssignmentGradeService service;
+    private final ScoreOutbox outbox;
+    // Only close the outbox if we created it.
+    private final boolean ownsOutbox;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService scheduler;
+    // The IDs of the entries being sent.
+    private final Set<Long> inFlight = ConcurrentHashMap.newKeySet();
+    // Entries that have failed and are waiting to be retried, this is reset on a restart.
+    private final Map<Long, Attempts> attempts = new ConcurrentHashMap<>();
+    // Keyed by the host of the line item.
+    private final Map<String, Semaphore> platformPermits = new ConcurrentHashMap<>();
+    // Guarded by this. The latest score for each user that hasn't been acknowledged, by line item.
+    private final Map<LineItemKey, Map<String, ScoreOutbox.Entry>> waiting = new LinkedHashMap<>();
+    // Guarded by this. The ID of the last entry read from the outbox, so each flush only reads new entries.
+    private long cursor = Long.MIN_VALUE;
+    // Once closed, failed scores aren't retried.
+    private volatile boolean closed;
+
+    private int batchSize = 50;
+    private int maxConcurrencyPerPlatform = 2;
+    private int maxAttempts = 5;
+    private Duration initialBackoff = Duration.ofSeconds(1);
+    private Duration maxBackoff = Duration.ofMinutes(1);
+    private FailureHandler failureHandler = (clientRegistrationId, lineItemUrl, score, e) -> { };
+
+    public ScorePublisher(AssignmentGradeService service) {
+        this(service, 4);
+    }
+
+    /**
+     * @param service        Used to send the scores.
+     * @param maxConcurrency The maximum number of scores to send at the same time.
+     */
+    public ScorePublisher(AssignmentGradeService service, int maxConcurrency) {
+        this(service, maxConcurrency, Duration.ofSeconds(1));
+    }
+
+    /**
+     * Creates a publisher that only holds the scores in memory, so scores that haven't been sent are lost when
+     * the JVM stops.
+     *
+     * @param flushInterval How often queued scores are sent.
+     */
+    public ScorePublisher(AssignmentGradeService service, int maxConcurrency, Duration flushInterval) {
+        this(service, new InMemoryScoreOutbox(), true, maxConcurrency, flushInterval);
+    }
+
+    /**
+     * @param outbox Holds the scores until they are sent, the caller is responsible for closing it.
+     */
+    public ScorePublisher(AssignmentGradeService service, ScoreOutbox outbox, int maxConcurrency, Duration flushInterval) {
+        this(service, outbox, false, maxConcurrency, flushInterval);
+    }
+
+    private ScorePublisher(AssignmentGradeService service, ScoreOutbox outbox, boolean ownsOutbox, int maxConcurrency, Duration flushInterval) {
+        Assert.notNull(service, "service cannot be null");
+        Assert.notNull(outbox, "outbox cannot be null");
+        Assert.isTrue(maxConcurrency > 0, "maxConcurrency must be at least 1");
+        this.service = service;
+        this.outbox = outbox;
+        this.ownsOutbox = ownsOutbox;
+        this.executor = Executors.newFixedThreadPool(maxConcurrency, runnable -> {
+            Thread thread = new Thread(runnable, "lti-score-publisher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "lti-score-publisher-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = flushInterval.toMillis();
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                flush();
+            } catch (RuntimeException e) {
+                // If this escaped the scheduler would never flush again.
+                log.error("Failed to flush scores", e);
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param batchSize The number of scores for a line item sent by each task.
+     */
+    public void setBatchSize(int batchSize) {
+        Assert.isTrue(batchSize > 0, "batchSize must be at least 1");
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @param maxConcurrencyPerPlatform The maximum number of tasks sending scores to the same platform host at
+     *                                  the same time, so one slow platform doesn't hold up the others.
+     */
+    public void setMaxConcurrencyPerPlatform(int maxConcurrencyPerPlatform) {
+        Assert.isTrue(maxConcurrencyPerPlatform > 0, "maxConcurrencyPerPlatform must be at least 1");
+        this.maxConcurrencyPerPlatform = maxConcurrencyPerPlatform;
+        platformPermits.clear();
+    }
+
+    /**
+     * @param maxAttempts The number of times to try sending a score before giving up on it.
+     */
+    public void setMaxAttempts(int maxAttempts) {
+        Assert.isTrue(maxAttempts > 0, "maxAttempts must be at least 1");
+        this.maxAttempts = maxAttempts;
+    }
+
+    public void setBackoff(Duration initialBackoff, Duration maxBackoff) {
+        Assert.notNull(initialBackoff, "initialBackoff cannot be null");
+        Assert.isTrue(maxBackoff.compareTo(initialBackoff) >= 0, "maxBackoff cannot be less than initialBackoff");
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+    }
+
+    public void setFailureHandler(FailureHandler failureHandler) {
+        Assert.notNull(failureHandler, "failureHandler cannot be null");
+        this.failureHandler = failureHandler;
+    }
+
+    /**
+     * Adds a score to the outbox to be sent, this doesn't wait for the platform.
+     *
+     * @param lineItemUrl The URL of the line item, for example from {@link AgsEndpoint#getLineItem()}.
+     */
+    public void submit(String clientRegistrationId, String lineItemUrl, Score score) {
+        Assert.hasText(clientRegistrationId, "clientRegistrationId cannot be empty");
+        Assert.hasText(lineItemUrl, "lineItemUrl cannot be empty");
+        // Checked now, as once it is in the outbox it could only be given up on.
+        host(lineItemUrl);
+        Assert.notNull(score, "score cannot be null");
+        Assert.notNull(score.getUserId(), "score must have a userId");
+        outbox.append(clientRegistrationId, lineItemUrl, score);
+    }
+
+    /**
+     * @return The number of scores in the outbox, including ones being sent.
+     */
+    public int getQueued() {
+        return outbox.size();
+    }
+
+    /**
+     * Starts sending all the queued scores that are due, this is also called regularly in the background.
+     */
+    public synchronized void flush() {
+        flush(false);
+    }
+
+    private synchronized void flush(boolean ignoreBackoff) {
+        long now = System.nanoTime();
+        // Only the entries appended since the last flush are read, they are oldest first so later scores for a
+        // user replace earlier ones.
+        for (ScoreOutbox.Entry entry : outbox.pending(cursor)) {
+            cursor = entry.id();
+            try {
+                host(entry.lineItemUrl());
+            } catch (IllegalArgumentException e) {
+                // Only from before URLs were checked on submit, it can never be sent so mustn't stop the others.
+                log.warn("Giving up on score for {} with invalid line item URL {}", entry.score().getUserId(), entry.lineItemUrl(), e);
+                outbox.acknowledge(entry.id());
+                notifyFailure(entry.clientRegistrationId(), entry.lineItemUrl(), entry.score(), e);
+                continue;
+            }
+            ScoreOutbox.Entry replaced = waiting
+                    .computeIfAbsent(new LineItemKey(entry.clientRegistrationId(), entry.lineItemUrl()), key -> new LinkedHashMap<>())
+                    .put(entry.score().getUserId(), entry);
+            if (replaced != null && !inFlight.contains(replaced.id())) {
+                // It will never be sent so is done with, one being sent is acknowledged when it finishes.
+                outbox.acknowledge(replaced.id());
+                attempts.remove(replaced.id());
+            }
+        }
+        for (Map.Entry<LineItemKey, Map<String, ScoreOutbox.Entry>> scores : waiting.entrySet()) {
+            LineItemKey key = scores.getKey();
+            List<ScoreOutbox.Entry> due = new ArrayList<>();
+            for (ScoreOutbox.Entry entry : scores.getValue().values()) {
+                if (inFlight.contains(entry.id())) {
+                    continue;
+                }
+                Attempts previous = attempts.get(entry.id());
+                if (ignoreBackoff || previous == null || previous.notBefore() - now <= 0) {
+                    due.add(entry);
+                }
+            }
+            Semaphore permits = platformPermits.computeIfAbsent(host(key.lineItemUrl()), host -> new Semaphore(maxConcurrencyPerPlatform));
+            for (int i = 0; i < due.size(); i += batchSize) {
+                if (!permits.tryAcquire()) {
+                    // The platform already has as many tasks as it is allowed, the rest are sent on a later flush.
+                    break;
+                }
+                List<ScoreOutbox.Entry> batch = due.subList(i, Math.min(i + batchSize, due.size()));
+                batch.forEach(entry -> inFlight.add(entry.id()));
+                try {
+                    executor.execute(() -> {
+                        try {
+                            send(key, batch);
+                        } finally {
+                            batch.forEach(entry -> inFlight.remove(entry.id()));
+                            permits.release();
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    // Shutting down, they stay in the outbox.
+                    batch.forEach(entry -> inFlight.remove(entry.id()));
+                    permits.release();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void send(LineItemKey key, List<ScoreOutbox.Entry> batch) {
+        for (ScoreOutbox.Entry entry : batch) {
+            try {
+                service.publishScore(key.clientRegistrationId(), key.lineItemUrl(), entry.score());
+                acknowledge(key, entry);
+            } catch (RuntimeException e) {
+                Attempts previous = attempts.get(entry.id());
+                int tried = (previous != null ? previous.attempts() : 0) + 1;
+                boolean rejected = e instanceof HttpClientErrorException && !(e instanceof HttpClientErrorException.TooManyRequests);
+                if (rejected || tried >= maxAttempts) {
+                    log.warn("Failed to send score for {} to {} after {} attempts", entry.score().getUserId(), key.lineItemUrl(), tried, e);
+                    acknowledge(key, entry);
+                    notifyFailure(key.clientRegistrationId(), key.lineItemUrl(), entry.score(), e);
+                } else if (!isWaiting(key, entry)) {
+                    // A later score for the user was submitted while this one was being sent, so that is sent instead.
+                    acknowledge(key, entry);
+                } else if (closed && !outbox.isDurable()) {
+                    // Closing, so there won't be a retry and the score would be lost without anyone knowing.
+                    acknowledge(key, entry);
+                    notifyFailure(key.clientRegistrationId(), key.lineItemUrl(), entry.score(), e);
+                } else {
+                    log.debug("Failed to send score for {} to {}, will retry", entry.score().getUserId(), key.lineItemUrl(), e);
+                    attempts.put(entry.id(), new Attempts(tried, System.nanoTime() + backoff(tried).toNanos()));
+                }
+            }
+        }
+    }
+
+    private synchronized boolean isWaiting(LineItemKey key, ScoreOutbox.Entry entry) {
+        Map<String, ScoreOutbox.Entry> scores = waiting.get(key);
+        return scores != null && scores.get(entry.score().getUserId()) == entry;
+    }
+
+    private void acknowledge(LineItemKey key, ScoreOutbox.Entry entry) {
+        synchronized (this) {
+            Map<String, ScoreOutbox.Entry> scores = waiting.get(key);
+            if (scores != null && scores.get(entry.score().getUserId()) == entry) {
+                scores.remove(entry.score().getUserId());
+                if (scores.isEmpty()) {
+                    waiting.remove(key);
+                }
+            }
+        }
+        outbox.acknowledge(entry.id());
+        attempts.remove(entry.id());
+    }
+
+    private void notifyFailure(String clientRegistrationId, String lineItemUrl, Score score, Exception e) {
+        try {
+            failureHandler.onFailure(clientRegistrationId, lineItemUrl, score, e);
+        } catch (RuntimeException handlerException) {
+            log.warn("Failure handler failed for score for {} to {}", score.getUserId(), lineItemUrl, handlerException);
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException If the URL isn't valid.
+     */
+    private static String host(String lineItemUrl) {
+        URI uri;
+        try {
+            uri = URI.create(lineItemUrl);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("lineItemUrl isn't a valid URL: " + lineItemUrl, e);
+        }
+        return uri.getHost() != null ? uri.getHost() : lineItemUrl;
+    }
+
+    private Duration backoff(int attempts) {
+        long cap = Math.min(initialBackoff.toMillis() << Math.min(attempts - 1, 30), maxBackoff.toMillis());
+        // Equal jitter, so we always wait at least half the backoff.
+        return Duration.ofMillis(cap / 2 + ThreadLocalRandom.current().nextLong(cap / 2 + 1));
+    }
+
+    /**
+     * Sends everything that is queued, waiting up to the timeout for it to be sent. If the outbox isn't durable
+     * any scores that are still waiting are passed to the failure handler, otherwise they stay in the outbox to
+     * be sent after a restart.
+     */
+    public void close(Duration timeout) throws InterruptedException {
+        closed = true;
+        scheduler.shutdownNow();
+        // Send everything now, even if it is waiting for a retry.
+        flush(true);
+        executor.shutdown();
+        if (!executor.awaitTermination(timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+            executor.shutdownNow();
+        }
+        if (!outbox.isDurable()) {
+            for (ScoreOutbox.Entry unsent : outbox.pending()) {
+                if (inFlight.contains(unsent.id())) {
+                    // Still being sent, when it finishes it is either acknowledged or passed to the failure handler.
+                    continue;
+                }
+                outbox.acknowledge(unsent.id());
+                notifyFailure(unsent.clientRegistrationId(), unsent.lineItemUrl(), unsent.score(),
+                        new IllegalStateException("Score publisher closed before the score was sent"));
+            }
+        }
+        attempts.clear();
+        synchronized (this) {
+            waiting.clear();
+        }
+        if (ownsOutbox) {
+            outbox.close();
+        }
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        close(Duration.ofSeconds(30));
+    }
+}
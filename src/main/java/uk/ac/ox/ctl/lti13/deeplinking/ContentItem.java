@@ -0,0 +1,234 @@
+package uk.ac.ox.ctl.lti13.deeplinking;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import uk.ac.ox.ctl.lti13.ags.LineItem;
+
+import java.util.Map;
+
+/**
+ * An item returned to the platform in a deep linking response. Only the properties that are set are included.
+ *
+ * @see <a href="https://www.imsglobal.org/spec/lti-dl/v2p0#content-item-types">https://www.imsglobal.org/spec/lti-dl/v2p0#content-item-types</a>
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ContentItem {
+
+    public static final String LINK = "link";
+    public static final String LTI_RESOURCE_LINK = "ltiResourceLink";
+    public static final String FILE = "file";
+    public static final String HTML = "html";
+    public static final String IMAGE = "image";
+
+    /**
+     * How a link should be shown when it's opened in a new window.
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class Window {
+        private String targetName;
+        private Integer width;
+        private Integer height;
+        private String windowFeatures;
+
+        public String getTargetName() {
+            return targetName;
+        }
+
+        public void setTargetName(String targetName) {
+            this.targetName = targetName;
+        }
+
+        public Integer getWidth() {
+            return width;
+        }
+
+        public void setWidth(Integer width) {
+            this.width = width;
+        }
+
+        public Integer getHeight() {
+            return height;
+        }
+
+        public void setHeight(Integer height) {
+            this.height = height;
+        }
+
+        public String getWindowFeatures() {
+            return windowFeatures;
+        }
+
+        public void setWindowFeatures(String windowFeatures) {
+            this.windowFeatures = windowFeatures;
+        }
+    }
+
+    /**
+     * How a link should be shown when it's embedded in the platform.
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class Iframe {
+        private String src;
+        private Integer width;
+        private Integer height;
+
+        public String getSrc() {
+            return src;
+        }
+
+        public void setSrc(String src) {
+            this.src = src;
+        }
+
+        public Integer getWidth() {
+            return width;
+        }
+
+        public void setWidth(Integer width) {
+            this.width = width;
+        }
+
+        public Integer getHeight() {
+            return height;
+        }
+
+        public void setHeight(Integer height) {
+            this.height = height;
+        }
+    }
+
+    private String type;
+    private String title;
+    private String text;
+    private String url;
+    private String html;
+    private String mediaType;
+    private Window window;
+    private Iframe iframe;
+    private Map<String, String> custom;
+    private LineItem lineItem;
+
+    public ContentItem() {
+    }
+
+    public ContentItem(String type) {
+        this.type = type;
+    }
+
+    public static ContentItem link(String url) {
+        ContentItem item = new ContentItem(LINK);
+        item.setUrl(url);
+        return item;
+    }
+
+    /**
+     * @param url The URL the platform launches, may be null to use the tool's default target link URI.
+     */
+    public static ContentItem ltiResourceLink(String url) {
+        ContentItem item = new ContentItem(LTI_RESOURCE_LINK);
+        item.setUrl(url);
+        return item;
+    }
+
+    public static ContentItem file(String url, String mediaType) {
+        ContentItem item = new ContentItem(FILE);
+        item.setUrl(url);
+        item.setMediaType(mediaType);
+        return item;
+    }
+
+    public static ContentItem html(String html) {
+        ContentItem item = new ContentItem(HTML);
+        item.setHtml(html);
+        return item;
+    }
+
+    public static ContentItem image(String url) {
+        ContentItem item = new ContentItem(IMAGE);
+        item.setUrl(url);
+        return item;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public void setTitle(String title) {
+        this.title = title;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public void setText(String text) {
+        this.text = text;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public void setUrl(String url) {
+        this.url = url;
+    }
+
+    public String getHtml() {
+        return html;
+    }
+
+    public void setHtml(String html) {
+        this.html = html;
+    }
+
+    public String getMediaType() {
+        return mediaType;
+    }
+
+    public void setMediaType(String mediaType) {
+        this.mediaType = mediaType;
+    }
+
+    public Window getWindow() {
+        return window;
+    }
+
+    public void setWindow(Window window) {
+        this.window = window;
+    }
+
+    public Iframe getIframe() {
+        return iframe;
+    }
+
+    public void setIframe(Iframe iframe) {
+        this.iframe = iframe;
+    }
+
+    public Map<String, String> getCustom() {
+        return custom;
+    }
+
+    public void setCustom(Map<String, String> custom) {
+        this.custom = custom;
+    }
+
+    /**
+     * @return The line item to create for an {@link #LTI_RESOURCE_LINK}, only the label, score maximum,
+     * resource ID and tag are used.
+     */
+    public LineItem getLineItem() {
+        return lineItem;
+    }
+
+    public void setLineItem(LineItem lineItem) {
+        this.lineItem = lineItem;
+    }
+}
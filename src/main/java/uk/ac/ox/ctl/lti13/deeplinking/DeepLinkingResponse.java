@@ -0,0 +1,208 @@
+package uk.ac.ox.ctl.lti13.deeplinking;
+
+import org.springframework.security.oauth2.core.oidc.user.OidcUser;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+import uk.ac.ox.ctl.lti13.lti.Claims;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The items selected by the user to return to the platform at the end of a deep linking request. Use
+ * {@link #forLaunch(OidcUser)} to create one and {@link DeepLinkingResponseService} to send it.
+ *
+ * @see <a href="https://www.imsglobal.org/spec/lti-dl/v2p0#deep-linking-response-message">https://www.imsglobal.org/spec/lti-dl/v2p0#deep-linking-response-message</a>
+ */
+public class DeepLinkingResponse {
+
+    public static final String MESSAGE_TYPE = "LtiDeepLinkingResponse";
+
+    private final DeepLinkingSettings settings;
+    private final String platformIssuer;
+    private final String clientId;
+    private final String deploymentId;
+    private final List<ContentItem> contentItems;
+    private final String message;
+    private final String log;
+    private final String errorMessage;
+    private final String errorLog;
+
+    private DeepLinkingResponse(Builder builder) {
+        this.settings = builder.settings;
+        this.platformIssuer = builder.platformIssuer;
+        this.clientId = builder.clientId;
+        this.deploymentId = builder.deploymentId;
+        this.contentItems = Collections.unmodifiableList(new ArrayList<>(builder.contentItems));
+        this.message = builder.message;
+        this.log = builder.log;
+        this.errorMessage = builder.errorMessage;
+        this.errorLog = builder.errorLog;
+    }
+
+    /**
+     * Starts a response to a deep linking request.
+     *
+     * @param launch The user from the deep linking request.
+     * @throws IllegalArgumentException If the launch wasn't a deep linking request.
+     */
+    public static Builder forLaunch(OidcUser launch) {
+        DeepLinkingSettings settings = DeepLinkingSettings.from(launch);
+        if (settings == null) {
+            throw new IllegalArgumentException("The launch doesn't have any deep linking settings");
+        }
+        // The platform will have set the authorized party if there was more than one audience.
+        String clientId = launch.getAuthorizedParty() != null ? launch.getAuthorizedParty() :
+                (launch.getAudience() != null && !launch.getAudience().isEmpty() ? launch.getAudience().get(0) : null);
+        Object deploymentId = launch.getClaims().get(Claims.LTI_DEPLOYMENT_ID);
+        return new Builder(settings, launch.getIssuer() != null ? launch.getIssuer().toString() : null, clientId,
+                deploymentId != null ? deploymentId.toString() : null);
+    }
+
+    public DeepLinkingSettings getSettings() {
+        return settings;
+    }
+
+    /**
+     * @return The issuer of the launch, this is the audience of the response.
+     */
+    public String getPlatformIssuer() {
+        return platformIssuer;
+    }
+
+    /**
+     * @return The client ID of the tool, this is the issuer of the response.
+     */
+    public String getClientId() {
+        return clientId;
+    }
+
+    public String getDeploymentId() {
+        return deploymentId;
+    }
+
+    public List<ContentItem> getContentItems() {
+        return contentItems;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public String getLog() {
+        return log;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    public String getErrorLog() {
+        return errorLog;
+    }
+
+    public static class Builder {
+
+        private final DeepLinkingSettings settings;
+        private final String platformIssuer;
+        private final String clientId;
+        private final String deploymentId;
+        private final List<ContentItem> contentItems = new ArrayList<>();
+        private String message;
+        private String log;
+        private String errorMessage;
+        private String errorLog;
+
+        public Builder(DeepLinkingSettings settings, String platformIssuer, String clientId, String deploymentId) {
+            this.settings = Objects.requireNonNull(settings, "You must supply the deep linking settings.");
+            this.platformIssuer = platformIssuer;
+            this.clientId = clientId;
+            this.deploymentId = deploymentId;
+        }
+
+        public Builder contentItem(ContentItem contentItem) {
+            Objects.requireNonNull(contentItem, "You must supply a contentItem.");
+            this.contentItems.add(contentItem);
+            return this;
+        }
+
+        public Builder contentItems(List<ContentItem> contentItems) {
+            contentItems.forEach(this::contentItem);
+            return this;
+        }
+
+        /**
+         * @param message Shown to the user by the platform when they return.
+         */
+        public Builder message(String message) {
+            this.message = message;
+            return this;
+        }
+
+        /**
+         * @param log Logged by the platform.
+         */
+        public Builder log(String log) {
+            this.log = log;
+            return this;
+        }
+
+        public Builder errorMessage(String errorMessage) {
+            this.errorMessage = errorMessage;
+            return this;
+        }
+
+        public Builder errorLog(String errorLog) {
+            this.errorLog = errorLog;
+            return this;
+        }
+
+        /**
+         * @throws IllegalArgumentException If the content items aren't allowed by the deep linking settings.
+         */
+        public DeepLinkingResponse build() {
+            if (settings.getDeepLinkReturnUrl() == null || settings.getDeepLinkReturnUrl().isEmpty()) {
+                throw new IllegalArgumentException("The deep linking settings don't have a return URL");
+            }
+            if (platformIssuer == null || clientId == null || deploymentId == null) {
+                throw new IllegalArgumentException("The platform issuer, client ID and deployment ID are all needed");
+            }
+            if (contentItems.size() > 1 && !settings.isAcceptMultiple()) {
+                throw new IllegalArgumentException("The platform only accepts a single content item");
+            }
+            for (ContentItem item : contentItems) {
+                check(item);
+            }
+            return new DeepLinkingResponse(this);
+        }
+
+        private void check(ContentItem item) {
+            if (item.getType() == null) {
+                throw new IllegalArgumentException("Content items must have a type");
+            }
+            if (!settings.getAcceptTypes().isEmpty() && !settings.getAcceptTypes().contains(item.getType())) {
+                throw new IllegalArgumentException("The platform doesn't accept content items of type: " + item.getType());
+            }
+            if (item.getLineItem() != null && !settings.isAcceptLineItem()) {
+                throw new IllegalArgumentException("The platform doesn't accept line items");
+            }
+            List<String> targets = settings.getAcceptPresentationDocumentTargets();
+            if (!targets.isEmpty()) {
+                if (item.getWindow() != null && !targets.contains("window")) {
+                    throw new IllegalArgumentException("The platform doesn't accept content items opened in a window");
+                }
+                if (item.getIframe() != null && !targets.contains("iframe")) {
+                    throw new IllegalArgumentException("The platform doesn't accept content items in an iframe");
+                }
+            }
+            if (ContentItem.FILE.equals(item.getType()) && item.getMediaType() != null && settings.getAcceptMediaTypes() != null) {
+                MimeType mediaType = MimeTypeUtils.parseMimeType(item.getMediaType());
+                if (MimeTypeUtils.parseMimeTypes(settings.getAcceptMediaTypes()).stream().noneMatch(accepted -> accepted.includes(mediaType))) {
+                    throw new IllegalArgumentException("The platform doesn't accept files of type: " + item.getMediaType());
+                }
+            }
+        }
+    }
+}
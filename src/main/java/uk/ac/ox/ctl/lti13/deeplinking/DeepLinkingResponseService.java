@@ -0,0 +1,141 @@
+package uk.ac.ox.ctl.lti13.deeplinking;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JOSEObjectType;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSObject;
+import com.nimbusds.jose.Payload;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import uk.ac.ox.ctl.lti13.KeyPairService;
+import uk.ac.ox.ctl.lti13.KeyPairSignerService;
+import uk.ac.ox.ctl.lti13.SignerService;
+import uk.ac.ox.ctl.lti13.lti.Claims;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * Signs deep linking responses and sends them back to the platform. The signers come from the
+ * {@link SignerService} so are reused between responses, and the claims are written straight to JSON
+ * rather than being built up as a map first.
+ *
+ * @see DeepLinkingResponse
+ */
+public class DeepLinkingResponseService {
+
+    private static final String TEMPLATE = "/uk/ac/ox/ctl/lti13/deep-linking-response.html";
+
+    private final SignerService signerService;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final HtmlTemplate template = HtmlTemplate.load(TEMPLATE);
+
+    // Lifetime of the response JWT in seconds
+    private int jwtLifetime = 60;
+
+    // If null the algorithm is picked based on the type of key.
+    private JWSAlgorithm jwsAlgorithm;
+
+    /**
+     * @param keyPairService Supplies the key to sign with, this should be the same as used for the
+     *                       {@link uk.ac.ox.ctl.lti13.TokenRetriever} so the platform has the public key.
+     */
+    public DeepLinkingResponseService(KeyPairService keyPairService) {
+        this(new KeyPairSignerService(keyPairService));
+    }
+
+    public DeepLinkingResponseService(SignerService signerService) {
+        Objects.requireNonNull(signerService, "You must supply a signerService.");
+        this.signerService = signerService;
+    }
+
+    public void setJwtLifetime(int jwtLifetime) {
+        this.jwtLifetime = jwtLifetime;
+    }
+
+    /**
+     * @param jwsAlgorithm The algorithm to use, or null to use the one from the {@link SignerService}.
+     */
+    public void setJwsAlgorithm(JWSAlgorithm jwsAlgorithm) {
+        this.jwsAlgorithm = jwsAlgorithm;
+    }
+
+    /**
+     * @param clientRegistrationId The registration the launch was for, for example from
+     *                             {@link org.springframework.security.oauth2.client.authentication.OAuth2AuthenticationToken#getAuthorizedClientRegistrationId()}.
+     * @return The compact serialized JWT.
+     */
+    public String sign(String clientRegistrationId, DeepLinkingResponse response) throws JOSEException {
+        SignerService.SigningKey signingKey = signerService.getSigningKey(clientRegistrationId);
+        JWSAlgorithm algorithm = jwsAlgorithm != null ? jwsAlgorithm : signingKey.algorithm();
+        JWSHeader header = new JWSHeader.Builder(algorithm)
+                .type(JOSEObjectType.JWT)
+                .keyID(signingKey.keyId())
+                .build();
+        JWSObject jws = new JWSObject(header, new Payload(toJson(response, Instant.now(), UUID.randomUUID().toString())));
+        jws.sign(signingKey.signer());
+        return jws.serialize();
+    }
+
+    /**
+     * Writes a page that posts the signed response back to the platform.
+     */
+    public void sendResponse(HttpServletResponse httpResponse, String clientRegistrationId, DeepLinkingResponse response) throws IOException, JOSEException {
+        String jwt = sign(clientRegistrationId, response);
+        httpResponse.setContentType("text/html;charset=UTF-8");
+        httpResponse.setHeader(HttpHeaders.CACHE_CONTROL, "no-store");
+        template.render(httpResponse.getWriter(), Map.of("url", response.getSettings().getDeepLinkReturnUrl(), "jwt", jwt));
+    }
+
+    /**
+     * @return The HTML of the page that posts the signed response back to the platform.
+     */
+    public String render(String clientRegistrationId, DeepLinkingResponse response) throws JOSEException {
+        return template.render(Map.of("url", response.getSettings().getDeepLinkReturnUrl(), "jwt", sign(clientRegistrationId, response)));
+    }
+
+    byte[] toJson(DeepLinkingResponse response, Instant now, String nonce) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(512);
+        try (JsonGenerator json = mapper.createGenerator(out)) {
+            json.writeStartObject();
+            json.writeStringField("iss", response.getClientId());
+            json.writeStringField("aud", response.getPlatformIssuer());
+            json.writeNumberField("iat", now.getEpochSecond());
+            json.writeNumberField("exp", now.getEpochSecond() + jwtLifetime);
+            json.writeStringField("nonce", nonce);
+            json.writeStringField(Claims.MESSAGE_TYPE, DeepLinkingResponse.MESSAGE_TYPE);
+            json.writeStringField(Claims.LTI_VERSION, "1.3.0");
+            json.writeStringField(Claims.LTI_DEPLOYMENT_ID, response.getDeploymentId());
+            json.writeFieldName(Claims.CONTENT_ITEMS);
+            json.writeStartArray();
+            for (ContentItem item : response.getContentItems()) {
+                mapper.writeValue(json, item);
+            }
+            json.writeEndArray();
+            // The data from the request must be sent back unchanged.
+            writeOptional(json, Claims.DEEP_LINKING_DATA, response.getSettings().getData());
+            writeOptional(json, Claims.DEEP_LINKING_MESSAGE, response.getMessage());
+            writeOptional(json, Claims.DEEP_LINKING_LOG, response.getLog());
+            writeOptional(json, Claims.DEEP_LINKING_ERROR_MESSAGE, response.getErrorMessage());
+            writeOptional(json, Claims.DEEP_LINKING_ERROR_LOG, response.getErrorLog());
+            json.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write deep linking response", e);
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeOptional(JsonGenerator json, String name, String value) throws IOException {
+        if (value != null) {
+            json.writeStringField(name, value);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package uk.ac.ox.ctl.lti13.deeplinking;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.security.oauth2.core.oidc.user.OidcUser;
+import uk.ac.ox.ctl.lti13.lti.Claims;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The deep linking settings claim from a deep linking request.
+ *
+ * @see <a href="https://www.imsglobal.org/spec/lti-dl/v2p0#deep-linking-settings">https://www.imsglobal.org/spec/lti-dl/v2p0#deep-linking-settings</a>
+ */
+public class DeepLinkingSettings {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final String deepLinkReturnUrl;
+    private final List<String> acceptTypes;
+    private final List<String> acceptPresentationDocumentTargets;
+    private final String acceptMediaTypes;
+    private final boolean acceptMultiple;
+    private final boolean acceptLineItem;
+    private final boolean autoCreate;
+    private final String title;
+    private final String text;
+    private final String data;
+
+    public DeepLinkingSettings(String deepLinkReturnUrl, List<String> acceptTypes, List<String> acceptPresentationDocumentTargets,
+                               String acceptMediaTypes, boolean acceptMultiple, boolean acceptLineItem, boolean autoCreate,
+                               String title, String text, String data) {
+        this.deepLinkReturnUrl = deepLinkReturnUrl;
+        this.acceptTypes = acceptTypes != null ? List.copyOf(acceptTypes) : Collections.emptyList();
+        this.acceptPresentationDocumentTargets = acceptPresentationDocumentTargets != null ?
+                List.copyOf(acceptPresentationDocumentTargets) : Collections.emptyList();
+        this.acceptMediaTypes = acceptMediaTypes;
+        this.acceptMultiple = acceptMultiple;
+        this.acceptLineItem = acceptLineItem;
+        this.autoCreate = autoCreate;
+        this.title = title;
+        this.text = text;
+        this.data = data;
+    }
+
+    /**
+     * @return The settings from the launch, or null if it wasn't a deep linking request.
+     */
+    public static DeepLinkingSettings from(OidcUser principal) {
+        Object claim = principal.getClaims().get(Claims.DEEP_LINKING_SETTINGS);
+        if (!(claim instanceof Map<?, ?> json)) {
+            return null;
+        }
+        return new DeepLinkingSettings(asString(json.get("deep_link_return_url")), asList(json.get("accept_types")),
+                asList(json.get("accept_presentation_document_targets")), asString(json.get("accept_media_types")),
+                // The spec says these default to true when they aren't set.
+                asBoolean(json.get("accept_multiple"), true), asBoolean(json.get("accept_lineitem"), true),
+                asBoolean(json.get("auto_create"), false), asString(json.get("title")), asString(json.get("text")),
+                asJson(json.get("data")));
+    }
+
+    /**
+     * The data should be a string, but if a platform sends some other JSON value it is kept as JSON rather than
+     * the {@code toString()} of the map or list it was parsed into.
+     */
+    private static String asJson(Object value) {
+        if (value == null || value instanceof String) {
+            return (String) value;
+        }
+        try {
+            return MAPPER.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Failed to write deep linking data as JSON", e);
+        }
+    }
+
+    private static String asString(Object value) {
+        return value != null ? value.toString() : null;
+    }
+
+    private static List<String> asList(Object value) {
+        List<String> values = new ArrayList<>();
+        if (value instanceof Collection<?> collection) {
+            for (Object item : collection) {
+                values.add(String.valueOf(item));
+            }
+        }
+        return values;
+    }
+
+    private static boolean asBoolean(Object value, boolean defaultValue) {
+        if (value instanceof Boolean bool) {
+            return bool;
+        }
+        return value != null ? Boolean.parseBoolean(value.toString()) : defaultValue;
+    }
+
+    /**
+     * @return The URL the response must be posted to.
+     */
+    public String getDeepLinkReturnUrl() {
+        return deepLinkReturnUrl;
+    }
+
+    /**
+     * @return The content item types the platform accepts, for example {@code ltiResourceLink}.
+     */
+    public List<String> getAcceptTypes() {
+        return acceptTypes;
+    }
+
+    public List<String> getAcceptPresentationDocumentTargets() {
+        return acceptPresentationDocumentTargets;
+    }
+
+    public String getAcceptMediaTypes() {
+        return acceptMediaTypes;
+    }
+
+    public boolean isAcceptMultiple() {
+        return acceptMultiple;
+    }
+
+    public boolean isAcceptLineItem() {
+        return acceptLineItem;
+    }
+
+    public boolean isAutoCreate() {
+        return autoCreate;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * @return The opaque value that must be returned in the response, may be null.
+     */
+    public String getData() {
+        return data;
+    }
+}
@@ -0,0 +1,85 @@
+package uk.ac.ox.ctl.lti13.deeplinking;
+
+import org.springframework.web.util.HtmlUtils;
+import uk.ac.ox.ctl.lti13.utils.StringReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A HTML template with {@code @@name@@} placeholders. The template is split up when it's created so rendering
+ * just appends the parts and the HTML escaped values, rather than searching the template each time.
+ */
+class HtmlTemplate {
+
+    private static final Pattern PLACEHOLDER = Pattern.compile("@@([A-Za-z0-9_]+)@@");
+
+    // The text before each placeholder, the last one is the text after the last placeholder.
+    private final String[] literals;
+    private final String[] names;
+
+    HtmlTemplate(String template) {
+        List<String> literals = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        Matcher matcher = PLACEHOLDER.matcher(template);
+        int end = 0;
+        while (matcher.find()) {
+            literals.add(template.substring(end, matcher.start()));
+            names.add(matcher.group(1));
+            end = matcher.end();
+        }
+        literals.add(template.substring(end));
+        this.literals = literals.toArray(new String[0]);
+        this.names = names.toArray(new String[0]);
+    }
+
+    /**
+     * Loads a template from the classpath.
+     * @param name The name of the resource, for example {@code /uk/ac/ox/ctl/lti13/deep-linking-response.html}.
+     * @return The template.
+     * @throws IllegalStateException If the resource can't be read.
+     */
+    static HtmlTemplate load(String name) {
+        try (InputStream inputStream = HtmlTemplate.class.getResourceAsStream(name)) {
+            if (inputStream == null) {
+                throw new IllegalStateException("Failed to find " + name);
+            }
+            return new HtmlTemplate(StringReader.readString(inputStream));
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to read " + name, e);
+        }
+    }
+
+    /**
+     * Writes out the template with the placeholders replaced.
+     * @param out Where to write the HTML.
+     * @param values The values for the placeholders, these are HTML escaped. A missing value is written as empty.
+     * @throws IOException If there's a problem writing.
+     */
+    void render(Appendable out, Map<String, String> values) throws IOException {
+        for (int i = 0; i < names.length; i++) {
+            out.append(literals[i]);
+            String value = values.get(names[i]);
+            if (value != null) {
+                out.append(HtmlUtils.htmlEscape(value, "UTF-8"));
+            }
+        }
+        out.append(literals[names.length]);
+    }
+
+    String render(Map<String, String> values) {
+        StringBuilder builder = new StringBuilder();
+        try {
+            render(builder, values);
+        } catch (IOException e) {
+            // StringBuilder doesn't throw.
+            throw new IllegalStateException(e);
+        }
+        return builder.toString();
+    }
+}
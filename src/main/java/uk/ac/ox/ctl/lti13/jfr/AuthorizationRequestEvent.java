@@ -0,0 +1,35 @@
+package uk.ac.ox.ctl.lti13.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Saving the authorization request in step 1 or removing it again in step 3.
+ */
+@Name("uk.ac.ox.ctl.lti13.AuthorizationRequest")
+@Label("LTI Authorization Request Storage")
+@Category({"LTI 1.3", "Launch"})
+@Description("Saving or removing the authorization request for a launch")
+public class AuthorizationRequestEvent extends LtiEvent {
+
+    public static final String SAVE = "save";
+    public static final String REMOVE = "remove";
+
+    @Label("Operation")
+    public String operation;
+
+    @Label("Working Session")
+    @Description("If the browser has a working session, in which case the state store isn't used when saving")
+    public boolean workingSession;
+
+    @Label("Found In State")
+    @Description("If the request was found in the state store when removing it")
+    public boolean stateHit;
+
+    @Label("Found In Session")
+    @Description("If the request was found in the HTTP session when removing it")
+    public boolean sessionHit;
+
+}
@@ -0,0 +1,27 @@
+package uk.ac.ox.ctl.lti13.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Decoding, verifying and validating the ID token in step 3. If the platform's keys aren't already cached this
+ * includes fetching the JWK Set.
+ */
+@Name("uk.ac.ox.ctl.lti13.IdToken")
+@Label("LTI ID Token Validation")
+@Category({"LTI 1.3", "Launch"})
+@Description("Decoding, verifying and validating the ID token of a launch")
+public class IdTokenEvent extends LtiEvent {
+
+    @Label("Token Size")
+    @DataAmount
+    public long tokenSize;
+
+    @Label("Decoder Cached")
+    @Description("If there was already a decoder for the registration, a new decoder has to fetch the JWK Set")
+    public boolean decoderCached;
+
+}
@@ -0,0 +1,23 @@
+package uk.ac.ox.ctl.lti13.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Resolving the login initiation request (step 1) into an authorization request to send to the platform.
+ */
+@Name("uk.ac.ox.ctl.lti13.Initiation")
+@Label("LTI Login Initiation")
+@Category({"LTI 1.3", "Launch"})
+@Description("Resolving a login initiation request into an authorization request")
+public class InitiationEvent extends LtiEvent {
+
+    @Label("Request Size")
+    @Description("Size of the query string or form body of the initiation request")
+    @DataAmount
+    public long requestSize;
+
+}
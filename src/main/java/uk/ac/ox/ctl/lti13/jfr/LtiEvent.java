@@ -0,0 +1,32 @@
+package uk.ac.ox.ctl.lti13.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+import uk.ac.ox.ctl.lti13.metrics.LtiMetrics;
+
+/**
+ * The fields shared by all the events. These are only committed when a recording has the event enabled, so
+ * when nothing is recording they cost very little. The duration of the event is the time spent on the stage.
+ * <p>
+ * They can be recorded with {@code jcmd <pid> JFR.start settings=lti.jfc} where the settings file enables the
+ * events under the "LTI 1.3" category, or by enabling them in a running recording with JDK Mission Control.
+ */
+@StackTrace(false)
+public abstract class LtiEvent extends Event {
+
+    @Label("Registration ID")
+    public String registrationId;
+
+    @Label("Failure")
+    @Description("Null if the stage succeeded, otherwise the OAuth error code or exception type")
+    public String failure;
+
+    /**
+     * Records that the stage failed, using the same codes as the outcome of the metrics.
+     */
+    public void failed(Throwable throwable) {
+        failure = LtiMetrics.outcome(throwable);
+    }
+}
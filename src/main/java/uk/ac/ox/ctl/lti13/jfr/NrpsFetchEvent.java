@@ -0,0 +1,25 @@
+package uk.ac.ox.ctl.lti13.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Fetching the members of a context from the names and roles provisioning service, this includes getting the
+ * access token.
+ */
+@Name("uk.ac.ox.ctl.lti13.NrpsFetch")
+@Label("LTI Names and Roles Fetch")
+@Category({"LTI 1.3", "Services"})
+@Description("Fetching the members of a context from the names and roles service")
+public class NrpsFetchEvent extends LtiEvent {
+
+    @Label("URL")
+    public String url;
+
+    @Label("Members")
+    @Description("The number of members returned")
+    public int members;
+
+}
@@ -0,0 +1,29 @@
+package uk.ac.ox.ctl.lti13.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Signing a client assertion and exchanging it for an access token to use with LTI services.
+ */
+@Name("uk.ac.ox.ctl.lti13.TokenRequest")
+@Label("LTI Access Token Request")
+@Category({"LTI 1.3", "Services"})
+@Description("Getting an access token from the platform for LTI services")
+public class TokenRequestEvent extends LtiEvent {
+
+    @Label("Scopes")
+    public String scopes;
+
+    @Label("Assertion Size")
+    @DataAmount
+    public long assertionSize;
+
+    @Label("Assertion Pooled")
+    @Description("If the client assertion was signed ahead of time by the pool")
+    public boolean assertionPooled;
+
+}
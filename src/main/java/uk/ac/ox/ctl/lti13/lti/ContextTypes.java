@@ -1,5 +1,7 @@
 package uk.ac.ox.ctl.lti13.lti;
 
+import java.util.Map;
+
 /**
  * @see <a href="https://www.imsglobal.org/spec/lti/v1p3/#context-type-vocabulary">https://www.imsglobal.org/spec/lti/v1p3/#context-type-vocabulary</a>
  */
@@ -21,4 +23,20 @@ public class ContextTypes {
     public static final String GROUP_SHORT = "Group";
     public static final String GROUP_URN = "urn:lti:context-type:ims/lis/Group";
 
+    // The other forms of each type, the full URIs map to themselves.
+    private static final Map<String, String> URIS = Map.of(
+            COURSE_TEMPLATE_SHORT, COURSE_TEMPLATE, COURSE_TEMPLATE_URN, COURSE_TEMPLATE,
+            COURSE_OFFERING_SHORT, COURSE_OFFERING, COURSE_OFFERING_URN, COURSE_OFFERING,
+            COURSE_SECTION_SHORT, COURSE_SECTION, COURSE_SECTION_URN, COURSE_SECTION,
+            GROUP_SHORT, GROUP, GROUP_URN, GROUP
+    );
+
+    /**
+     * Platforms can send a context type as the full URI, the short name or the LTI 1.1 URN.
+     *
+     * @return The full URI of the context type, or the supplied value if it isn't one of the standard types.
+     */
+    public static String toUri(String contextType) {
+        return contextType != null ? URIS.getOrDefault(contextType, contextType) : null;
+    }
 }
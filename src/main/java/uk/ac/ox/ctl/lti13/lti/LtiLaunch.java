@@ -0,0 +1,185 @@
+package uk.ac.ox.ctl.lti13.lti;
+
+import org.springframework.security.oauth2.core.oidc.user.OidcUser;
+import uk.ac.ox.ctl.lti13.ags.AgsEndpoint;
+import uk.ac.ox.ctl.lti13.nrps.LtiScopes;
+import uk.ac.ox.ctl.lti13.security.oauth2.core.user.LtiOauth2User;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A typed view of the LTI claims of a launch, so they don't have to be dug out of the nested maps of the ID token
+ * each time they are needed. This is immutable and is created once for each {@link LtiOauth2User}, use
+ * {@link #of(OidcUser)} to get it.
+ *
+ * @see <a href="https://www.imsglobal.org/spec/lti/v1p3/#required-message-claims">https://www.imsglobal.org/spec/lti/v1p3/#required-message-claims</a>
+ */
+public final class LtiLaunch {
+
+    /**
+     * The context claim, the course or group the launch is from.
+     */
+    public record Context(String id, String label, String title, List<String> types) {
+    }
+
+    /**
+     * The resource link claim, the placement of the tool in the context.
+     */
+    public record ResourceLink(String id, String title, String description) {
+    }
+
+    private final String messageType;
+    private final String version;
+    private final String deploymentId;
+    private final String targetLinkUri;
+    private final Context context;
+    private final ResourceLink resourceLink;
+    private final Set<LtiRole> roles;
+    private final List<String> roleUris;
+    private final Map<String, String> custom;
+    private final AgsEndpoint agsEndpoint;
+    private final String contextMembershipsUrl;
+
+    private LtiLaunch(Map<String, Object> claims) {
+        this.messageType = asString(claims.get(Claims.MESSAGE_TYPE));
+        this.version = asString(claims.get(Claims.LTI_VERSION));
+        this.deploymentId = asString(claims.get(Claims.LTI_DEPLOYMENT_ID));
+        this.targetLinkUri = asString(claims.get(Claims.TARGET_LINK_URI));
+        this.context = claims.get(Claims.CONTEXT) instanceof Map<?, ?> json ?
+                new Context(asString(json.get("id")), asString(json.get("label")), asString(json.get("title")), asList(json.get("type"))) :
+                null;
+        this.resourceLink = claims.get(Claims.RESOURCE_LINK) instanceof Map<?, ?> json ?
+                new ResourceLink(asString(json.get("id")), asString(json.get("title")), asString(json.get("description"))) :
+                null;
+        this.roleUris = asList(claims.get(Claims.ROLES));
+        EnumSet<LtiRole> roles = EnumSet.noneOf(LtiRole.class);
+        for (String uri : roleUris) {
+            LtiRole role = LtiRole.fromString(uri);
+            if (role != null) {
+                roles.add(role);
+            }
+        }
+        this.roles = Collections.unmodifiableSet(roles);
+        Map<String, String> custom = new LinkedHashMap<>();
+        if (claims.get(Claims.CUSTOM) instanceof Map<?, ?> json) {
+            json.forEach((name, value) -> custom.put(String.valueOf(name), asString(value)));
+        }
+        this.custom = Collections.unmodifiableMap(custom);
+        this.agsEndpoint = AgsEndpoint.from(claims);
+        this.contextMembershipsUrl = claims.get(LtiScopes.LTI_NRPS_CLAIM) instanceof Map<?, ?> json ?
+                asString(json.get("context_memberships_url")) : null;
+    }
+
+    /**
+     * Creates the view of the claims, this reads all the claims so when there is a principal use {@link #of(OidcUser)}
+     * instead as it will only be done once.
+     */
+    public static LtiLaunch from(Map<String, Object> claims) {
+        return new LtiLaunch(claims);
+    }
+
+    /**
+     * @return The view of the claims of the principal, for an {@link LtiOauth2User} this is only created once.
+     */
+    public static LtiLaunch of(OidcUser principal) {
+        if (principal instanceof LtiOauth2User user) {
+            return user.getLaunch();
+        }
+        return from(principal.getClaims());
+    }
+
+    private static String asString(Object value) {
+        return value != null ? value.toString() : null;
+    }
+
+    private static List<String> asList(Object value) {
+        if (!(value instanceof Collection<?> collection)) {
+            return Collections.emptyList();
+        }
+        List<String> values = new ArrayList<>(collection.size());
+        for (Object item : collection) {
+            values.add(String.valueOf(item));
+        }
+        return Collections.unmodifiableList(values);
+    }
+
+    /**
+     * @return The message type, for example {@code LtiResourceLinkRequest}.
+     */
+    public String getMessageType() {
+        return messageType;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public String getDeploymentId() {
+        return deploymentId;
+    }
+
+    public String getTargetLinkUri() {
+        return targetLinkUri;
+    }
+
+    /**
+     * @return The context or null if the launch wasn't from a context.
+     */
+    public Context getContext() {
+        return context;
+    }
+
+    /**
+     * @return The resource link or null if the launch doesn't have one (for example deep linking requests).
+     */
+    public ResourceLink getResourceLink() {
+        return resourceLink;
+    }
+
+    /**
+     * @return The roles from the launch that are LTI roles, sub-roles and other vocabularies are only in
+     * {@link #getRoleUris()}.
+     */
+    public Set<LtiRole> getRoles() {
+        return roles;
+    }
+
+    public boolean hasRole(LtiRole role) {
+        return roles.contains(role);
+    }
+
+    /**
+     * @return The roles as the platform sent them.
+     */
+    public List<String> getRoleUris() {
+        return roleUris;
+    }
+
+    /**
+     * @return The custom parameters, this is empty if there aren't any.
+     */
+    public Map<String, String> getCustom() {
+        return custom;
+    }
+
+    /**
+     * @return The assignment and grade services endpoint or null if the platform didn't include one.
+     */
+    public AgsEndpoint getAgsEndpoint() {
+        return agsEndpoint;
+    }
+
+    /**
+     * @return The names and roles service URL or null if the platform didn't include one.
+     */
+    public String getContextMembershipsUrl() {
+        return contextMembershipsUrl;
+    }
+}
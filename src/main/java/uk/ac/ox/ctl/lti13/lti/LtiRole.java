@@ -0,0 +1,120 @@
+package uk.ac.ox.ctl.lti13.lti;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The roles from {@link Role} as an enum, so the roles of a launch can be held in an {@link java.util.EnumSet} and
+ * checked without comparing the long URIs. Platforms can send a role as the full URI, as the short name for
+ * context roles (for example {@code Instructor}) or as the LTI 1.1 URN, {@link #fromString(String)} understands
+ * all of them.
+ *
+ * @see <a href="https://www.imsglobal.org/spec/lti/v1p3/#role-vocabularies">https://www.imsglobal.org/spec/lti/v1p3/#role-vocabularies</a>
+ */
+public enum LtiRole {
+
+    SYSTEM_ADMINISTRATOR(Scope.SYSTEM, Role.System.ADMINISTRATOR),
+    SYSTEM_NONE(Scope.SYSTEM, Role.System.NONE),
+    SYSTEM_ACCOUNT_ADMIN(Scope.SYSTEM, Role.System.ACCOUNT_ADMIN),
+    SYSTEM_CREATOR(Scope.SYSTEM, Role.System.CREATOR),
+    SYSTEM_SYS_ADMIN(Scope.SYSTEM, Role.System.SYS_ADMIN),
+    SYSTEM_SYS_SUPPORT(Scope.SYSTEM, Role.System.SYS_SUPPORT),
+    SYSTEM_USER(Scope.SYSTEM, Role.System.USER),
+
+    INSTITUTION_ADMINISTRATOR(Scope.INSTITUTION, Role.Institution.ADMINISTRATOR),
+    INSTITUTION_FACULTY(Scope.INSTITUTION, Role.Institution.FACULTY),
+    INSTITUTION_GUEST(Scope.INSTITUTION, Role.Institution.GUEST),
+    INSTITUTION_NONE(Scope.INSTITUTION, Role.Institution.NONE),
+    INSTITUTION_OTHER(Scope.INSTITUTION, Role.Institution.OTHER),
+    INSTITUTION_STAFF(Scope.INSTITUTION, Role.Institution.STAFF),
+    INSTITUTION_STUDENT(Scope.INSTITUTION, Role.Institution.STUDENT),
+    INSTITUTION_ALUMNI(Scope.INSTITUTION, Role.Institution.ALUMNI),
+    INSTITUTION_INSTRUCTOR(Scope.INSTITUTION, Role.Institution.INSTRUCTOR),
+    INSTITUTION_LEARNER(Scope.INSTITUTION, Role.Institution.LEARNER),
+    INSTITUTION_MEMBER(Scope.INSTITUTION, Role.Institution.MEMBER),
+    INSTITUTION_MENTOR(Scope.INSTITUTION, Role.Institution.MENTOR),
+    INSTITUTION_OBSERVER(Scope.INSTITUTION, Role.Institution.OBSERVER),
+    INSTITUTION_PROSPECTIVE_STUDENT(Scope.INSTITUTION, Role.Institution.PROSPECTIVE_STUDENT),
+
+    CONTEXT_ADMINISTRATOR(Scope.CONTEXT, Role.Context.ADMINISTRATOR),
+    CONTEXT_CONTENT_DEVELOPER(Scope.CONTEXT, Role.Context.CONTENT_DEVELOPER),
+    CONTEXT_INSTRUCTOR(Scope.CONTEXT, Role.Context.INSTRUCTOR),
+    CONTEXT_LEARNER(Scope.CONTEXT, Role.Context.LEARNER),
+    CONTEXT_MENTOR(Scope.CONTEXT, Role.Context.MENTOR),
+    CONTEXT_MANAGER(Scope.CONTEXT, Role.Context.MANAGER),
+    CONTEXT_MEMBER(Scope.CONTEXT, Role.Context.MEMBER),
+    CONTEXT_OFFICER(Scope.CONTEXT, Role.Context.OFFICER);
+
+    /**
+     * What the role applies to.
+     */
+    public enum Scope {
+        SYSTEM("urn:lti:sysrole:ims/lis/"),
+        INSTITUTION("urn:lti:instrole:ims/lis/"),
+        CONTEXT("urn:lti:role:ims/lis/");
+
+        private final String urnPrefix;
+
+        Scope(String urnPrefix) {
+            this.urnPrefix = urnPrefix;
+        }
+    }
+
+    private static final Map<String, LtiRole> BY_NAME;
+
+    static {
+        Map<String, LtiRole> byName = new HashMap<>();
+        for (LtiRole role : values()) {
+            byName.put(role.uri, role);
+            byName.put(role.getUrn(), role);
+        }
+        // Only context roles can be sent as a short name, and these take precedence over the other scopes.
+        for (LtiRole role : values()) {
+            if (role.scope == Scope.CONTEXT) {
+                byName.put(role.getShortName(), role);
+            }
+        }
+        BY_NAME = Map.copyOf(byName);
+    }
+
+    private final Scope scope;
+    private final String uri;
+
+    LtiRole(Scope scope, String uri) {
+        this.scope = scope;
+        this.uri = uri;
+    }
+
+    /**
+     * @param role The role from the roles claim, a URI, short name or LTI 1.1 URN.
+     * @return The role or null if it isn't one of the LTI roles (sub-roles aren't included).
+     */
+    public static LtiRole fromString(String role) {
+        return role != null ? BY_NAME.get(role) : null;
+    }
+
+    public Scope getScope() {
+        return scope;
+    }
+
+    /**
+     * @return The full URI of the role, for example {@code http://purl.imsglobal.org/vocab/lis/v2/membership#Instructor}.
+     */
+    public String getUri() {
+        return uri;
+    }
+
+    /**
+     * @return The name of the role without the vocabulary, for example {@code Instructor}.
+     */
+    public String getShortName() {
+        return uri.substring(uri.indexOf('#') + 1);
+    }
+
+    /**
+     * @return The LTI 1.1 URN of the role, for example {@code urn:lti:role:ims/lis/Instructor}.
+     */
+    public String getUrn() {
+        return scope.urnPrefix + getShortName();
+    }
+}
@@ -0,0 +1,100 @@
+package uk.ac.ox.ctl.lti13.metrics;
+
+import org.springframework.security.oauth2.core.OAuth2AuthenticationException;
+import org.springframework.security.oauth2.core.OAuth2AuthorizationException;
+import org.springframework.web.client.RestClientResponseException;
+
+/**
+ * Receives timings and counts from each stage of an LTI launch and of the calls made to LTI services. All the
+ * methods do nothing by default so implementations only need to override the ones they are interested in.
+ * <p>
+ * The outcome is {@link #SUCCESS} or a short code for the failure (see {@link #outcome(Throwable)}), so it is
+ * suitable for use as a metric tag.
+ *
+ * @see MicrometerLtiMetrics
+ * @see uk.ac.ox.ctl.lti13.Lti13Configurer#metrics(LtiMetrics)
+ */
+public interface LtiMetrics {
+
+    /**
+     * Doesn't record anything, this is the default.
+     */
+    LtiMetrics NOOP = new LtiMetrics() {
+    };
+
+    String SUCCESS = "success";
+
+    /**
+     * Used when the registration isn't known, for example if the login initiation request was for a registration
+     * that doesn't exist. We don't tag with the requested ID as that would allow anyone to create new metrics.
+     */
+    String UNKNOWN_REGISTRATION = "unknown";
+
+    /**
+     * Step 1, the login initiation request through to the redirect to the platform.
+     */
+    default void initiation(String registrationId, String outcome, long nanos) {
+    }
+
+    /**
+     * Step 3, the authentication response from the platform through to having an authenticated user.
+     */
+    default void authentication(String registrationId, String outcome, long nanos) {
+    }
+
+    /**
+     * Fetching the platform's JWK Set, this only happens when the keys aren't already cached.
+     */
+    default void jwksFetch(String registrationId, String outcome, long nanos) {
+    }
+
+    /**
+     * Decoding the ID token and verifying its signature. If the platform's keys weren't cached this includes the
+     * time taken to fetch them.
+     */
+    default void signatureVerification(String registrationId, String outcome, long nanos) {
+    }
+
+    /**
+     * Exchanging a client assertion for an access token to use with LTI services.
+     */
+    default void tokenExchange(String registrationId, String outcome, long nanos) {
+    }
+
+    /**
+     * Fetching a single page of members from the names and roles service.
+     */
+    default void nrpsPage(String registrationId, String outcome, long nanos) {
+    }
+
+    /**
+     * Looking up the authorization request when the platform returns in step 3.
+     *
+     * @param repository The store that was checked, either {@code session} or {@code state}.
+     * @param hit        true if the authorization request was found in the store.
+     */
+    default void authorizationRequestLookup(String repository, boolean hit) {
+    }
+
+    /**
+     * Converts a failure into an outcome, OAuth errors use their error code and HTTP errors their status so that
+     * the number of different outcomes stays small.
+     *
+     * @param throwable The failure.
+     * @return The outcome to record.
+     */
+    static String outcome(Throwable throwable) {
+        if (throwable instanceof OAuth2AuthenticationException e) {
+            return e.getError().getErrorCode();
+        }
+        if (throwable instanceof OAuth2AuthorizationException e) {
+            return e.getError().getErrorCode();
+        }
+        if (throwable instanceof RestClientResponseException e) {
+            return "http_" + e.getStatusCode().value();
+        }
+        String name = throwable.getClass().getSimpleName();
+        // Anonymous classes don't have a simple name.
+        return name.isEmpty() ? throwable.getClass().getName() : name;
+    }
+}
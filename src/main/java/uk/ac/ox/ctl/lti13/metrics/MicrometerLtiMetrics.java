@@ -0,0 +1,82 @@
+package uk.ac.ox.ctl.lti13.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.util.Assert;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes the LTI metrics to a Micrometer {@link MeterRegistry}. Timers are tagged with {@code registration}
+ * and {@code outcome}:
+ * <ul>
+ *     <li>{@code lti.initiation} - step 1 of the launch</li>
+ *     <li>{@code lti.authentication} - step 3 of the launch</li>
+ *     <li>{@code lti.jwks.fetch} - fetching the platform's JWK Set</li>
+ *     <li>{@code lti.signature.verification} - decoding and verifying the ID token</li>
+ *     <li>{@code lti.token.exchange} - getting an access token for LTI services</li>
+ *     <li>{@code lti.nrps.page} - fetching a page from the names and roles service</li>
+ * </ul>
+ * and the {@code lti.authorization.request.lookup} counter is tagged with {@code repository} and
+ * {@code result} ({@code hit} or {@code miss}).
+ */
+public class MicrometerLtiMetrics implements LtiMetrics {
+
+    private final MeterRegistry registry;
+
+    public MicrometerLtiMetrics(MeterRegistry registry) {
+        Assert.notNull(registry, "registry cannot be null");
+        this.registry = registry;
+    }
+
+    @Override
+    public void initiation(String registrationId, String outcome, long nanos) {
+        record("lti.initiation", "Step 1 of an LTI launch", registrationId, outcome, nanos);
+    }
+
+    @Override
+    public void authentication(String registrationId, String outcome, long nanos) {
+        record("lti.authentication", "Step 3 of an LTI launch", registrationId, outcome, nanos);
+    }
+
+    @Override
+    public void jwksFetch(String registrationId, String outcome, long nanos) {
+        record("lti.jwks.fetch", "Fetching a platform's JWK Set", registrationId, outcome, nanos);
+    }
+
+    @Override
+    public void signatureVerification(String registrationId, String outcome, long nanos) {
+        record("lti.signature.verification", "Decoding and verifying an ID token", registrationId, outcome, nanos);
+    }
+
+    @Override
+    public void tokenExchange(String registrationId, String outcome, long nanos) {
+        record("lti.token.exchange", "Getting an access token for LTI services", registrationId, outcome, nanos);
+    }
+
+    @Override
+    public void nrpsPage(String registrationId, String outcome, long nanos) {
+        record("lti.nrps.page", "Fetching a page of members from the names and roles service", registrationId, outcome, nanos);
+    }
+
+    @Override
+    public void authorizationRequestLookup(String repository, boolean hit) {
+        Counter.builder("lti.authorization.request.lookup")
+                .description("Looking up the authorization request in step 3 of an LTI launch")
+                .tag("repository", repository)
+                .tag("result", hit ? "hit" : "miss")
+                .register(registry)
+                .increment();
+    }
+
+    private void record(String name, String description, String registrationId, String outcome, long nanos) {
+        // The registry keeps the meters so registering an existing one is just a lookup.
+        Timer.builder(name)
+                .description(description)
+                .tag("registration", registrationId != null ? registrationId : UNKNOWN_REGISTRATION)
+                .tag("outcome", outcome)
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+}
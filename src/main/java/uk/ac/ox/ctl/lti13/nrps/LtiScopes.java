@@ -6,4 +6,14 @@ public class LtiScopes {
 
     public static final String LTI_NRPS_CLAIM = "https://purl.imsglobal.org/spec/lti-nrps/claim/namesroleservice";
 
+    public static final String LTI_AGS_LINEITEM_SCOPE = "https://purl.imsglobal.org/spec/lti-ags/scope/lineitem";
+
+    public static final String LTI_AGS_LINEITEM_READONLY_SCOPE = "https://purl.imsglobal.org/spec/lti-ags/scope/lineitem.readonly";
+
+    public static final String LTI_AGS_RESULT_READONLY_SCOPE = "https://purl.imsglobal.org/spec/lti-ags/scope/result.readonly";
+
+    public static final String LTI_AGS_SCORE_SCOPE = "https://purl.imsglobal.org/spec/lti-ags/scope/score";
+
+    public static final String LTI_AGS_CLAIM = "https://purl.imsglobal.org/spec/lti-ags/claim/endpoint";
+
 }
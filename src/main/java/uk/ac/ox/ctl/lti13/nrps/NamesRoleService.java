@@ -1,7 +1,7 @@
 package uk.ac.ox.ctl.lti13.nrps;
 
 import com.nimbusds.jose.JOSEException;
-import net.minidev.json.JSONObject;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
 import org.springframework.security.oauth2.client.registration.ClientRegistration;
 import org.springframework.security.oauth2.client.registration.ClientRegistrationRepository;
 import org.springframework.security.oauth2.core.endpoint.OAuth2AccessTokenResponse;
@@ -9,40 +9,59 @@ import org.springframework.security.oauth2.core.oidc.user.OidcUser;
 import org.springframework.web.client.RestTemplate;
 import uk.ac.ox.ctl.lti13.OAuth2Interceptor;
 import uk.ac.ox.ctl.lti13.TokenRetriever;
-import uk.ac.ox.ctl.lti13.lti.Claims;
+import uk.ac.ox.ctl.lti13.lti.LtiLaunch;
+import uk.ac.ox.ctl.lti13.jfr.NrpsFetchEvent;
+import uk.ac.ox.ctl.lti13.metrics.LtiMetrics;
 import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.authentication.OidcLaunchFlowToken;
 
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class NamesRoleService {
 
     private final ClientRegistrationRepository clientRegistrationRepository;
     private final TokenRetriever tokenRetriever;
+    private final List<ClientHttpRequestInterceptor> interceptors = new CopyOnWriteArrayList<>();
+    private LtiMetrics metrics = LtiMetrics.NOOP;
 
     public NamesRoleService(ClientRegistrationRepository clientRegistrationRepository, TokenRetriever tokenRetriever) {
         this.clientRegistrationRepository = clientRegistrationRepository;
         this.tokenRetriever = tokenRetriever;
     }
 
+    /**
+     * Sets where the timings of fetching members are recorded.
+     */
+    public void setMetrics(LtiMetrics metrics) {
+        Objects.requireNonNull(metrics, "You must supply metrics.");
+        this.metrics = metrics;
+    }
+
+    /**
+     * Adds an interceptor to the requests made to the names and roles service, they are run in the order they
+     * are added and after the access token is added to the request.
+     */
+    public void addInterceptor(ClientHttpRequestInterceptor interceptor) {
+        Objects.requireNonNull(interceptor, "You must supply an interceptor.");
+        this.interceptors.add(interceptor);
+    }
+
     public NRPSResponse getMembers(OidcLaunchFlowToken oAuth2AuthenticationToken, boolean includeResourceLink) {
         OidcUser principal = oAuth2AuthenticationToken.getPrincipal();
         if (principal != null) {
-            Object o = principal.getClaims().get(LtiScopes.LTI_NRPS_CLAIM);
-            if (o instanceof JSONObject) {
-                JSONObject json = (JSONObject)o;
-                String contextMembershipsUrl = json.getAsString("context_memberships_url");
-                if (contextMembershipsUrl != null && !contextMembershipsUrl.isEmpty()) {
-                    // Got a URL to go to.
-                    Object r = principal.getClaims().get(Claims.RESOURCE_LINK);
-                    String resourceLinkId = null;
-                    if (includeResourceLink && r instanceof JSONObject) {
-                        JSONObject resourceJson = (JSONObject) r;
-                        resourceLinkId = resourceJson.getAsString("id");
-                    }
-                    return loadMembers(contextMembershipsUrl, resourceLinkId, oAuth2AuthenticationToken.getClientRegistration().getRegistrationId());
+            LtiLaunch launch = LtiLaunch.of(principal);
+            String contextMembershipsUrl = launch.getContextMembershipsUrl();
+            if (contextMembershipsUrl != null && !contextMembershipsUrl.isEmpty()) {
+                // Got a URL to go to.
+                String resourceLinkId = null;
+                if (includeResourceLink && launch.getResourceLink() != null) {
+                    resourceLinkId = launch.getResourceLink().id();
                 }
+                return loadMembers(contextMembershipsUrl, resourceLinkId, oAuth2AuthenticationToken.getClientRegistration().getRegistrationId());
             }
         }
         return null;
@@ -54,24 +73,50 @@ public class NamesRoleService {
         if (clientRegistration == null) {
             throw new IllegalStateException("Failed to find client registration for: "+ clientRegistrationId);
         }
+        NrpsFetchEvent event = new NrpsFetchEvent();
+        event.begin();
+        String url = contextMembershipsUrl;
+        NRPSResponse response = null;
         try {
             OAuth2AccessTokenResponse token = tokenRetriever.getToken(clientRegistration, LtiScopes.LTI_NRPS_SCOPE);
 
-            String url = contextMembershipsUrl;
             if (resourceLinkId != null) {
                 url = url + "?rlid="+ URLEncoder.encode(resourceLinkId, "UTF-8");
             }
             RestTemplate client = new RestTemplate();
-            client.setInterceptors(Collections.singletonList(new OAuth2Interceptor(token.getAccessToken())));
+            // The token is added first so a retry by a ResilienceInterceptor, which skips the interceptors after it, still has it.
+            List<ClientHttpRequestInterceptor> clientInterceptors = new ArrayList<>();
+            clientInterceptors.add(new OAuth2Interceptor(token.getAccessToken()));
+            clientInterceptors.addAll(interceptors);
+            client.setInterceptors(clientInterceptors);
             // TODO Needs to set accept header to: application/vnd.ims.lti-nrps.v2.membershipcontainer+json
             // TODO Needs to handle Link headers
-            NRPSResponse response = client.getForObject(url, NRPSResponse.class);
+            long start = System.nanoTime();
+            try {
+                response = client.getForObject(url, NRPSResponse.class);
+            } catch (RuntimeException e) {
+                metrics.nrpsPage(clientRegistrationId, LtiMetrics.outcome(e), System.nanoTime() - start);
+                throw e;
+            }
+            metrics.nrpsPage(clientRegistrationId, LtiMetrics.SUCCESS, System.nanoTime() - start);
             return response;
         } catch (JOSEException e) {
+            event.failed(e);
             throw new RuntimeException("Failed to sign JWT", e);
         } catch (UnsupportedEncodingException e) {
             // This should never happen
+            event.failed(e);
             throw new RuntimeException("Unable to find encoding.", e);
+        } catch (RuntimeException e) {
+            event.failed(e);
+            throw e;
+        } finally {
+            if (event.shouldCommit()) {
+                event.registrationId = clientRegistrationId;
+                event.url = url;
+                event.members = response != null && response.getMembers() != null ? response.getMembers().size() : 0;
+                event.commit();
+            }
         }
     }
 }
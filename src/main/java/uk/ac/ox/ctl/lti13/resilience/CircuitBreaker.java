@@ -0,0 +1,63 @@
+package uk.ac.ox.ctl.lti13.resilience;
+
+import java.util.function.LongSupplier;
+
+/**
+ * A circuit breaker for a single host. After enough failures in a row it opens and rejects requests, once it has
+ * been open for long enough a single trial request is allowed through and depending on the outcome it closes or
+ * opens again.
+ */
+class CircuitBreaker {
+
+    enum State {CLOSED, OPEN, HALF_OPEN}
+
+    private final int failureThreshold;
+    private final long openNanos;
+    private final LongSupplier nanoTime;
+
+    private State state = State.CLOSED;
+    private int failures;
+    private long openedAt;
+
+    CircuitBreaker(int failureThreshold, long openNanos, LongSupplier nanoTime) {
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openNanos;
+        this.nanoTime = nanoTime;
+    }
+
+    /**
+     * If this returns true the caller must then call {@link #recordSuccess()} or {@link #recordFailure()}.
+     */
+    synchronized boolean allowRequest() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (nanoTime.getAsLong() - openedAt >= openNanos) {
+                    state = State.HALF_OPEN;
+                    return true;
+                }
+                return false;
+            default:
+                // There is already a trial request in progress.
+                return false;
+        }
+    }
+
+    synchronized void recordSuccess() {
+        failures = 0;
+        state = State.CLOSED;
+    }
+
+    synchronized void recordFailure() {
+        if (state == State.HALF_OPEN || ++failures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = nanoTime.getAsLong();
+            failures = 0;
+        }
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+}
@@ -0,0 +1,20 @@
+package uk.ac.ox.ctl.lti13.resilience;
+
+import org.springframework.web.client.RestClientException;
+
+/**
+ * Thrown instead of sending a request to a platform that has recently been failing.
+ */
+public class CircuitBreakerOpenException extends RestClientException {
+
+    private final String host;
+
+    public CircuitBreakerOpenException(String host) {
+        super("Not sending request as recent requests to " + host + " have failed");
+        this.host = host;
+    }
+
+    public String getHost() {
+        return host;
+    }
+}
@@ -0,0 +1,20 @@
+package uk.ac.ox.ctl.lti13.resilience;
+
+import org.springframework.web.client.RestClientException;
+
+/**
+ * Thrown when a request to a platform would have to wait too long to stay under the rate limit.
+ */
+public class RateLimitExceededException extends RestClientException {
+
+    private final String host;
+
+    public RateLimitExceededException(String host) {
+        super("Rate limit for " + host + " exceeded");
+        this.host = host;
+    }
+
+    public String getHost() {
+        return host;
+    }
+}
@@ -0,0 +1,283 @@
+package uk.ac.ox.ctl.lti13.resilience;
+
+import com.google.common.util.concurrent.RateLimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.util.Assert;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Makes calls to platforms more resilient when they are under load. For each platform host this:
+ * <ul>
+ *     <li>retries with jittered exponential backoff, or after the time given in the {@code Retry-After} header</li>
+ *     <li>limits the rate of requests, if a rate limit has been set</li>
+ *     <li>stops sending requests for a while after repeated failures, so request threads fail fast rather
+ *     than waiting on a platform that is down</li>
+ * </ul>
+ * A retry sends the request again by calling {@link ClientHttpRequestExecution#execute} a second time, which
+ * skips any interceptors added after this one, so this must be the last interceptor added. The services add their
+ * own interceptors (such as the access token or the timing of the JWK Set fetch) before any that are added to them.
+ * A single instance should be shared between the {@link uk.ac.ox.ctl.lti13.TokenRetriever} and the services so
+ * that they share the limits for each platform.
+ * <p>
+ * Retries hold the request thread, so the total time spent waiting between attempts is limited by
+ * {@link #setMaxRetryWait(Duration)}, if the next wait would go over it the last response or error is returned.
+ * <p>
+ * POST requests (such as getting a token) are only retried when the platform says it didn't handle them
+ * (429 or 503), not after connection errors where the platform may have already handled them.
+ */
+public class ResilienceInterceptor implements ClientHttpRequestInterceptor {
+
+    private final Logger log = LoggerFactory.getLogger(ResilienceInterceptor.class);
+
+    private static final Set<Integer> UNHANDLED_STATUSES = Set.of(429, 503);
+
+    private final Map<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+    private final Map<String, RateLimiter> rateLimiters = new ConcurrentHashMap<>();
+    private final Map<String, Double> hostRateLimits = new ConcurrentHashMap<>();
+
+    private int maxAttempts = 3;
+    private Duration initialBackoff = Duration.ofMillis(200);
+    private Duration maxBackoff = Duration.ofSeconds(5);
+    private Duration maxRetryAfter = Duration.ofSeconds(5);
+    private Duration maxRetryWait = Duration.ofSeconds(10);
+    private Set<Integer> retryStatuses = Set.of(429, 502, 503, 504);
+    // Requests per second to each host, 0 means no limit.
+    private double rateLimit;
+    private Duration maxRateLimitWait = Duration.ofSeconds(5);
+    private int failureThreshold = 5;
+    private Duration openDuration = Duration.ofSeconds(30);
+    private RetryListener retryListener = (request, attempt, delay, reason) -> {
+    };
+
+    // Only changed for testing.
+    LongSupplier nanoTime = System::nanoTime;
+    Sleeper sleeper = Thread::sleep;
+
+    interface Sleeper {
+        void sleep(long millis) throws InterruptedException;
+    }
+
+    /**
+     * @param maxAttempts The maximum number of times to send a request, including the first attempt.
+     */
+    public void setMaxAttempts(int maxAttempts) {
+        Assert.isTrue(maxAttempts > 0, "maxAttempts must be at least 1");
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * @param initialBackoff The upper bound of the wait before the first retry, this doubles on each retry.
+     * @param maxBackoff     The largest upper bound of the wait between retries.
+     */
+    public void setBackoff(Duration initialBackoff, Duration maxBackoff) {
+        Assert.notNull(initialBackoff, "initialBackoff cannot be null");
+        Assert.isTrue(maxBackoff.compareTo(initialBackoff) >= 0, "maxBackoff cannot be less than initialBackoff");
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+    }
+
+    /**
+     * @param maxRetryAfter If the platform asks us to wait longer than this before retrying we return the
+     *                      response rather than holding on to the request thread.
+     */
+    public void setMaxRetryAfter(Duration maxRetryAfter) {
+        Assert.notNull(maxRetryAfter, "maxRetryAfter cannot be null");
+        this.maxRetryAfter = maxRetryAfter;
+    }
+
+    /**
+     * @param maxRetryWait The longest time a request can spend waiting between all its attempts, retries that
+     *                     would take it over this aren't made.
+     */
+    public void setMaxRetryWait(Duration maxRetryWait) {
+        Assert.notNull(maxRetryWait, "maxRetryWait cannot be null");
+        this.maxRetryWait = maxRetryWait;
+    }
+
+    /**
+     * @param retryStatuses The response statuses to retry GET requests for.
+     */
+    public void setRetryStatuses(Set<Integer> retryStatuses) {
+        Assert.notNull(retryStatuses, "retryStatuses cannot be null");
+        this.retryStatuses = Set.copyOf(retryStatuses);
+    }
+
+    /**
+     * @param rateLimit The maximum number of requests per second to send to each host, 0 for no limit.
+     */
+    public void setRateLimit(double rateLimit) {
+        Assert.isTrue(rateLimit >= 0, "rateLimit cannot be negative");
+        this.rateLimit = rateLimit;
+        rateLimiters.clear();
+    }
+
+    /**
+     * Sets the rate limit for a single host, for example if a platform publishes its limits.
+     *
+     * @param host      The host of the platform, for example {@code canvas.instructure.com}.
+     * @param rateLimit The maximum number of requests per second to send to the host, 0 for no limit.
+     */
+    public void setRateLimit(String host, double rateLimit) {
+        Assert.hasText(host, "host cannot be empty");
+        Assert.isTrue(rateLimit >= 0, "rateLimit cannot be negative");
+        hostRateLimits.put(host, rateLimit);
+        rateLimiters.remove(host);
+    }
+
+    /**
+     * @param maxRateLimitWait How long a request can wait to stay under the rate limit before failing.
+     */
+    public void setMaxRateLimitWait(Duration maxRateLimitWait) {
+        Assert.notNull(maxRateLimitWait, "maxRateLimitWait cannot be null");
+        this.maxRateLimitWait = maxRateLimitWait;
+    }
+
+    /**
+     * @param failureThreshold The number of failures in a row (5xx responses or connection errors) before we stop
+     *                         sending requests to a host.
+     * @param openDuration     How long to stop sending requests for before trying again.
+     */
+    public void setCircuitBreaker(int failureThreshold, Duration openDuration) {
+        Assert.isTrue(failureThreshold > 0, "failureThreshold must be at least 1");
+        Assert.notNull(openDuration, "openDuration cannot be null");
+        this.failureThreshold = failureThreshold;
+        this.openDuration = openDuration;
+        circuitBreakers.clear();
+    }
+
+    public void setRetryListener(RetryListener retryListener) {
+        Assert.notNull(retryListener, "retryListener cannot be null");
+        this.retryListener = retryListener;
+    }
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution) throws IOException {
+        String host = request.getURI().getHost();
+        CircuitBreaker circuitBreaker = circuitBreakers.computeIfAbsent(host,
+                h -> new CircuitBreaker(failureThreshold, openDuration.toNanos(), nanoTime));
+        boolean idempotent = !HttpMethod.POST.equals(request.getMethod()) && !HttpMethod.PATCH.equals(request.getMethod());
+        long waited = 0;
+        for (int attempt = 1; ; attempt++) {
+            // Wait for the rate limit before checking the circuit breaker so a trial request always completes.
+            acquire(host);
+            if (!circuitBreaker.allowRequest()) {
+                throw new CircuitBreakerOpenException(host);
+            }
+            ClientHttpResponse response;
+            try {
+                response = execution.execute(request, body);
+            } catch (IOException e) {
+                circuitBreaker.recordFailure();
+                Duration delay = backoff(attempt);
+                if (!idempotent || attempt >= maxAttempts || waited + delay.toMillis() > maxRetryWait.toMillis()) {
+                    throw e;
+                }
+                retry(request, attempt, delay, e.getClass().getSimpleName());
+                waited += delay.toMillis();
+                continue;
+            } catch (RuntimeException e) {
+                circuitBreaker.recordFailure();
+                throw e;
+            }
+            int status = response.getStatusCode().value();
+            if (status >= 500) {
+                circuitBreaker.recordFailure();
+            } else {
+                circuitBreaker.recordSuccess();
+            }
+            boolean retryable = idempotent ? retryStatuses.contains(status) : UNHANDLED_STATUSES.contains(status);
+            if (!retryable || attempt >= maxAttempts) {
+                return response;
+            }
+            Duration retryAfter = retryAfter(response.getHeaders());
+            if (retryAfter != null && retryAfter.compareTo(maxRetryAfter) > 0) {
+                // Better to let the caller fail than hold the request thread for this long.
+                return response;
+            }
+            Duration delay = retryAfter != null ? retryAfter : backoff(attempt);
+            if (waited + delay.toMillis() > maxRetryWait.toMillis()) {
+                return response;
+            }
+            response.close();
+            retry(request, attempt, delay, Integer.toString(status));
+            waited += delay.toMillis();
+        }
+    }
+
+    private void acquire(String host) {
+        double limit = hostRateLimits.getOrDefault(host, rateLimit);
+        if (limit <= 0) {
+            return;
+        }
+        RateLimiter rateLimiter = rateLimiters.computeIfAbsent(host, h -> RateLimiter.create(limit));
+        if (!rateLimiter.tryAcquire(maxRateLimitWait.toMillis(), TimeUnit.MILLISECONDS)) {
+            throw new RateLimitExceededException(host);
+        }
+    }
+
+    private void retry(HttpRequest request, int attempt, Duration delay, String reason) throws IOException {
+        log.debug("Retrying {} {} in {}ms after attempt {} failed with {}", request.getMethod(), request.getURI(), delay.toMillis(), attempt, reason);
+        retryListener.onRetry(request, attempt, delay, reason);
+        try {
+            sleeper.sleep(delay.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry request");
+        }
+    }
+
+    /**
+     * Full jitter, so that clients that failed at the same time don't all retry at the same time.
+     */
+    Duration backoff(int attempt) {
+        long cap = initialBackoff.toMillis() << Math.min(attempt - 1, 30);
+        long bound = Math.max(Math.min(cap, maxBackoff.toMillis()), 1);
+        return Duration.ofMillis(ThreadLocalRandom.current().nextLong(bound + 1));
+    }
+
+    /**
+     * @return The delay from the Retry-After header which can be in seconds or a date, or null if it isn't set.
+     */
+    static Duration retryAfter(HttpHeaders headers) {
+        String value = headers.getFirst(HttpHeaders.RETRY_AFTER);
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        value = value.trim();
+        try {
+            return Duration.ofSeconds(Math.max(Long.parseLong(value), 0));
+        } catch (NumberFormatException e) {
+            // Must be a date then.
+        }
+        try {
+            Duration delay = Duration.between(ZonedDateTime.now(), ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME));
+            return delay.isNegative() ? Duration.ZERO : delay;
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    CircuitBreaker.State getCircuitBreakerState(String host) {
+        CircuitBreaker circuitBreaker = circuitBreakers.get(host);
+        return circuitBreaker != null ? circuitBreaker.getState() : CircuitBreaker.State.CLOSED;
+    }
+}
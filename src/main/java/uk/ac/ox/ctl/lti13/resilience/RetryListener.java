@@ -0,0 +1,20 @@
+package uk.ac.ox.ctl.lti13.resilience;
+
+import org.springframework.http.HttpRequest;
+
+import java.time.Duration;
+
+/**
+ * Told each time a request to a platform is about to be retried.
+ */
+@FunctionalInterface
+public interface RetryListener {
+
+    /**
+     * @param request The request being retried.
+     * @param attempt The attempt that failed, starting at 1.
+     * @param delay   How long we will wait before sending it again.
+     * @param reason  The status code of the failed attempt, or the exception type if no response was received.
+     */
+    void onRetry(HttpRequest request, int attempt, Duration delay, String reason);
+}
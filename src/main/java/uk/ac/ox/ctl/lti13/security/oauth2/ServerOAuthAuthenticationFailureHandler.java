@@ -0,0 +1,33 @@
+package uk.ac.ox.ctl.lti13.security.oauth2;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.oauth2.core.OAuth2AuthenticationException;
+import org.springframework.security.web.server.WebFilterExchange;
+import org.springframework.security.web.server.authentication.ServerAuthenticationFailureHandler;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The reactive version of {@link OAuthAuthenticationFailureHandler}, this returns the OAuth error code so that
+ * you get better error messages when a launch fails.
+ */
+public class ServerOAuthAuthenticationFailureHandler implements ServerAuthenticationFailureHandler {
+
+	@Override
+	public Mono<Void> onAuthenticationFailure(WebFilterExchange webFilterExchange, AuthenticationException exception) {
+		String message = exception.getMessage();
+		if (exception instanceof OAuth2AuthenticationException oAuth2AuthenticationException) {
+			message = oAuth2AuthenticationException.getError().getErrorCode()+ " : "+ exception.getMessage();
+		}
+		ServerHttpResponse response = webFilterExchange.getExchange().getResponse();
+		response.setStatusCode(HttpStatus.UNAUTHORIZED);
+		response.getHeaders().setContentType(MediaType.TEXT_PLAIN);
+		DataBuffer buffer = response.bufferFactory().wrap(String.valueOf(message).getBytes(StandardCharsets.UTF_8));
+		return response.writeWith(Mono.just(buffer));
+	}
+}
@@ -0,0 +1,243 @@
+package uk.ac.ox.ctl.lti13.security.oauth2.client.lti.authentication;
+
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.authority.mapping.GrantedAuthoritiesMapper;
+import org.springframework.security.oauth2.core.oidc.user.OidcUserAuthority;
+import org.springframework.util.Assert;
+import uk.ac.ox.ctl.lti13.lti.Claims;
+import uk.ac.ox.ctl.lti13.lti.ContextTypes;
+import uk.ac.ox.ctl.lti13.lti.LtiRole;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Maps the LTI roles and context type of a launch to authorities. Set this as the
+ * {@link OidcLaunchFlowAuthenticationProvider#setAuthoritiesMapper(GrantedAuthoritiesMapper) authorities mapper}, for
+ * example through {@link uk.ac.ox.ctl.lti13.Lti13Configurer#grantedAuthoritiesMapper(GrantedAuthoritiesMapper)}.
+ * <p>
+ * The rules are compiled when the mapper is built into tables indexed by {@link LtiRole} and context type, and
+ * roles and context types in any of their forms (URI, short name or LTI 1.1 URN) are matched. Each authority is only
+ * created once, and the authorities for each combination of roles and context types are kept, so mapping a launch
+ * is a few lookups. The authorities passed in (such as the {@link OidcUserAuthority}) are kept, when that is the
+ * only one the result is a view of it and the kept authorities so nothing is copied.
+ *
+ * <pre>
+ * LtiRoleAuthoritiesMapper.builder()
+ *     .role(LtiRole.CONTEXT_INSTRUCTOR, "ROLE_INSTRUCTOR")
+ *     .role(LtiRole.CONTEXT_LEARNER, "ROLE_LEARNER")
+ *     .contextType(ContextTypes.GROUP, "ROLE_GROUP")
+ *     .build();
+ * </pre>
+ */
+public final class LtiRoleAuthoritiesMapper implements GrantedAuthoritiesMapper {
+
+	// The roles use the low 32 bits of the key and the context types the high 32 bits.
+	private static final int MAX_CONTEXT_TYPES = 32;
+	// The number of combinations of roles and context types that are kept, this must be a power of 2.
+	private static final int MAPPED_SIZE = 1024;
+
+	static {
+		Assert.state(LtiRole.values().length <= 32, "Roles must fit in the low 32 bits of the key");
+	}
+
+	private final GrantedAuthority[][] roleAuthorities;
+	private final Map<String, Integer> contextTypeIndexes;
+	private final GrantedAuthority[][] contextTypeAuthorities;
+	// Bounded as the roles come from the platform, a combination replaces any other one in the same slot.
+	private final AtomicReferenceArray<Mapped> mapped = new AtomicReferenceArray<>(MAPPED_SIZE);
+
+	/**
+	 * The authorities for a combination of roles and context types.
+	 */
+	private record Mapped(long key, GrantedAuthority[] authorities, Set<GrantedAuthority> set) {
+	}
+
+	private LtiRoleAuthoritiesMapper(Builder builder) {
+		this.roleAuthorities = new GrantedAuthority[LtiRole.values().length][];
+		for (LtiRole role : LtiRole.values()) {
+			this.roleAuthorities[role.ordinal()] = builder.toArray(builder.roles.get(role));
+		}
+		this.contextTypeIndexes = new HashMap<>();
+		this.contextTypeAuthorities = new GrantedAuthority[builder.contextTypes.size()][];
+		for (Map.Entry<String, List<String>> contextType : builder.contextTypes.entrySet()) {
+			int index = this.contextTypeIndexes.size();
+			this.contextTypeIndexes.put(contextType.getKey(), index);
+			this.contextTypeAuthorities[index] = builder.toArray(contextType.getValue());
+		}
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	@Override
+	public Collection<? extends GrantedAuthority> mapAuthorities(Collection<? extends GrantedAuthority> authorities) {
+		Map<String, Object> claims = null;
+		for (GrantedAuthority authority : authorities) {
+			if (authority instanceof OidcUserAuthority oidcUserAuthority) {
+				claims = oidcUserAuthority.getIdToken().getClaims();
+				break;
+			}
+		}
+		if (claims == null) {
+			return authorities;
+		}
+		Mapped launchAuthorities = getMapped(key(claims));
+		if (launchAuthorities.authorities().length == 0) {
+			return authorities;
+		}
+		if (authorities.size() == 1) {
+			// The usual case, just the authority from the ID token which the mapped authorities can't contain.
+			return new PrependedList(authorities.iterator().next(), launchAuthorities.authorities());
+		}
+		Set<GrantedAuthority> result = new LinkedHashSet<>(authorities);
+		Collections.addAll(result, launchAuthorities.authorities());
+		return result;
+	}
+
+	/**
+	 * @return The authorities for the roles and context type in the claims.
+	 */
+	public Set<GrantedAuthority> getAuthorities(Map<String, Object> claims) {
+		return getMapped(key(claims)).set();
+	}
+
+	private long key(Map<String, Object> claims) {
+		long key = 0;
+		if (claims.get(Claims.ROLES) instanceof Collection<?> roles) {
+			for (Object value : roles) {
+				LtiRole role = LtiRole.fromString(String.valueOf(value));
+				if (role != null) {
+					key |= 1L << role.ordinal();
+				}
+			}
+		}
+		if (!contextTypeIndexes.isEmpty() && claims.get(Claims.CONTEXT) instanceof Map<?, ?> context
+				&& context.get("type") instanceof Collection<?> types) {
+			for (Object value : types) {
+				Integer index = contextTypeIndexes.get(ContextTypes.toUri(String.valueOf(value)));
+				if (index != null) {
+					key |= 1L << (32 + index);
+				}
+			}
+		}
+		return key;
+	}
+
+	private Mapped getMapped(long key) {
+		int index = slot(key);
+		Mapped existing = mapped.get(index);
+		if (existing != null && existing.key() == key) {
+			return existing;
+		}
+		// If two threads get here at once they each build the same authorities, which is harmless.
+		Set<GrantedAuthority> authorities = buildAuthorities(key);
+		Mapped built = new Mapped(key, authorities.toArray(new GrantedAuthority[0]), authorities);
+		mapped.set(index, built);
+		return built;
+	}
+
+	private static int slot(long key) {
+		// Spread the bits so that the roles and context types both affect the slot.
+		long hash = key * 0x9E3779B97F4A7C15L;
+		return (int) (hash >>> 32) & (MAPPED_SIZE - 1);
+	}
+
+	private Set<GrantedAuthority> buildAuthorities(long key) {
+		Set<GrantedAuthority> authorities = new LinkedHashSet<>();
+		for (int i = 0; i < roleAuthorities.length; i++) {
+			if ((key & (1L << i)) != 0) {
+				Collections.addAll(authorities, roleAuthorities[i]);
+			}
+		}
+		for (int i = 0; i < contextTypeAuthorities.length; i++) {
+			if ((key & (1L << (32 + i))) != 0) {
+				Collections.addAll(authorities, contextTypeAuthorities[i]);
+			}
+		}
+		return Collections.unmodifiableSet(authorities);
+	}
+
+	/**
+	 * The authority passed in followed by the mapped authorities, which are all different to it.
+	 */
+	private static final class PrependedList extends AbstractList<GrantedAuthority> implements RandomAccess {
+		private final GrantedAuthority first;
+		private final GrantedAuthority[] rest;
+
+		private PrependedList(GrantedAuthority first, GrantedAuthority[] rest) {
+			this.first = first;
+			this.rest = rest;
+		}
+
+		@Override
+		public GrantedAuthority get(int index) {
+			return index == 0 ? first : rest[index - 1];
+		}
+
+		@Override
+		public int size() {
+			return rest.length + 1;
+		}
+	}
+
+	public static final class Builder {
+
+		private final Map<LtiRole, List<String>> roles = new HashMap<>();
+		private final Map<String, List<String>> contextTypes = new HashMap<>();
+		private final Map<String, GrantedAuthority> interned = new HashMap<>();
+
+		private Builder() {
+		}
+
+		/**
+		 * Adds authorities that a user with the role is given.
+		 */
+		public Builder role(LtiRole role, String... authorities) {
+			Assert.notNull(role, "role cannot be null");
+			Assert.noNullElements(authorities, "authorities cannot contain null");
+			this.roles.computeIfAbsent(role, r -> new ArrayList<>()).addAll(List.of(authorities));
+			return this;
+		}
+
+		/**
+		 * Adds authorities that are given when the launch is from a context of the type.
+		 *
+		 * @param contextType The context type, for example {@link ContextTypes#COURSE_OFFERING}.
+		 */
+		public Builder contextType(String contextType, String... authorities) {
+			Assert.hasText(contextType, "contextType cannot be empty");
+			Assert.noNullElements(authorities, "authorities cannot contain null");
+			String uri = ContextTypes.toUri(contextType);
+			Assert.isTrue(this.contextTypes.containsKey(uri) || this.contextTypes.size() < MAX_CONTEXT_TYPES,
+					"There can't be more than " + MAX_CONTEXT_TYPES + " context types");
+			this.contextTypes.computeIfAbsent(uri, t -> new ArrayList<>()).addAll(List.of(authorities));
+			return this;
+		}
+
+		public LtiRoleAuthoritiesMapper build() {
+			return new LtiRoleAuthoritiesMapper(this);
+		}
+
+		private GrantedAuthority[] toArray(List<String> authorities) {
+			if (authorities == null) {
+				return new GrantedAuthority[0];
+			}
+			return authorities.stream()
+					.distinct()
+					.map(authority -> interned.computeIfAbsent(authority, SimpleGrantedAuthority::new))
+					.toArray(GrantedAuthority[]::new);
+		}
+	}
+}
@@ -1,16 +1,28 @@
 package uk.ac.ox.ctl.lti13.security.oauth2.client.lti.authentication;
 
 import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.oauth2.client.authentication.OAuth2AuthenticationToken;
 import org.springframework.security.oauth2.core.user.OAuth2User;
 
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 /**
  * We are validating the state on the client (browser) so we need to be able to return the state/nonce back to the client
  * and so it needs to exist outside of just the authentication method.
  */
 public class OidcAuthenticationToken extends OAuth2AuthenticationToken {
+
+	// The value computed for the class before it had a serialized form so that sessions written then can still be read.
+	private static final long serialVersionUID = 719939450408006049L;
+
 	private final String state;
 
 	public OidcAuthenticationToken(OAuth2User principal, Collection<? extends GrantedAuthority> authorities, String authorizedClientRegistrationId, String state) {
@@ -24,4 +36,107 @@ public class OidcAuthenticationToken extends OAuth2AuthenticationToken {
 	public String getState() {
 		return state;
 	}
+
+	private Object writeReplace() {
+		return new SerializedForm(this);
+	}
+
+	/**
+	 * The serialized form, this is what is kept in the session. The authorities that are also authorities of the
+	 * principal (such as the {@link org.springframework.security.oauth2.core.oidc.user.OidcUserAuthority} which holds
+	 * the ID token) are written as a reference to the principal's rather than a second time.
+	 */
+	private static final class SerializedForm implements Externalizable {
+
+		private static final long serialVersionUID = 1L;
+		private static final int VERSION = 1;
+
+		private static final int PRINCIPAL_AUTHORITY = 0;
+		private static final int SIMPLE_AUTHORITY = 1;
+		private static final int OTHER_AUTHORITY = 2;
+
+		private OidcAuthenticationToken token;
+
+		public SerializedForm() {
+		}
+
+		SerializedForm(OidcAuthenticationToken token) {
+			this.token = token;
+		}
+
+		@Override
+		public void writeExternal(ObjectOutput out) throws IOException {
+			out.writeByte(VERSION);
+			out.writeObject(token.getPrincipal());
+			out.writeObject(token.getAuthorizedClientRegistrationId());
+			out.writeObject(token.getState());
+			out.writeBoolean(token.isAuthenticated());
+			out.writeObject(token.getDetails());
+			List<GrantedAuthority> principalAuthorities = new ArrayList<>(token.getPrincipal().getAuthorities());
+			out.writeInt(token.getAuthorities().size());
+			for (GrantedAuthority authority : token.getAuthorities()) {
+				int index = indexOf(principalAuthorities, authority);
+				if (index >= 0) {
+					out.writeByte(PRINCIPAL_AUTHORITY);
+					out.writeInt(index);
+				} else if (authority instanceof SimpleGrantedAuthority) {
+					out.writeByte(SIMPLE_AUTHORITY);
+					out.writeUTF(authority.getAuthority());
+				} else {
+					out.writeByte(OTHER_AUTHORITY);
+					out.writeObject(authority);
+				}
+			}
+		}
+
+		@Override
+		public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+			int version = in.readUnsignedByte();
+			if (version != VERSION) {
+				throw new InvalidObjectException("Unknown version: " + version);
+			}
+			OAuth2User principal = (OAuth2User) in.readObject();
+			String authorizedClientRegistrationId = (String) in.readObject();
+			String state = (String) in.readObject();
+			boolean authenticated = in.readBoolean();
+			Object details = in.readObject();
+			List<GrantedAuthority> principalAuthorities = new ArrayList<>(principal.getAuthorities());
+			int size = in.readInt();
+			List<GrantedAuthority> authorities = new ArrayList<>();
+			for (int i = 0; i < size; i++) {
+				int type = in.readUnsignedByte();
+				switch (type) {
+					case PRINCIPAL_AUTHORITY -> {
+						int index = in.readInt();
+						if (index < 0 || index >= principalAuthorities.size()) {
+							throw new InvalidObjectException("Unknown principal authority: " + index);
+						}
+						authorities.add(principalAuthorities.get(index));
+					}
+					case SIMPLE_AUTHORITY -> authorities.add(new SimpleGrantedAuthority(in.readUTF()));
+					case OTHER_AUTHORITY -> authorities.add((GrantedAuthority) in.readObject());
+					default -> throw new InvalidObjectException("Unknown authority type: " + type);
+				}
+			}
+			this.token = new OidcAuthenticationToken(principal, authorities, authorizedClientRegistrationId, state);
+			this.token.setDetails(details);
+			if (!authenticated) {
+				this.token.setAuthenticated(false);
+			}
+		}
+
+		private Object readResolve() {
+			return token;
+		}
+
+		// The authorities are compared by identity as comparing the ID tokens is expensive.
+		private static int indexOf(List<GrantedAuthority> authorities, GrantedAuthority authority) {
+			for (int i = 0; i < authorities.size(); i++) {
+				if (authorities.get(i) == authority) {
+					return i;
+				}
+			}
+			return -1;
+		}
+	}
 }
@@ -15,6 +15,9 @@
  */
 package uk.ac.ox.ctl.lti13.security.oauth2.client.lti.authentication;
 
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
 import org.springframework.security.authentication.AuthenticationProvider;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.AuthenticationException;
@@ -39,14 +42,19 @@ import org.springframework.security.oauth2.jwt.NimbusJwtDecoder;
 import org.springframework.util.Assert;
 import org.springframework.util.StringUtils;
 import org.springframework.web.client.RestOperations;
+import org.springframework.web.client.RestTemplate;
+import uk.ac.ox.ctl.lti13.jfr.IdTokenEvent;
+import uk.ac.ox.ctl.lti13.metrics.LtiMetrics;
 import uk.ac.ox.ctl.lti13.security.oauth2.core.endpoint.OIDCLaunchFlowResponse;
 import uk.ac.ox.ctl.lti13.security.oauth2.core.user.LtiOauth2User;
 
+import java.io.IOException;
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * An implementation of an {@link AuthenticationProvider}
@@ -74,7 +82,10 @@ public class OidcLaunchFlowAuthenticationProvider implements AuthenticationProvi
 	private static final String MISSING_SIGNATURE_VERIFIER_ERROR_CODE = "missing_signature_verifier";
 	private final Map<String, JwtDecoder> jwtDecoders = new ConcurrentHashMap<>();
 	private GrantedAuthoritiesMapper authoritiesMapper = (authorities -> authorities);
+	private Set<String> retainedClaims;
 	private RestOperations restOperations;
+	private LtiMetrics metrics = LtiMetrics.NOOP;
+	private final List<ClientHttpRequestInterceptor> interceptors = new CopyOnWriteArrayList<>();
 
 	@Override
 	public Authentication authenticate(Authentication authentication) throws AuthenticationException {
@@ -111,14 +122,19 @@ public class OidcLaunchFlowAuthenticationProvider implements AuthenticationProvi
 		OidcIdToken idToken = createOidcToken(clientRegistration, authorizationResponse.getIdToken());
 
 		// We don't have a userinfo endpoint so just construct our user from the claims in the ID Token
-		Set<GrantedAuthority> authorities = new HashSet<>();
 		OidcUserAuthority authority = new OidcUserAuthority(idToken, null);
-		authorities.add(authority);
-		LtiOauth2User oidcUser = new LtiOauth2User(authorities, idToken);
+		LtiOauth2User oidcUser = new LtiOauth2User(Set.of(authority), idToken);
 
 		Collection<? extends GrantedAuthority> mappedAuthorities =
 			this.authoritiesMapper.mapAuthorities(oidcUser.getAuthorities());
 
+		if (this.retainedClaims != null) {
+			// The authorities are mapped with all the claims, it's just the principal that only keeps some of them.
+			OidcUserAuthority retainedAuthority = new OidcUserAuthority(LtiOauth2User.retainClaims(idToken, this.retainedClaims), null);
+			oidcUser = new LtiOauth2User(Set.of(retainedAuthority), retainedAuthority.getIdToken());
+			mappedAuthorities = LtiOauth2User.retainClaims(mappedAuthorities, idToken, retainedAuthority.getIdToken());
+		}
+
 		OidcLaunchFlowToken authenticationResult = new OidcLaunchFlowToken(
 			authorizationCodeAuthentication.getClientRegistration(),
 			authorizationCodeAuthentication.getAuthorizationExchange(),
@@ -140,6 +156,18 @@ public class OidcLaunchFlowAuthenticationProvider implements AuthenticationProvi
 		this.authoritiesMapper = authoritiesMapper;
 	}
 
+	/**
+	 * Sets the claims of the ID token that are kept in the principal, by default all of them are kept. This is useful
+	 * when the authentication is stored in an external session as the claims of a launch are often several KB and
+	 * most of them aren't needed after it. The authorities mapper still sees all the claims.
+	 *
+	 * @param retainedClaims the names of the claims to keep, or null to keep all of them
+	 * @see LtiOauth2User#retainClaims(OidcIdToken, Collection)
+	 */
+	public final void setRetainedClaims(Collection<String> retainedClaims) {
+		this.retainedClaims = retainedClaims != null ? Set.copyOf(retainedClaims) : null;
+	}
+
 	/**
 	 * Sets the {@link RestOperations} used to retrieve the JWKs URL.
 	 *
@@ -149,17 +177,64 @@ public class OidcLaunchFlowAuthenticationProvider implements AuthenticationProvi
 		this.restOperations = restOperations;
 	}
 
+	/**
+	 * Sets where the timings of ID token verification and JWK Set fetches are recorded. This must be set before
+	 * the first authentication as the decoders are cached.
+	 *
+	 * @param metrics the metrics to record to
+	 */
+	public final void setMetrics(LtiMetrics metrics) {
+		Assert.notNull(metrics, "metrics cannot be null");
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Adds an interceptor to the requests that fetch the JWK Sets, they are run in the order they are added and
+	 * inside the timing of the fetch, so the time recorded includes any retries.
+	 * This must be done before the first authentication as the decoders are cached and it has no effect if
+	 * the {@link RestOperations} set isn't a {@link RestTemplate}.
+	 *
+	 * @param interceptor the interceptor to add
+	 */
+	public final void addInterceptor(ClientHttpRequestInterceptor interceptor) {
+		Assert.notNull(interceptor, "interceptor cannot be null");
+		this.interceptors.add(interceptor);
+	}
+
 	@Override
 	public boolean supports(Class<?> authentication) {
 		return OidcLaunchFlowToken.class.isAssignableFrom(authentication);
 	}
 
 	private OidcIdToken createOidcToken(ClientRegistration clientRegistration, String idToken) {
-		JwtDecoder jwtDecoder = getJwtDecoder(clientRegistration);
-		Jwt jwt = jwtDecoder.decode(idToken);
-		OidcIdToken oidcIdToken = new OidcIdToken(jwt.getTokenValue(), jwt.getIssuedAt(), jwt.getExpiresAt(), jwt.getClaims());
-		OidcTokenValidator.validateIdToken(oidcIdToken, clientRegistration);
-		return oidcIdToken;
+		IdTokenEvent event = new IdTokenEvent();
+		event.begin();
+		boolean decoderCached = this.jwtDecoders.containsKey(clientRegistration.getRegistrationId());
+		try {
+			JwtDecoder jwtDecoder = getJwtDecoder(clientRegistration);
+			long start = System.nanoTime();
+			Jwt jwt;
+			try {
+				jwt = jwtDecoder.decode(idToken);
+			} catch (RuntimeException e) {
+				metrics.signatureVerification(clientRegistration.getRegistrationId(), LtiMetrics.outcome(e), System.nanoTime() - start);
+				throw e;
+			}
+			metrics.signatureVerification(clientRegistration.getRegistrationId(), LtiMetrics.SUCCESS, System.nanoTime() - start);
+			OidcIdToken oidcIdToken = new OidcIdToken(jwt.getTokenValue(), jwt.getIssuedAt(), jwt.getExpiresAt(), jwt.getClaims());
+			OidcTokenValidator.validateIdToken(oidcIdToken, clientRegistration);
+			return oidcIdToken;
+		} catch (RuntimeException e) {
+			event.failed(e);
+			throw e;
+		} finally {
+			if (event.shouldCommit()) {
+				event.registrationId = clientRegistration.getRegistrationId();
+				event.tokenSize = idToken != null ? idToken.length() : 0;
+				event.decoderCached = decoderCached;
+				event.commit();
+			}
+		}
 	}
 
 	private JwtDecoder getJwtDecoder(ClientRegistration clientRegistration) {
@@ -178,12 +253,49 @@ public class OidcLaunchFlowAuthenticationProvider implements AuthenticationProvi
 			// Canvas looks to rotate it's keys monthly.
 			String jwkSetUri = clientRegistration.getProviderDetails().getJwkSetUri();
 			NimbusJwtDecoder.JwkSetUriJwtDecoderBuilder decoderBuilder = NimbusJwtDecoder.withJwkSetUri(jwkSetUri).jwsAlgorithm(SignatureAlgorithm.from(JwsAlgorithms.RS256));
-			if (restOperations != null) {
-				decoderBuilder.restOperations(restOperations);
+			RestOperations jwkSetRestOperations = restOperations;
+			if (metrics != LtiMetrics.NOOP || !interceptors.isEmpty()) {
+				jwkSetRestOperations = instrumentedRestOperations(clientRegistration.getRegistrationId());
+			}
+			if (jwkSetRestOperations != null) {
+				decoderBuilder.restOperations(jwkSetRestOperations);
 			}
 			jwtDecoder = decoderBuilder.build();
 			this.jwtDecoders.put(clientRegistration.getRegistrationId(), jwtDecoder);
 		}
 		return jwtDecoder;
 	}
+
+	/**
+	 * Each registration gets its own RestTemplate so that the JWK Set fetches can be tagged with the registration.
+	 */
+	private RestOperations instrumentedRestOperations(String registrationId) {
+		RestTemplate restTemplate;
+		if (restOperations == null) {
+			restTemplate = new RestTemplate();
+		} else if (restOperations instanceof RestTemplate configured) {
+			// Copy the configured template rather than changing it as it may be used elsewhere.
+			restTemplate = new RestTemplate(configured.getMessageConverters());
+			restTemplate.setRequestFactory(configured.getRequestFactory());
+			restTemplate.setErrorHandler(configured.getErrorHandler());
+		} else {
+			// We can't add timing or interceptors to other implementations.
+			return restOperations;
+		}
+		// The timing goes first so that it covers retries made by the interceptors that were added.
+		restTemplate.getInterceptors().add((request, body, execution) -> {
+			long start = System.nanoTime();
+			try {
+				ClientHttpResponse response = execution.execute(request, body);
+				HttpStatusCode status = response.getStatusCode();
+				metrics.jwksFetch(registrationId, status.isError() ? "http_" + status.value() : LtiMetrics.SUCCESS, System.nanoTime() - start);
+				return response;
+			} catch (IOException | RuntimeException e) {
+				metrics.jwksFetch(registrationId, LtiMetrics.outcome(e), System.nanoTime() - start);
+				throw e;
+			}
+		});
+		restTemplate.getInterceptors().addAll(interceptors);
+		return restTemplate;
+	}
 }
@@ -0,0 +1,163 @@
+package uk.ac.ox.ctl.lti13.security.oauth2.client.lti.authentication;
+
+import org.springframework.security.authentication.ReactiveAuthenticationManager;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.mapping.GrantedAuthoritiesMapper;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.core.OAuth2AuthenticationException;
+import org.springframework.security.oauth2.core.OAuth2Error;
+import org.springframework.security.oauth2.core.endpoint.OAuth2AuthorizationRequest;
+import org.springframework.security.oauth2.core.oidc.OidcIdToken;
+import org.springframework.security.oauth2.core.oidc.OidcScopes;
+import org.springframework.security.oauth2.core.oidc.user.OidcUserAuthority;
+import org.springframework.security.oauth2.jose.jws.SignatureAlgorithm;
+import org.springframework.security.oauth2.jwt.JwtException;
+import org.springframework.security.oauth2.jwt.NimbusReactiveJwtDecoder;
+import org.springframework.security.oauth2.jwt.ReactiveJwtDecoder;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import uk.ac.ox.ctl.lti13.security.oauth2.core.endpoint.OIDCLaunchFlowResponse;
+import uk.ac.ox.ctl.lti13.security.oauth2.core.user.LtiOauth2User;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The reactive version of {@link OidcLaunchFlowAuthenticationProvider}, this authenticates the ID Token from an
+ * LTI launch. The platform's keys are retrieved with a non-blocking {@link WebClient} and cached by the decoder.
+ *
+ * @see OidcLaunchFlowAuthenticationProvider
+ */
+public class OidcLaunchFlowReactiveAuthenticationManager implements ReactiveAuthenticationManager {
+	private static final String INVALID_STATE_PARAMETER_ERROR_CODE = "invalid_state_parameter";
+	private static final String INVALID_ID_TOKEN_ERROR_CODE = "invalid_id_token";
+	private static final String MISSING_SIGNATURE_VERIFIER_ERROR_CODE = "missing_signature_verifier";
+	private final Map<String, ReactiveJwtDecoder> jwtDecoders = new ConcurrentHashMap<>();
+	private GrantedAuthoritiesMapper authoritiesMapper = (authorities -> authorities);
+	private Set<String> retainedClaims;
+	private WebClient webClient;
+
+	@Override
+	public Mono<Authentication> authenticate(Authentication authentication) {
+		return Mono.defer(() -> {
+			OidcLaunchFlowToken launchFlowToken = (OidcLaunchFlowToken) authentication;
+			OAuth2AuthorizationRequest authorizationRequest = launchFlowToken
+					.getAuthorizationExchange().getAuthorizationRequest();
+			OIDCLaunchFlowResponse authorizationResponse = launchFlowToken
+					.getAuthorizationExchange().getAuthorizationResponse();
+
+			if (!authorizationRequest.getScopes().contains(OidcScopes.OPENID)) {
+				// This is NOT an OpenID Connect Authentication Request so leave it for another manager.
+				return Mono.empty();
+			}
+
+			if (authorizationResponse.statusError()) {
+				return Mono.error(new OAuth2AuthenticationException(
+						authorizationResponse.getError(), authorizationResponse.getError().toString()));
+			}
+
+			if (!authorizationResponse.getState().equals(authorizationRequest.getState())) {
+				OAuth2Error oauth2Error = new OAuth2Error(INVALID_STATE_PARAMETER_ERROR_CODE);
+				return Mono.error(new OAuth2AuthenticationException(oauth2Error, oauth2Error.toString()));
+			}
+
+			ClientRegistration clientRegistration = launchFlowToken.getClientRegistration();
+			return createOidcToken(clientRegistration, authorizationResponse.getIdToken())
+					.map(idToken -> {
+						// We don't have a userinfo endpoint so just construct our user from the claims in the ID Token
+						OidcUserAuthority authority = new OidcUserAuthority(idToken, null);
+						LtiOauth2User oidcUser = new LtiOauth2User(Set.of(authority), idToken);
+
+						Collection<? extends GrantedAuthority> mappedAuthorities =
+								this.authoritiesMapper.mapAuthorities(oidcUser.getAuthorities());
+
+						if (this.retainedClaims != null) {
+							// The authorities are mapped with all the claims, it's just the principal that only keeps some of them.
+							OidcUserAuthority retainedAuthority = new OidcUserAuthority(LtiOauth2User.retainClaims(idToken, this.retainedClaims), null);
+							oidcUser = new LtiOauth2User(Set.of(retainedAuthority), retainedAuthority.getIdToken());
+							mappedAuthorities = LtiOauth2User.retainClaims(mappedAuthorities, idToken, retainedAuthority.getIdToken());
+						}
+
+						OidcLaunchFlowToken authenticationResult = new OidcLaunchFlowToken(
+								clientRegistration,
+								launchFlowToken.getAuthorizationExchange(),
+								oidcUser,
+								mappedAuthorities);
+						authenticationResult.setDetails(launchFlowToken.getDetails());
+						return authenticationResult;
+					});
+		});
+	}
+
+	/**
+	 * Sets the {@link GrantedAuthoritiesMapper} used for mapping the user's authorities.
+	 *
+	 * @param authoritiesMapper the {@link GrantedAuthoritiesMapper} used for mapping the user's authorities
+	 */
+	public final void setAuthoritiesMapper(GrantedAuthoritiesMapper authoritiesMapper) {
+		Assert.notNull(authoritiesMapper, "authoritiesMapper cannot be null");
+		this.authoritiesMapper = authoritiesMapper;
+	}
+
+	/**
+	 * Sets the claims of the ID token that are kept in the principal, by default all of them are kept.
+	 *
+	 * @param retainedClaims the names of the claims to keep, or null to keep all of them
+	 * @see OidcLaunchFlowAuthenticationProvider#setRetainedClaims(Collection)
+	 */
+	public final void setRetainedClaims(Collection<String> retainedClaims) {
+		this.retainedClaims = retainedClaims != null ? Set.copyOf(retainedClaims) : null;
+	}
+
+	/**
+	 * Sets the {@link WebClient} used to retrieve the JWKs URL.
+	 *
+	 * @param webClient the {@link WebClient} used to retrieve the JWKs URI.
+	 */
+	public final void setWebClient(WebClient webClient) {
+		this.webClient = webClient;
+	}
+
+	private Mono<OidcIdToken> createOidcToken(ClientRegistration clientRegistration, String idToken) {
+		return getJwtDecoder(clientRegistration).decode(idToken)
+				// The decoder throws JwtExceptions which wouldn't be handled as an authentication failure.
+				.onErrorMap(JwtException.class, e -> {
+					OAuth2Error oauth2Error = new OAuth2Error(INVALID_ID_TOKEN_ERROR_CODE, e.getMessage(), null);
+					return new OAuth2AuthenticationException(oauth2Error, oauth2Error.toString(), e);
+				})
+				.map(jwt -> {
+					OidcIdToken oidcIdToken = new OidcIdToken(jwt.getTokenValue(), jwt.getIssuedAt(), jwt.getExpiresAt(), jwt.getClaims());
+					OidcTokenValidator.validateIdToken(oidcIdToken, clientRegistration);
+					return oidcIdToken;
+				});
+	}
+
+	private ReactiveJwtDecoder getJwtDecoder(ClientRegistration clientRegistration) {
+		ReactiveJwtDecoder jwtDecoder = this.jwtDecoders.get(clientRegistration.getRegistrationId());
+		if (jwtDecoder == null) {
+			if (!StringUtils.hasText(clientRegistration.getProviderDetails().getJwkSetUri())) {
+				OAuth2Error oauth2Error = new OAuth2Error(
+						MISSING_SIGNATURE_VERIFIER_ERROR_CODE,
+						"Failed to find a Signature Verifier for Client Registration: '" +
+								clientRegistration.getRegistrationId() + "'. Check to ensure you have configured the JwkSet URI.",
+						null
+				);
+				throw new OAuth2AuthenticationException(oauth2Error, oauth2Error.toString());
+			}
+			String jwkSetUri = clientRegistration.getProviderDetails().getJwkSetUri();
+			NimbusReactiveJwtDecoder.JwkSetUriReactiveJwtDecoderBuilder decoderBuilder = NimbusReactiveJwtDecoder.withJwkSetUri(jwkSetUri)
+					.jwsAlgorithm(SignatureAlgorithm.RS256);
+			if (webClient != null) {
+				decoderBuilder.webClient(webClient);
+			}
+			jwtDecoder = decoderBuilder.build();
+			this.jwtDecoders.put(clientRegistration.getRegistrationId(), jwtDecoder);
+		}
+		return jwtDecoder;
+	}
+}
@@ -0,0 +1,243 @@
+package uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web;
+
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.client.registration.ClientRegistrationRepository;
+import org.springframework.security.oauth2.core.AuthorizationGrantType;
+import org.springframework.security.oauth2.core.endpoint.OAuth2AuthorizationRequest;
+import org.springframework.security.oauth2.core.endpoint.OAuth2ParameterNames;
+import org.springframework.util.Assert;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Encodes authorization requests into a compact binary form for storing in sessions. Most of an authorization
+ * request is the same for every launch of a registration (client ID, URIs, scopes and the fixed parameters) so
+ * only the parts that change are stored: the registration ID, state, nonce, login hint, message hint, redirect
+ * URI, remote IP and when the request was created. The rest is rebuilt from the {@link ClientRegistration} when
+ * the request is decoded.
+ * <p>
+ * Requests that weren't created by {@link OIDCInitiatingLoginRequestResolver} (for example ones with extra
+ * parameters) can't be rebuilt so they are stored using Java serialization. The first byte is the format so the
+ * compact form can change in the future and old values can still be read.
+ */
+public final class AuthorizationRequestCodec {
+
+    /**
+     * The attribute holding the {@link Instant} the request was created, this is set on decoded requests.
+     */
+    public static final String CREATED_AT = "created_at";
+
+    static final byte FORMAT_SERIALIZED = 0;
+    static final byte FORMAT_COMPACT_V1 = 1;
+
+    // The parameters that are the same for every launch, these match OIDCInitiatingLoginRequestResolver.
+    private static final Map<String, String> FIXED_PARAMETERS = Map.of(
+            OAuth2ParameterNames.RESPONSE_TYPE, "id_token",
+            "response_mode", "form_post",
+            "prompt", "none"
+    );
+    private static final Set<String> LAUNCH_PARAMETERS = Set.of(
+            OAuth2ParameterNames.REGISTRATION_ID, "login_hint", "nonce", "lti_message_hint"
+    );
+    private static final Set<String> ATTRIBUTES = Set.of(StateAuthorizationRequestRepository.REMOTE_IP, CREATED_AT);
+
+    // Only the classes an authorization request is made of can be deserialized.
+    private static final ObjectInputFilter SERIALIZED_FILTER = ObjectInputFilter.Config.createFilter(
+            "org.springframework.security.oauth2.core.**;java.lang.*;java.util.*;java.time.*;!*");
+
+    private final ClientRegistrationRepository clientRegistrationRepository;
+    private Clock clock = Clock.systemUTC();
+
+    /**
+     * @param clientRegistrationRepository Where to find the registrations when rebuilding requests, as this is used
+     *                                     on every decode it should be fast, see
+     *                                     {@link uk.ac.ox.ctl.lti13.CachingClientRegistrationRepository}.
+     */
+    public AuthorizationRequestCodec(ClientRegistrationRepository clientRegistrationRepository) {
+        Assert.notNull(clientRegistrationRepository, "clientRegistrationRepository cannot be null");
+        this.clientRegistrationRepository = clientRegistrationRepository;
+    }
+
+    /**
+     * @param clock The clock used for the creation time of requests that don't already have one.
+     */
+    public void setClock(Clock clock) {
+        Assert.notNull(clock, "clock cannot be null");
+        this.clock = clock;
+    }
+
+    public byte[] encode(OAuth2AuthorizationRequest authorizationRequest) {
+        Assert.notNull(authorizationRequest, "authorizationRequest cannot be null");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try {
+            if (isCompactable(authorizationRequest)) {
+                writeCompact(new DataOutputStream(bytes), authorizationRequest);
+            } else {
+                bytes.write(FORMAT_SERIALIZED);
+                try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                    out.writeObject(authorizationRequest);
+                }
+            }
+        } catch (IOException e) {
+            // We're only writing to memory.
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return The authorization request or null if its registration no longer exists.
+     * @throws IllegalArgumentException If the data isn't in a format this codec understands.
+     */
+    public OAuth2AuthorizationRequest decode(byte[] data) {
+        Assert.notNull(data, "data cannot be null");
+        Assert.isTrue(data.length > 0, "data cannot be empty");
+        try {
+            return switch (data[0]) {
+                case FORMAT_COMPACT_V1 -> readCompact(new DataInputStream(new ByteArrayInputStream(data, 1, data.length - 1)));
+                case FORMAT_SERIALIZED -> readSerialized(new ByteArrayInputStream(data, 1, data.length - 1));
+                default -> throw new IllegalArgumentException("Unknown authorization request format: " + data[0]);
+            };
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            throw new IllegalArgumentException("Failed to decode authorization request", e);
+        }
+    }
+
+    private static boolean isCompactable(OAuth2AuthorizationRequest authorizationRequest) {
+        if (!AuthorizationGrantType.AUTHORIZATION_CODE.equals(authorizationRequest.getGrantType())) {
+            return false;
+        }
+        Map<String, Object> parameters = authorizationRequest.getAdditionalParameters();
+        if (!(parameters.get(OAuth2ParameterNames.REGISTRATION_ID) instanceof String)
+                || !(parameters.get("login_hint") instanceof String)
+                || !(parameters.get("nonce") instanceof String)
+                || authorizationRequest.getRedirectUri() == null) {
+            return false;
+        }
+        for (Map.Entry<String, Object> parameter : parameters.entrySet()) {
+            String name = parameter.getKey();
+            if (FIXED_PARAMETERS.containsKey(name)) {
+                if (!FIXED_PARAMETERS.get(name).equals(parameter.getValue())) {
+                    return false;
+                }
+            } else if (!LAUNCH_PARAMETERS.contains(name) || !(parameter.getValue() instanceof String)) {
+                return false;
+            }
+        }
+        if (!parameters.keySet().containsAll(FIXED_PARAMETERS.keySet())) {
+            return false;
+        }
+        Map<String, Object> attributes = authorizationRequest.getAttributes();
+        return ATTRIBUTES.containsAll(attributes.keySet())
+                && (attributes.get(StateAuthorizationRequestRepository.REMOTE_IP) == null || attributes.get(StateAuthorizationRequestRepository.REMOTE_IP) instanceof String)
+                && (attributes.get(CREATED_AT) == null || attributes.get(CREATED_AT) instanceof Instant);
+    }
+
+    private void writeCompact(DataOutputStream out, OAuth2AuthorizationRequest authorizationRequest) throws IOException {
+        Map<String, Object> parameters = authorizationRequest.getAdditionalParameters();
+        Instant createdAt = authorizationRequest.getAttribute(CREATED_AT);
+        out.writeByte(FORMAT_COMPACT_V1);
+        out.writeLong((createdAt != null ? createdAt : clock.instant()).toEpochMilli());
+        writeString(out, (String) parameters.get(OAuth2ParameterNames.REGISTRATION_ID));
+        writeString(out, authorizationRequest.getState());
+        writeString(out, (String) parameters.get("nonce"));
+        writeString(out, (String) parameters.get("login_hint"));
+        writeString(out, (String) parameters.get("lti_message_hint"));
+        writeString(out, authorizationRequest.getRedirectUri());
+        writeString(out, authorizationRequest.getAttribute(StateAuthorizationRequestRepository.REMOTE_IP));
+        out.flush();
+    }
+
+    private OAuth2AuthorizationRequest readCompact(DataInputStream in) throws IOException {
+        Instant createdAt = Instant.ofEpochMilli(in.readLong());
+        String registrationId = readString(in);
+        String state = readString(in);
+        String nonce = readString(in);
+        String loginHint = readString(in);
+        String ltiMessageHint = readString(in);
+        String redirectUri = readString(in);
+        String remoteIp = readString(in);
+        ClientRegistration clientRegistration = clientRegistrationRepository.findByRegistrationId(registrationId);
+        if (clientRegistration == null) {
+            return null;
+        }
+        return OAuth2AuthorizationRequest.authorizationCode()
+                .clientId(clientRegistration.getClientId())
+                .authorizationUri(clientRegistration.getProviderDetails().getAuthorizationUri())
+                .redirectUri(redirectUri)
+                .scopes(clientRegistration.getScopes())
+                .state(state)
+                .additionalParameters(parameters -> {
+                    parameters.put(OAuth2ParameterNames.REGISTRATION_ID, registrationId);
+                    parameters.putAll(FIXED_PARAMETERS);
+                    parameters.put("login_hint", loginHint);
+                    parameters.put("nonce", nonce);
+                    if (ltiMessageHint != null) {
+                        parameters.put("lti_message_hint", ltiMessageHint);
+                    }
+                })
+                .attributes(attributes -> {
+                    attributes.put(CREATED_AT, createdAt);
+                    if (remoteIp != null) {
+                        attributes.put(StateAuthorizationRequestRepository.REMOTE_IP, remoteIp);
+                    }
+                })
+                .build();
+    }
+
+    private static OAuth2AuthorizationRequest readSerialized(ByteArrayInputStream bytes) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(bytes)) {
+            in.setObjectInputFilter(SERIALIZED_FILTER);
+            return (OAuth2AuthorizationRequest) in.readObject();
+        }
+    }
+
+    // The length is a variable length int with 0 for null, so short strings only need a single byte.
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeByte(0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int length = bytes.length + 1;
+        while ((length & ~0x7F) != 0) {
+            out.writeByte((length & 0x7F) | 0x80);
+            length >>>= 7;
+        }
+        out.writeByte(length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (shift > 28) {
+                throw new IOException("Malformed string length");
+            }
+            int b = in.readUnsignedByte();
+            length |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        if (length == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length - 1];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
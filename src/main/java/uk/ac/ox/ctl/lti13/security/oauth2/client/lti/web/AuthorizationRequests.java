@@ -0,0 +1,150 @@
+package uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web;
+
+import org.springframework.security.oauth2.core.endpoint.OAuth2AuthorizationRequest;
+import org.springframework.util.Assert;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
+/**
+ * The authorization requests in progress for a session, this is what {@link HttpSessionOAuth2AuthorizationRequestRepository}
+ * stores in the session when compact session storage or concurrent logins are enabled. There are only ever a few
+ * requests in progress so they are kept in arrays, oldest first, which serializes to much less than a map.
+ * <p>
+ * Several launches from one page (such as a course page with many embedded tools) all use the same session at once,
+ * so this is safe to share between threads without any locking. The arrays are never changed, each change builds
+ * new ones and swaps them in with a compare and set, retrying if another thread got there first. Reads never
+ * change anything so they never conflict with each other.
+ * <p>
+ * Each request is stored against its state, the value is either the {@link OAuth2AuthorizationRequest} or
+ * the bytes from an {@link AuthorizationRequestCodec}. The changing methods return whether anything changed so
+ * the caller knows if the session needs writing.
+ */
+public final class AuthorizationRequests implements Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private static final Entries EMPTY = new Entries(new String[0], new Serializable[0]);
+
+    private final AtomicReference<Entries> entries = new AtomicReference<>(EMPTY);
+
+    /**
+     * @return The value stored with the state or null if there isn't one.
+     */
+    public Serializable get(String state) {
+        Entries current = entries.get();
+        int index = current.indexOf(state);
+        return index < 0 ? null : current.values[index];
+    }
+
+    /**
+     * Adds a value, if there are already maxRequests values then the oldest is removed.
+     *
+     * @param maxRequests The maximum number of requests to keep.
+     * @return true if the requests changed.
+     */
+    public boolean put(String state, Serializable value, int maxRequests) {
+        Assert.hasText(state, "state cannot be empty");
+        Assert.notNull(value, "value cannot be null");
+        Assert.isTrue(maxRequests > 0, "maxRequests must be at least 1");
+        while (true) {
+            Entries current = entries.get();
+            Entries updated = current.put(state, value, maxRequests);
+            if (updated == current) {
+                return false;
+            }
+            if (entries.compareAndSet(current, updated)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return The removed value or null if there wasn't one with the state, in which case nothing changed.
+     */
+    public Serializable remove(String state) {
+        while (true) {
+            Entries current = entries.get();
+            int index = current.indexOf(state);
+            if (index < 0) {
+                return null;
+            }
+            // Only one thread can win the swap so a request is only ever returned once.
+            if (entries.compareAndSet(current, current.remove(index))) {
+                return current.values[index];
+            }
+        }
+    }
+
+    /**
+     * Calls the action with each state and value, oldest first.
+     */
+    public void forEach(BiConsumer<String, Serializable> action) {
+        Entries current = entries.get();
+        for (int i = 0; i < current.states.length; i++) {
+            action.accept(current.states[i], current.values[i]);
+        }
+    }
+
+    public int size() {
+        return entries.get().states.length;
+    }
+
+    public boolean isEmpty() {
+        return entries.get().states.length == 0;
+    }
+
+    private record Entries(String[] states, Serializable[] values) implements Serializable {
+
+        int indexOf(String state) {
+            if (state == null) {
+                return -1;
+            }
+            for (int i = 0; i < states.length; i++) {
+                if (state.equals(states[i])) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * @return The entries with the value added, or these entries if the value is already there.
+         */
+        Entries put(String state, Serializable value, int maxRequests) {
+            int index = indexOf(state);
+            if (index >= 0) {
+                // Encoded requests are new arrays each time so compare their contents.
+                if (values[index] == value || (values[index] instanceof byte[] existing && value instanceof byte[] data
+                        && Arrays.equals(existing, data))) {
+                    return this;
+                }
+                Serializable[] updated = values.clone();
+                updated[index] = value;
+                return new Entries(states, updated);
+            }
+            int length = states.length;
+            int keep = Math.min(length, maxRequests - 1);
+            String[] newStates = Arrays.copyOfRange(states, length - keep, length + 1);
+            Serializable[] newValues = Arrays.copyOfRange(values, length - keep, length + 1);
+            newStates[keep] = state;
+            newValues[keep] = value;
+            return new Entries(newStates, newValues);
+        }
+
+        Entries remove(int index) {
+            int length = states.length - 1;
+            String[] newStates = new String[length];
+            Serializable[] newValues = new Serializable[length];
+            System.arraycopy(states, 0, newStates, 0, index);
+            System.arraycopy(states, index + 1, newStates, index, length - index);
+            System.arraycopy(values, 0, newValues, 0, index);
+            System.arraycopy(values, index + 1, newValues, index, length - index);
+            return new Entries(newStates, newValues);
+        }
+    }
+}
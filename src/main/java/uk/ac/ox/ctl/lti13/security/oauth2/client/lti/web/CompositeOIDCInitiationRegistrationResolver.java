@@ -0,0 +1,35 @@
+package uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.util.Assert;
+
+import java.util.List;
+
+/**
+ * Tries each resolver in turn and uses the first registration ID found, for example to support both
+ * registration specific login initiation URLs and a single URL for all registrations.
+ */
+public class CompositeOIDCInitiationRegistrationResolver implements OIDCInitiationRegistrationResolver {
+
+    private final OIDCInitiationRegistrationResolver[] resolvers;
+
+    public CompositeOIDCInitiationRegistrationResolver(OIDCInitiationRegistrationResolver... resolvers) {
+        this(List.of(resolvers));
+    }
+
+    public CompositeOIDCInitiationRegistrationResolver(List<OIDCInitiationRegistrationResolver> resolvers) {
+        Assert.notEmpty(resolvers, "resolvers cannot be empty");
+        this.resolvers = resolvers.toArray(new OIDCInitiationRegistrationResolver[0]);
+    }
+
+    @Override
+    public String resolve(HttpServletRequest request) {
+        for (OIDCInitiationRegistrationResolver resolver : resolvers) {
+            String registrationId = resolver.resolve(request);
+            if (registrationId != null) {
+                return registrationId;
+            }
+        }
+        return null;
+    }
+}
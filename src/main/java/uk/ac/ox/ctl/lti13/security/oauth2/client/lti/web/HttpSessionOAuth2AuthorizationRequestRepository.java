@@ -16,6 +16,7 @@
 
 package uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web;
 
+import java.io.Serializable;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -24,16 +25,30 @@ import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import jakarta.servlet.http.HttpSession;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.security.oauth2.client.web.AuthorizationRequestRepository;
 import org.springframework.security.oauth2.core.endpoint.OAuth2AuthorizationRequest;
 import org.springframework.security.oauth2.core.endpoint.OAuth2ParameterNames;
 import org.springframework.util.Assert;
+import org.springframework.web.util.WebUtils;
 
 /**
  * An implementation of an {@link AuthorizationRequestRepository} that stores
  * {@link OAuth2AuthorizationRequest} in the {@code HttpSession}. This was copied from Spring Security, but we added
  * support for limiting the number of concurrent sessions, this is so that when we have multiple LTI launches on the
  * same page they work (as the browser will kick them all off at the same time).
+ * <p>
+ * When the session is stored externally (for example with Spring Session) every {@code setAttribute} is a write to
+ * the store, with {@link #setCompactSessionStorage(boolean)} the requests are always kept in an
+ * {@link AuthorizationRequests} and the session is only written when they change. Adding an
+ * {@link AuthorizationRequestCodec} also makes each request much smaller when the session is serialized.
+ * <p>
+ * When more than one concurrent login is allowed the requests are also kept in an {@link AuthorizationRequests}, as
+ * the launches from one page all use the same session at once and it can be changed by several threads without
+ * locking the session. This only protects launches that share one session object, as the servlet container's own
+ * sessions do. With an external store such as Spring Session each request deserializes its own copy of the
+ * session, so concurrent launches each change their own copy and whichever {@code setAttribute} is saved last wins.
  *
  * @author Joe Grandja
  * @author Rob Winch
@@ -49,10 +64,16 @@ public final class HttpSessionOAuth2AuthorizationRequestRepository
     private static final String DEFAULT_AUTHORIZATION_REQUEST_ATTR_NAME = HttpSessionOAuth2AuthorizationRequestRepository.class
             .getName() + ".AUTHORIZATION_REQUEST";
 
+    private final Logger logger = LoggerFactory.getLogger(HttpSessionOAuth2AuthorizationRequestRepository.class);
+
     private final String sessionAttributeName = DEFAULT_AUTHORIZATION_REQUEST_ATTR_NAME;
 
     private int maxConcurrentLogins = 1;
 
+    private boolean compactSessionStorage;
+
+    private AuthorizationRequestCodec codec;
+
     @Override
     public OAuth2AuthorizationRequest loadAuthorizationRequest(HttpServletRequest request) {
         Assert.notNull(request, "request cannot be null");
@@ -60,6 +81,10 @@ public final class HttpSessionOAuth2AuthorizationRequestRepository
         if (stateParameter == null) {
             return null;
         }
+        if (this.useAuthorizationRequests()) {
+            AuthorizationRequests authorizationRequests = this.getCompactAuthorizationRequests(request.getSession(false));
+            return (authorizationRequests != null) ? this.decode(authorizationRequests.get(stateParameter)) : null;
+        }
         Map<String, OAuth2AuthorizationRequest> authorizationRequests = this.getAuthorizationRequests(request);
         return authorizationRequests.get(stateParameter);
     }
@@ -75,10 +100,16 @@ public final class HttpSessionOAuth2AuthorizationRequestRepository
         }
         String state = authorizationRequest.getState();
         Assert.hasText(state, "authorizationRequest.state cannot be empty");
-        if (this.maxConcurrentLogins > 1) {
-            Map<String, OAuth2AuthorizationRequest> authorizationRequests = this.getAuthorizationRequests(request);
-            authorizationRequests.put(state, authorizationRequest);
-            request.getSession().setAttribute(this.sessionAttributeName, authorizationRequests);
+        if (this.useAuthorizationRequests()) {
+            HttpSession session = request.getSession();
+            AuthorizationRequests authorizationRequests = this.getCompactAuthorizationRequests(session);
+            Serializable value = (this.codec != null) ? this.codec.encode(authorizationRequest) : authorizationRequest;
+            if (authorizationRequests == null) {
+                this.createAuthorizationRequests(session, state, value);
+            }
+            else if (authorizationRequests.put(state, value, this.maxConcurrentLogins)) {
+                session.setAttribute(this.sessionAttributeName, authorizationRequests);
+            }
         }
         else {
             request.getSession().setAttribute(this.sessionAttributeName, authorizationRequest);
@@ -94,6 +125,9 @@ public final class HttpSessionOAuth2AuthorizationRequestRepository
         if (stateParameter == null) {
             return null;
         }
+        if (this.useAuthorizationRequests()) {
+            return this.removeCompactAuthorizationRequest(request.getSession(false), stateParameter);
+        }
         Map<String, OAuth2AuthorizationRequest> authorizationRequests = this.getAuthorizationRequests(request);
         OAuth2AuthorizationRequest originalRequest = authorizationRequests.remove(stateParameter);
         if (authorizationRequests.isEmpty()) {
@@ -109,6 +143,65 @@ public final class HttpSessionOAuth2AuthorizationRequestRepository
         return originalRequest;
     }
 
+    private OAuth2AuthorizationRequest removeCompactAuthorizationRequest(HttpSession session, String state) {
+        AuthorizationRequests authorizationRequests = this.getCompactAuthorizationRequests(session);
+        if (authorizationRequests == null) {
+            return null;
+        }
+        Serializable removed = authorizationRequests.remove(state);
+        if (removed == null) {
+            // Nothing changed so there's nothing to write.
+            return null;
+        }
+        // Even when it's now empty it's left in the session, removing it could lose a request that another
+        // thread has just added.
+        session.setAttribute(this.sessionAttributeName, authorizationRequests);
+        return this.decode(removed);
+    }
+
+    private boolean useAuthorizationRequests() {
+        return this.compactSessionStorage || this.maxConcurrentLogins > 1;
+    }
+
+    /**
+     * Stores the first request for a session. This is the only time the session is locked, so that two launches
+     * starting at once don't each store their own {@link AuthorizationRequests} and lose the other's request.
+     */
+    private void createAuthorizationRequests(HttpSession session, String state, Serializable value) {
+        synchronized (WebUtils.getSessionMutex(session)) {
+            AuthorizationRequests authorizationRequests = this.getCompactAuthorizationRequests(session);
+            if (authorizationRequests == null) {
+                authorizationRequests = new AuthorizationRequests();
+            }
+            if (authorizationRequests.put(state, value, this.maxConcurrentLogins)) {
+                session.setAttribute(this.sessionAttributeName, authorizationRequests);
+            }
+        }
+    }
+
+    /**
+     * Gets the request from a value stored in {@link AuthorizationRequests}.
+     * @param value the value, may be null
+     * @return the request or null if there isn't one or it can't be decoded
+     */
+    private OAuth2AuthorizationRequest decode(Serializable value) {
+        if (value instanceof OAuth2AuthorizationRequest authorizationRequest) {
+            return authorizationRequest;
+        }
+        if (value instanceof byte[] data && this.codec != null) {
+            try {
+                return this.codec.decode(data);
+            }
+            catch (IllegalArgumentException ex) {
+                // A corrupt or unknown value is treated as if there isn't a request, so the launch fails
+                // with a missing request rather than an error.
+                this.logger.warn("Failed to decode stored authorization request: {}", ex.toString());
+                return null;
+            }
+        }
+        return null;
+    }
+
     /**
      * Gets the state parameter from the {@link HttpServletRequest}
      * @param request the request to use
@@ -136,6 +229,17 @@ public final class HttpSessionOAuth2AuthorizationRequestRepository
             authorizationRequests.put(auth2AuthorizationRequest.getState(), auth2AuthorizationRequest);
             return authorizationRequests;
         }
+        else if (sessionAttributeValue instanceof AuthorizationRequests compact) {
+            // Left in the session before compact session storage was turned off.
+            Map<String, OAuth2AuthorizationRequest> authorizationRequests = createLRUMap(maxConcurrentLogins);
+            compact.forEach((state, value) -> {
+                OAuth2AuthorizationRequest authorizationRequest = this.decode(value);
+                if (authorizationRequest != null) {
+                    authorizationRequests.put(state, authorizationRequest);
+                }
+            });
+            return authorizationRequests;
+        }
         else if (sessionAttributeValue instanceof Map) {
             @SuppressWarnings("unchecked")
             Map<String, OAuth2AuthorizationRequest> authorizationRequests = (Map<String, OAuth2AuthorizationRequest>) sessionAttributeValue;
@@ -148,6 +252,49 @@ public final class HttpSessionOAuth2AuthorizationRequestRepository
         }
     }
 
+    /**
+     * Gets the requests stored in the session, values stored before compact session storage was turned on are
+     * converted and written back.
+     * @param session the session, may be null
+     * @return the requests or null if there aren't any
+     */
+    private AuthorizationRequests getCompactAuthorizationRequests(HttpSession session) {
+        Object sessionAttributeValue = (session != null) ? session.getAttribute(this.sessionAttributeName) : null;
+        if (sessionAttributeValue == null || sessionAttributeValue instanceof AuthorizationRequests) {
+            return (AuthorizationRequests) sessionAttributeValue;
+        }
+        // This only happens once for a session, it's locked so that concurrent launches all share the one
+        // converted value rather than each changing their own.
+        synchronized (WebUtils.getSessionMutex(session)) {
+            sessionAttributeValue = session.getAttribute(this.sessionAttributeName);
+            if (sessionAttributeValue == null || sessionAttributeValue instanceof AuthorizationRequests) {
+                return (AuthorizationRequests) sessionAttributeValue;
+            }
+            AuthorizationRequests authorizationRequests = this.convertAuthorizationRequests(sessionAttributeValue);
+            session.setAttribute(this.sessionAttributeName, authorizationRequests);
+            return authorizationRequests;
+        }
+    }
+
+    private AuthorizationRequests convertAuthorizationRequests(Object sessionAttributeValue) {
+        AuthorizationRequests authorizationRequests = new AuthorizationRequests();
+        if (sessionAttributeValue instanceof OAuth2AuthorizationRequest authorizationRequest) {
+            authorizationRequests.put(authorizationRequest.getState(), authorizationRequest, this.maxConcurrentLogins);
+        }
+        else if (sessionAttributeValue instanceof Map<?, ?> map) {
+            for (Object value : map.values()) {
+                OAuth2AuthorizationRequest authorizationRequest = (OAuth2AuthorizationRequest) value;
+                authorizationRequests.put(authorizationRequest.getState(), authorizationRequest, this.maxConcurrentLogins);
+            }
+        }
+        else {
+            throw new IllegalStateException(
+                    "authorizationRequests is supposed to be AuthorizationRequests, a Map or OAuth2AuthorizationRequest but actually is a "
+                            + sessionAttributeValue.getClass());
+        }
+        return authorizationRequests;
+    }
+
     /**
      * Configure number of  multiple {@link OAuth2AuthorizationRequest}s should be stored per
      * session. Default is 1 (not allow multiple {@link OAuth2AuthorizationRequest}
@@ -160,6 +307,26 @@ public final class HttpSessionOAuth2AuthorizationRequestRepository
         this.maxConcurrentLogins = maxConcurrentLogins;
     }
 
+    /**
+     * If true the requests are stored in the session as {@link AuthorizationRequests} and the session attribute
+     * is only set when they change, so there is at most one session write for each save or remove. This is useful
+     * when the session is stored externally and each write serializes the value to the store. Default is false.
+     * @param compactSessionStorage true to use the compact storage.
+     */
+    public void setCompactSessionStorage(boolean compactSessionStorage) {
+        this.compactSessionStorage = compactSessionStorage;
+    }
+
+    /**
+     * Sets the codec used to encode the requests when using compact session storage, by default the requests are
+     * stored as they are.
+     * @param codec the codec, or null to store the requests as they are.
+     * @see #setCompactSessionStorage(boolean)
+     */
+    public void setAuthorizationRequestCodec(AuthorizationRequestCodec codec) {
+        this.codec = codec;
+    }
+
     /**
      * Creates least recently used hashmap.
      * @see <a href="https://stackoverflow.com/questions/11469045/how-to-limit-the-maximum-size-of-a-map-by-removing-oldest-entries-when-limit-rea">Stackoverflow</a>
@@ -167,7 +334,10 @@ public final class HttpSessionOAuth2AuthorizationRequestRepository
      * @param <K> Key type.
      * @param <V> Value type.
      * @return a LinkedHashMap that limits its size.
+     * @deprecated The map isn't safe to use from several threads, and even {@code get} changes it. Concurrent
+     * logins are now stored in {@link AuthorizationRequests}.
      */
+    @Deprecated
     public static <K, V> Map<K, V> createLRUMap(final int maxEntries) {
         return new LinkedHashMap<K, V>(maxEntries*10/7, 0.7f, true) {
             @Override
@@ -8,7 +8,7 @@ public class InvalidInitiationRequestException extends RuntimeException {
     /**
      * @param message the exception message
      */
-    InvalidInitiationRequestException(String message) {
+    public InvalidInitiationRequestException(String message) {
         super(message);
     }
 }
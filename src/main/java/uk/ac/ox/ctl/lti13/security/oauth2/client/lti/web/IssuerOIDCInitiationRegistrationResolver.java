@@ -0,0 +1,181 @@
+package uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.client.registration.ClientRegistrationRepository;
+import org.springframework.util.Assert;
+import uk.ac.ox.ctl.lti13.CachingClientRegistrationRepository;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Finds the registration from the {@code iss} and {@code client_id} parameters of the login initiation, so
+ * platforms can use a single login initiation URL (such as {@code /lti/login_initiation}) for all registrations.
+ * The registrations are indexed by the issuer URI of the provider and the client ID, so a lookup doesn't
+ * need to go to the {@link ClientRegistrationRepository}.
+ * <p>
+ * The index can be changed while it's in use, call {@link #register(ClientRegistration)} when a registration
+ * is added or changed and {@link #unregister(String)} when one is removed. When the registrations come from a
+ * {@link CachingClientRegistrationRepository} use {@link #updateFrom(CachingClientRegistrationRepository)}
+ * instead, then invalidating a registration in the cache also updates the index.
+ * <p>
+ * The {@code client_id} parameter is optional, without it the registration is only found if there is a single
+ * registration for the issuer.
+ *
+ * @see CompositeOIDCInitiationRegistrationResolver
+ */
+public class IssuerOIDCInitiationRegistrationResolver implements OIDCInitiationRegistrationResolver {
+
+    private record IssuerClient(String issuer, String clientId) {
+    }
+
+    private final String authorizationRequestUri;
+    private final Map<IssuerClient, String> byIssuerClient = new ConcurrentHashMap<>();
+    // Only contains issuers that have a single registration.
+    private final Map<String, String> byIssuer = new ConcurrentHashMap<>();
+    // These are only used when changing the index so are guarded by this.
+    private final Map<String, IssuerClient> byRegistrationId = new HashMap<>();
+    private final Map<String, Set<String>> registrationsByIssuer = new HashMap<>();
+
+    /**
+     * Creates an empty index, use {@link #register(ClientRegistration)} to add the registrations.
+     *
+     * @param authorizationRequestUri The path of the login initiation, for example {@code /lti/login_initiation}.
+     */
+    public IssuerOIDCInitiationRegistrationResolver(String authorizationRequestUri) {
+        this(authorizationRequestUri, Collections.emptyList());
+    }
+
+    /**
+     * @param authorizationRequestUri The path of the login initiation, for example {@code /lti/login_initiation}.
+     * @param clientRegistrations     The registrations to index, for example an
+     *                                {@link org.springframework.security.oauth2.client.registration.InMemoryClientRegistrationRepository}.
+     */
+    public IssuerOIDCInitiationRegistrationResolver(String authorizationRequestUri, Iterable<ClientRegistration> clientRegistrations) {
+        Assert.hasText(authorizationRequestUri, "authorizationRequestUri cannot be empty");
+        Assert.notNull(clientRegistrations, "clientRegistrations cannot be null");
+        this.authorizationRequestUri = authorizationRequestUri;
+        for (ClientRegistration registration : clientRegistrations) {
+            register(registration);
+        }
+    }
+
+    /**
+     * Adds a registration to the index or updates it, registrations without an issuer URI are removed.
+     *
+     * @throws IllegalArgumentException If another registration has the same issuer and client ID.
+     */
+    public synchronized void register(ClientRegistration registration) {
+        Assert.notNull(registration, "registration cannot be null");
+        String registrationId = registration.getRegistrationId();
+        String issuer = registration.getProviderDetails().getIssuerUri();
+        if (issuer == null) {
+            unregister(registrationId);
+            return;
+        }
+        IssuerClient key = new IssuerClient(issuer, registration.getClientId());
+        String existing = byIssuerClient.get(key);
+        if (existing != null && !existing.equals(registrationId)) {
+            throw new IllegalArgumentException("Registrations " + existing + " and " + registrationId +
+                    " have the same issuer and client ID");
+        }
+        // The new entries are added before the stale ones are removed so a lookup never misses an updated registration.
+        IssuerClient previous = byRegistrationId.put(registrationId, key);
+        byIssuerClient.put(key, registrationId);
+        registrationsByIssuer.computeIfAbsent(issuer, i -> new HashSet<>()).add(registrationId);
+        updateIssuer(issuer);
+        if (previous != null && !previous.equals(key)) {
+            byIssuerClient.remove(previous, registrationId);
+            if (!previous.issuer().equals(issuer)) {
+                removeFromIssuer(previous.issuer(), registrationId);
+            }
+        }
+    }
+
+    /**
+     * Keeps the index up to date with a caching repository. When a registration is invalidated it is looked up
+     * again and updated in the index, or removed if it has gone. When they are all invalidated every registration
+     * in the index is looked up again, a new registration is only added when it is invalidated by its ID.
+     *
+     * @see uk.ac.ox.ctl.lti13.Lti13Configurer#initiationRegistrationResolver(OIDCInitiationRegistrationResolver)
+     */
+    public void updateFrom(CachingClientRegistrationRepository repository) {
+        Assert.notNull(repository, "repository cannot be null");
+        repository.addInvalidationListener(registrationId -> {
+            if (registrationId != null) {
+                update(repository, registrationId);
+            } else {
+                List<String> registrationIds;
+                synchronized (this) {
+                    registrationIds = new ArrayList<>(byRegistrationId.keySet());
+                }
+                registrationIds.forEach(id -> update(repository, id));
+            }
+        });
+    }
+
+    private void update(ClientRegistrationRepository repository, String registrationId) {
+        // Looked up before taking the lock as it may go to a database.
+        ClientRegistration registration = repository.findByRegistrationId(registrationId);
+        if (registration != null) {
+            register(registration);
+        } else {
+            unregister(registrationId);
+        }
+    }
+
+    /**
+     * Removes a registration from the index, nothing happens if it isn't in the index.
+     */
+    public synchronized void unregister(String registrationId) {
+        IssuerClient key = byRegistrationId.remove(registrationId);
+        if (key == null) {
+            return;
+        }
+        byIssuerClient.remove(key, registrationId);
+        removeFromIssuer(key.issuer(), registrationId);
+    }
+
+    private void removeFromIssuer(String issuer, String registrationId) {
+        Set<String> registrations = registrationsByIssuer.get(issuer);
+        if (registrations != null) {
+            registrations.remove(registrationId);
+            if (registrations.isEmpty()) {
+                registrationsByIssuer.remove(issuer);
+            }
+        }
+        updateIssuer(issuer);
+    }
+
+    private void updateIssuer(String issuer) {
+        Set<String> registrations = registrationsByIssuer.get(issuer);
+        if (registrations != null && registrations.size() == 1) {
+            byIssuer.put(issuer, registrations.iterator().next());
+        } else {
+            byIssuer.remove(issuer);
+        }
+    }
+
+    @Override
+    public String resolve(HttpServletRequest request) {
+        String servletPath = request.getServletPath();
+        String pathInfo = request.getPathInfo();
+        String path = pathInfo == null ? servletPath : (servletPath != null ? servletPath + pathInfo : pathInfo);
+        if (!authorizationRequestUri.equals(path)) {
+            return null;
+        }
+        String issuer = request.getParameter("iss");
+        if (issuer == null) {
+            return null;
+        }
+        String clientId = request.getParameter("client_id");
+        return clientId != null ? byIssuerClient.get(new IssuerClient(issuer, clientId)) : byIssuer.get(issuer);
+    }
+}
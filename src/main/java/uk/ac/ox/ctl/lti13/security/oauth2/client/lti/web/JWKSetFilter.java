@@ -0,0 +1,115 @@
+package uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ETag;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
+import org.springframework.security.web.util.matcher.RequestMatcher;
+import org.springframework.util.Assert;
+import org.springframework.util.DigestUtils;
+import org.springframework.web.filter.OncePerRequestFilter;
+import uk.ac.ox.ctl.lti13.RotatingKeyPairService;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Enumeration;
+
+/**
+ * Publishes the public keys from a {@link RotatingKeyPairService} as a JWK Set so that platforms can verify the
+ * JWTs we sign. Platforms poll this URL so the serialized JWK Set is only rebuilt when the keys change and
+ * conditional requests are answered with a 304 using the ETag.
+ *
+ * @see <a href="https://www.imsglobal.org/spec/security/v1p0/#h_key-set-url">IMS Security Framework Key Set URL</a>
+ */
+public class JWKSetFilter extends OncePerRequestFilter {
+
+    private final RequestMatcher requestMatcher;
+    private final RotatingKeyPairService keyPairService;
+    private String cacheControl = CacheControl.maxAge(Duration.ofMinutes(5)).cachePublic().getHeaderValue();
+
+    // Replaced whenever the version of the keys changes.
+    private volatile CachedJWKSet cached;
+
+    /**
+     * @param jwkSetUri      The path to publish the JWK Set on.
+     * @param keyPairService The service that has all our keys.
+     */
+    public JWKSetFilter(String jwkSetUri, RotatingKeyPairService keyPairService) {
+        Assert.hasText(jwkSetUri, "jwkSetUri cannot be empty");
+        Assert.notNull(keyPairService, "keyPairService cannot be null");
+        this.requestMatcher = new AntPathRequestMatcher(jwkSetUri, "GET");
+        this.keyPairService = keyPairService;
+    }
+
+    /**
+     * @param maxAge How long platforms are allowed to cache the JWK Set for. Keys shouldn't be rotated more often
+     *               than this.
+     */
+    public void setMaxAge(Duration maxAge) {
+        Assert.notNull(maxAge, "maxAge cannot be null");
+        this.cacheControl = CacheControl.maxAge(maxAge).cachePublic().getHeaderValue();
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        if (!requestMatcher.matches(request)) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+        CachedJWKSet jwkSet = getJWKSet();
+        response.setHeader(HttpHeaders.ETAG, jwkSet.etag);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl);
+        if (isNotModified(request, jwkSet)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setContentLength(jwkSet.body.length);
+        response.getOutputStream().write(jwkSet.body);
+    }
+
+    private static boolean isNotModified(HttpServletRequest request, CachedJWKSet jwkSet) {
+        Enumeration<String> headers = request.getHeaders(HttpHeaders.IF_NONE_MATCH);
+        while (headers.hasMoreElements()) {
+            for (ETag etag : ETag.parse(headers.nextElement())) {
+                // If-None-Match uses the weak comparison so a weak tag with the same value matches.
+                if (etag.isWildcard() || etag.tag().equals(jwkSet.tag)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private CachedJWKSet getJWKSet() {
+        CachedJWKSet current = this.cached;
+        long version = keyPairService.getVersion();
+        if (current == null || current.version != version) {
+            // Multiple threads may rebuild at the same time, but they all build the same thing so that's fine.
+            byte[] body = keyPairService.getJWKSet().toString().getBytes(StandardCharsets.UTF_8);
+            current = new CachedJWKSet(version, body, DigestUtils.md5DigestAsHex(body));
+            this.cached = current;
+        }
+        return current;
+    }
+
+    private static final class CachedJWKSet {
+        private final long version;
+        private final byte[] body;
+        private final String tag;
+        private final String etag;
+
+        private CachedJWKSet(long version, byte[] body, String tag) {
+            this.version = version;
+            this.body = body;
+            this.tag = tag;
+            this.etag = "\"" + tag + "\"";
+        }
+    }
+}
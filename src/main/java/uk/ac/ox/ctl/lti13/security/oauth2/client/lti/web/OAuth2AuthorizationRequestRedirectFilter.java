@@ -24,11 +24,13 @@ import org.springframework.security.oauth2.client.web.DefaultOAuth2Authorization
 import org.springframework.security.oauth2.client.web.OAuth2AuthorizationRequestResolver;
 import org.springframework.security.oauth2.core.AuthorizationGrantType;
 import org.springframework.security.oauth2.core.endpoint.OAuth2AuthorizationRequest;
+import org.springframework.security.oauth2.core.endpoint.OAuth2ParameterNames;
 import org.springframework.security.web.DefaultRedirectStrategy;
 import org.springframework.security.web.RedirectStrategy;
 import org.springframework.security.web.util.ThrowableAnalyzer;
 import org.springframework.util.Assert;
 import org.springframework.web.filter.OncePerRequestFilter;
+import uk.ac.ox.ctl.lti13.metrics.LtiMetrics;
 
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
@@ -87,6 +89,7 @@ public class OAuth2AuthorizationRequestRedirectFilter extends OncePerRequestFilt
 				new StateAuthorizationRequestRepository(Duration.ofMinutes(1))
 		);
 	private AuthorizationRedirectHandler stateAuthorizationRedirectHandler = new StateAuthorizationRedirectHandler();
+	private LtiMetrics metrics = LtiMetrics.NOOP;
 
 	/**
 	 * Constructs an {@code OAuth2AuthorizationRequestRedirectFilter} using the provided parameters.
@@ -123,17 +126,31 @@ public class OAuth2AuthorizationRequestRedirectFilter extends OncePerRequestFilt
 		this.authorizationRequestRepository = authorizationRequestRepository;
 	}
 
+	/**
+	 * Sets where the timings of login initiation requests are recorded.
+	 *
+	 * @param metrics the metrics to record to
+	 */
+	public final void setMetrics(LtiMetrics metrics) {
+		Assert.notNull(metrics, "metrics cannot be null");
+		this.metrics = metrics;
+	}
+
 	@Override
 	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
 			throws ServletException, IOException {
 
+		long start = System.nanoTime();
+		OAuth2AuthorizationRequest authorizationRequest = null;
 		try {
-			OAuth2AuthorizationRequest authorizationRequest = this.authorizationRequestResolver.resolve(request);
+			authorizationRequest = this.authorizationRequestResolver.resolve(request);
 			if (authorizationRequest != null) {
 				this.sendRedirectForAuthorization(request, response, authorizationRequest);
+				this.metrics.initiation(registrationId(authorizationRequest), LtiMetrics.SUCCESS, System.nanoTime() - start);
 				return;
 			}
 		} catch (Exception failed) {
+			this.metrics.initiation(registrationId(authorizationRequest), LtiMetrics.outcome(failed), System.nanoTime() - start);
 			this.unsuccessfulRedirectForAuthorization(request, response, failed);
 			return;
 		}
@@ -149,7 +166,7 @@ public class OAuth2AuthorizationRequestRedirectFilter extends OncePerRequestFilt
 				.getFirstThrowableOfType(ClientAuthorizationRequiredException.class, causeChain);
 			if (authzEx != null) {
 				try {
-					OAuth2AuthorizationRequest authorizationRequest = this.authorizationRequestResolver.resolve(request, authzEx.getClientRegistrationId());
+					authorizationRequest = this.authorizationRequestResolver.resolve(request, authzEx.getClientRegistrationId());
 					if (authorizationRequest == null) {
 						throw authzEx;
 					}
@@ -192,6 +209,19 @@ public class OAuth2AuthorizationRequestRedirectFilter extends OncePerRequestFilt
 		// the current request here.
 	}
 
+	private static String registrationId(OAuth2AuthorizationRequest authorizationRequest) {
+		// Until the request is resolved we don't know the registration is valid.
+		if (authorizationRequest == null) {
+			return LtiMetrics.UNKNOWN_REGISTRATION;
+		}
+		// Our resolver puts it in the parameters, the Spring Security one in the attributes.
+		Object registrationId = authorizationRequest.getAdditionalParameters().get(OAuth2ParameterNames.REGISTRATION_ID);
+		if (registrationId == null) {
+			registrationId = authorizationRequest.getAttribute(OAuth2ParameterNames.REGISTRATION_ID);
+		}
+		return registrationId != null ? registrationId.toString() : LtiMetrics.UNKNOWN_REGISTRATION;
+	}
+
 	/**
 	 * Check that the LTI Storage Platform is unavailable.
 	 * @param request The HttpServletRequet to look into.
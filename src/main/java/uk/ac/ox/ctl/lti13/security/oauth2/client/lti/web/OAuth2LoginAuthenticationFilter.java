@@ -34,6 +34,7 @@ import org.springframework.security.oauth2.core.endpoint.OAuth2ParameterNames;
 import org.springframework.security.web.authentication.AbstractAuthenticationProcessingFilter;
 import org.springframework.security.web.context.SecurityContextRepository;
 import org.springframework.util.Assert;
+import uk.ac.ox.ctl.lti13.metrics.LtiMetrics;
 import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.authentication.OidcLaunchFlowToken;
 import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.authentication.OidcAuthenticationToken;
 import uk.ac.ox.ctl.lti13.security.oauth2.core.endpoint.OIDCLaunchFlowExchange;
@@ -102,6 +103,7 @@ public class OAuth2LoginAuthenticationFilter extends AbstractAuthenticationProce
     private ClientRegistrationRepository clientRegistrationRepository;
     private AuthorizationRequestRepository<OAuth2AuthorizationRequest> authorizationRequestRepository =
             new HttpSessionOAuth2AuthorizationRequestRepository();
+    private LtiMetrics metrics = LtiMetrics.NOOP;
 
     /**
      * Constructs an {@code OAuth2LoginAuthenticationFilter} using the provided parameters.
@@ -120,6 +122,20 @@ public class OAuth2LoginAuthenticationFilter extends AbstractAuthenticationProce
     @Override
     public Authentication attemptAuthentication(HttpServletRequest request, HttpServletResponse response)
             throws AuthenticationException, IOException, ServletException {
+        long start = System.nanoTime();
+        LaunchAttempt attempt = new LaunchAttempt();
+        try {
+            Authentication authentication = attemptAuthentication(request, response, attempt);
+            this.metrics.authentication(attempt.registrationId, LtiMetrics.SUCCESS, System.nanoTime() - start);
+            return authentication;
+        } catch (RuntimeException e) {
+            this.metrics.authentication(attempt.registrationId, LtiMetrics.outcome(e), System.nanoTime() - start);
+            throw e;
+        }
+    }
+
+    private Authentication attemptAuthentication(HttpServletRequest request, HttpServletResponse response, LaunchAttempt attempt)
+            throws AuthenticationException, IOException, ServletException {
 
         if (!isAuthorizationResponse(request)) {
             OAuth2Error oauth2Error = new OAuth2Error(OAuth2ErrorCodes.INVALID_REQUEST);
@@ -134,6 +150,7 @@ public class OAuth2LoginAuthenticationFilter extends AbstractAuthenticationProce
         }
 
         String registrationId = (String) authorizationRequest.getAdditionalParameters().get(OAuth2ParameterNames.REGISTRATION_ID);
+        attempt.registrationId = registrationId;
         ClientRegistration clientRegistration = this.clientRegistrationRepository.findByRegistrationId(registrationId);
         if (clientRegistration == null) {
             OAuth2Error oauth2Error = new OAuth2Error(CLIENT_REGISTRATION_NOT_FOUND_ERROR_CODE,
@@ -193,4 +210,19 @@ public class OAuth2LoginAuthenticationFilter extends AbstractAuthenticationProce
         Assert.notNull(authorizationRequestRepository, "authorizationRequestRepository cannot be null");
         this.authorizationRequestRepository = authorizationRequestRepository;
     }
+
+    /**
+     * Sets where the timings of authentication responses are recorded.
+     *
+     * @param metrics the metrics to record to
+     */
+    public final void setMetrics(LtiMetrics metrics) {
+        Assert.notNull(metrics, "metrics cannot be null");
+        this.metrics = metrics;
+    }
+
+    // Until we have found the authorization request we don't know which registration the launch is for.
+    private static final class LaunchAttempt {
+        private String registrationId = LtiMetrics.UNKNOWN_REGISTRATION;
+    }
 }
@@ -1,7 +1,8 @@
 package uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import jakarta.servlet.http.HttpServletRequest;
-import org.springframework.security.crypto.keygen.KeyGenerators;
 import org.springframework.security.crypto.keygen.StringKeyGenerator;
 import org.springframework.security.oauth2.client.registration.ClientRegistration;
 import org.springframework.security.oauth2.client.registration.ClientRegistrationRepository;
@@ -10,11 +11,19 @@ import org.springframework.security.oauth2.core.endpoint.OAuth2AuthorizationRequ
 import org.springframework.security.oauth2.core.endpoint.OAuth2ParameterNames;
 import org.springframework.security.web.util.UrlUtils;
 import org.springframework.util.Assert;
+import org.springframework.web.util.UriComponents;
 import org.springframework.web.util.UriComponentsBuilder;
+import org.springframework.web.util.UriUtils;
+import uk.ac.ox.ctl.lti13.jfr.InitiationEvent;
+import uk.ac.ox.ctl.lti13.utils.StripedStringKeyGenerator;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
-import java.util.UUID;
+import java.util.Set;
 
 /**
  * This handles the initial part of the LTI 1.3 Resource Link Request and sends the browser back to the platform to
@@ -29,12 +38,18 @@ import java.util.UUID;
  */
 public class OIDCInitiatingLoginRequestResolver implements OAuth2AuthorizationRequestResolver {
 
+    // Shared by all resolvers so there is one set of DRBGs.
+    private static final StringKeyGenerator DEFAULT_KEY_GENERATOR = new StripedStringKeyGenerator();
+
     private final ClientRegistrationRepository clientRegistrationRepository;
     private final OIDCInitiationRegistrationResolver registrationResolver;
     // The IMS LTI 1.3 Validator doesn't include = (%3D URL encoded) in state tokens.
-    // private final StringKeyGenerator stateGenerator = new Base64StringKeyGenerator(Base64.getUrlEncoder());
-    private final StringKeyGenerator stateGenerator = KeyGenerators.string();
-    
+    private StringKeyGenerator stateGenerator = DEFAULT_KEY_GENERATOR;
+    private StringKeyGenerator nonceGenerator = DEFAULT_KEY_GENERATOR;
+    // Bounded as the base URL comes from the Host header of the request.
+    private final Cache<TemplateKey, AuthorizationRequestTemplate> templates = CacheBuilder.newBuilder()
+            .maximumSize(1000)
+            .build();
 
 
     /**
@@ -65,6 +80,22 @@ public class OIDCInitiatingLoginRequestResolver implements OAuth2AuthorizationRe
         this.registrationResolver = registrationResolver;
     }
 
+    /**
+     * @param stateGenerator Generates the state for each launch, this must not include {@code =}.
+     */
+    public void setStateGenerator(StringKeyGenerator stateGenerator) {
+        Assert.notNull(stateGenerator, "stateGenerator cannot be null");
+        this.stateGenerator = stateGenerator;
+    }
+
+    /**
+     * @param nonceGenerator Generates the nonce for each launch.
+     */
+    public void setNonceGenerator(StringKeyGenerator nonceGenerator) {
+        Assert.notNull(nonceGenerator, "nonceGenerator cannot be null");
+        this.nonceGenerator = nonceGenerator;
+    }
+
     @Override
     public OAuth2AuthorizationRequest resolve(HttpServletRequest request) {
         String registrationId = this.registrationResolver.resolve(request);
@@ -84,18 +115,30 @@ public class OIDCInitiatingLoginRequestResolver implements OAuth2AuthorizationRe
             return null;
         }
 
+        InitiationEvent event = new InitiationEvent();
+        event.begin();
+        try {
+            return buildAuthorizationRequest(request, registrationId, redirectUriAction);
+        } catch (RuntimeException e) {
+            event.failed(e);
+            throw e;
+        } finally {
+            if (event.shouldCommit()) {
+                event.registrationId = registrationId;
+                event.requestSize = requestSize(request);
+                event.commit();
+            }
+        }
+    }
+
+    private OAuth2AuthorizationRequest buildAuthorizationRequest(HttpServletRequest request, String registrationId, String redirectUriAction) {
         ClientRegistration clientRegistration = this.clientRegistrationRepository.findByRegistrationId(registrationId);
         if (clientRegistration == null) {
             // We use a custom exception here so callers can specifically handle this case.
             throw new InvalidClientRegistrationIdException("No Client Registration found with ID: " + registrationId);
         }
 
-        OAuth2AuthorizationRequest.Builder builder;
-        if (LTIAuthorizationGrantType.IMPLICIT.equals(clientRegistration.getAuthorizationGrantType())) {
-            // We are performing an implicit grand but this isn't supported by Spring Security any more
-            // so we pretend it's actually auth code.
-            builder = OAuth2AuthorizationRequest.authorizationCode();
-        } else {
+        if (!LTIAuthorizationGrantType.IMPLICIT.equals(clientRegistration.getAuthorizationGrantType())) {
             // This is a configuration problem.
             throw new IllegalArgumentException("Invalid Authorization Grant Type ("  +
                     clientRegistration.getAuthorizationGrantType().getValue() +
@@ -125,56 +168,75 @@ public class OIDCInitiatingLoginRequestResolver implements OAuth2AuthorizationRe
             }
         }
 
-        String redirectUriStr = this.expandRedirectUri(request, clientRegistration, redirectUriAction);
-
-
-        Map<String, Object> additionalParameters = new HashMap<>();
-        additionalParameters.put(OAuth2ParameterNames.REGISTRATION_ID, clientRegistration.getRegistrationId());
-        // IMS SEC 1.0
-        // OIDC allows for "id_token token" or "id_token". In LTI the id_token is also the access token.
-        // This overrides the initial value set for this.
-        additionalParameters.put(OAuth2ParameterNames.RESPONSE_TYPE, "id_token");
-        additionalParameters.put("login_hint", loginHint);
-        additionalParameters.put("response_mode", "form_post");
+        AuthorizationRequestTemplate template = getTemplate(request, clientRegistration, redirectUriAction);
+        String state = this.stateGenerator.generateKey();
         // TODO We should really have a custom object for LTI launches
-        additionalParameters.put("nonce", UUID.randomUUID().toString());
-        additionalParameters.put("prompt", "none");
-
+        String nonce = this.nonceGenerator.generateKey();
         // IMS LTI 1.3
         String ltiMessageHint = request.getParameter("lti_message_hint");
-        if (ltiMessageHint != null) {
-            additionalParameters.put("lti_message_hint", ltiMessageHint);
+
+        // We are performing an implicit grand but this isn't supported by Spring Security any more
+        // so we pretend it's actually auth code.
+        OAuth2AuthorizationRequest.Builder builder = OAuth2AuthorizationRequest.authorizationCode()
+                .clientId(template.clientId())
+                .authorizationUri(template.authorizationUri())
+                .redirectUri(template.redirectUri())
+                .scopes(template.scopes())
+                .state(state)
+                .additionalParameters(parameters -> {
+                    parameters.putAll(template.additionalParameters());
+                    parameters.put("login_hint", loginHint);
+                    parameters.put("nonce", nonce);
+                    if (ltiMessageHint != null) {
+                        parameters.put("lti_message_hint", ltiMessageHint);
+                    }
+                })
+                // These are additional parameters that we want to keep but they aren't part of the message.
+                // This is so that we can check the first and last requests of the login are from
+                // the same IP address.
+                .attributes(attributes -> attributes.put(StateAuthorizationRequestRepository.REMOTE_IP, request.getRemoteAddr()));
+        if (template.authorizationRequestUriPrefix() != null) {
+            // Saves the builder from parsing and encoding the whole URI again.
+            StringBuilder uri = new StringBuilder(template.authorizationRequestUriPrefix());
+            appendParameter(uri, OAuth2ParameterNames.STATE, state);
+            appendParameter(uri, "login_hint", loginHint);
+            appendParameter(uri, "nonce", nonce);
+            if (ltiMessageHint != null) {
+                appendParameter(uri, "lti_message_hint", ltiMessageHint);
+            }
+            builder.authorizationRequestUri(uri.toString());
         }
-        
-        // These are additional parameters that we want to keep but they aren't part of the message
-        Map<String, Object> attributes = new HashMap<>();
-        // This is so that we can check the first and last requests of the login are from
-        // the same IP address.
-        attributes.put(StateAuthorizationRequestRepository.REMOTE_IP, request.getRemoteAddr());
-
-        OAuth2AuthorizationRequest authorizationRequest = builder
-                .clientId(clientRegistration.getClientId())
-                .authorizationUri(clientRegistration.getProviderDetails().getAuthorizationUri())
-                .redirectUri(redirectUriStr)
-                .scopes(clientRegistration.getScopes())
-                .state(this.stateGenerator.generateKey())
-                .additionalParameters(additionalParameters)
-                .attributes(attributes)
-                .build();
-
-        return authorizationRequest;
+        return builder.build();
     }
 
-    private String expandRedirectUri(HttpServletRequest request, ClientRegistration clientRegistration, String action) {
+    /**
+     * Gets the parts of the authorization request that are the same for every launch of a registration through
+     * the same base URL, they are rebuilt if the registration has changed. The fields the template uses are compared
+     * rather than the registration object, as a repository backed by a database returns a new one for every lookup.
+     */
+    private AuthorizationRequestTemplate getTemplate(HttpServletRequest request, ClientRegistration clientRegistration, String redirectUriAction) {
+        String baseUrl = UrlUtils.buildFullRequestUrl(request.getScheme(), request.getServerName(), request.getServerPort(),
+                request.getContextPath(), null);
+        TemplateKey key = new TemplateKey(clientRegistration.getRegistrationId(), baseUrl, redirectUriAction);
+        AuthorizationRequestTemplate template = templates.getIfPresent(key);
+        if (template == null || !template.isFor(clientRegistration)) {
+            template = AuthorizationRequestTemplate.create(clientRegistration, expandRedirectUri(baseUrl, clientRegistration, redirectUriAction));
+            templates.put(key, template);
+        }
+        return template;
+    }
+
+    private static long requestSize(HttpServletRequest request) {
+        String queryString = request.getQueryString();
+        long size = queryString != null ? queryString.length() : 0;
+        return Math.max(request.getContentLengthLong(), 0) + size;
+    }
+
+    private static String expandRedirectUri(String baseUrl, ClientRegistration clientRegistration, String action) {
         // Supported URI variables -> baseUrl, action, registrationId
         // Used in -> CommonOAuth2Provider.DEFAULT_REDIRECT_URL = "{baseUrl}/{action}/oauth2/code/{registrationId}"
         Map<String, String> uriVariables = new HashMap<>();
         uriVariables.put("registrationId", clientRegistration.getRegistrationId());
-        String baseUrl = UriComponentsBuilder.fromHttpUrl(UrlUtils.buildFullRequestUrl(request))
-                .replaceQuery(null)
-                .replacePath(request.getContextPath())
-                .build()
-                .toUriString();
         uriVariables.put("baseUrl", baseUrl);
         if (action != null) {
             uriVariables.put("action", action);
@@ -183,4 +245,63 @@ public class OIDCInitiatingLoginRequestResolver implements OAuth2AuthorizationRe
                 .buildAndExpand(uriVariables)
                 .toUriString();
     }
+
+    private static void appendParameter(StringBuilder uri, String name, String value) {
+        uri.append('&').append(name).append('=').append(UriUtils.encodeQueryParam(value, StandardCharsets.UTF_8));
+    }
+
+    private record TemplateKey(String registrationId, String baseUrl, String action) {
+    }
+
+    /**
+     * The parts of an authorization request that don't change between launches.
+     *
+     * @param authorizationRequestUriPrefix The authorization URI with the unchanging parameters encoded in the
+     *                                      query string, or null if the builder has to create the URI.
+     */
+    private record AuthorizationRequestTemplate(String redirectUriTemplate, String clientId, String authorizationUri,
+                                                String redirectUri, Set<String> scopes, Map<String, Object> additionalParameters,
+                                                String authorizationRequestUriPrefix) {
+
+        /**
+         * @return true if this was created from a registration with the same settings.
+         */
+        boolean isFor(ClientRegistration clientRegistration) {
+            return clientId.equals(clientRegistration.getClientId())
+                    && authorizationUri.equals(clientRegistration.getProviderDetails().getAuthorizationUri())
+                    && redirectUriTemplate.equals(clientRegistration.getRedirectUri())
+                    && scopes.equals(clientRegistration.getScopes());
+        }
+
+        static AuthorizationRequestTemplate create(ClientRegistration clientRegistration, String redirectUri) {
+            Map<String, Object> additionalParameters = new LinkedHashMap<>();
+            additionalParameters.put(OAuth2ParameterNames.REGISTRATION_ID, clientRegistration.getRegistrationId());
+            // IMS SEC 1.0
+            // OIDC allows for "id_token token" or "id_token". In LTI the id_token is also the access token.
+            // This overrides the initial value set for this.
+            additionalParameters.put(OAuth2ParameterNames.RESPONSE_TYPE, "id_token");
+            additionalParameters.put("response_mode", "form_post");
+            additionalParameters.put("prompt", "none");
+
+            String authorizationUri = clientRegistration.getProviderDetails().getAuthorizationUri();
+            Set<String> scopes = Collections.unmodifiableSet(new LinkedHashSet<>(clientRegistration.getScopes()));
+            String prefix = null;
+            // Parse the URI the same way the builder does so that it gets normalised (eg "//" in the path) identically.
+            UriComponents components = UriComponentsBuilder.fromUriString(authorizationUri).build();
+            // A fragment would have to go after the query, so leave that to the builder.
+            if (components.getFragment() == null) {
+                StringBuilder uri = new StringBuilder(components.toUriString());
+                uri.append(components.getQuery() == null ? '?' : '&');
+                uri.append(OAuth2ParameterNames.CLIENT_ID).append('=').append(UriUtils.encodeQueryParam(clientRegistration.getClientId(), StandardCharsets.UTF_8));
+                if (!scopes.isEmpty()) {
+                    appendParameter(uri, OAuth2ParameterNames.SCOPE, String.join(" ", scopes));
+                }
+                appendParameter(uri, OAuth2ParameterNames.REDIRECT_URI, redirectUri);
+                additionalParameters.forEach((name, value) -> appendParameter(uri, name, value.toString()));
+                prefix = uri.toString();
+            }
+            return new AuthorizationRequestTemplate(clientRegistration.getRedirectUri(), clientRegistration.getClientId(), authorizationUri,
+                    redirectUri, scopes, Collections.unmodifiableMap(additionalParameters), prefix);
+        }
+    }
 }
@@ -2,6 +2,10 @@ package uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web;
 
 import org.springframework.security.oauth2.client.web.AuthorizationRequestRepository;
 import org.springframework.security.oauth2.core.endpoint.OAuth2AuthorizationRequest;
+import org.springframework.security.oauth2.core.endpoint.OAuth2ParameterNames;
+import org.springframework.util.Assert;
+import uk.ac.ox.ctl.lti13.jfr.AuthorizationRequestEvent;
+import uk.ac.ox.ctl.lti13.metrics.LtiMetrics;
 
 import jakarta.servlet.http.Cookie;
 import jakarta.servlet.http.HttpServletRequest;
@@ -18,12 +22,21 @@ public class OptimisticAuthorizationRequestRepository implements AuthorizationRe
 
     private final AuthorizationRequestRepository<OAuth2AuthorizationRequest> sessionBased;
     private final AuthorizationRequestRepository<OAuth2AuthorizationRequest> stateBased;
+    private LtiMetrics metrics = LtiMetrics.NOOP;
 
     public OptimisticAuthorizationRequestRepository(AuthorizationRequestRepository<OAuth2AuthorizationRequest> sessionBased, AuthorizationRequestRepository<OAuth2AuthorizationRequest> stateBased) {
         this.sessionBased = sessionBased;
         this.stateBased = stateBased;
     }
 
+    /**
+     * Sets where the hits and misses are recorded when looking up an authorization request in step 3.
+     */
+    public void setMetrics(LtiMetrics metrics) {
+        Assert.notNull(metrics, "metrics cannot be null");
+        this.metrics = metrics;
+    }
+
     public boolean hasWorkingSession(HttpServletRequest request) {
         // We don't want to wait for the next request to use the session, so as well as looking for cookies we
         // check for an attribute on the request.
@@ -67,16 +80,37 @@ public class OptimisticAuthorizationRequestRepository implements AuthorizationRe
 
     @Override
     public void saveAuthorizationRequest(OAuth2AuthorizationRequest authorizationRequest, HttpServletRequest request, HttpServletResponse response) {
-        if (!hasWorkingSession(request)) {
+        AuthorizationRequestEvent event = new AuthorizationRequestEvent();
+        event.begin();
+        boolean workingSession = hasWorkingSession(request);
+        if (!workingSession) {
             stateBased.saveAuthorizationRequest(authorizationRequest, request, response);
         }
         sessionBased.saveAuthorizationRequest(authorizationRequest, request, response);
+        if (event.shouldCommit()) {
+            event.operation = AuthorizationRequestEvent.SAVE;
+            event.registrationId = registrationId(authorizationRequest);
+            event.workingSession = workingSession;
+            event.commit();
+        }
     }
 
     @Override
     public OAuth2AuthorizationRequest removeAuthorizationRequest(HttpServletRequest request, HttpServletResponse response) {
+        AuthorizationRequestEvent event = new AuthorizationRequestEvent();
+        event.begin();
         OAuth2AuthorizationRequest stateRequest = stateBased.removeAuthorizationRequest(request, response);
         OAuth2AuthorizationRequest sessionRequest = sessionBased.removeAuthorizationRequest(request, response);
+        metrics.authorizationRequestLookup("state", stateRequest != null);
+        metrics.authorizationRequestLookup("session", sessionRequest != null);
+        if (event.shouldCommit()) {
+            event.operation = AuthorizationRequestEvent.REMOVE;
+            event.registrationId = registrationId(sessionRequest != null ? sessionRequest : stateRequest);
+            event.workingSession = hasWorkingSession(request);
+            event.stateHit = stateRequest != null;
+            event.sessionHit = sessionRequest != null;
+            event.commit();
+        }
         // Prioritise the one from the session if it's not null.
         if (sessionRequest != null) {
             // Mark that we got the state from the cookie.
@@ -85,4 +119,12 @@ public class OptimisticAuthorizationRequestRepository implements AuthorizationRe
         }
         return stateRequest;
     }
+
+    private static String registrationId(OAuth2AuthorizationRequest authorizationRequest) {
+        if (authorizationRequest == null) {
+            return null;
+        }
+        Object registrationId = authorizationRequest.getAdditionalParameters().get(OAuth2ParameterNames.REGISTRATION_ID);
+        return registrationId != null ? registrationId.toString() : authorizationRequest.getAttribute(OAuth2ParameterNames.REGISTRATION_ID);
+    }
 }
@@ -1,29 +1,48 @@
 package uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web;
 
 import jakarta.servlet.http.HttpServletRequest;
-import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
 import org.springframework.util.Assert;
 
-
+/**
+ * Finds the registration ID from the last part of the path, for example {@code /lti/login_initiation/{registrationId}}.
+ * <p>
+ * This is called for every request that goes through the filter chain, so rather than using an
+ * {@link org.springframework.security.web.util.matcher.AntPathRequestMatcher} the path is checked against the
+ * prefix and the registration ID is whatever follows it, as long as it is a single, non-empty path segment.
+ */
 public class PathOIDCInitiationRegistrationResolver implements OIDCInitiationRegistrationResolver {
-    
-    private static final String REGISTRATION_ID_URI_VARIABLE_NAME = "registrationId";
 
-    private final AntPathRequestMatcher authorizationRequestMatcher;
+    // The base URI with a trailing slash.
+    private final String prefix;
 
     public PathOIDCInitiationRegistrationResolver(String authorizationRequestBaseUri) {
         Assert.hasText(authorizationRequestBaseUri, "authorizationRequestBaseUri cannot be empty");
-        this.authorizationRequestMatcher = new AntPathRequestMatcher(
-                authorizationRequestBaseUri + "/{" + REGISTRATION_ID_URI_VARIABLE_NAME + "}");
+        Assert.isTrue(!authorizationRequestBaseUri.contains("*") && !authorizationRequestBaseUri.contains("{"),
+                "authorizationRequestBaseUri cannot contain a pattern");
+        this.prefix = authorizationRequestBaseUri.endsWith("/") ? authorizationRequestBaseUri : authorizationRequestBaseUri + "/";
     }
 
     @Override
     public String resolve(HttpServletRequest request) {
-        if (this.authorizationRequestMatcher.matches(request)) {
-            return this.authorizationRequestMatcher
-                    .extractUriTemplateVariables(request).get(REGISTRATION_ID_URI_VARIABLE_NAME);
+        String servletPath = request.getServletPath();
+        String pathInfo = request.getPathInfo();
+        // Normally the servlet is mapped to / so there isn't any path info and we don't need to build the path.
+        String path = pathInfo == null ? servletPath : (servletPath != null ? servletPath + pathInfo : pathInfo);
+        return registrationId(path, prefix);
+    }
+
+    /**
+     * @return The path segment after the prefix, or null if the path doesn't start with the prefix or there isn't
+     * exactly one segment after it.
+     */
+    static String registrationId(String path, String prefix) {
+        if (path == null || path.length() <= prefix.length() || !path.startsWith(prefix)) {
+            return null;
+        }
+        if (path.indexOf('/', prefix.length()) >= 0) {
+            return null;
         }
-        return null;
+        return path.substring(prefix.length());
     }
 
 }
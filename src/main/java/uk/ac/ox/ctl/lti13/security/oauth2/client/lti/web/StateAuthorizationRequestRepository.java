@@ -26,8 +26,11 @@ public final class StateAuthorizationRequestRepository implements AuthorizationR
      */
     public static final String REMOTE_IP = "remote_ip";
     
-    // The cache of request in flight
-    private final Cache<String, OAuth2AuthorizationRequest> store;
+    // The cache of request in flight, these are the encoded requests when there is a codec
+    private final Cache<String, Object> store;
+
+    // If set the requests are encoded so they take up less memory.
+    private AuthorizationRequestCodec codec;
 
     // Should we limit the login to a single IP address.
     // This may cause problems when users are on mobile devices and subsequent requests don't use the same IP address.
@@ -47,6 +50,14 @@ public final class StateAuthorizationRequestRepository implements AuthorizationR
         this.limitIpAddress = limitIpAddress;
     }
 
+    /**
+     * If set the requests are encoded before they're stored, so each one takes much less memory at the cost of
+     * rebuilding it when it's loaded.
+     */
+    public void setAuthorizationRequestCodec(AuthorizationRequestCodec codec) {
+        this.codec = codec;
+    }
+
     public void setIpMismatchHandler(BiConsumer<String, String> ipMismatchHandler) {
         this.ipMismatchHandler = ipMismatchHandler;
     }
@@ -58,7 +69,7 @@ public final class StateAuthorizationRequestRepository implements AuthorizationR
         if (stateParameter == null) {
             return null;
         }
-        OAuth2AuthorizationRequest oAuth2AuthorizationRequest = store.getIfPresent(stateParameter);
+        OAuth2AuthorizationRequest oAuth2AuthorizationRequest = decode(store.getIfPresent(stateParameter));
         if (oAuth2AuthorizationRequest != null) {
             // The IP address from the initial request
             String initialIp = oAuth2AuthorizationRequest.getAttribute(REMOTE_IP);
@@ -86,7 +97,7 @@ public final class StateAuthorizationRequestRepository implements AuthorizationR
         }
         String state = authorizationRequest.getState();
         Assert.hasText(state, "authorizationRequest.state cannot be empty");
-        store.put(state, authorizationRequest);
+        store.put(state, (codec != null) ? codec.encode(authorizationRequest) : authorizationRequest);
     }
 
     @Override
@@ -98,4 +109,11 @@ public final class StateAuthorizationRequestRepository implements AuthorizationR
         }
         return authorizationRequest;
     }
+
+    private OAuth2AuthorizationRequest decode(Object value) {
+        if (value instanceof byte[] data) {
+            return (codec != null) ? codec.decode(data) : null;
+        }
+        return (OAuth2AuthorizationRequest) value;
+    }
 }
@@ -0,0 +1,119 @@
+package uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.security.oauth2.client.web.server.ServerOAuth2AuthorizationRequestResolver;
+import org.springframework.security.oauth2.core.AuthorizationGrantType;
+import org.springframework.security.oauth2.core.endpoint.OAuth2AuthorizationRequest;
+import org.springframework.security.web.server.DefaultServerRedirectStrategy;
+import org.springframework.security.web.server.ServerRedirectStrategy;
+import org.springframework.util.Assert;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.InvalidClientRegistrationIdException;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.InvalidInitiationRequestException;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.OAuth2AuthorizationRequestRedirectFilter;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+/**
+ * The reactive version of {@link OAuth2AuthorizationRequestRedirectFilter}, this handles step 1 of the LTI launch
+ * by saving the authorization request and sending the browser back to the platform.
+ *
+ * @see <a href="https://www.imsglobal.org/spec/security/v1p0/#step-1-third-party-initiated-login">IMS ThirdPartyInitiatedLogin</a>
+ */
+public class OAuth2AuthorizationRequestRedirectWebFilter implements WebFilter {
+
+	private final Logger logger = LoggerFactory.getLogger(OAuth2AuthorizationRequestRedirectWebFilter.class);
+
+	private final ServerRedirectStrategy authorizationRedirectStrategy = new DefaultServerRedirectStrategy();
+	private final ServerOAuth2AuthorizationRequestResolver authorizationRequestResolver;
+	private ServerOptimisticAuthorizationRequestRepository authorizationRequestRepository =
+		new ServerOptimisticAuthorizationRequestRepository(
+				new ServerWebSessionAuthorizationRequestRepository(),
+				new ServerStateAuthorizationRequestRepository(Duration.ofMinutes(1))
+		);
+	private ServerStateAuthorizationRedirectHandler stateAuthorizationRedirectHandler = new ServerStateAuthorizationRedirectHandler();
+
+	/**
+	 * @param authorizationRequestResolver the resolver used for resolving authorization requests
+	 */
+	public OAuth2AuthorizationRequestRedirectWebFilter(ServerOAuth2AuthorizationRequestResolver authorizationRequestResolver) {
+		Assert.notNull(authorizationRequestResolver, "authorizationRequestResolver cannot be null");
+		this.authorizationRequestResolver = authorizationRequestResolver;
+	}
+
+	/**
+	 * Sets the repository used for storing {@link OAuth2AuthorizationRequest}'s.
+	 *
+	 * @param authorizationRequestRepository the repository used for storing {@link OAuth2AuthorizationRequest}'s
+	 */
+	public final void setAuthorizationRequestRepository(ServerOptimisticAuthorizationRequestRepository authorizationRequestRepository) {
+		Assert.notNull(authorizationRequestRepository, "authorizationRequestRepository cannot be null");
+		this.authorizationRequestRepository = authorizationRequestRepository;
+	}
+
+	public final void setStateAuthorizationRedirectHandler(ServerStateAuthorizationRedirectHandler stateAuthorizationRedirectHandler) {
+		Assert.notNull(stateAuthorizationRedirectHandler, "stateAuthorizationRedirectHandler cannot be null");
+		this.stateAuthorizationRedirectHandler = stateAuthorizationRedirectHandler;
+	}
+
+	@Override
+	public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+		return this.authorizationRequestResolver.resolve(exchange)
+				.flatMap(authorizationRequest -> sendRedirectForAuthorization(exchange, authorizationRequest).thenReturn(true))
+				.onErrorResume(failed -> unsuccessfulRedirectForAuthorization(exchange, failed).thenReturn(true))
+				// Errors from the rest of the chain aren't ours to handle.
+				.switchIfEmpty(Mono.defer(() -> chain.filter(exchange).thenReturn(false)))
+				.then();
+	}
+
+	private Mono<Void> sendRedirectForAuthorization(ServerWebExchange exchange, OAuth2AuthorizationRequest authorizationRequest) {
+		// LTI 1.3 is an implicit grant, but the Spring Security codebase doesn't support this anymore.
+		// So we pretend that we are doing an auth code grant.
+		Mono<Void> save = AuthorizationGrantType.AUTHORIZATION_CODE.equals(authorizationRequest.getGrantType()) ?
+				this.authorizationRequestRepository.saveAuthorizationRequest(authorizationRequest, exchange) :
+				Mono.empty();
+		return save
+				.then(ServerParameters.get(exchange))
+				.flatMap(parameters -> {
+					// Platforms that don't support the LTI Storage Platform shouldn't send through this parameter.
+					if (authorizationRequestRepository.hasWorkingSession(exchange) || parameters.getFirst("lti_storage_target") == null) {
+						return this.authorizationRedirectStrategy.sendRedirect(exchange, URI.create(authorizationRequest.getAuthorizationRequestUri()));
+					}
+					// Want to pass in the authorizationRequest so we can pass the state to the browser.
+					return this.stateAuthorizationRedirectHandler.sendRedirect(exchange, authorizationRequest);
+				});
+	}
+
+	private Mono<Void> unsuccessfulRedirectForAuthorization(ServerWebExchange exchange, Throwable failed) {
+		HttpStatus status;
+		String message;
+		if (failed instanceof InvalidInitiationRequestException) {
+			logger.info("Invalid initiation request: {}", failed.toString());
+			status = HttpStatus.BAD_REQUEST;
+			message = failed.getMessage();
+		} else if (failed instanceof InvalidClientRegistrationIdException) {
+			logger.info("Invalid registration ID: {}", failed.toString());
+			status = HttpStatus.NOT_FOUND;
+			message = failed.getMessage();
+		} else {
+			logger.error("Authorization Request failed: " + failed.toString(), failed);
+			status = HttpStatus.INTERNAL_SERVER_ERROR;
+			message = HttpStatus.INTERNAL_SERVER_ERROR.getReasonPhrase();
+		}
+		ServerHttpResponse response = exchange.getResponse();
+		response.setStatusCode(status);
+		response.getHeaders().setContentType(MediaType.TEXT_PLAIN);
+		DataBuffer buffer = response.bufferFactory().wrap(message.getBytes(StandardCharsets.UTF_8));
+		return response.writeWith(Mono.just(buffer));
+	}
+}
@@ -0,0 +1,79 @@
+package uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.server;
+
+import org.springframework.security.core.Authentication;
+import org.springframework.security.oauth2.client.registration.ReactiveClientRegistrationRepository;
+import org.springframework.security.oauth2.client.web.server.ServerAuthorizationRequestRepository;
+import org.springframework.security.oauth2.core.OAuth2AuthenticationException;
+import org.springframework.security.oauth2.core.OAuth2Error;
+import org.springframework.security.oauth2.core.OAuth2ErrorCodes;
+import org.springframework.security.oauth2.core.endpoint.OAuth2AuthorizationRequest;
+import org.springframework.security.oauth2.core.endpoint.OAuth2ParameterNames;
+import org.springframework.security.web.server.authentication.ServerAuthenticationConverter;
+import org.springframework.util.Assert;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.authentication.OidcLaunchFlowToken;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.OAuth2LoginAuthenticationFilter;
+import uk.ac.ox.ctl.lti13.security.oauth2.core.endpoint.OIDCLaunchFlowExchange;
+import uk.ac.ox.ctl.lti13.security.oauth2.core.endpoint.OIDCLaunchFlowResponse;
+
+/**
+ * Converts the form post from the platform (step 3 of the launch) into an {@link OidcLaunchFlowToken} that can be
+ * authenticated. This does the same checks as {@link OAuth2LoginAuthenticationFilter} does before authentication.
+ *
+ * @see <a href="https://www.imsglobal.org/spec/security/v1p0/#step-3-authentication-response">IMS Authentication Response</a>
+ */
+public class OidcLaunchFlowServerAuthenticationConverter implements ServerAuthenticationConverter {
+
+    private static final String AUTHORIZATION_REQUEST_NOT_FOUND_ERROR_CODE = "authorization_request_not_found";
+    private static final String CLIENT_REGISTRATION_NOT_FOUND_ERROR_CODE = "client_registration_not_found";
+
+    private final ReactiveClientRegistrationRepository clientRegistrationRepository;
+    private final ServerAuthorizationRequestRepository<OAuth2AuthorizationRequest> authorizationRequestRepository;
+
+    public OidcLaunchFlowServerAuthenticationConverter(ReactiveClientRegistrationRepository clientRegistrationRepository,
+                                                       ServerAuthorizationRequestRepository<OAuth2AuthorizationRequest> authorizationRequestRepository) {
+        Assert.notNull(clientRegistrationRepository, "clientRegistrationRepository cannot be null");
+        Assert.notNull(authorizationRequestRepository, "authorizationRequestRepository cannot be null");
+        this.clientRegistrationRepository = clientRegistrationRepository;
+        this.authorizationRequestRepository = authorizationRequestRepository;
+    }
+
+    @Override
+    public Mono<Authentication> convert(ServerWebExchange exchange) {
+        return ServerParameters.get(exchange).flatMap(parameters -> {
+            if (!isAuthorizationResponse(parameters)) {
+                return oauth2Error(new OAuth2Error(OAuth2ErrorCodes.INVALID_REQUEST));
+            }
+            return authorizationRequestRepository.removeAuthorizationRequest(exchange)
+                    .switchIfEmpty(oauth2Error(new OAuth2Error(AUTHORIZATION_REQUEST_NOT_FOUND_ERROR_CODE)))
+                    .flatMap(authorizationRequest -> {
+                        String registrationId = (String) authorizationRequest.getAdditionalParameters().get(OAuth2ParameterNames.REGISTRATION_ID);
+                        return clientRegistrationRepository.findByRegistrationId(registrationId)
+                                .switchIfEmpty(oauth2Error(new OAuth2Error(CLIENT_REGISTRATION_NOT_FOUND_ERROR_CODE,
+                                        "Client Registration not found with Id: " + registrationId, null)))
+                                .flatMap(clientRegistration -> {
+                                    String error = parameters.getFirst("error");
+                                    if (error != null) {
+                                        return oauth2Error(new OAuth2Error(error, parameters.getFirst("error_description"), parameters.getFirst("error_uri")));
+                                    }
+                                    OIDCLaunchFlowResponse authorizationResponse = OIDCLaunchFlowResponse.success(parameters.getFirst("id_token"))
+                                            .state(parameters.getFirst("state"))
+                                            .build();
+                                    return Mono.just(new OidcLaunchFlowToken(
+                                            clientRegistration, new OIDCLaunchFlowExchange(authorizationRequest, authorizationResponse)));
+                                });
+                    });
+        });
+    }
+
+    private static boolean isAuthorizationResponse(MultiValueMap<String, String> parameters) {
+        return parameters.getFirst("state") != null &&
+                (parameters.getFirst("id_token") != null || parameters.getFirst("error") != null);
+    }
+
+    private static <T> Mono<T> oauth2Error(OAuth2Error oauth2Error) {
+        return Mono.error(() -> new OAuth2AuthenticationException(oauth2Error, oauth2Error.toString()));
+    }
+}
@@ -0,0 +1,174 @@
+package uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.server;
+
+import org.springframework.security.crypto.keygen.StringKeyGenerator;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.client.registration.ReactiveClientRegistrationRepository;
+import org.springframework.security.oauth2.client.web.server.ServerOAuth2AuthorizationRequestResolver;
+import org.springframework.security.oauth2.core.endpoint.OAuth2AuthorizationRequest;
+import org.springframework.security.oauth2.core.endpoint.OAuth2ParameterNames;
+import org.springframework.security.web.server.util.matcher.PathPatternParserServerWebExchangeMatcher;
+import org.springframework.security.web.server.util.matcher.ServerWebExchangeMatcher;
+import org.springframework.util.Assert;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Mono;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.InvalidClientRegistrationIdException;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.InvalidInitiationRequestException;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.LTIAuthorizationGrantType;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.OIDCInitiatingLoginRequestResolver;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.StateAuthorizationRequestRepository;
+import uk.ac.ox.ctl.lti13.utils.StripedStringKeyGenerator;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The reactive version of {@link OIDCInitiatingLoginRequestResolver}, this handles the initial part of the LTI 1.3
+ * launch and creates the request that sends the browser back to the platform.
+ *
+ * @see <a href="https://www.imsglobal.org/spec/security/v1p0/#step-1-third-party-initiated-login">IMS ThirdPartyInitiatedLogin</a>
+ */
+public class ServerOIDCInitiatingLoginRequestResolver implements ServerOAuth2AuthorizationRequestResolver {
+
+    private static final String REGISTRATION_ID_URI_VARIABLE_NAME = "registrationId";
+    // Shared by all resolvers so there is one set of DRBGs.
+    private static final StringKeyGenerator DEFAULT_KEY_GENERATOR = new StripedStringKeyGenerator();
+
+    private final ReactiveClientRegistrationRepository clientRegistrationRepository;
+    private final ServerWebExchangeMatcher authorizationRequestMatcher;
+    // The IMS LTI 1.3 Validator doesn't include = (%3D URL encoded) in state tokens.
+    private StringKeyGenerator stateGenerator = DEFAULT_KEY_GENERATOR;
+    private StringKeyGenerator nonceGenerator = DEFAULT_KEY_GENERATOR;
+
+    /**
+     * @param clientRegistrationRepository the repository of client registrations
+     * @param authorizationRequestBaseUri the base {@code URI} used for resolving authorization requests
+     */
+    public ServerOIDCInitiatingLoginRequestResolver(ReactiveClientRegistrationRepository clientRegistrationRepository,
+                                                    String authorizationRequestBaseUri) {
+        Assert.notNull(clientRegistrationRepository, "clientRegistrationRepository cannot be null");
+        Assert.hasText(authorizationRequestBaseUri, "authorizationRequestBaseUri cannot be empty");
+        this.clientRegistrationRepository = clientRegistrationRepository;
+        this.authorizationRequestMatcher = new PathPatternParserServerWebExchangeMatcher(
+                authorizationRequestBaseUri + "/{" + REGISTRATION_ID_URI_VARIABLE_NAME + "}");
+    }
+
+    /**
+     * @param stateGenerator Generates the state for each launch, this must not include {@code =}.
+     */
+    public void setStateGenerator(StringKeyGenerator stateGenerator) {
+        Assert.notNull(stateGenerator, "stateGenerator cannot be null");
+        this.stateGenerator = stateGenerator;
+    }
+
+    /**
+     * @param nonceGenerator Generates the nonce for each launch.
+     */
+    public void setNonceGenerator(StringKeyGenerator nonceGenerator) {
+        Assert.notNull(nonceGenerator, "nonceGenerator cannot be null");
+        this.nonceGenerator = nonceGenerator;
+    }
+
+    @Override
+    public Mono<OAuth2AuthorizationRequest> resolve(ServerWebExchange exchange) {
+        return authorizationRequestMatcher.matches(exchange)
+                .filter(ServerWebExchangeMatcher.MatchResult::isMatch)
+                .map(matchResult -> (String) matchResult.getVariables().get(REGISTRATION_ID_URI_VARIABLE_NAME))
+                .flatMap(registrationId -> resolve(exchange, registrationId));
+    }
+
+    @Override
+    public Mono<OAuth2AuthorizationRequest> resolve(ServerWebExchange exchange, String clientRegistrationId) {
+        return clientRegistrationRepository.findByRegistrationId(clientRegistrationId)
+                // We use a custom exception here so callers can specifically handle this case.
+                .switchIfEmpty(Mono.error(() -> new InvalidClientRegistrationIdException("No Client Registration found with ID: " + clientRegistrationId)))
+                .zipWith(ServerParameters.get(exchange))
+                .map(registrationAndParameters -> resolve(exchange, registrationAndParameters.getT1(), registrationAndParameters.getT2()));
+    }
+
+    private OAuth2AuthorizationRequest resolve(ServerWebExchange exchange, ClientRegistration clientRegistration, MultiValueMap<String, String> parameters) {
+        if (!LTIAuthorizationGrantType.IMPLICIT.equals(clientRegistration.getAuthorizationGrantType())) {
+            // This is a configuration problem.
+            throw new IllegalArgumentException("Invalid Authorization Grant Type ("  +
+                    clientRegistration.getAuthorizationGrantType().getValue() +
+                    ") for Client Registration with Id: " + clientRegistration.getRegistrationId());
+        }
+        // We are performing an implicit grant but this isn't supported by Spring Security any more
+        // so we pretend it's actually auth code.
+        OAuth2AuthorizationRequest.Builder builder = OAuth2AuthorizationRequest.authorizationCode();
+
+        String iss = parameters.getFirst("iss");
+        if (iss == null) {
+            throw new InvalidInitiationRequestException("Required parameter iss was not supplied.");
+        }
+
+        String loginHint = parameters.getFirst("login_hint");
+        if (loginHint == null) {
+            throw new InvalidInitiationRequestException("Required parameter login_hint was not supplied.");
+        }
+
+        String targetLinkUri = parameters.getFirst("target_link_uri");
+        if (targetLinkUri == null) {
+            throw new InvalidInitiationRequestException("Required parameter target_link_uri was not supplied");
+        }
+
+        // The client_id parameter is optional, but if it's supplied check it matches.
+        String clientId = parameters.getFirst("client_id");
+        if (clientId != null) {
+            if (!clientId.equals(clientRegistration.getClientId())) {
+                throw new IllegalArgumentException("Parameter client_id ("+clientId+") doesn't match the configured registration ("+ clientRegistration.getClientId()+").");
+            }
+        }
+
+        Map<String, Object> additionalParameters = new HashMap<>();
+        additionalParameters.put(OAuth2ParameterNames.REGISTRATION_ID, clientRegistration.getRegistrationId());
+        // IMS SEC 1.0
+        // OIDC allows for "id_token token" or "id_token". In LTI the id_token is also the access token.
+        additionalParameters.put(OAuth2ParameterNames.RESPONSE_TYPE, "id_token");
+        additionalParameters.put("login_hint", loginHint);
+        additionalParameters.put("response_mode", "form_post");
+        additionalParameters.put("nonce", this.nonceGenerator.generateKey());
+        additionalParameters.put("prompt", "none");
+
+        // IMS LTI 1.3
+        String ltiMessageHint = parameters.getFirst("lti_message_hint");
+        if (ltiMessageHint != null) {
+            additionalParameters.put("lti_message_hint", ltiMessageHint);
+        }
+
+        // This is so that we can check the first and last requests of the login are from the same IP address.
+        Map<String, Object> attributes = new HashMap<>();
+        String remoteIp = ServerParameters.remoteIp(exchange);
+        if (remoteIp != null) {
+            attributes.put(StateAuthorizationRequestRepository.REMOTE_IP, remoteIp);
+        }
+
+        return builder
+                .clientId(clientRegistration.getClientId())
+                .authorizationUri(clientRegistration.getProviderDetails().getAuthorizationUri())
+                .redirectUri(expandRedirectUri(exchange, clientRegistration))
+                .scopes(clientRegistration.getScopes())
+                .state(this.stateGenerator.generateKey())
+                .additionalParameters(additionalParameters)
+                .attributes(attributes)
+                .build();
+    }
+
+    private String expandRedirectUri(ServerWebExchange exchange, ClientRegistration clientRegistration) {
+        // Supported URI variables -> baseUrl, action, registrationId
+        Map<String, String> uriVariables = new HashMap<>();
+        uriVariables.put("registrationId", clientRegistration.getRegistrationId());
+        String baseUrl = UriComponentsBuilder.fromUri(exchange.getRequest().getURI())
+                .replaceQuery(null)
+                .fragment(null)
+                .replacePath(exchange.getRequest().getPath().contextPath().value())
+                .build()
+                .toUriString();
+        uriVariables.put("baseUrl", baseUrl);
+        uriVariables.put("action", "login");
+        return UriComponentsBuilder.fromUriString(clientRegistration.getRedirectUri())
+                .buildAndExpand(uriVariables)
+                .toUriString();
+    }
+}
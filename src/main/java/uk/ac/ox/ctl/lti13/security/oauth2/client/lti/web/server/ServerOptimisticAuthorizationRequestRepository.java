@@ -0,0 +1,76 @@
+package uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.server;
+
+import org.springframework.http.ResponseCookie;
+import org.springframework.security.oauth2.client.web.server.ServerAuthorizationRequestRepository;
+import org.springframework.security.oauth2.core.endpoint.OAuth2AuthorizationRequest;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.OptimisticAuthorizationRequestRepository;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * The reactive version of {@link OptimisticAuthorizationRequestRepository}. Requests are stored in the session and
+ * by state, when the request is found in the session we mark the browser as having a working session so that later
+ * launches can just use plain redirects.
+ */
+public class ServerOptimisticAuthorizationRequestRepository implements ServerAuthorizationRequestRepository<OAuth2AuthorizationRequest> {
+
+    public static final String ATTRIBUTE_NAME = OptimisticAuthorizationRequestRepository.ATTRIBUTE_NAME;
+    private static final String COOKIE_NAME = "WORKING_COOKIES";
+
+    private final ServerAuthorizationRequestRepository<OAuth2AuthorizationRequest> sessionBased;
+    private final ServerAuthorizationRequestRepository<OAuth2AuthorizationRequest> stateBased;
+
+    public ServerOptimisticAuthorizationRequestRepository(ServerAuthorizationRequestRepository<OAuth2AuthorizationRequest> sessionBased, ServerAuthorizationRequestRepository<OAuth2AuthorizationRequest> stateBased) {
+        this.sessionBased = sessionBased;
+        this.stateBased = stateBased;
+    }
+
+    public boolean hasWorkingSession(ServerWebExchange exchange) {
+        // We don't want to wait for the next request to use the session, so as well as looking for cookies we
+        // check for an attribute on the exchange.
+        if (exchange.getAttribute(ATTRIBUTE_NAME) != null) {
+            return true;
+        }
+        return exchange.getRequest().getCookies().containsKey(COOKIE_NAME);
+    }
+
+    public void setWorkingSession(ServerWebExchange exchange) {
+        // We set our own cookie here because the session is only limited to a short period of time
+        // but we would like to use a session even after the original has expired.
+        ResponseCookie cookie = ResponseCookie.from(COOKIE_NAME, "true")
+                .httpOnly(true)
+                .secure(true)
+                .path("/")
+                .maxAge(Duration.ofDays(356))
+                .build();
+        exchange.getResponse().addCookie(cookie);
+        // Mark the current exchange as having a working session.
+        exchange.getAttributes().put(ATTRIBUTE_NAME, true);
+    }
+
+    @Override
+    public Mono<OAuth2AuthorizationRequest> loadAuthorizationRequest(ServerWebExchange exchange) {
+        return sessionBased.loadAuthorizationRequest(exchange)
+                .switchIfEmpty(Mono.defer(() -> stateBased.loadAuthorizationRequest(exchange)));
+    }
+
+    @Override
+    public Mono<Void> saveAuthorizationRequest(OAuth2AuthorizationRequest authorizationRequest, ServerWebExchange exchange) {
+        Mono<Void> stateSave = hasWorkingSession(exchange) ? Mono.empty() : stateBased.saveAuthorizationRequest(authorizationRequest, exchange);
+        return stateSave.then(Mono.defer(() -> sessionBased.saveAuthorizationRequest(authorizationRequest, exchange)));
+    }
+
+    @Override
+    public Mono<OAuth2AuthorizationRequest> removeAuthorizationRequest(ServerWebExchange exchange) {
+        return stateBased.removeAuthorizationRequest(exchange)
+                .map(Optional::of)
+                .defaultIfEmpty(Optional.empty())
+                .flatMap(stateRequest -> sessionBased.removeAuthorizationRequest(exchange)
+                        // Prioritise the one from the session, and mark that we got the state from the cookie.
+                        .doOnNext(sessionRequest -> setWorkingSession(exchange))
+                        .switchIfEmpty(Mono.justOrEmpty(stateRequest)));
+    }
+}
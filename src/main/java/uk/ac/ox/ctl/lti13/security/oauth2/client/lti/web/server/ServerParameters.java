@@ -0,0 +1,42 @@
+package uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.server;
+
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Platforms may send LTI requests as either a GET or a form POST, so this gives the same view of the parameters as
+ * {@code HttpServletRequest.getParameter()} does.
+ */
+final class ServerParameters {
+
+    /**
+     * @param exchange The exchange to get the parameters for.
+     * @return The query parameters followed by any form parameters.
+     */
+    static Mono<MultiValueMap<String, String>> get(ServerWebExchange exchange) {
+        // The form data is cached by the exchange so this can be called multiple times.
+        return exchange.getFormData().map(formData -> {
+            MultiValueMap<String, String> parameters = new LinkedMultiValueMap<>(exchange.getRequest().getQueryParams());
+            formData.forEach(parameters::addAll);
+            return parameters;
+        });
+    }
+
+    /**
+     * @param exchange The exchange to get the remote IP for.
+     * @return The IP address of the client or null if it isn't known.
+     */
+    static String remoteIp(ServerWebExchange exchange) {
+        InetSocketAddress remoteAddress = exchange.getRequest().getRemoteAddress();
+        if (remoteAddress == null || remoteAddress.getAddress() == null) {
+            return null;
+        }
+        return remoteAddress.getAddress().getHostAddress();
+    }
+
+    private ServerParameters() {}
+}
@@ -0,0 +1,54 @@
+package uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.server;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.security.oauth2.core.endpoint.OAuth2AuthorizationRequest;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.StateAuthorizationRedirectHandler;
+import uk.ac.ox.ctl.lti13.utils.StringReader;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The reactive version of {@link StateAuthorizationRedirectHandler}, this saves the state and nonce in the
+ * platform's storage before sending the user off to the platform.
+ */
+public class ServerStateAuthorizationRedirectHandler {
+
+	private static final MediaType TEXT_HTML_UTF8 = new MediaType(MediaType.TEXT_HTML, StandardCharsets.UTF_8);
+
+	private final JsonStringEncoder encoder = JsonStringEncoder.getInstance();
+	private final String htmlTemplate;
+
+	public ServerStateAuthorizationRedirectHandler() {
+		this("/uk/ac/ox/ctl/lti13/step-1-redirect.html");
+	}
+
+	public ServerStateAuthorizationRedirectHandler(String name) {
+		try {
+			htmlTemplate = StringReader.readString(getClass().getResourceAsStream(name));
+		} catch (IOException e) {
+			throw new IllegalStateException("Failed to read "+ name, e);
+		}
+	}
+
+	public Mono<Void> sendRedirect(ServerWebExchange exchange, OAuth2AuthorizationRequest authorizationRequest) {
+		String state = new String(encoder.quoteAsString(authorizationRequest.getState()));
+		String nonce = new String(encoder.quoteAsString((String) authorizationRequest.getAdditionalParameters().get("nonce")));
+		String body = htmlTemplate
+				.replaceFirst("@@state@@", state)
+				.replaceFirst("@@url@@", authorizationRequest.getAuthorizationRequestUri())
+				.replaceFirst("@@nonce@@", nonce);
+		return writeHtml(exchange.getResponse(), body);
+	}
+
+	static Mono<Void> writeHtml(ServerHttpResponse response, String body) {
+		response.getHeaders().setContentType(TEXT_HTML_UTF8);
+		DataBuffer buffer = response.bufferFactory().wrap(body.getBytes(StandardCharsets.UTF_8));
+		return response.writeWith(Mono.just(buffer));
+	}
+}
@@ -0,0 +1,96 @@
+package uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.server;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.springframework.security.oauth2.client.web.server.ServerAuthorizationRequestRepository;
+import org.springframework.security.oauth2.core.endpoint.OAuth2AuthorizationRequest;
+import org.springframework.security.oauth2.core.endpoint.OAuth2ParameterNames;
+import org.springframework.util.Assert;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.StateAuthorizationRequestRepository;
+
+import java.time.Duration;
+import java.util.function.BiConsumer;
+
+/**
+ * The reactive version of {@link StateAuthorizationRequestRepository}. This store uses the state value in the initial
+ * request to lookup the request when the client returns, the remote IP address is also checked to limit CSRF attacks.
+ */
+public final class ServerStateAuthorizationRequestRepository implements ServerAuthorizationRequestRepository<OAuth2AuthorizationRequest> {
+
+    // The cache of request in flight
+    private final Cache<String, OAuth2AuthorizationRequest> store;
+
+    // Should we limit the login to a single IP address.
+    private boolean limitIpAddress = true;
+
+    // The handler to be called when an IP address mismatch is detected, by default this doesn't do anything.
+    private BiConsumer<String, String> ipMismatchHandler = (a,b) -> {};
+
+    public ServerStateAuthorizationRequestRepository(Duration duration) {
+        store = CacheBuilder.newBuilder()
+                .expireAfterAccess(duration)
+                .build();
+    }
+
+    public void setLimitIpAddress(boolean limitIpAddress) {
+        this.limitIpAddress = limitIpAddress;
+    }
+
+    public void setIpMismatchHandler(BiConsumer<String, String> ipMismatchHandler) {
+        this.ipMismatchHandler = ipMismatchHandler;
+    }
+
+    @Override
+    public Mono<OAuth2AuthorizationRequest> loadAuthorizationRequest(ServerWebExchange exchange) {
+        return getState(exchange).flatMap(state -> Mono.justOrEmpty(load(exchange, state)));
+    }
+
+    @Override
+    public Mono<Void> saveAuthorizationRequest(OAuth2AuthorizationRequest authorizationRequest, ServerWebExchange exchange) {
+        Assert.notNull(exchange, "exchange cannot be null");
+        if (authorizationRequest == null) {
+            return removeAuthorizationRequest(exchange).then();
+        }
+        String state = authorizationRequest.getState();
+        Assert.hasText(state, "authorizationRequest.state cannot be empty");
+        return Mono.fromRunnable(() -> store.put(state, authorizationRequest));
+    }
+
+    @Override
+    public Mono<OAuth2AuthorizationRequest> removeAuthorizationRequest(ServerWebExchange exchange) {
+        return getState(exchange).flatMap(state -> {
+            OAuth2AuthorizationRequest authorizationRequest = load(exchange, state);
+            if (authorizationRequest != null) {
+                store.invalidate(state);
+            }
+            return Mono.justOrEmpty(authorizationRequest);
+        });
+    }
+
+    private OAuth2AuthorizationRequest load(ServerWebExchange exchange, String state) {
+        OAuth2AuthorizationRequest authorizationRequest = store.getIfPresent(state);
+        if (authorizationRequest != null) {
+            // The IP address from the initial request
+            String initialIp = authorizationRequest.getAttribute(StateAuthorizationRequestRepository.REMOTE_IP);
+            if (initialIp != null) {
+                String requestIp = ServerParameters.remoteIp(exchange);
+                if (!initialIp.equals(requestIp)) {
+                    // Even if we aren't limiting IP address we call the consumer.
+                    ipMismatchHandler.accept(initialIp, requestIp);
+                    if (limitIpAddress) {
+                        return null;
+                    }
+                }
+            }
+        }
+        return authorizationRequest;
+    }
+
+    private Mono<String> getState(ServerWebExchange exchange) {
+        Assert.notNull(exchange, "exchange cannot be null");
+        return ServerParameters.get(exchange)
+                .flatMap(parameters -> Mono.justOrEmpty(parameters.getFirst(OAuth2ParameterNames.STATE)));
+    }
+}
@@ -0,0 +1,97 @@
+package uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.server;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.oauth2.client.authentication.OAuth2AuthenticationToken;
+import org.springframework.security.oauth2.core.oidc.user.OidcUser;
+import org.springframework.security.web.server.DefaultServerRedirectStrategy;
+import org.springframework.security.web.server.ServerRedirectStrategy;
+import org.springframework.security.web.server.WebFilterExchange;
+import org.springframework.security.web.server.authentication.ServerAuthenticationSuccessHandler;
+import org.springframework.util.Assert;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+import uk.ac.ox.ctl.lti13.lti.Claims;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.authentication.OidcAuthenticationToken;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.authentication.TargetLinkUriAuthenticationSuccessHandler;
+import uk.ac.ox.ctl.lti13.utils.StringReader;
+
+import java.io.IOException;
+import java.net.URI;
+
+/**
+ * The reactive version of {@link TargetLinkUriAuthenticationSuccessHandler}. This sends the user to the target link
+ * URI from the ID token, when there isn't a working session the state and nonce are first checked against the
+ * values saved in the platform's storage.
+ */
+public class ServerTargetLinkUriAuthenticationSuccessHandler implements ServerAuthenticationSuccessHandler {
+
+	private final Logger logger = LoggerFactory.getLogger(ServerTargetLinkUriAuthenticationSuccessHandler.class);
+
+	private final ServerRedirectStrategy redirectStrategy = new DefaultServerRedirectStrategy();
+	private final JsonStringEncoder encoder = JsonStringEncoder.getInstance();
+	private final ServerOptimisticAuthorizationRequestRepository authorizationRequestRepository;
+	private final String htmlTemplate;
+
+	private String defaultTargetUrl = "/";
+
+	/**
+	 * @param authorizationRequestRepository The repository holding authorization requests
+	 */
+	public ServerTargetLinkUriAuthenticationSuccessHandler(ServerOptimisticAuthorizationRequestRepository authorizationRequestRepository) {
+		this(authorizationRequestRepository, "/uk/ac/ox/ctl/lti13/step-3-redirect.html");
+	}
+
+	public ServerTargetLinkUriAuthenticationSuccessHandler(ServerOptimisticAuthorizationRequestRepository authorizationRequestRepository, String name) {
+		Assert.notNull(authorizationRequestRepository, "authorizationRequestRepository cannot be null");
+		this.authorizationRequestRepository = authorizationRequestRepository;
+		try {
+			htmlTemplate = StringReader.readString(getClass().getResourceAsStream(name));
+		} catch (IOException e) {
+			throw new IllegalStateException("Failed to read " + name, e);
+		}
+	}
+
+	/**
+	 * @param defaultTargetUrl The URL to send the user to if there isn't a target link URI in the token.
+	 */
+	public void setDefaultTargetUrl(String defaultTargetUrl) {
+		Assert.hasText(defaultTargetUrl, "defaultTargetUrl cannot be empty");
+		this.defaultTargetUrl = defaultTargetUrl;
+	}
+
+	@Override
+	public Mono<Void> onAuthenticationSuccess(WebFilterExchange webFilterExchange, Authentication authentication) {
+		ServerWebExchange exchange = webFilterExchange.getExchange();
+		String targetUrl = determineTargetUrl(authentication);
+		// If we got this from the Session then just redirect
+		if (authorizationRequestRepository.hasWorkingSession(exchange)) {
+			return redirectStrategy.sendRedirect(exchange, URI.create(targetUrl));
+		}
+		if (!(authentication instanceof OidcAuthenticationToken oidcAuthenticationToken)) {
+			logger.debug("Authentication should be OidcAuthenticationToken. Unable to redirect to {}", targetUrl);
+			return Mono.empty();
+		}
+		String state = new String(encoder.quoteAsString(oidcAuthenticationToken.getState()));
+		String nonce = new String(encoder.quoteAsString(((OidcUser) oidcAuthenticationToken.getPrincipal()).getIdToken().getNonce()));
+		return ServerStateAuthorizationRedirectHandler.writeHtml(exchange.getResponse(), htmlTemplate
+				.replaceFirst("@@state@@", state)
+				.replaceFirst("@@url@@", targetUrl)
+				.replaceFirst("@@nonce@@", nonce)
+		);
+	}
+
+	protected String determineTargetUrl(Authentication authentication) {
+		if (authentication instanceof OAuth2AuthenticationToken token) {
+			// https://www.imsglobal.org/spec/lti/v1p3/#target-link-uri says we should only trust this and not
+			// the parameter passed in on the initial login initiation request.
+			String targetLink = token.getPrincipal().getAttribute(Claims.TARGET_LINK_URI);
+			if (targetLink != null && !targetLink.isEmpty()) {
+				return targetLink;
+			}
+		}
+		return defaultTargetUrl;
+	}
+}
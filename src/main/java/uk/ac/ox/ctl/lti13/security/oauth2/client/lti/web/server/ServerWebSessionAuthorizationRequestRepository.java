@@ -0,0 +1,85 @@
+package uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.server;
+
+import org.springframework.security.oauth2.client.web.server.ServerAuthorizationRequestRepository;
+import org.springframework.security.oauth2.client.web.server.WebSessionOAuth2ServerAuthorizationRequestRepository;
+import org.springframework.security.oauth2.core.endpoint.OAuth2AuthorizationRequest;
+import org.springframework.security.oauth2.core.endpoint.OAuth2ParameterNames;
+import org.springframework.util.Assert;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebSession;
+import reactor.core.publisher.Mono;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.AuthorizationRequests;
+
+/**
+ * Stores authorization requests in the {@link WebSession}. We don't use
+ * {@link WebSessionOAuth2ServerAuthorizationRequestRepository} as that only looks for the state in the query string
+ * and LTI returns it in a form post. Multiple launches can be in progress at once (eg several tools on one page) so
+ * the session holds a small number of requests keyed by state in an {@link AuthorizationRequests}, which the
+ * concurrent launches can change without any locking.
+ */
+public final class ServerWebSessionAuthorizationRequestRepository implements ServerAuthorizationRequestRepository<OAuth2AuthorizationRequest> {
+
+    private static final String SESSION_ATTRIBUTE_NAME =
+            ServerWebSessionAuthorizationRequestRepository.class.getName() + ".AUTHORIZATION_REQUEST";
+
+    // The maximum number of requests to keep in a single session, the oldest ones are removed first.
+    private int maxRequests = 10;
+
+    public void setMaxRequests(int maxRequests) {
+        Assert.isTrue(maxRequests > 0, "maxRequests must be positive");
+        this.maxRequests = maxRequests;
+    }
+
+    @Override
+    public Mono<OAuth2AuthorizationRequest> loadAuthorizationRequest(ServerWebExchange exchange) {
+        return getState(exchange)
+                .flatMap(state -> exchange.getSession()
+                        .flatMap(session -> Mono.justOrEmpty(getRequests(session, false))
+                                .flatMap(requests -> Mono.justOrEmpty((OAuth2AuthorizationRequest) requests.get(state)))));
+    }
+
+    @Override
+    public Mono<Void> saveAuthorizationRequest(OAuth2AuthorizationRequest authorizationRequest, ServerWebExchange exchange) {
+        Assert.notNull(exchange, "exchange cannot be null");
+        if (authorizationRequest == null) {
+            return removeAuthorizationRequest(exchange).then();
+        }
+        String state = authorizationRequest.getState();
+        Assert.hasText(state, "authorizationRequest.state cannot be empty");
+        return exchange.getSession()
+                .doOnNext(session -> getRequests(session, true).put(state, authorizationRequest, maxRequests))
+                .then();
+    }
+
+    @Override
+    public Mono<OAuth2AuthorizationRequest> removeAuthorizationRequest(ServerWebExchange exchange) {
+        return getState(exchange)
+                .flatMap(state -> exchange.getSession()
+                        .flatMap(session -> {
+                            AuthorizationRequests requests = getRequests(session, false);
+                            if (requests == null) {
+                                return Mono.empty();
+                            }
+                            return Mono.justOrEmpty((OAuth2AuthorizationRequest) requests.remove(state));
+                        }));
+    }
+
+    private AuthorizationRequests getRequests(WebSession session, boolean create) {
+        Object requests = session.getAttribute(SESSION_ATTRIBUTE_NAME);
+        if (requests instanceof AuthorizationRequests authorizationRequests) {
+            return authorizationRequests;
+        }
+        if (!create) {
+            return null;
+        }
+        // Nothing is stored yet, or there's a map from before the requests were stored like this.
+        return (AuthorizationRequests) session.getAttributes().compute(SESSION_ATTRIBUTE_NAME, (name, existing) ->
+                existing instanceof AuthorizationRequests ? existing : new AuthorizationRequests());
+    }
+
+    private Mono<String> getState(ServerWebExchange exchange) {
+        Assert.notNull(exchange, "exchange cannot be null");
+        return ServerParameters.get(exchange)
+                .flatMap(parameters -> Mono.justOrEmpty(parameters.getFirst(OAuth2ParameterNames.STATE)));
+    }
+}
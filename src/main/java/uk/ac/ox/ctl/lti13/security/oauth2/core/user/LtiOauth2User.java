@@ -2,17 +2,32 @@ package uk.ac.ox.ctl.lti13.security.oauth2.core.user;
 
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.oauth2.core.oidc.IdTokenClaimNames;
 import org.springframework.security.oauth2.core.oidc.OidcIdToken;
 import org.springframework.security.oauth2.core.oidc.OidcUserInfo;
 import org.springframework.security.oauth2.core.oidc.user.OidcUser;
+import org.springframework.security.oauth2.core.oidc.user.OidcUserAuthority;
 import org.springframework.util.Assert;
+import uk.ac.ox.ctl.lti13.lti.Claims;
+import uk.ac.ox.ctl.lti13.lti.LtiLaunch;
+import uk.ac.ox.ctl.lti13.nrps.LtiScopes;
 
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
@@ -21,14 +36,36 @@ import java.util.TreeSet;
 /**
  * LTI launches can happen when there isn't a user logged in. In this situation
  * there isn't a subject claim and so we need to support this.
+ * <p>
+ * When serialized (for example when the security context is kept in the HTTP session) the claims are written in a
+ * compact binary form rather than as Java objects. To make it smaller still only some of the claims can be kept,
+ * see {@link #retainClaims(OidcIdToken, Collection)}.
  */
 public class LtiOauth2User implements OidcUser, Serializable {
-    
+
+    // The value computed for the class before it had a serialized form so that sessions written then can still be read.
+    private static final long serialVersionUID = 2869478448754320051L;
+
     public static final String ANONYMOUS = "anonymous";
 
+    /**
+     * The token value of an ID token that only has some of the claims, the signed JWT isn't kept as it has all of them.
+     */
+    public static final String RETAINED_CLAIMS_TOKEN_VALUE = "retained-claims";
+
+    // These are always kept so the ID token is still valid and the parts of this library that run after the
+    // authentication (the success handlers and the services) still work.
+    private static final Set<String> ALWAYS_RETAINED_CLAIMS = Set.of(
+            IdTokenClaimNames.ISS, IdTokenClaimNames.SUB, IdTokenClaimNames.AUD, IdTokenClaimNames.EXP, IdTokenClaimNames.IAT,
+            IdTokenClaimNames.NONCE, Claims.TARGET_LINK_URI, Claims.LTI_DEPLOYMENT_ID, Claims.RESOURCE_LINK,
+            Claims.DEEP_LINKING_SETTINGS, LtiScopes.LTI_NRPS_CLAIM, LtiScopes.LTI_AGS_CLAIM
+    );
+
     private final OidcIdToken idToken;
     private final Set<GrantedAuthority> authorities;
     private final String nameAttributeKey;
+    // Created when it's first needed, it's rebuilt from the claims after deserialization.
+    private transient volatile LtiLaunch launch;
 
     public LtiOauth2User(Collection<? extends GrantedAuthority> authorities, OidcIdToken idToken) {
         this(authorities, idToken, IdTokenClaimNames.SUB);
@@ -87,4 +124,287 @@ public class LtiOauth2User implements OidcUser, Serializable {
     public Collection<? extends GrantedAuthority> getAuthorities() {
         return authorities;
     }
+
+    /**
+     * @return A typed view of the LTI claims, this is only created once.
+     */
+    public LtiLaunch getLaunch() {
+        LtiLaunch launch = this.launch;
+        if (launch == null) {
+            // If two threads get here at once they each create an equivalent view, which is harmless.
+            launch = LtiLaunch.from(getClaims());
+            this.launch = launch;
+        }
+        return launch;
+    }
+
+    /**
+     * Creates a copy of the ID token with only some of the claims, this is useful when the principal is stored in an
+     * external session as most of the claims of a launch aren't needed after it. The issuer, subject, audience, times
+     * and nonce are always kept, as are the claims this library reads after the launch (the target link URI,
+     * deployment ID, resource link, deep linking settings and the names and roles and assignment and grade service
+     * endpoints). The token value of the copy is {@link #RETAINED_CLAIMS_TOKEN_VALUE}.
+     *
+     * @param idToken the validated ID token
+     * @param claims the names of the claims to keep
+     * @return a copy of the ID token with just those claims
+     */
+    public static OidcIdToken retainClaims(OidcIdToken idToken, Collection<String> claims) {
+        Map<String, Object> retained = new LinkedHashMap<>();
+        idToken.getClaims().forEach((name, value) -> {
+            if (ALWAYS_RETAINED_CLAIMS.contains(name) || claims.contains(name)) {
+                retained.put(name, value);
+            }
+        });
+        return new OidcIdToken(RETAINED_CLAIMS_TOKEN_VALUE, idToken.getIssuedAt(), idToken.getExpiresAt(), retained);
+    }
+
+    /**
+     * Swaps the full ID token for the retained copy in the authorities for a launch. This includes any
+     * {@link OidcUserAuthority} a {@link org.springframework.security.core.authority.mapping.GrantedAuthoritiesMapper}
+     * built from the full ID token, otherwise it would still be stored with all the claims.
+     *
+     * @param authorities the mapped authorities
+     * @param idToken the validated ID token
+     * @param retained the copy from {@link #retainClaims(OidcIdToken, Collection)}
+     * @return the authorities, with the retained copy of the ID token
+     */
+    public static List<GrantedAuthority> retainClaims(Collection<? extends GrantedAuthority> authorities, OidcIdToken idToken, OidcIdToken retained) {
+        List<GrantedAuthority> retainedAuthorities = new ArrayList<>(authorities.size());
+        for (GrantedAuthority authority : authorities) {
+            if (authority instanceof OidcUserAuthority oidcUserAuthority
+                    && oidcUserAuthority.getIdToken().getTokenValue().equals(idToken.getTokenValue())) {
+                retainedAuthorities.add(new OidcUserAuthority(authority.getAuthority(), retained, oidcUserAuthority.getUserInfo()));
+            } else {
+                retainedAuthorities.add(authority);
+            }
+        }
+        return retainedAuthorities;
+    }
+
+    private Object writeReplace() {
+        return new SerializedForm(this);
+    }
+
+    /**
+     * The serialized form, the claims are written with a small tagged encoding and the {@link OidcUserAuthority}
+     * for the ID token is rebuilt rather than writing the ID token a second time. Values that aren't JSON types are
+     * written as Java objects.
+     */
+    private static final class SerializedForm implements Externalizable {
+
+        private static final long serialVersionUID = 1L;
+        private static final int VERSION = 1;
+
+        private static final int NULL = 0;
+        private static final int STRING = 1;
+        private static final int TRUE = 2;
+        private static final int FALSE = 3;
+        private static final int LONG = 4;
+        private static final int INTEGER = 5;
+        private static final int DOUBLE = 6;
+        private static final int INSTANT = 7;
+        private static final int LIST = 8;
+        private static final int MAP = 9;
+        private static final int OBJECT = 10;
+
+        private static final int ID_TOKEN_AUTHORITY = 0;
+        private static final int SIMPLE_AUTHORITY = 1;
+        private static final int OTHER_AUTHORITY = 2;
+
+        private LtiOauth2User user;
+
+        public SerializedForm() {
+        }
+
+        SerializedForm(LtiOauth2User user) {
+            this.user = user;
+        }
+
+        @Override
+        public void writeExternal(ObjectOutput out) throws IOException {
+            OidcIdToken idToken = user.idToken;
+            out.writeByte(VERSION);
+            writeString(out, user.nameAttributeKey);
+            writeString(out, idToken.getTokenValue());
+            writeValue(out, idToken.getIssuedAt());
+            writeValue(out, idToken.getExpiresAt());
+            writeValue(out, idToken.getClaims());
+            writeLength(out, user.authorities.size());
+            for (GrantedAuthority authority : user.authorities) {
+                if (authority instanceof OidcUserAuthority oidcUserAuthority && oidcUserAuthority.getIdToken() == idToken
+                        && oidcUserAuthority.getUserInfo() == null) {
+                    out.writeByte(ID_TOKEN_AUTHORITY);
+                    writeString(out, authority.getAuthority());
+                } else if (authority instanceof SimpleGrantedAuthority) {
+                    out.writeByte(SIMPLE_AUTHORITY);
+                    writeString(out, authority.getAuthority());
+                } else {
+                    out.writeByte(OTHER_AUTHORITY);
+                    out.writeObject(authority);
+                }
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+            int version = in.readUnsignedByte();
+            if (version != VERSION) {
+                throw new InvalidObjectException("Unknown version: " + version);
+            }
+            String nameAttributeKey = readString(in);
+            String tokenValue = readString(in);
+            Instant issuedAt = (Instant) readValue(in);
+            Instant expiresAt = (Instant) readValue(in);
+            Map<String, Object> claims = (Map<String, Object>) readValue(in);
+            OidcIdToken idToken = new OidcIdToken(tokenValue, issuedAt, expiresAt, claims);
+            int size = readLength(in);
+            List<GrantedAuthority> authorities = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                int type = in.readUnsignedByte();
+                switch (type) {
+                    case ID_TOKEN_AUTHORITY -> authorities.add(new OidcUserAuthority(readString(in), idToken, null));
+                    case SIMPLE_AUTHORITY -> authorities.add(new SimpleGrantedAuthority(readString(in)));
+                    case OTHER_AUTHORITY -> authorities.add((GrantedAuthority) in.readObject());
+                    default -> throw new InvalidObjectException("Unknown authority type: " + type);
+                }
+            }
+            this.user = new LtiOauth2User(authorities, idToken, nameAttributeKey);
+        }
+
+        private Object readResolve() {
+            return user;
+        }
+
+        private static void writeValue(ObjectOutput out, Object value) throws IOException {
+            if (value == null) {
+                out.writeByte(NULL);
+            } else if (value instanceof String string) {
+                out.writeByte(STRING);
+                writeString(out, string);
+            } else if (value instanceof Boolean bool) {
+                out.writeByte(bool ? TRUE : FALSE);
+            } else if (value instanceof Long number) {
+                out.writeByte(LONG);
+                out.writeLong(number);
+            } else if (value instanceof Integer number) {
+                out.writeByte(INTEGER);
+                out.writeInt(number);
+            } else if (value instanceof Double number) {
+                out.writeByte(DOUBLE);
+                out.writeDouble(number);
+            } else if (value instanceof Instant instant) {
+                out.writeByte(INSTANT);
+                out.writeLong(instant.getEpochSecond());
+                out.writeInt(instant.getNano());
+            } else if (value instanceof List<?> list) {
+                out.writeByte(LIST);
+                writeLength(out, list.size());
+                for (Object item : list) {
+                    writeValue(out, item);
+                }
+            } else if (value instanceof Map<?, ?> map && hasStringKeys(map)) {
+                out.writeByte(MAP);
+                writeLength(out, map.size());
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    writeString(out, (String) entry.getKey());
+                    writeValue(out, entry.getValue());
+                }
+            } else {
+                out.writeByte(OBJECT);
+                out.writeObject(value);
+            }
+        }
+
+        private static Object readValue(ObjectInput in) throws IOException, ClassNotFoundException {
+            int type = in.readUnsignedByte();
+            switch (type) {
+                case NULL:
+                    return null;
+                case STRING:
+                    return readString(in);
+                case TRUE:
+                    return Boolean.TRUE;
+                case FALSE:
+                    return Boolean.FALSE;
+                case LONG:
+                    return in.readLong();
+                case INTEGER:
+                    return in.readInt();
+                case DOUBLE:
+                    return in.readDouble();
+                case INSTANT:
+                    return Instant.ofEpochSecond(in.readLong(), in.readInt());
+                case LIST: {
+                    int size = readLength(in);
+                    List<Object> list = new ArrayList<>(size);
+                    for (int i = 0; i < size; i++) {
+                        list.add(readValue(in));
+                    }
+                    return list;
+                }
+                case MAP: {
+                    int size = readLength(in);
+                    Map<String, Object> map = new LinkedHashMap<>();
+                    for (int i = 0; i < size; i++) {
+                        String key = readString(in);
+                        map.put(key, readValue(in));
+                    }
+                    return map;
+                }
+                case OBJECT:
+                    return in.readObject();
+                default:
+                    throw new InvalidObjectException("Unknown value type: " + type);
+            }
+        }
+
+        private static boolean hasStringKeys(Map<?, ?> map) {
+            for (Object key : map.keySet()) {
+                if (!(key instanceof String)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static void writeString(ObjectOutput out, String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeLength(out, bytes.length);
+            out.write(bytes);
+        }
+
+        private static String readString(ObjectInput in) throws IOException {
+            byte[] bytes = new byte[readLength(in)];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        // A variable length int, so most lengths only need a single byte.
+        private static void writeLength(ObjectOutput out, int length) throws IOException {
+            while ((length & ~0x7F) != 0) {
+                out.writeByte((length & 0x7F) | 0x80);
+                length >>>= 7;
+            }
+            out.writeByte(length);
+        }
+
+        private static int readLength(ObjectInput in) throws IOException {
+            int length = 0;
+            for (int shift = 0; ; shift += 7) {
+                if (shift > 28) {
+                    throw new InvalidObjectException("Malformed length");
+                }
+                int b = in.readUnsignedByte();
+                length |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    if (length < 0) {
+                        throw new InvalidObjectException("Malformed length");
+                    }
+                    return length;
+                }
+            }
+        }
+    }
 }
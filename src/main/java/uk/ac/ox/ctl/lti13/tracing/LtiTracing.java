@@ -0,0 +1,68 @@
+package uk.ac.ox.ctl.lti13.tracing;
+
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.Tracer;
+import uk.ac.ox.ctl.lti13.TokenRetriever;
+import uk.ac.ox.ctl.lti13.nrps.NamesRoleService;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.authentication.OidcLaunchFlowAuthenticationProvider;
+
+/**
+ * Adds tracing to the calls we make to the platform. These should be done before anything else is added so the
+ * spans cover the other interceptors.
+ */
+public final class LtiTracing {
+
+    /**
+     * Getting an access token from the platform's token endpoint.
+     */
+    public static final String TOKEN_SPAN = "lti.token";
+    /**
+     * Signing the client assertion for an access token request, this isn't recorded when the assertion comes from
+     * the {@link uk.ac.ox.ctl.lti13.ClientAssertionPool}.
+     */
+    public static final String TOKEN_SIGN_SPAN = "lti.token.sign";
+    /**
+     * Fetching a page of members from the names and roles service.
+     */
+    public static final String NRPS_SPAN = "lti.nrps.page";
+    /**
+     * Fetching the platform's JWK Set to verify an ID token.
+     */
+    public static final String JWKS_SPAN = "lti.jwks";
+
+    static final AttributeKey<String> REGISTRATION_ID = AttributeKey.stringKey("lti.registration_id");
+
+    private LtiTracing() {
+    }
+
+    public static void instrument(OpenTelemetry openTelemetry, TokenRetriever tokenRetriever) {
+        tokenRetriever.addInterceptor(new TracingInterceptor(openTelemetry, TOKEN_SPAN));
+        Tracer tracer = openTelemetry.getTracer(TracingInterceptor.INSTRUMENTATION_NAME);
+        tokenRetriever.setSigningListener(registrationId -> {
+            Span span = tracer.spanBuilder(TOKEN_SIGN_SPAN)
+                    .setAttribute(REGISTRATION_ID, registrationId)
+                    .startSpan();
+            return failure -> {
+                if (failure != null) {
+                    span.recordException(failure);
+                    span.setStatus(StatusCode.ERROR, failure.getMessage());
+                }
+                span.end();
+            };
+        });
+    }
+
+    public static void instrument(OpenTelemetry openTelemetry, NamesRoleService namesRoleService) {
+        namesRoleService.addInterceptor(new TracingInterceptor(openTelemetry, NRPS_SPAN));
+    }
+
+    /**
+     * This must be done before the first authentication as the JWK Set is fetched when the decoders are created.
+     */
+    public static void instrument(OpenTelemetry openTelemetry, OidcLaunchFlowAuthenticationProvider provider) {
+        provider.addInterceptor(new TracingInterceptor(openTelemetry, JWKS_SPAN));
+    }
+}
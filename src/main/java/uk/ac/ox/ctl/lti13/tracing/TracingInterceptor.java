@@ -0,0 +1,133 @@
+package uk.ac.ox.ctl.lti13.tracing;
+
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.context.ContextKey;
+import io.opentelemetry.context.Scope;
+import io.opentelemetry.context.propagation.TextMapPropagator;
+import io.opentelemetry.context.propagation.TextMapSetter;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.util.Assert;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Wraps each request in a client span and propagates the trace context to the platform in the request headers.
+ * The span is current while the rest of the interceptors run (for example a
+ * {@link uk.ac.ox.ctl.lti13.resilience.ResilienceInterceptor}) so any spans they create are children of it. This should be the first interceptor added so that it covers the
+ * others, attributes follow the OpenTelemetry HTTP client conventions.
+ *
+ * @see LtiTracing
+ */
+public class TracingInterceptor implements ClientHttpRequestInterceptor {
+
+    static final String INSTRUMENTATION_NAME = "uk.ac.ox.ctl.lti13";
+
+    static final AttributeKey<String> HTTP_REQUEST_METHOD = AttributeKey.stringKey("http.request.method");
+    static final AttributeKey<String> URL_FULL = AttributeKey.stringKey("url.full");
+    static final AttributeKey<String> SERVER_ADDRESS = AttributeKey.stringKey("server.address");
+    static final AttributeKey<Long> SERVER_PORT = AttributeKey.longKey("server.port");
+    static final AttributeKey<Long> HTTP_REQUEST_BODY_SIZE = AttributeKey.longKey("http.request.body.size");
+    static final AttributeKey<Long> HTTP_RESPONSE_BODY_SIZE = AttributeKey.longKey("http.response.body.size");
+    static final AttributeKey<Long> HTTP_RESPONSE_STATUS_CODE = AttributeKey.longKey("http.response.status_code");
+    static final AttributeKey<Long> HTTP_REQUEST_RESEND_COUNT = AttributeKey.longKey("http.request.resend_count");
+    static final AttributeKey<String> ERROR_TYPE = AttributeKey.stringKey("error.type");
+
+    private static final ContextKey<AtomicInteger> RESEND_COUNT = ContextKey.named("lti-resend-count");
+    private static final TextMapSetter<HttpRequest> SETTER = (request, key, value) -> {
+        if (request != null) {
+            request.getHeaders().set(key, value);
+        }
+    };
+
+    private final Tracer tracer;
+    private final TextMapPropagator propagator;
+    private final String spanName;
+
+    /**
+     * @param openTelemetry Where to get the tracer and propagators from.
+     * @param spanName      The name of the spans, for example {@link LtiTracing#TOKEN_SPAN}.
+     */
+    public TracingInterceptor(OpenTelemetry openTelemetry, String spanName) {
+        Assert.notNull(openTelemetry, "openTelemetry cannot be null");
+        Assert.hasText(spanName, "spanName cannot be empty");
+        this.tracer = openTelemetry.getTracer(INSTRUMENTATION_NAME);
+        this.propagator = openTelemetry.getPropagators().getTextMapPropagator();
+        this.spanName = spanName;
+    }
+
+    /**
+     * Records that the request in the current span is being sent again. Retries happen inside the span so this
+     * is called by whatever is retrying the request (see {@link TracingRetryListener}).
+     */
+    public static void resent() {
+        AtomicInteger resends = Context.current().get(RESEND_COUNT);
+        if (resends != null) {
+            resends.incrementAndGet();
+        }
+    }
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution) throws IOException {
+        URI uri = request.getURI();
+        Span span = tracer.spanBuilder(spanName)
+                .setSpanKind(SpanKind.CLIENT)
+                .setAttribute(HTTP_REQUEST_METHOD, request.getMethod().name())
+                .setAttribute(URL_FULL, withoutQuery(uri))
+                .setAttribute(SERVER_ADDRESS, uri.getHost())
+                .setAttribute(SERVER_PORT, (long) port(uri))
+                .setAttribute(HTTP_REQUEST_BODY_SIZE, (long) body.length)
+                .startSpan();
+        AtomicInteger resends = new AtomicInteger();
+        Context context = Context.current().with(span).with(RESEND_COUNT, resends);
+        try (Scope ignored = context.makeCurrent()) {
+            propagator.inject(context, request, SETTER);
+            ClientHttpResponse response = execution.execute(request, body);
+            int status = response.getStatusCode().value();
+            span.setAttribute(HTTP_RESPONSE_STATUS_CODE, (long) status);
+            long contentLength = response.getHeaders().getContentLength();
+            if (contentLength >= 0) {
+                span.setAttribute(HTTP_RESPONSE_BODY_SIZE, contentLength);
+            }
+            if (status >= 400) {
+                span.setStatus(StatusCode.ERROR);
+                span.setAttribute(ERROR_TYPE, Integer.toString(status));
+            }
+            return response;
+        } catch (IOException | RuntimeException e) {
+            span.recordException(e);
+            span.setStatus(StatusCode.ERROR, e.getMessage());
+            span.setAttribute(ERROR_TYPE, e.getClass().getName());
+            throw e;
+        } finally {
+            if (resends.get() > 0) {
+                span.setAttribute(HTTP_REQUEST_RESEND_COUNT, (long) resends.get());
+            }
+            span.end();
+        }
+    }
+
+    // The query string can contain IDs from the platform, so we leave it out.
+    private static String withoutQuery(URI uri) {
+        String full = uri.toString();
+        int index = full.indexOf('?');
+        return index < 0 ? full : full.substring(0, index);
+    }
+
+    private static int port(URI uri) {
+        if (uri.getPort() != -1) {
+            return uri.getPort();
+        }
+        return "http".equalsIgnoreCase(uri.getScheme()) ? 80 : 443;
+    }
+}
@@ -0,0 +1,18 @@
+package uk.ac.ox.ctl.lti13.tracing;
+
+import org.springframework.http.HttpRequest;
+import uk.ac.ox.ctl.lti13.resilience.RetryListener;
+
+import java.time.Duration;
+
+/**
+ * Counts the retries made by a {@link uk.ac.ox.ctl.lti13.resilience.ResilienceInterceptor} on the span
+ * of the request.
+ */
+public class TracingRetryListener implements RetryListener {
+
+    @Override
+    public void onRetry(HttpRequest request, int attempt, Duration delay, String reason) {
+        TracingInterceptor.resent();
+    }
+}
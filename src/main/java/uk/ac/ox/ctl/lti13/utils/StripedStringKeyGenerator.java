@@ -0,0 +1,85 @@
+package uk.ac.ox.ctl.lti13.utils;
+
+import org.springframework.security.crypto.keygen.StringKeyGenerator;
+import org.springframework.util.Assert;
+
+import java.nio.charset.StandardCharsets;
+import java.security.DrbgParameters;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Generates random keys as URL safe Base64 without any padding, so they can be used as state and nonce values
+ * (the IMS LTI 1.3 validator doesn't allow {@code =} in the state).
+ * <p>
+ * Rather than all threads sharing a single {@link SecureRandom} there are several stripes each with their own
+ * DRBG and buffers, and each key is generated by a random stripe. This keeps the threads from waiting on each other
+ * when there are lots of launches at once, and unlike a thread local it doesn't create a new DRBG for every
+ * virtual thread.
+ */
+public class StripedStringKeyGenerator implements StringKeyGenerator {
+
+	private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+
+	private final Stripe[] stripes;
+
+	/**
+	 * Creates a generator of 128 bit keys.
+	 */
+	public StripedStringKeyGenerator() {
+		this(16);
+	}
+
+	/**
+	 * @param keyLength The number of random bytes in each key, the key is about a third longer once encoded.
+	 */
+	public StripedStringKeyGenerator(int keyLength) {
+		this(keyLength, Runtime.getRuntime().availableProcessors() * 2);
+	}
+
+	/**
+	 * @param keyLength The number of random bytes in each key.
+	 * @param stripes The number of DRBGs to spread the threads across.
+	 */
+	public StripedStringKeyGenerator(int keyLength, int stripes) {
+		Assert.isTrue(keyLength >= 8, "keyLength must be at least 8 bytes");
+		Assert.isTrue(stripes > 0, "stripes must be at least 1");
+		this.stripes = new Stripe[stripes];
+		for (int i = 0; i < stripes; i++) {
+			this.stripes[i] = new Stripe(keyLength);
+		}
+	}
+
+	@Override
+	public String generateKey() {
+		Stripe stripe = stripes[ThreadLocalRandom.current().nextInt(stripes.length)];
+		synchronized (stripe) {
+			stripe.random.nextBytes(stripe.key);
+			int length = ENCODER.encode(stripe.key, stripe.encoded);
+			return new String(stripe.encoded, 0, length, StandardCharsets.ISO_8859_1);
+		}
+	}
+
+	private static SecureRandom createRandom() {
+		try {
+			// No prediction resistance so it only reseeds itself when the DRBG needs to, rather than on each call.
+			return SecureRandom.getInstance("DRBG",
+					DrbgParameters.instantiation(256, DrbgParameters.Capability.RESEED_ONLY, null));
+		} catch (NoSuchAlgorithmException e) {
+			return new SecureRandom();
+		}
+	}
+
+	private static final class Stripe {
+		private final SecureRandom random = createRandom();
+		private final byte[] key;
+		private final byte[] encoded;
+
+		private Stripe(int keyLength) {
+			this.key = new byte[keyLength];
+			this.encoded = new byte[(keyLength * 4 + 2) / 3];
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package uk.ac.ox.ctl.lti13;
+
+import com.google.common.base.Ticker;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.client.registration.ClientRegistrationRepository;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.LTIAuthorizationGrantType;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class CachingClientRegistrationRepositoryTest {
+
+    private final AtomicInteger lookups = new AtomicInteger();
+    private final AtomicLong now = new AtomicLong();
+    private ClientRegistration registration;
+    private CachingClientRegistrationRepository repository;
+
+    @BeforeEach
+    public void setUp() {
+        registration = ClientRegistration.withRegistrationId("test")
+                .clientId("test-id")
+                .authorizationGrantType(LTIAuthorizationGrantType.IMPLICIT)
+                .scope("openid")
+                .redirectUri("{baseUrl}/lti/login")
+                .authorizationUri("https://platform.test/auth")
+                .tokenUri("https://platform.test/token")
+                .jwkSetUri("https://platform.test/keys.json")
+                .build();
+        ClientRegistrationRepository delegate = registrationId -> {
+            lookups.incrementAndGet();
+            return "test".equals(registrationId) ? registration : null;
+        };
+        Ticker ticker = new Ticker() {
+            @Override
+            public long read() {
+                return now.get();
+            }
+        };
+        repository = new CachingClientRegistrationRepository(delegate, 10, Duration.ofMinutes(5), Duration.ofMinutes(1), ticker);
+    }
+
+    @Test
+    public void testCachesRegistration() {
+        assertSame(registration, repository.findByRegistrationId("test"));
+        assertSame(registration, repository.findByRegistrationId("test"));
+        assertEquals(1, lookups.get());
+
+        now.addAndGet(Duration.ofMinutes(5).toNanos());
+        assertSame(registration, repository.findByRegistrationId("test"));
+        assertEquals(2, lookups.get());
+
+        repository.invalidate("test");
+        repository.findByRegistrationId("test");
+        assertEquals(3, lookups.get());
+    }
+
+    @Test
+    public void testCachesMissing() {
+        assertNull(repository.findByRegistrationId("unknown"));
+        assertNull(repository.findByRegistrationId("unknown"));
+        assertEquals(1, lookups.get());
+
+        // Unknown IDs are forgotten sooner.
+        now.addAndGet(Duration.ofMinutes(1).toNanos());
+        assertNull(repository.findByRegistrationId("unknown"));
+        assertEquals(2, lookups.get());
+    }
+}
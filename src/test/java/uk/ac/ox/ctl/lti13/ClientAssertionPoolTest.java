@@ -0,0 +1,171 @@
+package uk.ac.ox.ctl.lti13;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.core.AuthorizationGrantType;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ClientAssertionPoolTest {
+
+    private ScheduledExecutorService executor;
+    private ClientAssertionPool pool;
+    private ClientRegistration clientRegistration;
+    private RSASSASigner rsaSigner;
+    private AtomicInteger signed;
+    private int lifetime;
+    private String keyId;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        executor = Executors.newSingleThreadScheduledExecutor();
+        pool = new ClientAssertionPool(executor);
+        // Never refills by itself, the tests call refill() when they need to.
+        pool.setRefillInterval(Duration.ofDays(1));
+        clientRegistration = ClientRegistration.withRegistrationId("test")
+                .clientId("client-id")
+                .authorizationGrantType(AuthorizationGrantType.CLIENT_CREDENTIALS)
+                .tokenUri("https://platform.test/token")
+                .build();
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        KeyPair keyPair = generator.generateKeyPair();
+        rsaSigner = new RSASSASigner(keyPair.getPrivate());
+        signed = new AtomicInteger();
+        lifetime = 60;
+        keyId = "key";
+    }
+
+    @AfterEach
+    public void tearDown() {
+        pool.close();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testSignsWhenEmpty() throws Exception {
+        take();
+        assertEquals(1, signed.get());
+    }
+
+    @Test
+    public void testRefillFollowsDemand() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            take();
+        }
+        assertEquals(10, signed.get());
+        pool.refill();
+        int pooled = signed.get() - 10;
+        assertTrue(pooled > 0);
+        // These should all come from the pool without signing.
+        Set<String> assertions = new HashSet<>();
+        for (int i = 0; i < pooled; i++) {
+            assertions.add(take());
+        }
+        assertEquals(10 + pooled, signed.get());
+        // Every assertion is only handed out once.
+        assertEquals(pooled, assertions.size());
+    }
+
+    @Test
+    public void testShortLivedNotPooled() throws Exception {
+        lifetime = 5;
+        take();
+        pool.refill();
+        int count = signed.get();
+        take();
+        assertEquals(count + 1, signed.get());
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        take();
+        pool.refill();
+        int count = signed.get();
+        pool.invalidate("test");
+        take();
+        assertEquals(count + 1, signed.get());
+    }
+
+    @Test
+    public void testKeyRotation() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            take();
+        }
+        pool.refill();
+        int count = signed.get();
+        // Once the key changes nothing signed with the old key is handed out.
+        keyId = "rotated";
+        String assertion = take();
+        assertEquals(count + 1, signed.get());
+        assertEquals("rotated", SignedJWT.parse(assertion).getHeader().getKeyID());
+        // Refilling the old key's pool finds the key has changed so stops.
+        pool.refill();
+        for (int i = 0; i < 10; i++) {
+            assertEquals("rotated", SignedJWT.parse(take()).getHeader().getKeyID());
+        }
+    }
+
+    @Test
+    public void testUnusedPoolRemoved() throws Exception {
+        take();
+        pool.refill();
+        int count = signed.get();
+        assertTrue(count > 1);
+        // With no demand the pool shrinks away and is removed, so nothing more is signed for it.
+        for (int i = 0; i < 20; i++) {
+            pool.refill();
+        }
+        take();
+        assertEquals(count + 1, signed.get());
+    }
+
+    @Test
+    public void testHeadroom() throws Exception {
+        pool.setHeadroom(0);
+        for (int i = 0; i < 10; i++) {
+            take();
+        }
+        pool.refill();
+        assertEquals(10, signed.get());
+    }
+
+    private String take() throws Exception {
+        // Like the TokenRetriever this signs one itself when the pool is empty.
+        String assertion = pool.take(clientRegistration, keyId, this::sign);
+        return assertion != null ? assertion : sign(clientRegistration).serialize();
+    }
+
+    private SignedJWT sign(ClientRegistration registration) throws JOSEException {
+        signed.incrementAndGet();
+        JWTClaimsSet claimsSet = new JWTClaimsSet.Builder()
+                .issuer(registration.getClientId())
+                .jwtID(UUID.randomUUID().toString())
+                .expirationTime(Date.from(Instant.now().plusSeconds(lifetime)))
+                .build();
+        SignedJWT signedJWT = new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(keyId).build(), claimsSet);
+        signedJWT.sign(rsaSigner);
+        return signedJWT;
+    }
+}
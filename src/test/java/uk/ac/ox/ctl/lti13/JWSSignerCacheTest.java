@@ -0,0 +1,101 @@
+package uk.ac.ox.ctl.lti13;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSObject;
+import com.nimbusds.jose.JWSSigner;
+import com.nimbusds.jose.Payload;
+import com.nimbusds.jose.crypto.ECDSASigner;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.crypto.RSASSAVerifier;
+import com.nimbusds.jose.jwk.RSAKey;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class JWSSignerCacheTest {
+
+    private JWSSignerCache cache;
+    private KeyPair rsaKeyPair;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        cache = new JWSSignerCache();
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        rsaKeyPair = generator.generateKeyPair();
+    }
+
+    @Test
+    public void testSignerReused() throws Exception {
+        JWSSigner signer = cache.getSigner("test", "kid", rsaKeyPair);
+        assertInstanceOf(RSASSASigner.class, signer);
+        assertSame(signer, cache.getSigner("test", "kid", rsaKeyPair));
+        // Each registration has its own signer.
+        assertNotSame(signer, cache.getSigner("other", "kid", rsaKeyPair));
+    }
+
+    @Test
+    public void testSignerReplacedWhenKeyChanges() throws Exception {
+        JWSSigner signer = cache.getSigner("test", "kid", rsaKeyPair);
+        assertNotSame(signer, cache.getSigner("test", "other-kid", rsaKeyPair));
+
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        JWSSigner rotated = cache.getSigner("test", "other-kid", generator.generateKeyPair());
+        assertNotSame(signer, rotated);
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        JWSSigner signer = cache.getSigner("test", "kid", rsaKeyPair);
+        cache.invalidate("test");
+        assertNotSame(signer, cache.getSigner("test", "kid", rsaKeyPair));
+    }
+
+    @Test
+    public void testEcKey() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp384r1"));
+        KeyPair ecKeyPair = generator.generateKeyPair();
+        assertInstanceOf(ECDSASigner.class, cache.getSigner("test", "kid", ecKeyPair));
+        assertEquals(JWSAlgorithm.ES384, JWSSignerCache.defaultAlgorithm(ecKeyPair.getPublic()));
+        assertEquals(JWSAlgorithm.RS256, JWSSignerCache.defaultAlgorithm(rsaKeyPair.getPublic()));
+    }
+
+    @Test
+    public void testUnsupportedKey() throws Exception {
+        KeyPair dsaKeyPair = KeyPairGenerator.getInstance("DSA").generateKeyPair();
+        assertThrows(JOSEException.class, () -> cache.getSigner("test", "kid", dsaKeyPair));
+    }
+
+    @Test
+    public void testSigningKeyMatchesAfterRotation() throws Exception {
+        RotatingKeyPairService keyPairService = new RotatingKeyPairService();
+        KeyPairSignerService signerService = new KeyPairSignerService(keyPairService);
+        SignerService.SigningKey before = signerService.getSigningKey("test");
+        keyPairService.rotate("test");
+        SignerService.SigningKey after = signerService.getSigningKey("test");
+        assertNotSame(before.signer(), after.signer());
+
+        // Whatever is signed can be verified with the published key that has the ID in the header.
+        for (SignerService.SigningKey signingKey : new SignerService.SigningKey[]{before, after}) {
+            JWSObject jws = new JWSObject(new JWSHeader.Builder(signingKey.algorithm()).keyID(signingKey.keyId()).build(),
+                    new Payload("{}"));
+            jws.sign(signingKey.signer());
+            RSAKey publicKey = (RSAKey) keyPairService.getJWKSet().getKeyByKeyId(jws.getHeader().getKeyID());
+            assertTrue(jws.verify(new RSASSAVerifier(publicKey)));
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package uk.ac.ox.ctl.lti13;
+
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSVerifier;
+import com.nimbusds.jose.crypto.factories.DefaultJWSVerifierFactory;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs against a local SoftHSM token. To set one up:
+ * <pre>
+ * softhsm2-util --init-token --free --label lti --pin 1234 --so-pin 1234
+ * keytool -genkeypair -alias test -keyalg RSA -keysize 2048 -dname CN=test -keystore NONE -storetype PKCS11 \
+ *   -providerClass sun.security.pkcs11.SunPKCS11 -providerArg softhsm.cfg -storepass 1234
+ * </pre>
+ * where softhsm.cfg points at the SoftHSM library, then set PKCS11_CONFIG to the config file and PKCS11_PIN to the PIN.
+ */
+@EnabledIfEnvironmentVariable(named = "PKCS11_CONFIG", matches = ".+")
+public class Pkcs11SignerServiceTest {
+
+    private Pkcs11SignerService signerService;
+
+    @BeforeEach
+    public void setUp() {
+        String pin = System.getenv().getOrDefault("PKCS11_PIN", "1234");
+        signerService = Pkcs11SignerService.configure(System.getenv("PKCS11_CONFIG"), pin.toCharArray(), 2);
+        String alias = System.getenv().getOrDefault("PKCS11_ALIAS", "test");
+        signerService.setAliasResolver(id -> alias);
+    }
+
+    @Test
+    public void testSignAndVerify() throws Exception {
+        SignedJWT jwt = sign();
+        JWSVerifier verifier = new DefaultJWSVerifierFactory().createJWSVerifier(jwt.getHeader(), signerService.getPublicKey("test"));
+        assertTrue(jwt.verify(verifier));
+        assertNotNull(jwt.getHeader().getKeyID());
+    }
+
+    @Test
+    public void testConcurrentSigning() throws Exception {
+        // More threads than the token is allowed to be used by, they should queue rather than fail.
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<SignedJWT>> futures = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                futures.add(executor.submit(this::sign));
+            }
+            for (Future<SignedJWT> future : futures) {
+                assertNotNull(future.get().getSignature());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private SignedJWT sign() throws Exception {
+        JWSHeader header = new JWSHeader.Builder(signerService.getAlgorithm("test"))
+                .keyID(signerService.getKeyId("test"))
+                .build();
+        SignedJWT jwt = new SignedJWT(header, new JWTClaimsSet.Builder().jwtID(UUID.randomUUID().toString()).build());
+        jwt.sign(signerService.getSigner("test"));
+        return jwt;
+    }
+}
@@ -0,0 +1,284 @@
+package uk.ac.ox.ctl.lti13.ags;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.client.registration.InMemoryClientRegistrationRepository;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+import org.springframework.security.oauth2.core.endpoint.OAuth2AccessTokenResponse;
+import org.springframework.test.web.client.ExpectedCount;
+import org.springframework.test.web.client.MockRestServiceServer;
+import uk.ac.ox.ctl.lti13.TokenRetriever;
+import uk.ac.ox.ctl.lti13.nrps.LtiScopes;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.LTIAuthorizationGrantType;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.content;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.header;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.method;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withStatus;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+public class AssignmentGradeServiceTest {
+
+    private static final String LINE_ITEMS = "https://platform.test/api/lti/courses/1/line_items";
+    private static final String LINE_ITEM = LINE_ITEMS + "/2";
+
+    private TokenRetriever tokenRetriever;
+    private AssignmentGradeService service;
+    private MockRestServiceServer server;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        ClientRegistration registration = ClientRegistration.withRegistrationId("test")
+                .clientId("test-id")
+                .authorizationGrantType(LTIAuthorizationGrantType.IMPLICIT)
+                .scope("openid")
+                .redirectUri("{baseUrl}/lti/login")
+                .authorizationUri("https://platform.test/auth")
+                .tokenUri("https://platform.test/token")
+                .jwkSetUri("https://platform.test/keys.json")
+                .build();
+        tokenRetriever = mock(TokenRetriever.class);
+        AtomicInteger tokens = new AtomicInteger();
+        when(tokenRetriever.getToken(any(), any())).thenAnswer(invocation -> OAuth2AccessTokenResponse
+                .withToken("token-" + tokens.incrementAndGet())
+                .tokenType(OAuth2AccessToken.TokenType.BEARER)
+                .expiresIn(3600)
+                .build());
+        service = new AssignmentGradeService(new InMemoryClientRegistrationRepository(registration), tokenRetriever);
+        server = MockRestServiceServer.bindTo(service.getRestTemplate()).build();
+    }
+
+    @Test
+    public void testPublishScoresSharesToken() throws Exception {
+        server.expect(ExpectedCount.times(2), requestTo(LINE_ITEM + "/scores"))
+                .andExpect(method(HttpMethod.POST))
+                .andExpect(header(HttpHeaders.AUTHORIZATION, "Bearer token-1"))
+                .andExpect(header(HttpHeaders.CONTENT_TYPE, startsWith(AssignmentGradeService.SCORE.toString())))
+                .andExpect(content().string(containsString("\"gradingProgress\":\"FullyGraded\"")))
+                .andRespond(withSuccess());
+        service.publishScore("test", LINE_ITEM, new Score("user-1", 5, 10));
+        service.publishScore("test", LINE_ITEM, new Score("user-2", 7, 10));
+        server.verify();
+        verify(tokenRetriever, times(1)).getToken(any(), eq(LtiScopes.LTI_AGS_SCORE_SCOPE));
+    }
+
+    @Test
+    public void testNewTokenWhenRevoked() throws Exception {
+        server.expect(requestTo(LINE_ITEM)).andExpect(header(HttpHeaders.AUTHORIZATION, "Bearer token-1"))
+                .andRespond(withStatus(HttpStatus.UNAUTHORIZED));
+        server.expect(requestTo(LINE_ITEM)).andExpect(header(HttpHeaders.AUTHORIZATION, "Bearer token-2"))
+                .andRespond(withSuccess("{\"id\": \"" + LINE_ITEM + "\", \"scoreMaximum\": 10}", AssignmentGradeService.LINE_ITEM));
+        LineItem lineItem = service.getLineItem("test", LINE_ITEM);
+        assertEquals(10, lineItem.getScoreMaximum());
+        server.verify();
+    }
+
+    @Test
+    public void testTokenFetchedOutsideMap() throws Exception {
+        // The score token is slow to get, this shouldn't hold up getting a token for another scope.
+        CountDownLatch fetching = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(tokenRetriever.getToken(any(), eq(LtiScopes.LTI_AGS_SCORE_SCOPE))).thenAnswer(invocation -> {
+            fetching.countDown();
+            assertTrue(release.await(10, TimeUnit.SECONDS));
+            return OAuth2AccessTokenResponse.withToken("slow")
+                    .tokenType(OAuth2AccessToken.TokenType.BEARER)
+                    .expiresIn(3600)
+                    .build();
+        });
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<OAuth2AccessToken> first = executor.submit(() -> service.getAccessToken("test", LtiScopes.LTI_AGS_SCORE_SCOPE));
+            assertTrue(fetching.await(10, TimeUnit.SECONDS));
+            Future<OAuth2AccessToken> second = executor.submit(() -> service.getAccessToken("test", LtiScopes.LTI_AGS_SCORE_SCOPE));
+
+            assertNotEquals("slow", service.getAccessToken("test", LtiScopes.LTI_AGS_RESULT_READONLY_SCOPE).getTokenValue());
+            release.countDown();
+            assertEquals("slow", first.get(10, TimeUnit.SECONDS).getTokenValue());
+            assertSame(first.get(), second.get(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+        verify(tokenRetriever, times(1)).getToken(any(), eq(LtiScopes.LTI_AGS_SCORE_SCOPE));
+    }
+
+    @Test
+    public void testTokenFailureNotCached() throws Exception {
+        when(tokenRetriever.getToken(any(), eq(LtiScopes.LTI_AGS_SCORE_SCOPE)))
+                .thenThrow(new IllegalStateException("Platform unavailable"))
+                .thenReturn(OAuth2AccessTokenResponse.withToken("retry")
+                        .tokenType(OAuth2AccessToken.TokenType.BEARER)
+                        .expiresIn(3600)
+                        .build());
+        assertThrows(IllegalStateException.class, () -> service.getAccessToken("test", LtiScopes.LTI_AGS_SCORE_SCOPE));
+        assertEquals("retry", service.getAccessToken("test", LtiScopes.LTI_AGS_SCORE_SCOPE).getTokenValue());
+    }
+
+    @Test
+    public void testLineItemPaging() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.add(HttpHeaders.LINK, "<" + LINE_ITEMS + "?page=2>; rel=\"next\", <" + LINE_ITEMS + "?page=1>; rel=\"first\"");
+        server.expect(requestTo(LINE_ITEMS))
+                .andRespond(withSuccess("[{\"id\": \"" + LINE_ITEM + "\"}]", AssignmentGradeService.LINE_ITEM_CONTAINER).headers(headers));
+        server.expect(requestTo(LINE_ITEMS + "?page=2"))
+                .andRespond(withSuccess("[{\"id\": \"" + LINE_ITEMS + "/3\"}]", AssignmentGradeService.LINE_ITEM_CONTAINER));
+        List<LineItem> lineItems = service.getLineItems("test", LINE_ITEMS);
+        assertEquals(2, lineItems.size());
+        assertEquals(LINE_ITEMS + "/3", lineItems.get(1).getId());
+        server.verify();
+    }
+
+    @Test
+    public void testServiceUri() {
+        assertEquals(LINE_ITEM + "/results", AssignmentGradeService.serviceUri(LINE_ITEM, "/results").toString());
+        assertEquals("https://platform.test/lineitem/scores?type=a%20b",
+                AssignmentGradeService.serviceUri("https://platform.test/lineitem?type=a%20b", "/scores").toString());
+        assertNull(AssignmentGradeService.nextLink(Collections.singletonList("<https://platform.test/>; rel=\"last\"")));
+    }
+
+    @Test
+    public void testScorePublisherCoalesces() throws Exception {
+        server.expect(requestTo(LINE_ITEM + "/scores"))
+                .andExpect(content().string(containsString("\"scoreGiven\":9.0")))
+                .andRespond(withSuccess());
+        server.expect(requestTo(LINE_ITEM + "/scores"))
+                .andExpect(content().string(containsString("\"userId\":\"user-2\"")))
+                .andRespond(withStatus(HttpStatus.BAD_REQUEST));
+        List<String> failed = new ArrayList<>();
+        try (ScorePublisher publisher = new ScorePublisher(service, 1, Duration.ofHours(1))) {
+            publisher.setFailureHandler((clientRegistrationId, lineItemUrl, score, e) -> failed.add(score.getUserId()));
+            publisher.submit("test", LINE_ITEM, new Score("user-1", 5, 10));
+            publisher.submit("test", LINE_ITEM, new Score("user-1", 9, 10));
+            publisher.submit("test", LINE_ITEM, new Score("user-2", 7, 10));
+            // Only replaced when they are sent.
+            assertEquals(3, publisher.getQueued());
+        }
+        server.verify();
+        // A bad request won't ever succeed so isn't retried.
+        assertEquals(List.of("user-2"), failed);
+    }
+
+    @Test
+    public void testScorePublisherSendsAfterRestart(@TempDir Path directory) throws Exception {
+        // The platform is down so the scores are kept in the outbox.
+        server.expect(requestTo(LINE_ITEM + "/scores"))
+                .andExpect(content().string(containsString("\"scoreGiven\":9.0")))
+                .andRespond(withStatus(HttpStatus.SERVICE_UNAVAILABLE));
+        server.expect(requestTo(LINE_ITEM + "/scores"))
+                .andExpect(content().string(containsString("\"userId\":\"user-2\"")))
+                .andRespond(withStatus(HttpStatus.SERVICE_UNAVAILABLE));
+        try (FileScoreOutbox outbox = new FileScoreOutbox(directory);
+             ScorePublisher publisher = new ScorePublisher(service, outbox, 1, Duration.ofHours(1))) {
+            publisher.submit("test", LINE_ITEM, new Score("user-1", 5, 10));
+            publisher.submit("test", LINE_ITEM, new Score("user-1", 9, 10));
+            publisher.submit("test", LINE_ITEM, new Score("user-2", 7, 10));
+        }
+        server.verify();
+
+        server.reset();
+        server.expect(requestTo(LINE_ITEM + "/scores"))
+                .andExpect(content().string(containsString("\"scoreGiven\":9.0")))
+                .andRespond(withSuccess());
+        server.expect(requestTo(LINE_ITEM + "/scores"))
+                .andExpect(content().string(containsString("\"userId\":\"user-2\"")))
+                .andRespond(withSuccess());
+        server.expect(requestTo(LINE_ITEM + "/scores"))
+                .andExpect(content().string(containsString("\"userId\":\"user-3\"")))
+                .andRespond(withSuccess());
+        try (FileScoreOutbox outbox = new FileScoreOutbox(directory)) {
+            // The replaced score was acknowledged without being sent.
+            assertEquals(2, outbox.size());
+            try (ScorePublisher publisher = new ScorePublisher(service, outbox, 1, Duration.ofHours(1))) {
+                publisher.flush();
+                // Appended after the first flush, so only read by a later one.
+                publisher.submit("test", LINE_ITEM, new Score("user-3", 1, 10));
+            }
+            assertEquals(0, outbox.size());
+        }
+        server.verify();
+    }
+
+    @Test
+    public void testScorePublisherInvalidLineItemUrl() throws Exception {
+        server.expect(requestTo(LINE_ITEM + "/scores"))
+                .andExpect(content().string(containsString("\"userId\":\"user-2\"")))
+                .andRespond(withSuccess());
+        List<String> failed = new ArrayList<>();
+        InMemoryScoreOutbox outbox = new InMemoryScoreOutbox();
+        try (ScorePublisher publisher = new ScorePublisher(service, outbox, 1, Duration.ofHours(1))) {
+            publisher.setFailureHandler((clientRegistrationId, lineItemUrl, score, e) -> failed.add(score.getUserId()));
+            assertThrows(IllegalArgumentException.class, () -> publisher.submit("test", "https://platform.test/line items", new Score("user-1", 5, 10)));
+            // Such as one left in a durable outbox by an older version, it doesn't stop the others being sent.
+            outbox.append("test", "https://platform.test/line items", new Score("user-1", 5, 10));
+            publisher.submit("test", LINE_ITEM, new Score("user-2", 7, 10));
+            publisher.flush();
+        }
+        server.verify();
+        assertEquals(List.of("user-1"), failed);
+        assertEquals(0, outbox.size());
+    }
+
+    @Test
+    public void testScorePublisherCloseWhileSending() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        server.expect(requestTo(LINE_ITEM + "/scores"))
+                .andRespond(request -> {
+                    started.countDown();
+                    // Like a slow platform, the request isn't stopped by the interrupt.
+                    Uninterruptibles.awaitUninterruptibly(release);
+                    return withSuccess().createResponse(request);
+                });
+        List<String> failed = new ArrayList<>();
+        InMemoryScoreOutbox outbox = new InMemoryScoreOutbox();
+        ScorePublisher publisher = new ScorePublisher(service, outbox, 1, Duration.ofHours(1));
+        publisher.setFailureHandler((clientRegistrationId, lineItemUrl, score, e) -> failed.add(score.getUserId()));
+        publisher.submit("test", LINE_ITEM, new Score("user-1", 5, 10));
+        publisher.flush();
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        publisher.close(Duration.ofMillis(100));
+        // The score is still being sent so isn't reported as failed.
+        assertEquals(List.of(), failed);
+
+        release.countDown();
+        for (int i = 0; i < 100 && outbox.size() > 0; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(0, outbox.size());
+        assertEquals(List.of(), failed);
+        server.verify();
+    }
+}
@@ -0,0 +1,82 @@
+package uk.ac.ox.ctl.lti13.ags;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class FileScoreOutboxTest {
+
+    private static final String LINE_ITEM = "https://platform.test/api/lti/courses/1/line_items/2";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testRecoversUnacknowledged() {
+        long first;
+        try (FileScoreOutbox outbox = new FileScoreOutbox(directory)) {
+            first = outbox.append("test", LINE_ITEM, new Score("user-1", 5, 10));
+            outbox.append("test", LINE_ITEM, new Score("user-2", 7, 10));
+            assertTrue(outbox.acknowledge(first));
+            assertFalse(outbox.acknowledge(first));
+        }
+        try (FileScoreOutbox outbox = new FileScoreOutbox(directory)) {
+            List<ScoreOutbox.Entry> pending = outbox.pending();
+            assertEquals(1, pending.size());
+            assertEquals("test", pending.get(0).clientRegistrationId());
+            assertEquals(LINE_ITEM, pending.get(0).lineItemUrl());
+            assertEquals("user-2", pending.get(0).score().getUserId());
+            assertEquals(Score.GradingProgress.FULLY_GRADED, pending.get(0).score().getGradingProgress());
+            // IDs carry on from where they were.
+            assertTrue(outbox.append("test", LINE_ITEM, new Score("user-3", 1, 10)) > pending.get(0).id());
+        }
+    }
+
+    @Test
+    public void testDeletesAcknowledgedSegments() {
+        try (FileScoreOutbox outbox = new FileScoreOutbox(directory, 1024)) {
+            long first = outbox.append("test", LINE_ITEM, new Score("user-0", 5, 10));
+            for (int i = 1; i < 20; i++) {
+                outbox.acknowledge(outbox.append("test", LINE_ITEM, new Score("user-" + i, 5, 10)));
+            }
+            assertTrue(outbox.getSegmentCount() > 1);
+            // The first segment still has a score that hasn't been sent.
+            outbox.acknowledge(first);
+            assertEquals(1, outbox.getSegmentCount());
+        }
+        try (FileScoreOutbox outbox = new FileScoreOutbox(directory, 1024)) {
+            assertEquals(0, outbox.size());
+        }
+    }
+
+    @Test
+    public void testIgnoresPartlyWrittenRecord() throws IOException {
+        try (FileScoreOutbox outbox = new FileScoreOutbox(directory)) {
+            outbox.append("test", LINE_ITEM, new Score("user-1", 5, 10));
+            outbox.append("test", LINE_ITEM, new Score("user-2", 7, 10));
+        }
+        // Corrupt the payload of the second record as if it was only partly written.
+        try (FileChannel channel = FileChannel.open(directory.resolve("scores-0000000000000001.log"), StandardOpenOption.WRITE, StandardOpenOption.READ)) {
+            ByteBuffer size = ByteBuffer.allocate(4);
+            channel.read(size, 0);
+            channel.write(ByteBuffer.wrap(new byte[]{'x'}), size.getInt(0) + 20);
+        }
+        try (FileScoreOutbox outbox = new FileScoreOutbox(directory)) {
+            assertEquals(1, outbox.size());
+            outbox.append("test", LINE_ITEM, new Score("user-3", 1, 10));
+        }
+        try (FileScoreOutbox outbox = new FileScoreOutbox(directory)) {
+            assertEquals(List.of("user-1", "user-3"), outbox.pending().stream().map(entry -> entry.score().getUserId()).toList());
+        }
+    }
+}
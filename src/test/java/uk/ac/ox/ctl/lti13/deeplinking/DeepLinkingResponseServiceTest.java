@@ -0,0 +1,120 @@
+package uk.ac.ox.ctl.lti13.deeplinking;
+
+import com.nimbusds.jose.crypto.RSASSAVerifier;
+import com.nimbusds.jwt.SignedJWT;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.oauth2.core.oidc.OidcIdToken;
+import org.springframework.security.oauth2.core.oidc.user.DefaultOidcUser;
+import uk.ac.ox.ctl.lti13.SingleKeyPairService;
+import uk.ac.ox.ctl.lti13.lti.Claims;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DeepLinkingResponseServiceTest {
+
+    private KeyPair keyPair;
+    private DeepLinkingResponseService service;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        keyPair = generator.generateKeyPair();
+        service = new DeepLinkingResponseService(new SingleKeyPairService(keyPair, "key-1"));
+    }
+
+    private DefaultOidcUser launch(Map<String, Object> settings) {
+        Map<String, Object> claims = new HashMap<>();
+        claims.put("sub", "user-1");
+        claims.put("iss", "https://platform.test");
+        claims.put("aud", List.of("client-1"));
+        claims.put(Claims.LTI_DEPLOYMENT_ID, "deployment-1");
+        claims.put(Claims.DEEP_LINKING_SETTINGS, settings);
+        OidcIdToken idToken = new OidcIdToken("token", Instant.now(), Instant.now().plusSeconds(60), claims);
+        return new DefaultOidcUser(AuthorityUtils.NO_AUTHORITIES, idToken);
+    }
+
+    @Test
+    public void testSignedResponse() throws Exception {
+        DeepLinkingResponse response = DeepLinkingResponse.forLaunch(launch(Map.of(
+                        "deep_link_return_url", "https://platform.test/return?a=1&b=2",
+                        "accept_types", List.of("ltiResourceLink"),
+                        "data", "opaque")))
+                .contentItem(ContentItem.ltiResourceLink("https://tool.test/launch/1"))
+                .contentItem(ContentItem.ltiResourceLink("https://tool.test/launch/2"))
+                .build();
+
+        SignedJWT jwt = SignedJWT.parse(service.sign("test", response));
+        assertTrue(jwt.verify(new RSASSAVerifier((RSAPublicKey) keyPair.getPublic())));
+        assertEquals("key-1", jwt.getHeader().getKeyID());
+        assertEquals("client-1", jwt.getJWTClaimsSet().getIssuer());
+        assertEquals(List.of("https://platform.test"), jwt.getJWTClaimsSet().getAudience());
+        assertEquals(DeepLinkingResponse.MESSAGE_TYPE, jwt.getJWTClaimsSet().getStringClaim(Claims.MESSAGE_TYPE));
+        assertEquals("deployment-1", jwt.getJWTClaimsSet().getStringClaim(Claims.LTI_DEPLOYMENT_ID));
+        assertEquals("opaque", jwt.getJWTClaimsSet().getStringClaim(Claims.DEEP_LINKING_DATA));
+        List<Object> items = jwt.getJWTClaimsSet().getListClaim(Claims.CONTENT_ITEMS);
+        assertEquals(2, items.size());
+        assertEquals(Map.of("type", "ltiResourceLink", "url", "https://tool.test/launch/1"), items.get(0));
+    }
+
+    @Test
+    public void testJsonData() {
+        // Not a string, but it should still come back as the same JSON rather than a Java toString().
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("course", 1);
+        data.put("sections", List.of("a", "b"));
+        DeepLinkingSettings settings = DeepLinkingSettings.from(launch(Map.of(
+                "deep_link_return_url", "https://platform.test/return",
+                "data", data)));
+        assertEquals("{\"course\":1,\"sections\":[\"a\",\"b\"]}", settings.getData());
+    }
+
+    @Test
+    public void testChecksSettings() {
+        DeepLinkingResponse.Builder single = DeepLinkingResponse.forLaunch(launch(Map.of(
+                        "deep_link_return_url", "https://platform.test/return",
+                        "accept_types", List.of("link", "file"),
+                        "accept_media_types", "image/*",
+                        "accept_multiple", false)))
+                .contentItem(ContentItem.link("https://tool.test/1"));
+        assertThrows(IllegalArgumentException.class, () -> single.contentItem(ContentItem.link("https://tool.test/2")).build());
+
+        DeepLinkingResponse.Builder wrongType = DeepLinkingResponse.forLaunch(launch(Map.of(
+                        "deep_link_return_url", "https://platform.test/return",
+                        "accept_types", List.of("link"))))
+                .contentItem(ContentItem.html("<p>Hello</p>"));
+        assertThrows(IllegalArgumentException.class, wrongType::build);
+
+        DeepLinkingResponse.Builder wrongMediaType = DeepLinkingResponse.forLaunch(launch(Map.of(
+                        "deep_link_return_url", "https://platform.test/return",
+                        "accept_types", List.of("file"),
+                        "accept_media_types", "image/*,text/html")))
+                .contentItem(ContentItem.file("https://tool.test/file.png", "image/png"));
+        wrongMediaType.build();
+        wrongMediaType.contentItem(ContentItem.file("https://tool.test/file.pdf", "application/pdf"));
+        assertThrows(IllegalArgumentException.class, wrongMediaType::build);
+    }
+
+    @Test
+    public void testRender() throws Exception {
+        DeepLinkingResponse response = DeepLinkingResponse.forLaunch(launch(Map.of(
+                        "deep_link_return_url", "https://platform.test/return?a=1&b=2")))
+                .build();
+        String html = service.render("test", response);
+        assertTrue(html.contains("action=\"https://platform.test/return?a=1&amp;b=2\""));
+        assertTrue(html.contains("name=\"JWT\" value=\"ey"));
+    }
+}
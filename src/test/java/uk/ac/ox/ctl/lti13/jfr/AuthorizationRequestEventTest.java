@@ -0,0 +1,65 @@
+package uk.ac.ox.ctl.lti13.jfr;
+
+import jdk.jfr.consumer.RecordedEvent;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.oauth2.core.endpoint.OAuth2AuthorizationRequest;
+import org.springframework.security.oauth2.core.endpoint.OAuth2ParameterNames;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.HttpSessionOAuth2AuthorizationRequestRepository;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.OptimisticAuthorizationRequestRepository;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.StateAuthorizationRequestRepository;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AuthorizationRequestEventTest {
+
+    @Test
+    public void testEvents() throws Exception {
+        OptimisticAuthorizationRequestRepository repository = new OptimisticAuthorizationRequestRepository(
+                new HttpSessionOAuth2AuthorizationRequestRepository(), new StateAuthorizationRequestRepository(Duration.ofMinutes(1)));
+        OAuth2AuthorizationRequest authorizationRequest = OAuth2AuthorizationRequest.authorizationCode()
+                .authorizationUri("https://platform.test/auth")
+                .clientId("test-id")
+                .redirectUri("https://tool.test/lti/login")
+                .scope("openid")
+                .state("state")
+                .additionalParameters(Map.of(OAuth2ParameterNames.REGISTRATION_ID, "test"))
+                .build();
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setParameter("state", "state");
+
+        List<RecordedEvent> events = Recordings.record(AuthorizationRequestEvent.class, () -> {
+            repository.saveAuthorizationRequest(authorizationRequest, request, new MockHttpServletResponse());
+            repository.removeAuthorizationRequest(request, new MockHttpServletResponse());
+            // It's already been removed.
+            repository.removeAuthorizationRequest(request, new MockHttpServletResponse());
+        });
+        assertEquals(3, events.size());
+
+        RecordedEvent save = events.get(0);
+        assertEquals(AuthorizationRequestEvent.SAVE, save.getString("operation"));
+        assertEquals("test", save.getString("registrationId"));
+        assertFalse(save.getBoolean("workingSession"));
+
+        RecordedEvent remove = events.get(1);
+        assertEquals(AuthorizationRequestEvent.REMOVE, remove.getString("operation"));
+        assertEquals("test", remove.getString("registrationId"));
+        assertTrue(remove.getBoolean("stateHit"));
+        assertTrue(remove.getBoolean("sessionHit"));
+
+        RecordedEvent missing = events.get(2);
+        assertNull(missing.getString("registrationId"));
+        assertFalse(missing.getBoolean("stateHit"));
+        assertFalse(missing.getBoolean("sessionHit"));
+        // Finding it in the session on the first removal marked the session as working.
+        assertTrue(missing.getBoolean("workingSession"));
+    }
+}
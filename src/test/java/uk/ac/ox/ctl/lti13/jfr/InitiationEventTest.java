@@ -0,0 +1,56 @@
+package uk.ac.ox.ctl.lti13.jfr;
+
+import jdk.jfr.consumer.RecordedEvent;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.client.registration.InMemoryClientRegistrationRepository;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.InvalidInitiationRequestException;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.LTIAuthorizationGrantType;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.OIDCInitiatingLoginRequestResolver;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class InitiationEventTest {
+
+    private OIDCInitiatingLoginRequestResolver resolver;
+
+    @BeforeEach
+    public void setUp() {
+        ClientRegistration registration = ClientRegistration.withRegistrationId("test")
+                .clientId("test-id")
+                .authorizationGrantType(LTIAuthorizationGrantType.IMPLICIT)
+                .scope("openid")
+                .redirectUri("{baseUrl}/lti/login")
+                .authorizationUri("https://platform.test/auth/new")
+                .tokenUri("https://platform.test/access_tokens")
+                .jwkSetUri("https://platform.test/keys.json")
+                .build();
+        resolver = new OIDCInitiatingLoginRequestResolver(new InMemoryClientRegistrationRepository(registration), "/lti/login_initiation");
+    }
+
+    @Test
+    public void testEvents() throws Exception {
+        List<RecordedEvent> events = Recordings.record(InitiationEvent.class, () -> {
+            MockHttpServletRequest request = new MockHttpServletRequest("GET", "/lti/login_initiation/test");
+            request.setQueryString("iss=https://test.com&login_hint=hint&target_link_uri=https://localhost/");
+            request.setParameter("iss", "https://test.com");
+            request.setParameter("login_hint", "hint");
+            request.setParameter("target_link_uri", "https://localhost/");
+            resolver.resolve(request, "test");
+            assertThrows(InvalidInitiationRequestException.class, () -> resolver.resolve(new MockHttpServletRequest(), "test"));
+        });
+        assertEquals(2, events.size());
+        RecordedEvent success = events.get(0);
+        assertEquals("test", success.getString("registrationId"));
+        assertNull(success.getString("failure"));
+        assertTrue(success.getLong("requestSize") > 0);
+        assertEquals("InvalidInitiationRequestException", events.get(1).getString("failure"));
+    }
+}
@@ -0,0 +1,102 @@
+package uk.ac.ox.ctl.lti13.jfr;
+
+import jdk.jfr.consumer.RecordedEvent;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.mock.http.client.MockClientHttpResponse;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.client.registration.InMemoryClientRegistrationRepository;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+import org.springframework.security.oauth2.core.endpoint.OAuth2AccessTokenResponse;
+import org.springframework.security.oauth2.core.endpoint.OAuth2AuthorizationRequest;
+import org.springframework.security.oauth2.core.oidc.OidcIdToken;
+import org.springframework.web.client.HttpServerErrorException;
+import uk.ac.ox.ctl.lti13.TokenRetriever;
+import uk.ac.ox.ctl.lti13.nrps.LtiScopes;
+import uk.ac.ox.ctl.lti13.nrps.NamesRoleService;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.authentication.OidcLaunchFlowToken;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.LTIAuthorizationGrantType;
+import uk.ac.ox.ctl.lti13.security.oauth2.core.endpoint.OIDCLaunchFlowExchange;
+import uk.ac.ox.ctl.lti13.security.oauth2.core.endpoint.OIDCLaunchFlowResponse;
+import uk.ac.ox.ctl.lti13.security.oauth2.core.user.LtiOauth2User;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class NrpsFetchEventTest {
+
+    private ClientRegistration registration;
+    private NamesRoleService service;
+    private OidcLaunchFlowToken token;
+    private MockClientHttpResponse response;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        registration = ClientRegistration.withRegistrationId("test")
+                .clientId("test-id")
+                .authorizationGrantType(LTIAuthorizationGrantType.IMPLICIT)
+                .scope("openid")
+                .redirectUri("{baseUrl}/lti/login")
+                .authorizationUri("https://platform.test/auth")
+                .tokenUri("https://platform.test/token")
+                .jwkSetUri("https://platform.test/keys.json")
+                .build();
+        TokenRetriever tokenRetriever = mock(TokenRetriever.class);
+        when(tokenRetriever.getToken(any(), any())).thenReturn(OAuth2AccessTokenResponse.withToken("token")
+                .tokenType(OAuth2AccessToken.TokenType.BEARER)
+                .expiresIn(3600)
+                .build());
+        service = new NamesRoleService(new InMemoryClientRegistrationRepository(registration), tokenRetriever);
+        // Answer the requests without going to the network.
+        service.addInterceptor((request, body, execution) -> response);
+
+        Instant now = Instant.now();
+        OidcIdToken idToken = new OidcIdToken("token", now, now.plusSeconds(60), Map.of(
+                "sub", "user",
+                LtiScopes.LTI_NRPS_CLAIM, Map.of("context_memberships_url", "https://platform.test/members")
+        ));
+        token = new OidcLaunchFlowToken(registration,
+                new OIDCLaunchFlowExchange(
+                        OAuth2AuthorizationRequest.authorizationCode().authorizationUri("https://platform.test/auth").clientId("test-id").build(),
+                        OIDCLaunchFlowResponse.success("token").state("state").build()),
+                new LtiOauth2User(Collections.emptyList(), idToken), Collections.emptyList());
+    }
+
+    private static MockClientHttpResponse jsonResponse(String body, HttpStatus status) {
+        MockClientHttpResponse response = new MockClientHttpResponse(body.getBytes(StandardCharsets.UTF_8), status);
+        response.getHeaders().set(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE);
+        return response;
+    }
+
+    @Test
+    public void testEvents() throws Exception {
+        List<RecordedEvent> events = Recordings.record(NrpsFetchEvent.class, () -> {
+            response = jsonResponse("{\"id\": \"members\", \"members\": [{\"user_id\": \"1\"}, {\"user_id\": \"2\"}]}", HttpStatus.OK);
+            service.getMembers(token, false);
+            response = jsonResponse("{}", HttpStatus.SERVICE_UNAVAILABLE);
+            assertThrows(HttpServerErrorException.class, () -> service.getMembers(token, false));
+        });
+        assertEquals(2, events.size());
+
+        RecordedEvent success = events.get(0);
+        assertEquals("test", success.getString("registrationId"));
+        assertEquals("https://platform.test/members", success.getString("url"));
+        assertEquals(2, success.getInt("members"));
+        assertNull(success.getString("failure"));
+
+        assertEquals("http_503", events.get(1).getString("failure"));
+    }
+}
@@ -0,0 +1,44 @@
+package uk.ac.ox.ctl.lti13.jfr;
+
+import jdk.jfr.Event;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Records the events of a single type while some code runs.
+ */
+class Recordings {
+
+    interface Action {
+        void run() throws Exception;
+    }
+
+    /**
+     * @return The events that were committed, in the order they started.
+     */
+    static List<RecordedEvent> record(Class<? extends Event> eventType, Action action) throws Exception {
+        List<RecordedEvent> events;
+        try (Recording recording = new Recording()) {
+            recording.enable(eventType);
+            recording.start();
+            action.run();
+            recording.stop();
+            Path file = Files.createTempFile("lti", ".jfr");
+            try {
+                recording.dump(file);
+                events = new ArrayList<>(RecordingFile.readAllEvents(file));
+            } finally {
+                Files.delete(file);
+            }
+        }
+        events.sort(Comparator.comparing(RecordedEvent::getStartTime));
+        return events;
+    }
+}
@@ -0,0 +1,101 @@
+package uk.ac.ox.ctl.lti13.jfr;
+
+import jdk.jfr.consumer.RecordedEvent;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.mock.http.client.MockClientHttpResponse;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.core.OAuth2AuthorizationException;
+import uk.ac.ox.ctl.lti13.ClientAssertionPool;
+import uk.ac.ox.ctl.lti13.SingleKeyPairService;
+import uk.ac.ox.ctl.lti13.TokenRetriever;
+import uk.ac.ox.ctl.lti13.nrps.LtiScopes;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.LTIAuthorizationGrantType;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPairGenerator;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class TokenRequestEventTest {
+
+    private ClientRegistration registration;
+    private TokenRetriever tokenRetriever;
+    private String response;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        registration = ClientRegistration.withRegistrationId("test")
+                .clientId("test-id")
+                .authorizationGrantType(LTIAuthorizationGrantType.IMPLICIT)
+                .scope("openid")
+                .redirectUri("{baseUrl}/lti/login")
+                .authorizationUri("https://platform.test/auth")
+                .tokenUri("https://platform.test/token")
+                .jwkSetUri("https://platform.test/keys.json")
+                .build();
+        tokenRetriever = new TokenRetriever(new SingleKeyPairService(KeyPairGenerator.getInstance("RSA").generateKeyPair(), "key-id"));
+        response = "{\"access_token\": \"token\", \"token_type\": \"Bearer\", \"expires_in\": 3600}";
+        // Answer the requests without going to the network.
+        tokenRetriever.addInterceptor((request, body, execution) -> {
+            HttpStatus status = response.contains("error") ? HttpStatus.BAD_REQUEST : HttpStatus.OK;
+            MockClientHttpResponse httpResponse = new MockClientHttpResponse(response.getBytes(StandardCharsets.UTF_8), status);
+            httpResponse.getHeaders().set(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE);
+            return httpResponse;
+        });
+    }
+
+    @Test
+    public void testEvents() throws Exception {
+        List<RecordedEvent> events = Recordings.record(TokenRequestEvent.class, () -> {
+            tokenRetriever.getToken(registration, LtiScopes.LTI_NRPS_SCOPE);
+            response = "{\"error\": \"invalid_client\"}";
+            assertThrows(OAuth2AuthorizationException.class, () -> tokenRetriever.getToken(registration, LtiScopes.LTI_NRPS_SCOPE));
+        });
+        assertEquals(2, events.size());
+
+        RecordedEvent success = events.get(0);
+        assertEquals("test", success.getString("registrationId"));
+        assertEquals(LtiScopes.LTI_NRPS_SCOPE, success.getString("scopes"));
+        assertNull(success.getString("failure"));
+        assertTrue(success.getLong("assertionSize") > 0);
+        assertFalse(success.getBoolean("assertionPooled"));
+
+        assertEquals("invalid_client", events.get(1).getString("failure"));
+    }
+
+    @Test
+    public void testPooledAssertion() throws Exception {
+        // Run the refills ourselves rather than waiting for them.
+        ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+        ClientAssertionPool pool = new ClientAssertionPool(executor);
+        tokenRetriever.setAssertionPool(pool);
+
+        List<RecordedEvent> events = Recordings.record(TokenRequestEvent.class, () -> {
+            tokenRetriever.getToken(registration, LtiScopes.LTI_NRPS_SCOPE);
+            ArgumentCaptor<Runnable> refill = ArgumentCaptor.forClass(Runnable.class);
+            verify(executor).scheduleWithFixedDelay(refill.capture(), anyLong(), anyLong(), eq(TimeUnit.MILLISECONDS));
+            refill.getValue().run();
+            tokenRetriever.getToken(registration, LtiScopes.LTI_NRPS_SCOPE);
+        });
+        assertEquals(2, events.size());
+        // The pool is empty for the first request so it's signed then, the refill signs one for the second.
+        assertFalse(events.get(0).getBoolean("assertionPooled"));
+        assertTrue(events.get(1).getBoolean("assertionPooled"));
+    }
+}
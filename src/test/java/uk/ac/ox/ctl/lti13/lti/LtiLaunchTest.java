@@ -0,0 +1,66 @@
+package uk.ac.ox.ctl.lti13.lti;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.security.oauth2.core.oidc.OidcIdToken;
+import uk.ac.ox.ctl.lti13.nrps.LtiScopes;
+import uk.ac.ox.ctl.lti13.security.oauth2.core.user.LtiOauth2User;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LtiLaunchTest {
+
+    @Test
+    public void testRoles() {
+        assertEquals(LtiRole.CONTEXT_INSTRUCTOR, LtiRole.fromString(Role.Context.INSTRUCTOR));
+        assertEquals(LtiRole.CONTEXT_INSTRUCTOR, LtiRole.fromString("Instructor"));
+        assertEquals(LtiRole.CONTEXT_INSTRUCTOR, LtiRole.fromString("urn:lti:role:ims/lis/Instructor"));
+        assertEquals(LtiRole.INSTITUTION_INSTRUCTOR, LtiRole.fromString(Role.Institution.INSTRUCTOR));
+        assertEquals(LtiRole.SYSTEM_SYS_ADMIN, LtiRole.fromString("urn:lti:sysrole:ims/lis/SysAdmin"));
+        assertNull(LtiRole.fromString("http://purl.imsglobal.org/vocab/lis/v2/membership/Instructor#TeachingAssistant"));
+        assertNull(LtiRole.fromString(null));
+    }
+
+    @Test
+    public void testClaims() {
+        Map<String, Object> claims = Map.of(
+                Claims.MESSAGE_TYPE, "LtiResourceLinkRequest",
+                Claims.LTI_DEPLOYMENT_ID, "deployment",
+                Claims.ROLES, List.of(Role.Context.INSTRUCTOR, "Learner", "http://example.com/role"),
+                Claims.CONTEXT, Map.of("id", "context", "title", "Economics", "type", List.of(ContextTypes.COURSE_OFFERING)),
+                Claims.RESOURCE_LINK, Map.of("id", "link"),
+                Claims.CUSTOM, Map.of("size", 10),
+                LtiScopes.LTI_NRPS_CLAIM, Map.of("context_memberships_url", "https://platform.test/members")
+        );
+        LtiLaunch launch = LtiLaunch.from(claims);
+        assertEquals("LtiResourceLinkRequest", launch.getMessageType());
+        assertEquals("deployment", launch.getDeploymentId());
+        assertEquals(Set.of(LtiRole.CONTEXT_INSTRUCTOR, LtiRole.CONTEXT_LEARNER), launch.getRoles());
+        assertTrue(launch.hasRole(LtiRole.CONTEXT_LEARNER));
+        assertFalse(launch.hasRole(LtiRole.CONTEXT_MENTOR));
+        assertEquals(3, launch.getRoleUris().size());
+        assertEquals(new LtiLaunch.Context("context", null, "Economics", List.of(ContextTypes.COURSE_OFFERING)), launch.getContext());
+        assertEquals("link", launch.getResourceLink().id());
+        assertEquals(Map.of("size", "10"), launch.getCustom());
+        assertEquals("https://platform.test/members", launch.getContextMembershipsUrl());
+        assertNull(launch.getAgsEndpoint());
+    }
+
+    @Test
+    public void testCreatedOnce() {
+        OidcIdToken idToken = new OidcIdToken("token", Instant.now(), Instant.now().plusSeconds(60),
+                Map.of("sub", "user", Claims.LTI_DEPLOYMENT_ID, "deployment"));
+        LtiOauth2User user = new LtiOauth2User(Collections.emptyList(), idToken);
+        assertSame(user.getLaunch(), LtiLaunch.of(user));
+        assertEquals("deployment", user.getLaunch().getDeploymentId());
+    }
+}
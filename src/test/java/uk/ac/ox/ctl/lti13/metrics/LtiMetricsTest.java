@@ -0,0 +1,257 @@
+package uk.ac.ox.ctl.lti13.metrics;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.KeyUse;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.mock.http.client.MockClientHttpResponse;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.ProviderManager;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.client.registration.InMemoryClientRegistrationRepository;
+import org.springframework.security.oauth2.client.web.HttpSessionOAuth2AuthorizationRequestRepository;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+import org.springframework.security.oauth2.core.OAuth2AuthenticationException;
+import org.springframework.security.oauth2.core.OAuth2AuthorizationException;
+import org.springframework.security.oauth2.core.endpoint.OAuth2AccessTokenResponse;
+import org.springframework.security.oauth2.core.endpoint.OAuth2AuthorizationRequest;
+import org.springframework.security.oauth2.core.endpoint.OAuth2ParameterNames;
+import org.springframework.security.oauth2.core.oidc.OidcIdToken;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestTemplate;
+import uk.ac.ox.ctl.lti13.SingleKeyPairService;
+import uk.ac.ox.ctl.lti13.TokenRetriever;
+import uk.ac.ox.ctl.lti13.lti.Claims;
+import uk.ac.ox.ctl.lti13.nrps.LtiScopes;
+import uk.ac.ox.ctl.lti13.nrps.NamesRoleService;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.authentication.OidcLaunchFlowAuthenticationProvider;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.authentication.OidcLaunchFlowToken;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.LTIAuthorizationGrantType;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.OAuth2LoginAuthenticationFilter;
+import uk.ac.ox.ctl.lti13.security.oauth2.core.endpoint.OIDCLaunchFlowExchange;
+import uk.ac.ox.ctl.lti13.security.oauth2.core.endpoint.OIDCLaunchFlowResponse;
+import uk.ac.ox.ctl.lti13.security.oauth2.core.user.LtiOauth2User;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+/**
+ * Checks that each of the components reports its timings.
+ */
+public class LtiMetricsTest {
+
+    private RecordingMetrics metrics;
+    private KeyPair keyPair;
+    private ClientRegistration registration;
+
+    /**
+     * Records each call as "metric registration outcome".
+     */
+    private static class RecordingMetrics implements LtiMetrics {
+        private final List<String> recorded = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void initiation(String registrationId, String outcome, long nanos) {
+            recorded.add("initiation " + registrationId + " " + outcome);
+        }
+
+        @Override
+        public void authentication(String registrationId, String outcome, long nanos) {
+            recorded.add("authentication " + registrationId + " " + outcome);
+        }
+
+        @Override
+        public void jwksFetch(String registrationId, String outcome, long nanos) {
+            recorded.add("jwksFetch " + registrationId + " " + outcome);
+        }
+
+        @Override
+        public void signatureVerification(String registrationId, String outcome, long nanos) {
+            recorded.add("signatureVerification " + registrationId + " " + outcome);
+        }
+
+        @Override
+        public void tokenExchange(String registrationId, String outcome, long nanos) {
+            recorded.add("tokenExchange " + registrationId + " " + outcome);
+        }
+
+        @Override
+        public void nrpsPage(String registrationId, String outcome, long nanos) {
+            recorded.add("nrpsPage " + registrationId + " " + outcome);
+        }
+    }
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        metrics = new RecordingMetrics();
+        keyPair = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+        registration = ClientRegistration.withRegistrationId("test")
+                .clientId("test-id")
+                .authorizationGrantType(LTIAuthorizationGrantType.IMPLICIT)
+                .scope("openid")
+                .redirectUri("{baseUrl}/lti/login")
+                .authorizationUri("https://platform.test/auth")
+                .tokenUri("https://platform.test/token")
+                .jwkSetUri("https://platform.test/keys.json")
+                .build();
+    }
+
+    private OAuth2LoginAuthenticationFilter loginFilter(HttpSessionOAuth2AuthorizationRequestRepository repository) {
+        RestTemplate restTemplate = new RestTemplate();
+        MockRestServiceServer server = MockRestServiceServer.bindTo(restTemplate).build();
+        RSAKey jwk = new RSAKey.Builder((RSAPublicKey) keyPair.getPublic())
+                .keyUse(KeyUse.SIGNATURE)
+                .algorithm(JWSAlgorithm.RS256)
+                .keyID("jwt-id")
+                .build();
+        server.expect(requestTo("https://platform.test/keys.json"))
+                .andRespond(withSuccess(new JWKSet(jwk).toString(), MediaType.APPLICATION_JSON));
+
+        OidcLaunchFlowAuthenticationProvider provider = new OidcLaunchFlowAuthenticationProvider();
+        provider.setRestOperations(restTemplate);
+        provider.setMetrics(metrics);
+        OAuth2LoginAuthenticationFilter filter = new OAuth2LoginAuthenticationFilter(
+                new InMemoryClientRegistrationRepository(registration), "/lti/login");
+        filter.setAuthenticationManager(new ProviderManager(provider));
+        filter.setAuthorizationRequestRepository(repository);
+        filter.setMetrics(metrics);
+        return filter;
+    }
+
+    private String idToken() throws Exception {
+        JWTClaimsSet claims = new JWTClaimsSet.Builder()
+                .issuer("https://platform.test")
+                .subject("subject")
+                .audience("test-id")
+                .issueTime(new Date())
+                .expirationTime(Date.from(Instant.now().plusSeconds(300)))
+                .claim("nonce", "test-nonce")
+                .claim(Claims.LTI_VERSION, "1.3.0")
+                .claim(Claims.MESSAGE_TYPE, "LtiResourceLinkRequest")
+                .claim(Claims.ROLES, List.of())
+                .claim(Claims.TARGET_LINK_URI, "https://tool.test/")
+                .claim(Claims.LTI_DEPLOYMENT_ID, "1")
+                .build();
+        SignedJWT jwt = new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.RS256).keyID("jwt-id").build(), claims);
+        jwt.sign(new RSASSASigner(keyPair.getPrivate()));
+        return jwt.serialize();
+    }
+
+    @Test
+    public void testLaunch() throws Exception {
+        HttpSessionOAuth2AuthorizationRequestRepository repository = new HttpSessionOAuth2AuthorizationRequestRepository();
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        repository.saveAuthorizationRequest(OAuth2AuthorizationRequest.authorizationCode()
+                .authorizationUri("https://platform.test/auth")
+                .clientId("test-id")
+                .redirectUri("https://tool.test/lti/login")
+                .scope("openid")
+                .state("state")
+                .additionalParameters(Map.of(OAuth2ParameterNames.REGISTRATION_ID, "test"))
+                .build(), request, response);
+        request.setParameter("id_token", idToken());
+        request.setParameter("state", "state");
+
+        assertNotNull(loginFilter(repository).attemptAuthentication(request, response));
+        assertEquals(List.of(
+                "jwksFetch test success",
+                "signatureVerification test success",
+                "authentication test success"
+        ), metrics.recorded);
+    }
+
+    @Test
+    public void testLaunchWithoutAuthorizationRequest() {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setParameter("id_token", "token");
+        request.setParameter("state", "unknown");
+
+        assertThrows(OAuth2AuthenticationException.class, () ->
+                loginFilter(new HttpSessionOAuth2AuthorizationRequestRepository()).attemptAuthentication(request, new MockHttpServletResponse()));
+        assertEquals(List.of("authentication unknown authorization_request_not_found"), metrics.recorded);
+    }
+
+    @Test
+    public void testTokenExchange() throws Exception {
+        TokenRetriever tokenRetriever = new TokenRetriever(new SingleKeyPairService(keyPair, "key-id"));
+        tokenRetriever.setMetrics(metrics);
+        List<MockClientHttpResponse> responses = new ArrayList<>(List.of(
+                jsonResponse("{\"access_token\": \"token\", \"token_type\": \"Bearer\", \"expires_in\": 3600}", HttpStatus.OK),
+                jsonResponse("{\"error\": \"invalid_client\"}", HttpStatus.BAD_REQUEST)
+        ));
+        // Answer the requests without going to the network.
+        tokenRetriever.addInterceptor((request, body, execution) -> responses.remove(0));
+
+        assertEquals("token", tokenRetriever.getToken(registration, LtiScopes.LTI_NRPS_SCOPE).getAccessToken().getTokenValue());
+        assertThrows(OAuth2AuthorizationException.class, () -> tokenRetriever.getToken(registration, LtiScopes.LTI_NRPS_SCOPE));
+        assertEquals(List.of("tokenExchange test success", "tokenExchange test invalid_client"), metrics.recorded);
+    }
+
+    @Test
+    public void testNrpsPage() throws Exception {
+        TokenRetriever tokenRetriever = mock(TokenRetriever.class);
+        when(tokenRetriever.getToken(any(), any())).thenReturn(OAuth2AccessTokenResponse.withToken("token")
+                .tokenType(OAuth2AccessToken.TokenType.BEARER)
+                .expiresIn(3600)
+                .build());
+        NamesRoleService service = new NamesRoleService(new InMemoryClientRegistrationRepository(registration), tokenRetriever);
+        service.setMetrics(metrics);
+        service.addInterceptor((request, body, execution) -> jsonResponse("{\"id\": \"members\", \"members\": []}", HttpStatus.OK));
+
+        Instant now = Instant.now();
+        OidcIdToken idToken = new OidcIdToken("token", now, now.plusSeconds(60), Map.of(
+                "sub", "user",
+                LtiScopes.LTI_NRPS_CLAIM, Map.of("context_memberships_url", "https://platform.test/members")
+        ));
+        OidcLaunchFlowToken token = new OidcLaunchFlowToken(registration,
+                new OIDCLaunchFlowExchange(
+                        OAuth2AuthorizationRequest.authorizationCode().authorizationUri("https://platform.test/auth").clientId("test-id").build(),
+                        OIDCLaunchFlowResponse.success("token").state("state").build()),
+                new LtiOauth2User(Collections.emptyList(), idToken), Collections.emptyList());
+
+        assertEquals("members", service.getMembers(token, false).getId());
+        assertEquals(List.of("nrpsPage test success"), metrics.recorded);
+    }
+
+    @Test
+    public void testOutcome() {
+        assertEquals("IllegalStateException", LtiMetrics.outcome(new IllegalStateException()));
+        // Anonymous classes have an empty simple name, which can't be used as a tag.
+        RuntimeException anonymous = new RuntimeException() { };
+        assertEquals(anonymous.getClass().getName(), LtiMetrics.outcome(anonymous));
+    }
+
+    private static MockClientHttpResponse jsonResponse(String body, HttpStatus status) {
+        MockClientHttpResponse response = new MockClientHttpResponse(body.getBytes(StandardCharsets.UTF_8), status);
+        response.getHeaders().set(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE);
+        return response;
+    }
+}
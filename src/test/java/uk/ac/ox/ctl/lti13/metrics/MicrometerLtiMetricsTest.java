@@ -0,0 +1,65 @@
+package uk.ac.ox.ctl.lti13.metrics;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.oauth2.client.web.HttpSessionOAuth2AuthorizationRequestRepository;
+import org.springframework.security.oauth2.core.OAuth2AuthenticationException;
+import org.springframework.security.oauth2.core.OAuth2Error;
+import org.springframework.web.client.HttpClientErrorException;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.OptimisticAuthorizationRequestRepository;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.StateAuthorizationRequestRepository;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class MicrometerLtiMetricsTest {
+
+    private SimpleMeterRegistry registry;
+    private MicrometerLtiMetrics metrics;
+
+    @BeforeEach
+    public void setUp() {
+        registry = new SimpleMeterRegistry();
+        metrics = new MicrometerLtiMetrics(registry);
+    }
+
+    @Test
+    public void testTimersTaggedWithRegistrationAndOutcome() {
+        metrics.tokenExchange("test", LtiMetrics.SUCCESS, TimeUnit.MILLISECONDS.toNanos(5));
+        metrics.tokenExchange("test", LtiMetrics.SUCCESS, TimeUnit.MILLISECONDS.toNanos(15));
+        metrics.tokenExchange(null, "invalid_client", TimeUnit.MILLISECONDS.toNanos(1));
+
+        Timer success = registry.get("lti.token.exchange").tag("registration", "test").tag("outcome", "success").timer();
+        assertEquals(2, success.count());
+        assertEquals(20, success.totalTime(TimeUnit.MILLISECONDS), 0.001);
+        Timer failure = registry.get("lti.token.exchange").tag("registration", LtiMetrics.UNKNOWN_REGISTRATION).tag("outcome", "invalid_client").timer();
+        assertEquals(1, failure.count());
+    }
+
+    @Test
+    public void testOutcome() {
+        assertEquals("invalid_nonce", LtiMetrics.outcome(new OAuth2AuthenticationException(new OAuth2Error("invalid_nonce"))));
+        assertEquals("http_404", LtiMetrics.outcome(new HttpClientErrorException(HttpStatus.NOT_FOUND)));
+        assertEquals("IllegalStateException", LtiMetrics.outcome(new IllegalStateException()));
+    }
+
+    @Test
+    public void testAuthorizationRequestMisses() {
+        OptimisticAuthorizationRequestRepository repository = new OptimisticAuthorizationRequestRepository(
+                new HttpSessionOAuth2AuthorizationRequestRepository(), new StateAuthorizationRequestRepository(Duration.ofMinutes(1)));
+        repository.setMetrics(metrics);
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setParameter("state", "unknown");
+        repository.removeAuthorizationRequest(request, new MockHttpServletResponse());
+
+        assertEquals(1, registry.get("lti.authorization.request.lookup").tag("repository", "state").tag("result", "miss").counter().count());
+        assertEquals(1, registry.get("lti.authorization.request.lookup").tag("repository", "session").tag("result", "miss").counter().count());
+    }
+}
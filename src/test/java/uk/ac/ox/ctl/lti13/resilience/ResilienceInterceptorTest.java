@@ -0,0 +1,171 @@
+package uk.ac.ox.ctl.lti13.resilience;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+import org.springframework.test.web.client.ExpectedCount;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestTemplate;
+import uk.ac.ox.ctl.lti13.OAuth2Interceptor;
+
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.header;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.method;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withStatus;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+public class ResilienceInterceptorTest {
+
+    private static final String URL = "https://platform.test/nrps";
+
+    private ResilienceInterceptor interceptor;
+    private RestTemplate restTemplate;
+    private MockRestServiceServer server;
+    private final List<Long> sleeps = new ArrayList<>();
+    private final List<String> retries = new ArrayList<>();
+    private final AtomicLong now = new AtomicLong();
+
+    @BeforeEach
+    public void setUp() {
+        interceptor = new ResilienceInterceptor();
+        interceptor.sleeper = sleeps::add;
+        interceptor.nanoTime = now::get;
+        interceptor.setRetryListener((request, attempt, delay, reason) -> retries.add(reason));
+        restTemplate = new RestTemplate();
+        restTemplate.getInterceptors().add(interceptor);
+        server = MockRestServiceServer.bindTo(restTemplate).build();
+    }
+
+    @Test
+    public void testRetryAfter() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, "2");
+        server.expect(requestTo(URL)).andRespond(withStatus(HttpStatus.TOO_MANY_REQUESTS).headers(headers));
+        server.expect(requestTo(URL)).andRespond(withSuccess("{}", null));
+
+        assertEquals("{}", restTemplate.getForObject(URL, String.class));
+        server.verify();
+        assertEquals(List.of(2000L), sleeps);
+        assertEquals(List.of("429"), retries);
+    }
+
+    @Test
+    public void testRetryAfterTooLong() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, "3600");
+        server.expect(requestTo(URL)).andRespond(withStatus(HttpStatus.TOO_MANY_REQUESTS).headers(headers));
+
+        assertThrows(HttpClientErrorException.TooManyRequests.class, () -> restTemplate.getForObject(URL, String.class));
+        assertTrue(sleeps.isEmpty());
+    }
+
+    @Test
+    public void testMaxRetryWait() {
+        interceptor.setMaxRetryWait(Duration.ofSeconds(5));
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, "3");
+        server.expect(ExpectedCount.times(2), requestTo(URL)).andRespond(withStatus(HttpStatus.TOO_MANY_REQUESTS).headers(headers));
+
+        // The second wait would take the total over 5 seconds so the response is returned instead.
+        assertThrows(HttpClientErrorException.TooManyRequests.class, () -> restTemplate.getForObject(URL, String.class));
+        server.verify();
+        assertEquals(List.of(3000L), sleeps);
+    }
+
+    @Test
+    public void testRetryKeepsEarlierInterceptors() {
+        // Interceptors after this one are skipped on a retry, but changes made by the ones before it are kept.
+        restTemplate.getInterceptors().add(0, new OAuth2Interceptor(
+                new OAuth2AccessToken(OAuth2AccessToken.TokenType.BEARER, "token", Instant.now(), Instant.now().plusSeconds(60))));
+        server.expect(requestTo(URL)).andExpect(header(HttpHeaders.AUTHORIZATION, "Bearer token"))
+                .andRespond(withStatus(HttpStatus.SERVICE_UNAVAILABLE));
+        server.expect(requestTo(URL)).andExpect(header(HttpHeaders.AUTHORIZATION, "Bearer token"))
+                .andRespond(withSuccess("{}", null));
+
+        assertEquals("{}", restTemplate.getForObject(URL, String.class));
+        server.verify();
+    }
+
+    @Test
+    public void testGivesUp() {
+        server.expect(ExpectedCount.times(3), requestTo(URL)).andRespond(withStatus(HttpStatus.SERVICE_UNAVAILABLE));
+
+        assertThrows(HttpServerErrorException.ServiceUnavailable.class, () -> restTemplate.getForObject(URL, String.class));
+        server.verify();
+        assertEquals(2, sleeps.size());
+        // Full jitter so the wait is never longer than the backoff.
+        assertTrue(sleeps.get(0) <= 200);
+        assertTrue(sleeps.get(1) <= 400);
+    }
+
+    @Test
+    public void testPostNotRetriedAfterConnectionError() {
+        server.expect(requestTo(URL)).andExpect(method(HttpMethod.POST)).andRespond(request -> {
+            throw new SocketTimeoutException();
+        });
+
+        assertThrows(ResourceAccessException.class, () -> restTemplate.postForObject(URL, "", String.class));
+        server.verify();
+        assertTrue(retries.isEmpty());
+    }
+
+    @Test
+    public void testCircuitBreaker() {
+        interceptor.setMaxAttempts(1);
+        interceptor.setCircuitBreaker(2, Duration.ofSeconds(30));
+        server.expect(ExpectedCount.times(2), requestTo(URL)).andRespond(withStatus(HttpStatus.BAD_GATEWAY));
+        assertThrows(HttpServerErrorException.class, () -> restTemplate.getForObject(URL, String.class));
+        assertThrows(HttpServerErrorException.class, () -> restTemplate.getForObject(URL, String.class));
+        server.verify();
+
+        // Now open so nothing gets sent.
+        assertEquals(CircuitBreaker.State.OPEN, interceptor.getCircuitBreakerState("platform.test"));
+        assertThrows(CircuitBreakerOpenException.class, () -> restTemplate.getForObject(URL, String.class));
+
+        // After the open duration a trial request is allowed and closes it again.
+        now.addAndGet(Duration.ofSeconds(30).toNanos());
+        server.reset();
+        server.expect(requestTo(URL)).andRespond(withSuccess("{}", null));
+        assertEquals("{}", restTemplate.getForObject(URL, String.class));
+        assertEquals(CircuitBreaker.State.CLOSED, interceptor.getCircuitBreakerState("platform.test"));
+    }
+
+    @Test
+    public void testRateLimit() {
+        interceptor.setRateLimit("platform.test", 1);
+        interceptor.setMaxRateLimitWait(Duration.ZERO);
+        server.expect(requestTo(URL)).andRespond(withSuccess("{}", null));
+
+        restTemplate.getForObject(URL, String.class);
+        assertThrows(RateLimitExceededException.class, () -> restTemplate.getForObject(URL, String.class));
+    }
+
+    @Test
+    public void testRetryAfterHeader() {
+        HttpHeaders headers = new HttpHeaders();
+        assertNull(ResilienceInterceptor.retryAfter(headers));
+        headers.set(HttpHeaders.RETRY_AFTER, "120");
+        assertEquals(Duration.ofSeconds(120), ResilienceInterceptor.retryAfter(headers));
+        headers.set(HttpHeaders.RETRY_AFTER, "Wed, 21 Oct 2015 07:28:00 GMT");
+        assertEquals(Duration.ZERO, ResilienceInterceptor.retryAfter(headers));
+        headers.set(HttpHeaders.RETRY_AFTER, "soon");
+        assertNull(ResilienceInterceptor.retryAfter(headers));
+    }
+}
@@ -0,0 +1,103 @@
+package uk.ac.ox.ctl.lti13.security.oauth2.client.lti.authentication;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.oauth2.core.oidc.OidcIdToken;
+import org.springframework.security.oauth2.core.oidc.user.OidcUserAuthority;
+import uk.ac.ox.ctl.lti13.lti.Claims;
+import uk.ac.ox.ctl.lti13.lti.ContextTypes;
+import uk.ac.ox.ctl.lti13.lti.LtiRole;
+import uk.ac.ox.ctl.lti13.lti.Role;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LtiRoleAuthoritiesMapperTest {
+
+    private final LtiRoleAuthoritiesMapper mapper = LtiRoleAuthoritiesMapper.builder()
+            .role(LtiRole.CONTEXT_INSTRUCTOR, "ROLE_INSTRUCTOR", "ROLE_STAFF")
+            .role(LtiRole.INSTITUTION_STAFF, "ROLE_STAFF")
+            .role(LtiRole.CONTEXT_LEARNER, "ROLE_LEARNER")
+            .contextType(ContextTypes.GROUP, "ROLE_GROUP")
+            .build();
+
+    private final LtiRoleAuthoritiesMapper allRoles = allRoles();
+
+    private static LtiRoleAuthoritiesMapper allRoles() {
+        LtiRoleAuthoritiesMapper.Builder builder = LtiRoleAuthoritiesMapper.builder();
+        for (LtiRole role : LtiRole.values()) {
+            builder.role(role, "ROLE_" + role.name());
+        }
+        return builder.build();
+    }
+
+    private static OidcUserAuthority authority(Map<String, Object> claims) {
+        return new OidcUserAuthority(new OidcIdToken("token", Instant.now(), Instant.now().plusSeconds(60), claims));
+    }
+
+    @Test
+    public void testMapping() {
+        OidcUserAuthority authority = authority(Map.of(
+                "sub", "user",
+                Claims.ROLES, List.of(Role.Context.INSTRUCTOR, "urn:lti:instrole:ims/lis/Staff"),
+                Claims.CONTEXT, Map.of("id", "context", "type", List.of("Group"))
+        ));
+        Collection<? extends GrantedAuthority> authorities = mapper.mapAuthorities(List.of(authority));
+        assertEquals(Set.of(authority, new SimpleGrantedAuthority("ROLE_INSTRUCTOR"), new SimpleGrantedAuthority("ROLE_STAFF"),
+                new SimpleGrantedAuthority("ROLE_GROUP")), Set.copyOf(authorities));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testOnlyIdTokenAuthority() {
+        OidcUserAuthority authority = authority(Map.of("sub", "user", Claims.ROLES, List.of(Role.Context.INSTRUCTOR)));
+        Collection<? extends GrantedAuthority> authorities = mapper.mapAuthorities(Set.of(authority));
+        assertEquals(List.of(authority, new SimpleGrantedAuthority("ROLE_INSTRUCTOR"), new SimpleGrantedAuthority("ROLE_STAFF")),
+                List.copyOf(authorities));
+        assertThrows(UnsupportedOperationException.class, () -> ((Collection<GrantedAuthority>) authorities).add(authority));
+    }
+
+    @Test
+    public void testAllCombinations() {
+        // More combinations than are kept, so some replace others.
+        LtiRole[] roles = LtiRole.values();
+        for (int i = 0; i < 2048; i++) {
+            List<String> launchRoles = new ArrayList<>();
+            Set<GrantedAuthority> expected = new HashSet<>();
+            for (int bit = 0; bit < 11; bit++) {
+                if ((i & (1 << bit)) != 0) {
+                    launchRoles.add(roles[bit].getUri());
+                    expected.add(new SimpleGrantedAuthority("ROLE_" + roles[bit].name()));
+                }
+            }
+            assertEquals(expected, allRoles.getAuthorities(Map.of(Claims.ROLES, launchRoles)));
+        }
+    }
+
+    @Test
+    public void testUnmapped() {
+        OidcUserAuthority authority = authority(Map.of("sub", "user", Claims.ROLES, List.of("http://example.com/role")));
+        List<OidcUserAuthority> authorities = List.of(authority);
+        assertSame(authorities, mapper.mapAuthorities(authorities));
+        assertTrue(mapper.getAuthorities(Map.of()).isEmpty());
+    }
+
+    @Test
+    public void testReused() {
+        Map<String, Object> claims = Map.of(Claims.ROLES, List.of("Learner"));
+        Set<GrantedAuthority> authorities = mapper.getAuthorities(claims);
+        assertEquals(Set.of(new SimpleGrantedAuthority("ROLE_LEARNER")), authorities);
+        assertSame(authorities, mapper.getAuthorities(Map.of(Claims.ROLES, List.of(Role.Context.LEARNER))));
+    }
+}
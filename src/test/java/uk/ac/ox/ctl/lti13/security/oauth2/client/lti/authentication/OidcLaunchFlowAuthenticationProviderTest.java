@@ -0,0 +1,133 @@
+package uk.ac.ox.ctl.lti13.security.oauth2.client.lti.authentication;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.KeyUse;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.core.endpoint.OAuth2AuthorizationRequest;
+import org.springframework.security.oauth2.core.oidc.user.OidcUserAuthority;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestTemplate;
+import uk.ac.ox.ctl.lti13.lti.Claims;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.LTIAuthorizationGrantType;
+import uk.ac.ox.ctl.lti13.security.oauth2.core.endpoint.OIDCLaunchFlowExchange;
+import uk.ac.ox.ctl.lti13.security.oauth2.core.endpoint.OIDCLaunchFlowResponse;
+import uk.ac.ox.ctl.lti13.security.oauth2.core.user.LtiOauth2User;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+public class OidcLaunchFlowAuthenticationProviderTest {
+
+    private KeyPair keyPair;
+    private ClientRegistration registration;
+    private OidcLaunchFlowAuthenticationProvider provider;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        keyPair = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+        registration = ClientRegistration.withRegistrationId("test")
+                .clientId("test-id")
+                .authorizationGrantType(LTIAuthorizationGrantType.IMPLICIT)
+                .scope("openid")
+                .redirectUri("{baseUrl}/lti/login")
+                .authorizationUri("https://platform.test/auth")
+                .tokenUri("https://platform.test/token")
+                .jwkSetUri("https://platform.test/keys.json")
+                .build();
+        RestTemplate restTemplate = new RestTemplate();
+        MockRestServiceServer server = MockRestServiceServer.bindTo(restTemplate).build();
+        RSAKey jwk = new RSAKey.Builder((RSAPublicKey) keyPair.getPublic())
+                .keyUse(KeyUse.SIGNATURE)
+                .algorithm(JWSAlgorithm.RS256)
+                .keyID("jwt-id")
+                .build();
+        server.expect(requestTo("https://platform.test/keys.json"))
+                .andRespond(withSuccess(new JWKSet(jwk).toString(), MediaType.APPLICATION_JSON));
+        provider = new OidcLaunchFlowAuthenticationProvider();
+        provider.setRestOperations(restTemplate);
+    }
+
+    private OidcLaunchFlowToken launch(String idToken) {
+        return new OidcLaunchFlowToken(registration, new OIDCLaunchFlowExchange(
+                OAuth2AuthorizationRequest.authorizationCode()
+                        .authorizationUri("https://platform.test/auth")
+                        .clientId("test-id")
+                        .scope("openid")
+                        .state("state")
+                        .build(),
+                OIDCLaunchFlowResponse.success(idToken).state("state").build()));
+    }
+
+    private String idToken() throws Exception {
+        JWTClaimsSet claims = new JWTClaimsSet.Builder()
+                .issuer("https://platform.test")
+                .subject("subject")
+                .audience("test-id")
+                .issueTime(new Date())
+                .expirationTime(Date.from(Instant.now().plusSeconds(300)))
+                .claim("nonce", "test-nonce")
+                .claim(Claims.LTI_VERSION, "1.3.0")
+                .claim(Claims.MESSAGE_TYPE, "LtiResourceLinkRequest")
+                .claim(Claims.ROLES, List.of())
+                .claim(Claims.TARGET_LINK_URI, "https://tool.test/")
+                .claim(Claims.LTI_DEPLOYMENT_ID, "1")
+                .claim(Claims.CUSTOM, Map.of("unused", "value"))
+                .build();
+        SignedJWT jwt = new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.RS256).keyID("jwt-id").build(), claims);
+        jwt.sign(new RSASSASigner(keyPair.getPrivate()));
+        return jwt.serialize();
+    }
+
+    @Test
+    public void testRetainedClaimsWithCopyingMapper() throws Exception {
+        // Builds new authorities from the ID token rather than passing the original through.
+        provider.setAuthoritiesMapper(authorities -> {
+            List<GrantedAuthority> mapped = new ArrayList<>();
+            for (GrantedAuthority authority : authorities) {
+                OidcUserAuthority oidcUserAuthority = (OidcUserAuthority) authority;
+                mapped.add(new OidcUserAuthority("ROLE_LTI_USER", oidcUserAuthority.getIdToken(), oidcUserAuthority.getUserInfo()));
+            }
+            mapped.add(new SimpleGrantedAuthority("ROLE_USER"));
+            return mapped;
+        });
+        provider.setRetainedClaims(Set.of(Claims.ROLES));
+
+        OidcLaunchFlowToken result = (OidcLaunchFlowToken) provider.authenticate(launch(idToken()));
+        LtiOauth2User principal = assertInstanceOf(LtiOauth2User.class, result.getPrincipal());
+        assertEquals(LtiOauth2User.RETAINED_CLAIMS_TOKEN_VALUE, principal.getIdToken().getTokenValue());
+        assertFalse(principal.getClaims().containsKey(Claims.CUSTOM));
+        assertEquals(Set.of("ROLE_LTI_USER", "ROLE_USER"), AuthorityUtils.authorityListToSet(result.getAuthorities()));
+        // The copy made by the mapper no longer holds the full ID token.
+        for (GrantedAuthority authority : result.getAuthorities()) {
+            if (authority instanceof OidcUserAuthority oidcUserAuthority) {
+                assertSame(principal.getIdToken(), oidcUserAuthority.getIdToken());
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.client.registration.InMemoryClientRegistrationRepository;
+import org.springframework.security.oauth2.core.endpoint.OAuth2AuthorizationRequest;
+import org.springframework.security.oauth2.core.endpoint.OAuth2ParameterNames;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class AuthorizationRequestCodecTest {
+
+    private static final Instant NOW = Instant.parse("2024-09-01T12:00:00Z");
+
+    private AuthorizationRequestCodec codec;
+
+    @BeforeEach
+    public void setUp() {
+        ClientRegistration registration = ClientRegistration.withRegistrationId("test")
+                .clientId("test-id")
+                .authorizationGrantType(LTIAuthorizationGrantType.IMPLICIT)
+                .scope("openid")
+                .redirectUri("{baseUrl}/lti/login")
+                .authorizationUri("https://platform.test/auth")
+                .tokenUri("https://platform.test/token")
+                .jwkSetUri("https://platform.test/keys.json")
+                .build();
+        codec = new AuthorizationRequestCodec(new InMemoryClientRegistrationRepository(registration));
+        codec.setClock(Clock.fixed(NOW, ZoneOffset.UTC));
+    }
+
+    private static OAuth2AuthorizationRequest.Builder launch(String registrationId) {
+        return OAuth2AuthorizationRequest.authorizationCode()
+                .clientId("test-id")
+                .authorizationUri("https://platform.test/auth")
+                .redirectUri("https://tool.test/lti/login")
+                .scope("openid")
+                .state("state")
+                .additionalParameters(parameters -> {
+                    parameters.put(OAuth2ParameterNames.REGISTRATION_ID, registrationId);
+                    parameters.put(OAuth2ParameterNames.RESPONSE_TYPE, "id_token");
+                    parameters.put("response_mode", "form_post");
+                    parameters.put("prompt", "none");
+                    parameters.put("login_hint", "hint");
+                    parameters.put("nonce", "nonce");
+                    parameters.put("lti_message_hint", "message hint");
+                })
+                .attributes(Map.of(StateAuthorizationRequestRepository.REMOTE_IP, "192.0.2.1"));
+    }
+
+    @Test
+    public void testCompact() {
+        OAuth2AuthorizationRequest original = launch("test").build();
+        byte[] data = codec.encode(original);
+        assertEquals(AuthorizationRequestCodec.FORMAT_COMPACT_V1, data[0]);
+
+        OAuth2AuthorizationRequest decoded = codec.decode(data);
+        assertEquals(original.getState(), decoded.getState());
+        assertEquals(original.getClientId(), decoded.getClientId());
+        assertEquals(original.getAuthorizationUri(), decoded.getAuthorizationUri());
+        assertEquals(original.getRedirectUri(), decoded.getRedirectUri());
+        assertEquals(original.getScopes(), decoded.getScopes());
+        assertEquals(original.getAdditionalParameters(), decoded.getAdditionalParameters());
+        assertEquals("192.0.2.1", decoded.getAttribute(StateAuthorizationRequestRepository.REMOTE_IP));
+        assertEquals(NOW, decoded.getAttribute(AuthorizationRequestCodec.CREATED_AT));
+        // The creation time survives encoding again.
+        codec.setClock(Clock.fixed(NOW.plusSeconds(60), ZoneOffset.UTC));
+        assertEquals(NOW, codec.decode(codec.encode(decoded)).getAttribute(AuthorizationRequestCodec.CREATED_AT));
+    }
+
+    @Test
+    public void testSerializedFallback() {
+        OAuth2AuthorizationRequest original = launch("test").additionalParameters(parameters -> parameters.put("extra", "value")).build();
+        byte[] data = codec.encode(original);
+        assertEquals(AuthorizationRequestCodec.FORMAT_SERIALIZED, data[0]);
+        assertEquals(original.getAdditionalParameters(), codec.decode(data).getAdditionalParameters());
+    }
+
+    @Test
+    public void testMissingRegistration() {
+        assertNull(codec.decode(codec.encode(launch("unknown").build())));
+    }
+
+    @Test
+    public void testUnknownFormat() {
+        assertThrows(IllegalArgumentException.class, () -> codec.decode(new byte[]{99}));
+    }
+}
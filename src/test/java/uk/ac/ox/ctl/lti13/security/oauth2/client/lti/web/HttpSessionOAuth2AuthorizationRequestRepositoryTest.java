@@ -0,0 +1,215 @@
+package uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockHttpSession;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.client.registration.InMemoryClientRegistrationRepository;
+import org.springframework.security.oauth2.core.endpoint.OAuth2AuthorizationRequest;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class HttpSessionOAuth2AuthorizationRequestRepositoryTest {
+
+    private final MockHttpServletResponse response = new MockHttpServletResponse();
+    private HttpSessionOAuth2AuthorizationRequestRepository repository;
+    private CountingSession session;
+
+    /**
+     * Counts the writes, the attributes are kept in a concurrent map like a container's session so it can be used
+     * by several threads at once (MockHttpSession's own map isn't thread safe).
+     */
+    private static class CountingSession extends MockHttpSession {
+        private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+        private int writes;
+
+        @Override
+        public Object getAttribute(String name) {
+            return attributes.get(name);
+        }
+
+        @Override
+        public Enumeration<String> getAttributeNames() {
+            return Collections.enumeration(attributes.keySet());
+        }
+
+        @Override
+        public synchronized void setAttribute(String name, Object value) {
+            writes++;
+            if (value == null) {
+                attributes.remove(name);
+            } else {
+                attributes.put(name, value);
+            }
+        }
+
+        @Override
+        public synchronized void removeAttribute(String name) {
+            writes++;
+            attributes.remove(name);
+        }
+    }
+
+    @BeforeEach
+    public void setUp() {
+        repository = new HttpSessionOAuth2AuthorizationRequestRepository();
+        repository.setCompactSessionStorage(true);
+        repository.setMaxConcurrentLogins(2);
+        session = new CountingSession();
+    }
+
+    private MockHttpServletRequest request(String state) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setSession(session);
+        if (state != null) {
+            request.setParameter("state", state);
+        }
+        return request;
+    }
+
+    private static OAuth2AuthorizationRequest authorizationRequest(String state) {
+        return OAuth2AuthorizationRequest.authorizationCode()
+                .authorizationUri("https://platform.test/auth")
+                .clientId("client")
+                .state(state)
+                .build();
+    }
+
+    @Test
+    public void testSessionWrites() {
+        OAuth2AuthorizationRequest one = authorizationRequest("one");
+        repository.saveAuthorizationRequest(one, request(null), response);
+        assertEquals(1, session.writes);
+        // Saving the same request again doesn't change anything.
+        repository.saveAuthorizationRequest(one, request(null), response);
+        assertEquals(1, session.writes);
+
+        assertSame(one, repository.loadAuthorizationRequest(request("one")));
+        assertEquals(1, session.writes);
+
+        // An unknown state doesn't write to the session.
+        assertNull(repository.removeAuthorizationRequest(request("unknown"), response));
+        assertEquals(1, session.writes);
+
+        assertSame(one, repository.removeAuthorizationRequest(request("one"), response));
+        assertEquals(2, session.writes);
+        // It's left in the session in case another launch is using it.
+        assertTrue(assertInstanceOf(AuthorizationRequests.class, session.getAttribute(sessionAttributeName())).isEmpty());
+    }
+
+    @Test
+    public void testCodecSessionWrites() {
+        repository.setAuthorizationRequestCodec(codec());
+        OAuth2AuthorizationRequest one = authorizationRequest("one");
+        repository.saveAuthorizationRequest(one, request(null), response);
+        assertEquals(1, session.writes);
+        // Each encoding is a new array, but as the contents are the same nothing is written.
+        repository.saveAuthorizationRequest(one, request(null), response);
+        assertEquals(1, session.writes);
+        assertEquals("one", repository.loadAuthorizationRequest(request("one")).getState());
+    }
+
+    @Test
+    public void testCorruptValueIgnored() {
+        repository.setAuthorizationRequestCodec(codec());
+        AuthorizationRequests stored = new AuthorizationRequests();
+        stored.put("one", new byte[]{(byte) 99, 1, 2, 3}, 2);
+        session.setAttribute(sessionAttributeName(), stored);
+        assertNull(repository.loadAuthorizationRequest(request("one")));
+        assertNull(repository.removeAuthorizationRequest(request("one"), response));
+        // It was still removed so it isn't tried again.
+        assertTrue(stored.isEmpty());
+    }
+
+    @Test
+    public void testOldestRemoved() {
+        repository.saveAuthorizationRequest(authorizationRequest("one"), request(null), response);
+        repository.saveAuthorizationRequest(authorizationRequest("two"), request(null), response);
+        repository.saveAuthorizationRequest(authorizationRequest("three"), request(null), response);
+        assertNull(repository.loadAuthorizationRequest(request("one")));
+        assertEquals("two", repository.loadAuthorizationRequest(request("two")).getState());
+        assertEquals("three", repository.loadAuthorizationRequest(request("three")).getState());
+        AuthorizationRequests stored = assertInstanceOf(AuthorizationRequests.class, session.getAttribute(sessionAttributeName()));
+        assertEquals(2, stored.size());
+    }
+
+    @Test
+    public void testExistingValueConverted() {
+        OAuth2AuthorizationRequest one = authorizationRequest("one");
+        session.setAttribute(sessionAttributeName(), one);
+        assertSame(one, repository.loadAuthorizationRequest(request("one")));
+        repository.saveAuthorizationRequest(authorizationRequest("two"), request(null), response);
+        assertInstanceOf(AuthorizationRequests.class, session.getAttribute(sessionAttributeName()));
+        assertSame(one, repository.loadAuthorizationRequest(request("one")));
+    }
+
+    @Test
+    public void testLegacyValueConvertedOnce() {
+        OAuth2AuthorizationRequest one = authorizationRequest("one");
+        session.setAttribute(sessionAttributeName(), one);
+        assertSame(one, repository.loadAuthorizationRequest(request("one")));
+        // The converted value is stored so everything after shares it.
+        AuthorizationRequests converted = assertInstanceOf(AuthorizationRequests.class, session.getAttribute(sessionAttributeName()));
+        repository.saveAuthorizationRequest(authorizationRequest("two"), request(null), response);
+        assertSame(converted, session.getAttribute(sessionAttributeName()));
+        assertEquals(2, converted.size());
+    }
+
+    @Test
+    public void testConcurrentLaunches() throws Exception {
+        repository.setCompactSessionStorage(false);
+        repository.setMaxConcurrentLogins(100);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<OAuth2AuthorizationRequest>> launches = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                String state = "state-" + i;
+                launches.add(executor.submit(() -> {
+                    repository.saveAuthorizationRequest(authorizationRequest(state), request(null), new MockHttpServletResponse());
+                    Thread.yield();
+                    return repository.removeAuthorizationRequest(request(state), new MockHttpServletResponse());
+                }));
+            }
+            for (int i = 0; i < launches.size(); i++) {
+                assertEquals("state-" + i, launches.get(i).get().getState());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static AuthorizationRequestCodec codec() {
+        ClientRegistration registration = ClientRegistration.withRegistrationId("test")
+                .clientId("client")
+                .authorizationGrantType(LTIAuthorizationGrantType.IMPLICIT)
+                .redirectUri("{baseUrl}/lti/login")
+                .authorizationUri("https://platform.test/auth")
+                .build();
+        AuthorizationRequestCodec codec = new AuthorizationRequestCodec(new InMemoryClientRegistrationRepository(registration));
+        codec.setClock(Clock.fixed(Instant.parse("2024-09-01T12:00:00Z"), ZoneOffset.UTC));
+        return codec;
+    }
+
+    private static String sessionAttributeName() {
+        return HttpSessionOAuth2AuthorizationRequestRepository.class.getName() + ".AUTHORIZATION_REQUEST";
+    }
+}
@@ -0,0 +1,110 @@
+package uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web;
+
+import com.nimbusds.jose.jwk.JWKSet;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import uk.ac.ox.ctl.lti13.RotatingKeyPairService;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class JWKSetFilterTest {
+
+    private RotatingKeyPairService keyPairService;
+    private JWKSetFilter filter;
+
+    @BeforeEach
+    public void setUp() {
+        keyPairService = new RotatingKeyPairService();
+        filter = new JWKSetFilter("/.well-known/jwks.json", keyPairService);
+    }
+
+    @Test
+    public void testPublishesCurrentAndNext() throws Exception {
+        keyPairService.getKeyPair("test");
+        MockHttpServletResponse response = perform(null);
+        assertEquals(200, response.getStatus());
+        JWKSet jwkSet = JWKSet.parse(response.getContentAsString());
+        assertEquals(2, jwkSet.getKeys().size());
+        assertNotNull(jwkSet.getKeyByKeyId(keyPairService.getKeyId("test")));
+        assertTrue(jwkSet.getKeys().stream().noneMatch(key -> key.isPrivate()));
+        assertNotNull(response.getHeader("Cache-Control"));
+    }
+
+    @Test
+    public void testNotModified() throws Exception {
+        keyPairService.getKeyPair("test");
+        String etag = perform(null).getHeader("ETag");
+        MockHttpServletResponse response = perform(etag);
+        assertEquals(304, response.getStatus());
+        assertEquals(0, response.getContentLength());
+    }
+
+    @Test
+    public void testIfNoneMatchList() throws Exception {
+        keyPairService.getKeyPair("test");
+        String etag = perform(null).getHeader("ETag");
+        assertEquals(304, perform("\"other\", W/" + etag).getStatus());
+        assertEquals(304, perform("*").getStatus());
+        // Only whole entity tags match.
+        assertEquals(200, perform("\"other\"").getStatus());
+        assertEquals(200, perform("\"" + etag.substring(1, etag.length() - 2) + "\"").getStatus());
+    }
+
+    @Test
+    public void testVersion() {
+        long version = keyPairService.getVersion();
+        keyPairService.getKeyPair("test");
+        assertEquals(version + 1, keyPairService.getVersion());
+        // Using the keys again doesn't change what's published.
+        keyPairService.getKeyId("test");
+        assertEquals(version + 1, keyPairService.getVersion());
+        // Rotating a registration without keys just creates them.
+        keyPairService.rotate("other");
+        assertEquals(version + 2, keyPairService.getVersion());
+        assertEquals(4, keyPairService.getJWKSet().getKeys().size());
+    }
+
+    @Test
+    public void testRotationChangesETag() throws Exception {
+        String oldKeyId = keyPairService.getKeyId("test");
+        String etag = perform(null).getHeader("ETag");
+        keyPairService.rotate("test");
+        MockHttpServletResponse response = perform(etag);
+        assertEquals(200, response.getStatus());
+        assertNotEquals(etag, response.getHeader("ETag"));
+        JWKSet jwkSet = JWKSet.parse(response.getContentAsString());
+        // Previous, current and next.
+        assertEquals(3, jwkSet.getKeys().size());
+        assertNotNull(jwkSet.getKeyByKeyId(oldKeyId));
+        assertNotEquals(oldKeyId, keyPairService.getKeyId("test"));
+    }
+
+    @Test
+    public void testOtherPathsPassThrough() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/other");
+        request.setServletPath("/other");
+        MockFilterChain chain = new MockFilterChain();
+        filter.doFilter(request, new MockHttpServletResponse(), chain);
+        assertNotNull(chain.getRequest());
+    }
+
+    private MockHttpServletResponse perform(String ifNoneMatch) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/.well-known/jwks.json");
+        request.setServletPath("/.well-known/jwks.json");
+        if (ifNoneMatch != null) {
+            request.addHeader("If-None-Match", ifNoneMatch);
+        }
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        MockFilterChain chain = new MockFilterChain();
+        filter.doFilter(request, response, chain);
+        assertNull(chain.getRequest());
+        return response;
+    }
+}
@@ -0,0 +1,129 @@
+package uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.client.registration.InMemoryClientRegistrationRepository;
+import org.springframework.security.oauth2.core.endpoint.OAuth2AuthorizationRequest;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.util.UriComponents;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class OIDCInitiatingLoginRequestResolverTest {
+
+    private OIDCInitiatingLoginRequestResolver resolver;
+
+    @BeforeEach
+    public void setUp() {
+        ClientRegistration registration = ClientRegistration.withRegistrationId("test")
+                .clientId("test id")
+                .authorizationGrantType(LTIAuthorizationGrantType.IMPLICIT)
+                .scope("openid")
+                .redirectUri("{baseUrl}/lti/login")
+                .authorizationUri("https://platform.test/auth/new?tenant=1")
+                .tokenUri("https://platform.test/access_tokens")
+                .jwkSetUri("https://platform.test/keys.json")
+                .build();
+        resolver = new OIDCInitiatingLoginRequestResolver(new InMemoryClientRegistrationRepository(registration), "/lti/login_initiation");
+    }
+
+    private MockHttpServletRequest request(String host) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/lti/login_initiation/test");
+        request.setScheme("https");
+        request.setServerName(host);
+        request.setServerPort(443);
+        request.setParameter("iss", "https://platform.test");
+        request.setParameter("login_hint", "hint&more");
+        request.setParameter("lti_message_hint", "message hint");
+        request.setParameter("target_link_uri", "https://tool.test/");
+        return request;
+    }
+
+    @Test
+    public void testAuthorizationRequestUri() {
+        OAuth2AuthorizationRequest authorizationRequest = resolver.resolve(request("tool.test"), "test");
+        assertEquals("https://tool.test/lti/login", authorizationRequest.getRedirectUri());
+        assertEquals("hint&more", authorizationRequest.getAdditionalParameters().get("login_hint"));
+
+        // The URI should have the same parameters as if the builder had created it.
+        OAuth2AuthorizationRequest built = OAuth2AuthorizationRequest.authorizationCode()
+                .clientId(authorizationRequest.getClientId())
+                .authorizationUri(authorizationRequest.getAuthorizationUri())
+                .redirectUri(authorizationRequest.getRedirectUri())
+                .scopes(authorizationRequest.getScopes())
+                .state(authorizationRequest.getState())
+                .additionalParameters(authorizationRequest.getAdditionalParameters())
+                .build();
+        UriComponents expected = UriComponentsBuilder.fromUriString(built.getAuthorizationRequestUri()).build();
+        UriComponents actual = UriComponentsBuilder.fromUriString(authorizationRequest.getAuthorizationRequestUri()).build();
+        assertEquals(expected.getPath(), actual.getPath());
+        MultiValueMap<String, String> expectedParameters = expected.getQueryParams();
+        assertEquals(expectedParameters.toSingleValueMap(), actual.getQueryParams().toSingleValueMap());
+    }
+
+    @Test
+    public void testAuthorizationUriNormalised() {
+        ClientRegistration registration = ClientRegistration.withRegistrationId("test")
+                .clientId("test id")
+                .authorizationGrantType(LTIAuthorizationGrantType.IMPLICIT)
+                .scope("openid")
+                .redirectUri("{baseUrl}/lti/login")
+                .authorizationUri("https://platform.test//auth/new")
+                .tokenUri("https://platform.test/access_tokens")
+                .jwkSetUri("https://platform.test/keys.json")
+                .build();
+        resolver = new OIDCInitiatingLoginRequestResolver(new InMemoryClientRegistrationRepository(registration), "/lti/login_initiation");
+        OAuth2AuthorizationRequest authorizationRequest = resolver.resolve(request("tool.test"), "test");
+
+        OAuth2AuthorizationRequest built = OAuth2AuthorizationRequest.authorizationCode()
+                .clientId(authorizationRequest.getClientId())
+                .authorizationUri(authorizationRequest.getAuthorizationUri())
+                .redirectUri(authorizationRequest.getRedirectUri())
+                .state(authorizationRequest.getState())
+                .build();
+        String expectedPrefix = built.getAuthorizationRequestUri().substring(0, built.getAuthorizationRequestUri().indexOf('?') + 1);
+        assertEquals("https://platform.test/auth/new?", expectedPrefix);
+        assertTrue(authorizationRequest.getAuthorizationRequestUri().startsWith(expectedPrefix));
+    }
+
+    @Test
+    public void testTemplatePerHost() {
+        OAuth2AuthorizationRequest first = resolver.resolve(request("tool.test"), "test");
+        OAuth2AuthorizationRequest second = resolver.resolve(request("tool.test"), "test");
+        OAuth2AuthorizationRequest other = resolver.resolve(request("other.test"), "test");
+        assertNotEquals(first.getState(), second.getState());
+        assertNotEquals(first.getAdditionalParameters().get("nonce"), second.getAdditionalParameters().get("nonce"));
+        assertEquals("https://other.test/lti/login", other.getRedirectUri());
+    }
+
+    @Test
+    public void testTemplateWithNewRegistrationEachLookup() {
+        // Like a repository backed by a database, each lookup returns a new registration.
+        AtomicReference<String> clientId = new AtomicReference<>("test id");
+        resolver = new OIDCInitiatingLoginRequestResolver(registrationId -> ClientRegistration.withRegistrationId(registrationId)
+                .clientId(clientId.get())
+                .authorizationGrantType(LTIAuthorizationGrantType.IMPLICIT)
+                .scope("openid")
+                .redirectUri("{baseUrl}/lti/login")
+                .authorizationUri("https://platform.test/auth/new")
+                .tokenUri("https://platform.test/access_tokens")
+                .jwkSetUri("https://platform.test/keys.json")
+                .build(), "/lti/login_initiation");
+        OAuth2AuthorizationRequest first = resolver.resolve(request("tool.test"), "test");
+        assertEquals("test id", first.getClientId());
+        assertTrue(first.getAuthorizationRequestUri().contains("client_id=test%20id"));
+
+        // A change to the registration is still picked up.
+        clientId.set("changed");
+        OAuth2AuthorizationRequest changed = resolver.resolve(request("tool.test"), "test");
+        assertEquals("changed", changed.getClientId());
+        assertTrue(changed.getAuthorizationRequestUri().contains("client_id=changed"));
+    }
+}
@@ -0,0 +1,176 @@
+package uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import uk.ac.ox.ctl.lti13.CachingClientRegistrationRepository;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class OIDCInitiationRegistrationResolverTest {
+
+    private static MockHttpServletRequest request(String servletPath) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", servletPath);
+        request.setServletPath(servletPath);
+        return request;
+    }
+
+    private static ClientRegistration registration(String registrationId, String issuer, String clientId) {
+        return ClientRegistration.withRegistrationId(registrationId)
+                .clientId(clientId)
+                .authorizationGrantType(LTIAuthorizationGrantType.IMPLICIT)
+                .scope("openid")
+                .redirectUri("{baseUrl}/lti/login")
+                .authorizationUri(issuer + "/auth")
+                .tokenUri(issuer + "/token")
+                .jwkSetUri(issuer + "/keys.json")
+                .issuerUri(issuer)
+                .build();
+    }
+
+    @Test
+    public void testPath() {
+        PathOIDCInitiationRegistrationResolver resolver = new PathOIDCInitiationRegistrationResolver("/lti/login_initiation");
+        assertEquals("test", resolver.resolve(request("/lti/login_initiation/test")));
+        assertNull(resolver.resolve(request("/lti/login_initiation")));
+        assertNull(resolver.resolve(request("/lti/login_initiation/")));
+        assertNull(resolver.resolve(request("/lti/login_initiation/test/more")));
+        assertNull(resolver.resolve(request("/lti/login_initiationtest")));
+        assertNull(resolver.resolve(request("/index.html")));
+
+        // Servlet mapped to /lti/*
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/lti/login_initiation/test");
+        request.setServletPath("/lti");
+        request.setPathInfo("/login_initiation/test");
+        assertEquals("test", resolver.resolve(request));
+    }
+
+    @Test
+    public void testIssuer() {
+        IssuerOIDCInitiationRegistrationResolver resolver = new IssuerOIDCInitiationRegistrationResolver("/lti/login_initiation", List.of(
+                registration("one", "https://one.test", "client-1"),
+                registration("two", "https://two.test", "client-1"),
+                registration("three", "https://two.test", "client-2")));
+
+        MockHttpServletRequest request = request("/lti/login_initiation");
+        request.setParameter("iss", "https://two.test");
+        request.setParameter("client_id", "client-2");
+        assertEquals("three", resolver.resolve(request));
+
+        // Without a client ID it's only found when there's a single registration for the issuer.
+        request.removeParameter("client_id");
+        assertNull(resolver.resolve(request));
+        request.setParameter("iss", "https://one.test");
+        assertEquals("one", resolver.resolve(request));
+
+        MockHttpServletRequest other = request("/other");
+        other.setParameter("iss", "https://one.test");
+        assertNull(resolver.resolve(other));
+    }
+
+    @Test
+    public void testIssuerUpdates() {
+        IssuerOIDCInitiationRegistrationResolver resolver = new IssuerOIDCInitiationRegistrationResolver("/lti/login_initiation");
+        MockHttpServletRequest request = request("/lti/login_initiation");
+        request.setParameter("iss", "https://one.test");
+        assertNull(resolver.resolve(request));
+
+        resolver.register(registration("one", "https://one.test", "client-1"));
+        assertEquals("one", resolver.resolve(request));
+        resolver.register(registration("two", "https://one.test", "client-2"));
+        assertNull(resolver.resolve(request));
+        request.setParameter("client_id", "client-2");
+        assertEquals("two", resolver.resolve(request));
+
+        // Moving a registration to another client ID replaces the old entry.
+        resolver.register(registration("two", "https://one.test", "client-3"));
+        assertNull(resolver.resolve(request));
+        assertThrows(IllegalArgumentException.class, () -> resolver.register(registration("three", "https://one.test", "client-1")));
+
+        resolver.unregister("two");
+        request.removeParameter("client_id");
+        assertEquals("one", resolver.resolve(request));
+
+        // Moving a registration to another issuer.
+        resolver.register(registration("one", "https://two.test", "client-1"));
+        assertNull(resolver.resolve(request));
+        request.setParameter("iss", "https://two.test");
+        assertEquals("one", resolver.resolve(request));
+    }
+
+    @Test
+    public void testReregisterWhileResolving() throws Exception {
+        IssuerOIDCInitiationRegistrationResolver resolver = new IssuerOIDCInitiationRegistrationResolver("/lti/login_initiation",
+                List.of(registration("one", "https://one.test", "client-1")));
+        MockHttpServletRequest request = request("/lti/login_initiation");
+        request.setParameter("iss", "https://one.test");
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread writer = new Thread(() -> {
+            while (running.get()) {
+                resolver.register(registration("one", "https://one.test", "client-1"));
+            }
+        });
+        writer.start();
+        try {
+            // An unchanged registration is never missing from the index while it's registered again.
+            for (int i = 0; i < 100_000; i++) {
+                assertEquals("one", resolver.resolve(request));
+            }
+        } finally {
+            running.set(false);
+            writer.join();
+        }
+    }
+
+    @Test
+    public void testUpdateFromCachingRepository() {
+        Map<String, ClientRegistration> database = new ConcurrentHashMap<>();
+        database.put("one", registration("one", "https://one.test", "client-1"));
+        CachingClientRegistrationRepository repository = new CachingClientRegistrationRepository(database::get);
+        IssuerOIDCInitiationRegistrationResolver resolver = new IssuerOIDCInitiationRegistrationResolver("/lti/login_initiation",
+                List.of(repository.findByRegistrationId("one")));
+        resolver.updateFrom(repository);
+        MockHttpServletRequest request = request("/lti/login_initiation");
+        request.setParameter("iss", "https://one.test");
+        assertEquals("one", resolver.resolve(request));
+
+        // Added, so there are now two registrations for the issuer.
+        database.put("two", registration("two", "https://one.test", "client-2"));
+        repository.invalidate("two");
+        assertNull(resolver.resolve(request));
+        request.setParameter("client_id", "client-2");
+        assertEquals("two", resolver.resolve(request));
+
+        // Changed, everything in the index is looked up again.
+        database.put("two", registration("two", "https://one.test", "client-3"));
+        repository.invalidateAll();
+        assertNull(resolver.resolve(request));
+        request.setParameter("client_id", "client-3");
+        assertEquals("two", resolver.resolve(request));
+
+        // Removed.
+        database.remove("two");
+        repository.invalidate("two");
+        assertNull(resolver.resolve(request));
+        request.removeParameter("client_id");
+        assertEquals("one", resolver.resolve(request));
+    }
+
+    @Test
+    public void testComposite() {
+        OIDCInitiationRegistrationResolver resolver = new CompositeOIDCInitiationRegistrationResolver(
+                new IssuerOIDCInitiationRegistrationResolver("/lti/login_initiation", List.of(registration("one", "https://one.test", "client-1"))),
+                new PathOIDCInitiationRegistrationResolver("/lti/login_initiation"));
+        MockHttpServletRequest request = request("/lti/login_initiation");
+        request.setParameter("iss", "https://one.test");
+        assertEquals("one", resolver.resolve(request));
+        assertEquals("two", resolver.resolve(request("/lti/login_initiation/two")));
+    }
+}
@@ -0,0 +1,208 @@
+package uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.server;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.KeyUse;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseCookie;
+import org.springframework.security.config.web.server.ServerHttpSecurity;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.context.ReactiveSecurityContextHolder;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.client.registration.InMemoryReactiveClientRegistrationRepository;
+import org.springframework.security.web.server.WebFilterChainProxy;
+import org.springframework.security.web.server.context.WebSessionServerSecurityContextRepository;
+import org.springframework.test.web.reactive.server.EntityExchangeResult;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.util.UriComponents;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Mono;
+import uk.ac.ox.ctl.lti13.Lti13ReactiveConfigurer;
+import uk.ac.ox.ctl.lti13.lti.Claims;
+import uk.ac.ox.ctl.lti13.lti.LtiRole;
+import uk.ac.ox.ctl.lti13.lti.Role;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.LTIAuthorizationGrantType;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/**
+ * The whole of a reactive launch: the initiation filter, the converter, the authentication manager (including
+ * fetching the JWK Set), the session and state repositories and the success handler.
+ */
+public class Lti13ReactiveStep3Test {
+
+    private KeyPair platformKeyPair;
+    private KeyPair signingKeyPair;
+    private AtomicInteger jwkSetFetches;
+    private WebTestClient client;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        platformKeyPair = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+        signingKeyPair = platformKeyPair;
+        jwkSetFetches = new AtomicInteger();
+        WebClient webClient = WebClient.builder()
+                .exchangeFunction(request -> {
+                    assertEquals("https://platform.test/keys.json", request.url().toString());
+                    jwkSetFetches.incrementAndGet();
+                    return Mono.just(ClientResponse.create(HttpStatus.OK)
+                            .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                            .body(jwkSet().toString())
+                            .build());
+                })
+                .build();
+
+        ClientRegistration registration = ClientRegistration.withRegistrationId("test")
+                .clientId("test-id")
+                .authorizationGrantType(LTIAuthorizationGrantType.IMPLICIT)
+                .scope("openid")
+                .redirectUri("{baseUrl}/lti/login")
+                .authorizationUri("https://platform.test/auth/new")
+                .tokenUri("https://platform.test/access_tokens")
+                .jwkSetUri("https://platform.test/keys.json")
+                .build();
+        ServerHttpSecurity http = ServerHttpSecurity.http();
+        http.authorizeExchange(exchanges -> exchanges.anyExchange().authenticated());
+        new Lti13ReactiveConfigurer(new InMemoryReactiveClientRegistrationRepository(registration))
+                .webClient(webClient)
+                .securityContextRepository(new WebSessionServerSecurityContextRepository())
+                .roleAuthorities(roles -> roles.role(LtiRole.CONTEXT_INSTRUCTOR, "ROLE_INSTRUCTOR"))
+                .configure(http);
+        // Responds with the user and their authorities.
+        client = WebTestClient.bindToWebHandler(exchange -> ReactiveSecurityContextHolder.getContext()
+                        .map(context -> context.getAuthentication().getName() + " " +
+                                AuthorityUtils.authorityListToSet(context.getAuthentication().getAuthorities()).stream().sorted().toList())
+                        .flatMap(body -> exchange.getResponse().writeWith(Mono.just(exchange.getResponse().bufferFactory()
+                                .wrap(body.getBytes(StandardCharsets.UTF_8))))))
+                .webFilter(new WebFilterChainProxy(http.build()))
+                .build();
+    }
+
+    @Test
+    public void testLaunchWithSession() throws Exception {
+        EntityExchangeResult<byte[]> step1 = step1();
+        UriComponents location = UriComponentsBuilder.fromUri(step1.getResponseHeaders().getLocation()).build();
+        ResponseCookie session = step1.getResponseCookies().getFirst("SESSION");
+        assertNotNull(session);
+
+        // The browser still has the session so the request is found in it and the user is just redirected.
+        EntityExchangeResult<byte[]> step3 = client.post().uri("/lti/login")
+                .cookie(session.getName(), session.getValue())
+                .contentType(MediaType.APPLICATION_FORM_URLENCODED)
+                .body(BodyInserters.fromFormData("id_token", idToken(location.getQueryParams().getFirst("nonce")))
+                        .with("state", location.getQueryParams().getFirst("state")))
+                .exchange()
+                .expectStatus().isFound()
+                .expectHeader().valueEquals(HttpHeaders.LOCATION, "https://tool.test/target")
+                .expectBody().returnResult();
+        assertEquals(1, jwkSetFetches.get());
+
+        // The authentication, with the authority for the role, was saved in the session which has a new ID now the
+        // user has logged in.
+        ResponseCookie authenticated = step3.getResponseCookies().getFirst("SESSION");
+        assertNotNull(authenticated);
+        assertNotEquals(session.getValue(), authenticated.getValue());
+        client.get().uri("/")
+                .cookie(authenticated.getName(), authenticated.getValue())
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class).isEqualTo("subject [OIDC_USER, ROLE_INSTRUCTOR]");
+    }
+
+    @Test
+    public void testLaunchWithoutSession() throws Exception {
+        UriComponents location = UriComponentsBuilder.fromUri(step1().getResponseHeaders().getLocation()).build();
+        String state = location.getQueryParams().getFirst("state");
+        String nonce = location.getQueryParams().getFirst("nonce");
+
+        // Without the session cookie (eg a blocked third party cookie) the request comes from the state repository
+        // and the page checks the state and nonce in the browser.
+        client.post().uri("/lti/login")
+                .contentType(MediaType.APPLICATION_FORM_URLENCODED)
+                .body(BodyInserters.fromFormData("id_token", idToken(nonce)).with("state", state))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class).value(containsString(state))
+                .value(containsString(nonce))
+                .value(containsString("https://tool.test/target"));
+
+        // The state can only be used once.
+        client.post().uri("/lti/login")
+                .contentType(MediaType.APPLICATION_FORM_URLENCODED)
+                .body(BodyInserters.fromFormData("id_token", idToken(nonce)).with("state", state))
+                .exchange()
+                .expectStatus().is4xxClientError();
+    }
+
+    @Test
+    public void testLaunchWrongSignature() throws Exception {
+        UriComponents location = UriComponentsBuilder.fromUri(step1().getResponseHeaders().getLocation()).build();
+        // Signed by a key the platform hasn't published.
+        signingKeyPair = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+        client.post().uri("/lti/login")
+                .contentType(MediaType.APPLICATION_FORM_URLENCODED)
+                .body(BodyInserters.fromFormData("id_token", idToken(location.getQueryParams().getFirst("nonce")))
+                        .with("state", location.getQueryParams().getFirst("state")))
+                .exchange()
+                .expectStatus().is4xxClientError();
+    }
+
+    private EntityExchangeResult<byte[]> step1() {
+        return client.get().uri("/lti/login_initiation/test?iss=https://platform.test&login_hint=hint&target_link_uri=https://tool.test/target")
+                .exchange()
+                .expectStatus().isFound()
+                .expectBody().returnResult();
+    }
+
+    private String idToken(String nonce) throws JOSEException {
+        JWTClaimsSet claims = new JWTClaimsSet.Builder()
+                .issuer("https://platform.test")
+                .subject("subject")
+                .audience("test-id")
+                .issueTime(new Date())
+                .expirationTime(Date.from(Instant.now().plusSeconds(300)))
+                .claim("nonce", nonce)
+                .claim(Claims.LTI_VERSION, "1.3.0")
+                .claim(Claims.MESSAGE_TYPE, "LtiResourceLinkRequest")
+                .claim(Claims.ROLES, List.of(Role.Context.INSTRUCTOR))
+                .claim(Claims.TARGET_LINK_URI, "https://tool.test/target")
+                .claim(Claims.LTI_DEPLOYMENT_ID, "1")
+                .build();
+        SignedJWT jwt = new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.RS256).keyID("jwt-id").build(), claims);
+        jwt.sign(new RSASSASigner(signingKeyPair.getPrivate()));
+        return jwt.serialize();
+    }
+
+    private JWKSet jwkSet() {
+        return new JWKSet(new RSAKey.Builder((RSAPublicKey) platformKeyPair.getPublic())
+                .keyUse(KeyUse.SIGNATURE)
+                .algorithm(JWSAlgorithm.RS256)
+                .keyID("jwt-id")
+                .build());
+    }
+}
@@ -0,0 +1,82 @@
+package uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.server;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.client.registration.InMemoryReactiveClientRegistrationRepository;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.reactive.function.BodyInserters;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.LTIAuthorizationGrantType;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.startsWith;
+
+public class OAuth2AuthorizationRequestRedirectWebFilterTest {
+
+    private WebTestClient client;
+
+    @BeforeEach
+    public void setUp() {
+        String platformUri = "https://platform.test/";
+        ClientRegistration registration = ClientRegistration.withRegistrationId("test")
+                .clientId("test-id")
+                .authorizationGrantType(LTIAuthorizationGrantType.IMPLICIT)
+                .scope("openid")
+                .redirectUri("{baseUrl}/lti/login")
+                .authorizationUri(platformUri+ "/auth/new")
+                .tokenUri(platformUri+ "/access_tokens")
+                .jwkSetUri(platformUri+ "/keys.json")
+                .build();
+        ServerOIDCInitiatingLoginRequestResolver resolver = new ServerOIDCInitiatingLoginRequestResolver(
+                new InMemoryReactiveClientRegistrationRepository(registration), "/lti/login_initiation");
+        OAuth2AuthorizationRequestRedirectWebFilter filter = new OAuth2AuthorizationRequestRedirectWebFilter(resolver);
+        client = WebTestClient.bindToWebHandler(exchange -> {
+                    exchange.getResponse().setStatusCode(HttpStatus.NO_CONTENT);
+                    return exchange.getResponse().setComplete();
+                })
+                .webFilter(filter)
+                .build();
+    }
+
+    @Test
+    public void testOtherPath() {
+        client.get().uri("/other").exchange()
+                .expectStatus().isNoContent();
+    }
+
+    @Test
+    public void testStep1Unknown() {
+        client.post().uri("/lti/login_initiation/unknown").exchange()
+                .expectStatus().isNotFound();
+    }
+
+    @Test
+    public void testStep1Empty() {
+        client.post().uri("/lti/login_initiation/test").exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    public void testStep1Redirect() {
+        client.get().uri("/lti/login_initiation/test?iss=https://test.com&login_hint=hint&target_link_uri=https://localhost/")
+                .exchange()
+                .expectStatus().isFound()
+                .expectHeader().value("Location", startsWith("https://platform.test/auth/new"));
+    }
+
+    @Test
+    public void testStep1Storage() {
+        client.post().uri("/lti/login_initiation/test")
+                .contentType(MediaType.APPLICATION_FORM_URLENCODED)
+                .body(BodyInserters.fromFormData("iss", "https://test.com")
+                        .with("login_hint", "hint")
+                        .with("target_link_uri", "https://localhost/")
+                        .with("lti_storage_target", "_parent"))
+                .exchange()
+                .expectStatus().isOk()
+                // Just check that we're putting the right content in the page.
+                .expectBody(String.class).value(containsString("https://platform.test/auth/"));
+    }
+}
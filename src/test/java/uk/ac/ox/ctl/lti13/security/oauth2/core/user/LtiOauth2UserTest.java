@@ -0,0 +1,115 @@
+package uk.ac.ox.ctl.lti13.security.oauth2.core.user;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.oauth2.core.oidc.OidcIdToken;
+import org.springframework.security.oauth2.core.oidc.user.OidcUserAuthority;
+import uk.ac.ox.ctl.lti13.lti.Claims;
+import uk.ac.ox.ctl.lti13.lti.Role;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.authentication.OidcAuthenticationToken;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LtiOauth2UserTest {
+
+    private static OidcIdToken idToken() {
+        Instant now = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+        Map<String, Object> claims = new LinkedHashMap<>();
+        claims.put("iss", "https://platform.test");
+        claims.put("sub", "user");
+        claims.put("aud", List.of("client"));
+        claims.put("iat", now);
+        claims.put("exp", now.plusSeconds(60));
+        claims.put(Claims.ROLES, List.of(Role.Context.INSTRUCTOR));
+        claims.put(Claims.CONTEXT, Map.of("id", "context", "type", List.of("CourseOffering")));
+        claims.put(Claims.CUSTOM, Map.of("size", 10L, "enabled", true, "ratio", 0.5));
+        return new OidcIdToken("header.payload.signature", now, now.plusSeconds(60), claims);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T roundTrip(T value) throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(value);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return (T) in.readObject();
+        }
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        OidcIdToken idToken = idToken();
+        OidcUserAuthority authority = new OidcUserAuthority(idToken, null);
+        LtiOauth2User user = new LtiOauth2User(Set.of(authority), idToken);
+        OidcAuthenticationToken token = new OidcAuthenticationToken(user,
+                List.of(authority, new SimpleGrantedAuthority("ROLE_INSTRUCTOR")), "registration", "state");
+
+        OidcAuthenticationToken copy = roundTrip(token);
+        LtiOauth2User principal = assertInstanceOf(LtiOauth2User.class, copy.getPrincipal());
+        assertEquals(idToken.getTokenValue(), principal.getIdToken().getTokenValue());
+        assertEquals(idToken.getClaims(), principal.getClaims());
+        assertEquals("user", principal.getName());
+        assertEquals("registration", copy.getAuthorizedClientRegistrationId());
+        assertEquals("state", copy.getState());
+        assertTrue(copy.isAuthenticated());
+        assertEquals(token.getAuthorities(), copy.getAuthorities());
+        // The ID token is only read once.
+        GrantedAuthority copyAuthority = copy.getAuthorities().iterator().next();
+        assertSame(principal.getIdToken(), ((OidcUserAuthority) copyAuthority).getIdToken());
+    }
+
+    @Test
+    public void testOldFormat() throws Exception {
+        // Written by the version of the library before the principal had its own serialized form.
+        OidcAuthenticationToken token;
+        try (ObjectInputStream in = new ObjectInputStream(getClass().getResourceAsStream("old-authentication-token.ser"))) {
+            token = (OidcAuthenticationToken) in.readObject();
+        }
+        LtiOauth2User principal = assertInstanceOf(LtiOauth2User.class, token.getPrincipal());
+        assertEquals("header.payload.signature", principal.getIdToken().getTokenValue());
+        assertEquals("user", principal.getName());
+        assertEquals("nonce-value", principal.getIdToken().getNonce());
+        assertEquals("registration", token.getAuthorizedClientRegistrationId());
+        assertEquals("state", token.getState());
+        assertEquals(Set.of("OIDC_USER", "ROLE_INSTRUCTOR"), AuthorityUtils.authorityListToSet(token.getAuthorities()));
+
+        // Once read it is written in the new form.
+        OidcAuthenticationToken copy = roundTrip(token);
+        assertEquals(principal.getClaims(), ((LtiOauth2User) copy.getPrincipal()).getClaims());
+    }
+
+    @Test
+    public void testRetainClaims() throws Exception {
+        Map<String, Object> claims = new LinkedHashMap<>(idToken().getClaims());
+        claims.put("nonce", "nonce-value");
+        claims.put(Claims.TARGET_LINK_URI, "https://tool.test/");
+        OidcIdToken idToken = new OidcIdToken("header.payload.signature", idToken().getIssuedAt(), idToken().getExpiresAt(), claims);
+        OidcIdToken retained = LtiOauth2User.retainClaims(idToken, Set.of(Claims.ROLES));
+        assertEquals(LtiOauth2User.RETAINED_CLAIMS_TOKEN_VALUE, retained.getTokenValue());
+        // The nonce and target link URI are needed by the success handlers so are always kept.
+        assertEquals(Set.of("iss", "sub", "aud", "iat", "exp", "nonce", Claims.TARGET_LINK_URI, Claims.ROLES), retained.getClaims().keySet());
+        assertFalse(retained.getClaims().containsKey(Claims.CUSTOM));
+
+        LtiOauth2User user = roundTrip(new LtiOauth2User(Set.of(new OidcUserAuthority(retained, null)), retained));
+        assertEquals(retained.getClaims(), user.getClaims());
+    }
+}
@@ -0,0 +1,127 @@
+package uk.ac.ox.ctl.lti13.tracing;
+
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.propagation.W3CTraceContextPropagator;
+import io.opentelemetry.context.propagation.ContextPropagators;
+import io.opentelemetry.sdk.OpenTelemetrySdk;
+import io.opentelemetry.sdk.testing.exporter.InMemorySpanExporter;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SimpleSpanProcessor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.mock.http.client.MockClientHttpResponse;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestTemplate;
+import uk.ac.ox.ctl.lti13.OAuth2Interceptor;
+import uk.ac.ox.ctl.lti13.SingleKeyPairService;
+import uk.ac.ox.ctl.lti13.TokenRetriever;
+import uk.ac.ox.ctl.lti13.nrps.LtiScopes;
+import uk.ac.ox.ctl.lti13.security.oauth2.client.lti.web.LTIAuthorizationGrantType;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPairGenerator;
+import java.time.Instant;
+import java.util.List;
+
+import static org.hamcrest.Matchers.notNullValue;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.header;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withStatus;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+public class TracingInterceptorTest {
+
+    private InMemorySpanExporter exporter;
+    private OpenTelemetrySdk openTelemetry;
+    private RestTemplate restTemplate;
+    private MockRestServiceServer server;
+
+    @BeforeEach
+    public void setUp() {
+        exporter = InMemorySpanExporter.create();
+        openTelemetry = OpenTelemetrySdk.builder()
+                .setTracerProvider(SdkTracerProvider.builder().addSpanProcessor(SimpleSpanProcessor.create(exporter)).build())
+                .setPropagators(ContextPropagators.create(W3CTraceContextPropagator.getInstance()))
+                .build();
+        restTemplate = new RestTemplate();
+        restTemplate.getInterceptors().add(new TracingInterceptor(openTelemetry, LtiTracing.NRPS_SPAN));
+        OAuth2AccessToken token = new OAuth2AccessToken(OAuth2AccessToken.TokenType.BEARER, "token", Instant.now(), Instant.now().plusSeconds(60));
+        restTemplate.getInterceptors().add(new OAuth2Interceptor(token));
+        server = MockRestServiceServer.bindTo(restTemplate).build();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        openTelemetry.close();
+    }
+
+    @Test
+    public void testSuccess() {
+        server.expect(requestTo("https://platform.test:8443/nrps/1?rlid=2"))
+                .andExpect(header("traceparent", notNullValue()))
+                .andExpect(header(HttpHeaders.AUTHORIZATION, "Bearer token"))
+                .andRespond(withSuccess("{}", MediaType.APPLICATION_JSON));
+        restTemplate.getForObject("https://platform.test:8443/nrps/1?rlid=2", String.class);
+        server.verify();
+
+        List<SpanData> spans = exporter.getFinishedSpanItems();
+        assertEquals(1, spans.size());
+        SpanData span = spans.get(0);
+        assertEquals(LtiTracing.NRPS_SPAN, span.getName());
+        assertEquals(SpanKind.CLIENT, span.getKind());
+        assertEquals("GET", span.getAttributes().get(TracingInterceptor.HTTP_REQUEST_METHOD));
+        assertEquals("https://platform.test:8443/nrps/1", span.getAttributes().get(TracingInterceptor.URL_FULL));
+        assertEquals("platform.test", span.getAttributes().get(TracingInterceptor.SERVER_ADDRESS));
+        assertEquals(8443L, span.getAttributes().get(TracingInterceptor.SERVER_PORT));
+        assertEquals(200L, span.getAttributes().get(TracingInterceptor.HTTP_RESPONSE_STATUS_CODE));
+        assertEquals(StatusCode.UNSET, span.getStatus().getStatusCode());
+    }
+
+    @Test
+    public void testErrorStatus() {
+        server.expect(requestTo("https://platform.test/nrps/1"))
+                .andRespond(withStatus(HttpStatus.FORBIDDEN));
+        assertThrows(HttpClientErrorException.class, () -> restTemplate.getForObject("https://platform.test/nrps/1", String.class));
+
+        SpanData span = exporter.getFinishedSpanItems().get(0);
+        assertEquals(403L, span.getAttributes().get(TracingInterceptor.HTTP_RESPONSE_STATUS_CODE));
+        assertEquals(443L, span.getAttributes().get(TracingInterceptor.SERVER_PORT));
+        assertEquals(StatusCode.ERROR, span.getStatus().getStatusCode());
+    }
+
+    @Test
+    public void testTokenSigning() throws Exception {
+        TokenRetriever tokenRetriever = new TokenRetriever(new SingleKeyPairService(KeyPairGenerator.getInstance("RSA").generateKeyPair(), "key-id"));
+        LtiTracing.instrument(openTelemetry, tokenRetriever);
+        // Answer the token request without going to the network.
+        tokenRetriever.addInterceptor((request, body, execution) -> {
+            MockClientHttpResponse response = new MockClientHttpResponse(
+                    "{\"access_token\": \"token\", \"token_type\": \"Bearer\"}".getBytes(StandardCharsets.UTF_8), HttpStatus.OK);
+            response.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+            return response;
+        });
+        ClientRegistration registration = ClientRegistration.withRegistrationId("test")
+                .clientId("test-id")
+                .authorizationGrantType(LTIAuthorizationGrantType.IMPLICIT)
+                .redirectUri("{baseUrl}/lti/login")
+                .authorizationUri("https://platform.test/auth")
+                .tokenUri("https://platform.test/token")
+                .build();
+        tokenRetriever.getToken(registration, LtiScopes.LTI_NRPS_SCOPE);
+
+        List<SpanData> spans = exporter.getFinishedSpanItems();
+        assertEquals(List.of(LtiTracing.TOKEN_SIGN_SPAN, LtiTracing.TOKEN_SPAN), spans.stream().map(SpanData::getName).toList());
+        assertEquals("test", spans.get(0).getAttributes().get(LtiTracing.REGISTRATION_ID));
+    }
+}
@@ -0,0 +1,31 @@
+package uk.ac.ox.ctl.lti13.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class StripedStringKeyGeneratorTest {
+
+	@Test
+	public void testKeys() {
+		StripedStringKeyGenerator generator = new StripedStringKeyGenerator();
+		Set<String> keys = ConcurrentHashMap.newKeySet();
+		IntStream.range(0, 10_000).parallel().forEach(i -> keys.add(generator.generateKey()));
+		assertEquals(10_000, keys.size());
+		for (String key : keys) {
+			assertEquals(22, key.length());
+			assertTrue(key.matches("[A-Za-z0-9_-]+"), key);
+		}
+	}
+
+	@Test
+	public void testKeyLength() {
+		assertEquals(11, new StripedStringKeyGenerator(8, 1).generateKey().length());
+		assertEquals(43, new StripedStringKeyGenerator(32, 1).generateKey().length());
+	}
+}